@@ -0,0 +1,224 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.sentinel2.angles.AngleGrid;
+import ro.cs.products.sentinel2.angles.FillAnglesMethod;
+import ro.cs.products.sentinel2.angles.MetaGrid;
+import ro.cs.products.sentinel2.angles.MetadataRepairer;
+import ro.cs.products.sentinel2.angles.XmlAnglesReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of repairing the angles of a tile: the parsing and the whole repair of a synthetic tile metadata
+ * file (4 detectors, one grid missing), the gap filling of the meta grid and the formatting of the grids,
+ * the last two against the former per-pixel implementations.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar AnglesBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AnglesBenchmark {
+    private static final int[] BANDS_ORDER = { 1, 7, 2, 3, 4, 5, 6, 12, 0, 8, 9, 10, 11 };
+    private static final int DETECTORS = 4;
+
+    private Path folder;
+    private Path tileFile;
+    private Path repairedFile;
+    private double[][][][] grids;
+    private boolean[][] missing;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        this.grids = new double[12][13][23][23];
+        this.missing = new boolean[12][13];
+        for (int detector = 0; detector < 12; detector++) {
+            for (int band = 0; band < 13; band++) {
+                this.missing[detector][band] = detector >= DETECTORS || (band == 4 && detector == 1);
+                for (int row = 0; row < 23; row++) {
+                    for (int col = 0; col < 23; col++) {
+                        boolean covered = col >= detector * 5 && col < detector * 5 + 8;
+                        this.grids[detector][band][row][col] = covered ? 5 + detector + random.nextDouble() : Double.NaN;
+                    }
+                }
+            }
+        }
+        this.folder = Files.createTempDirectory("angles");
+        this.tileFile = folder.resolve("MTD_TL.xml");
+        this.repairedFile = folder.resolve("MTD_TL.repaired.xml");
+        Files.write(this.tileFile, tileMetadata(), StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(this.tileFile);
+        Files.deleteIfExists(this.repairedFile);
+        Files.deleteIfExists(this.folder);
+    }
+
+    @Benchmark
+    public Map<String, MetaGrid> parseTile() {
+        return XmlAnglesReader.parse(this.tileFile);
+    }
+
+    @Benchmark
+    public boolean repairTile() throws IOException {
+        return MetadataRepairer.repair(this.tileFile, this.repairedFile, FillAnglesMethod.INTERPOLATE);
+    }
+
+    @Benchmark
+    public void fillGaps(Blackhole blackhole) {
+        MetaGrid metaGrid = new MetaGrid(BANDS_ORDER, 23, 23);
+        for (int detector = 0; detector < 12; detector++) {
+            for (int band = 0; band < 13; band++) {
+                if (!this.missing[detector][band]) {
+                    AngleGrid grid = new AngleGrid();
+                    for (int row = 0; row < 23; row++) {
+                        grid.setRowValues(row, this.grids[detector][band][row]);
+                    }
+                    metaGrid.addGrid(detector + 1, BANDS_ORDER[band], grid);
+                }
+            }
+        }
+        metaGrid.setFillMethod(FillAnglesMethod.INTERPOLATE);
+        blackhole.consume(metaGrid.fillGaps());
+    }
+
+    @Benchmark
+    public void fillGapsPerPixel(Blackhole blackhole) {
+        // former layout: one double[23][23] per grid, a new double[] per pixel
+        double[][][][] data = new double[12][13][][];
+        for (int detector = 0; detector < 12; detector++) {
+            for (int band = 0; band < 13; band++) {
+                data[detector][band] = new double[23][];
+                for (int row = 0; row < 23; row++) {
+                    data[detector][band][row] = new double[23];
+                    if (this.missing[detector][band]) {
+                        Arrays.fill(data[detector][band][row], Double.NaN);
+                    } else {
+                        System.arraycopy(this.grids[detector][band][row], 0, data[detector][band][row], 0, 23);
+                    }
+                }
+            }
+        }
+        for (int detector = 0; detector < 12; detector++) {
+            for (int row = 0; row < 23; row++) {
+                double[] values = new double[13];
+                for (int col = 0; col < 23; col++) {
+                    for (int band = 0; band < 13; band++) {
+                        values[band] = data[detector][band][row][col];
+                    }
+                    values = MetaGrid.interpolate(values);
+                    for (int band = 0; band < 13; band++) {
+                        data[detector][band][row][col] = values[band];
+                    }
+                }
+            }
+        }
+        blackhole.consume(data);
+    }
+
+    @Benchmark
+    public void formatGrids(Blackhole blackhole) {
+        AngleGrid grid = new AngleGrid();
+        for (int band = 0; band < 13; band++) {
+            for (int row = 0; row < 23; row++) {
+                grid.setRowValues(row, this.grids[0][band][row]);
+            }
+            blackhole.consume(grid.toString());
+        }
+    }
+
+    @Benchmark
+    public void formatGridsWithFormatter(Blackhole blackhole) {
+        for (int band = 0; band < 13; band++) {
+            StringBuilder buffer = new StringBuilder();
+            for (int row = 0; row < 23; row++) {
+                String result = "";
+                for (double value : this.grids[0][band][row]) {
+                    result += (Double.isNaN(value) ? "NaN" : String.format("%.3f", value)) + " ";
+                }
+                buffer.append(result.trim());
+            }
+            blackhole.consume(buffer.toString());
+        }
+    }
+
+    private List<String> tileMetadata() {
+        List<String> lines = new ArrayList<>();
+        lines.add("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        lines.add("<n1:Level-1C_Tile_ID xmlns:n1=\"https://psd-14.sentinel2.eo.esa.int/PSD/S2_PDI_Level-1C_Tile_Metadata.xsd\">");
+        lines.add("  <n1:Geometric_Info>");
+        lines.add("    <Tile_Angles>");
+        for (int detector = 0; detector < DETECTORS; detector++) {
+            for (int band = 0; band < 13; band++) {
+                if (this.missing[detector][band]) {
+                    continue;
+                }
+                lines.add("      <Viewing_Incidence_Angles_Grids bandId=\"" + BANDS_ORDER[band] + "\" detectorId=\"" + (detector + 1) + "\">");
+                for (String angle : new String[] { "Zenith", "Azimuth" }) {
+                    lines.add("        <" + angle + ">");
+                    lines.add("          <COL_STEP unit=\"m\">5000</COL_STEP>");
+                    lines.add("          <ROW_STEP unit=\"m\">5000</ROW_STEP>");
+                    lines.add("          <Values_List>");
+                    for (int row = 0; row < 23; row++) {
+                        StringBuilder values = new StringBuilder("            <VALUES>");
+                        for (int col = 0; col < 23; col++) {
+                            values.append(col > 0 ? " " : "").append(this.grids[detector][band][row][col]);
+                        }
+                        lines.add(values.append("</VALUES>").toString());
+                    }
+                    lines.add("          </Values_List>");
+                    lines.add("        </" + angle + ">");
+                }
+                lines.add("      </Viewing_Incidence_Angles_Grids>");
+            }
+        }
+        lines.add("      <Mean_Viewing_Incidence_Angle_List>");
+        for (int band = 0; band < 13; band++) {
+            lines.add("        <Mean_Viewing_Incidence_Angle bandId=\"" + band + "\">");
+            lines.add("          <ZENITH_ANGLE unit=\"deg\">6.5</ZENITH_ANGLE>");
+            lines.add("          <AZIMUTH_ANGLE unit=\"deg\">101.5</AZIMUTH_ANGLE>");
+            lines.add("        </Mean_Viewing_Incidence_Angle>");
+        }
+        lines.add("      </Mean_Viewing_Incidence_Angle_List>");
+        lines.add("    </Tile_Angles>");
+        lines.add("  </n1:Geometric_Info>");
+        lines.add("</n1:Level-1C_Tile_ID>");
+        return lines;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(AnglesBenchmark.class.getSimpleName()).build()).run();
+    }
+}
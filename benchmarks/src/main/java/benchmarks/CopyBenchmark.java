@@ -0,0 +1,135 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.util.ParallelCopy;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Measures the copy of a synthetic product (13 random 8MB rasters and 50 small files) from a local archive,
+ * into an empty folder and into an up to date copy, against the former implementation, which copied
+ * every file, one at a time.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar CopyBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyBenchmark {
+
+    @Param({ "1", "4" })
+    private int threads;
+
+    private Path folder;
+    private Path source;
+    private ParallelCopy copier;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        this.folder = Files.createTempDirectory("copy");
+        this.source = Files.createDirectories(folder.resolve("product.SAFE"));
+        Path imgData = Files.createDirectories(source.resolve("GRANULE").resolve("L1C_T34TFQ").resolve("IMG_DATA"));
+        byte[] raster = new byte[8 << 20];
+        for (int band = 1; band <= 13; band++) {
+            random.nextBytes(raster);
+            Files.write(imgData.resolve(String.format("T34TFQ_B%02d.jp2", band)), raster);
+        }
+        byte[] small = new byte[4096];
+        for (int i = 0; i < 50; i++) {
+            random.nextBytes(small);
+            Files.write(source.resolve("file" + i + ".xml"), small);
+        }
+        this.copier = new ParallelCopy(threads);
+        this.copier.copy(source, folder.resolve("current"));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        delete(folder);
+    }
+
+    @Benchmark
+    public int copy() throws IOException {
+        Path target = folder.resolve("copy");
+        try {
+            return copier.copy(source, target).getCopied();
+        } finally {
+            delete(target);
+        }
+    }
+
+    @Benchmark
+    public int copyUpToDate() throws IOException {
+        return copier.copy(source, folder.resolve("current")).getSkipped();
+    }
+
+    @Benchmark
+    public void copySerially() throws IOException {
+        // former implementation: every file copied, one at a time
+        Path target = folder.resolve("serial");
+        try {
+            Files.walkFileTree(source, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                    Files.createDirectories(target.resolve(source.relativize(dir)));
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.copy(file, target.resolve(source.relativize(file)), StandardCopyOption.REPLACE_EXISTING);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } finally {
+            delete(target);
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> files = Files.walk(path)) {
+            Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+            while (iterator.hasNext()) {
+                Files.delete(iterator.next());
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CopyBenchmark.class.getSimpleName()).build()).run();
+    }
+}
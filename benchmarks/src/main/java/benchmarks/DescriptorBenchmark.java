@@ -0,0 +1,125 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.base.ProductDescriptor;
+import ro.cs.products.landsat.LandsatProductDescriptor;
+import ro.cs.products.sentinel2.S2L1CProductDescriptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Measures building descriptors for 100k product names and querying their name attributes
+ * (sensing date, platform, tile, relative path), as search filters do, against the former approach
+ * of matching the name again on every query.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar DescriptorBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DescriptorBenchmark {
+    private static final int NAMES = 100000;
+    private static final Pattern ProductV14 = Pattern.compile("(S2[A-B])_(MSIL1C)_(\\d{8}T\\d{6})_(N\\d{4})_(R\\d{3})_(T\\d{2}\\w{3})_(\\d{8}T\\d{6})(?:.SAFE)?");
+    private static final Pattern ProductV13 = Pattern.compile("(S2[A-B])_(OPER)_(PRD)_(MSIL1C)_(PDMC)_(\\d{8}T\\d{6})_(R\\d{3})_(V\\d{8}T\\d{6})_(\\d{8}T\\d{6})(?:.SAFE)?");
+
+    private List<String> sentinelNames;
+    private List<String> landsatNames;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        this.sentinelNames = new ArrayList<>(NAMES);
+        this.landsatNames = new ArrayList<>(NAMES / 10);
+        for (int i = 0; i < NAMES; i++) {
+            String date = String.format("2017%02d%02dT%02d%02d%02d", 1 + random.nextInt(12), 1 + random.nextInt(28),
+                                        random.nextInt(24), random.nextInt(60), random.nextInt(60));
+            this.sentinelNames.add(String.format("S2%s_MSIL1C_%s_N02%02d_R%03d_T%02d%s_%s.SAFE",
+                                                 random.nextBoolean() ? "A" : "B", date, random.nextInt(10),
+                                                 1 + random.nextInt(143), 1 + random.nextInt(60),
+                                                 "TNL", date));
+        }
+        for (int i = 0; i < NAMES / 10; i++) {
+            this.landsatNames.add(String.format("LC08_L1TP_%03d%03d_2017%02d%02d_20170115_01_T1",
+                                                1 + random.nextInt(233), 1 + random.nextInt(248),
+                                                1 + random.nextInt(12), 1 + random.nextInt(28)));
+        }
+    }
+
+    @Benchmark
+    public void parseOnce(Blackhole blackhole) {
+        for (String name : this.sentinelNames) {
+            S2L1CProductDescriptor descriptor = new S2L1CProductDescriptor(name);
+            blackhole.consume(descriptor.getSensingDate());
+            blackhole.consume(descriptor.getPlatform());
+            blackhole.consume(descriptor.getNameTokens().getTile());
+            blackhole.consume(descriptor.getProductRelativePath());
+        }
+    }
+
+    @Benchmark
+    public void matchPerQuery(Blackhole blackhole) {
+        for (String name : this.sentinelNames) {
+            // name verification, as done by the constructor
+            boolean oldFormat = ProductV13.matcher(name).matches();
+            blackhole.consume(oldFormat || ProductV14.matcher(name).matches());
+            String[] tokens = tokens(name);
+            blackhole.consume(tokens[2].substring(0, 8));
+            tokens = tokens(name);
+            blackhole.consume(tokens[0]);
+            tokens = tokens(name);
+            blackhole.consume(tokens[5].substring(1));
+            tokens = tokens(name);
+            blackhole.consume(tokens[2].substring(0, 4) + "/" + Integer.parseInt(tokens[2].substring(4, 6)) + "/" +
+                                      Integer.parseInt(tokens[2].substring(6, 8)) + "/" + name + "/");
+        }
+    }
+
+    @Benchmark
+    public void landsatSortByDate(Blackhole blackhole) {
+        List<ProductDescriptor> descriptors = new ArrayList<>(this.landsatNames.size());
+        for (String name : this.landsatNames) {
+            descriptors.add(new LandsatProductDescriptor(name));
+        }
+        descriptors.sort((d1, d2) -> Integer.compare(d1.getNameTokens().getSensingDay(), d2.getNameTokens().getSensingDay()));
+        blackhole.consume(descriptors);
+    }
+
+    private static String[] tokens(String name) {
+        Matcher matcher = ProductV14.matcher(name);
+        if (!matcher.matches()) {
+            throw new RuntimeException("Name doesn't match the specifications");
+        }
+        String[] tokens = new String[matcher.groupCount()];
+        for (int i = 0; i < tokens.length; i++) {
+            tokens[i] = matcher.group(i + 1);
+        }
+        return tokens;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DescriptorBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,129 @@
+package benchmarks;
+
+import com.sun.net.httpserver.HttpServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.ProductDownloader;
+import ro.cs.products.base.ProductDescriptor;
+import ro.cs.products.sentinel2.ProductStore;
+import ro.cs.products.util.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the download of a random raster (1MB and 32MB) from an in-process HTTP server, through
+ * {@link ProductDownloader#downloadFile(String, Path)}, with the messages going to a product log,
+ * as during a real download. The loopback transfer leaves the client side (buffers, writes, progress
+ * accounting, metrics) as the dominant cost.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar DownloadBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DownloadBenchmark {
+
+    @Param({ "1", "32" })
+    private int megabytes;
+
+    private HttpServer server;
+    private Path folder;
+    private Path file;
+    private String url;
+    private FileDownloader downloader;
+
+    @Setup
+    public void setUp() throws IOException {
+        byte[] raster = new byte[megabytes << 20];
+        new Random(42).nextBytes(raster);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, raster.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(raster);
+            }
+        });
+        this.server.start();
+        this.url = "http://127.0.0.1:" + this.server.getAddress().getPort() + "/T34TFQ_B01.jp2";
+        this.folder = Files.createTempDirectory("download");
+        this.file = this.folder.resolve("T34TFQ_B01.jp2");
+        this.downloader = new FileDownloader(this.folder);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.downloader.close();
+        this.server.stop(0);
+        Files.deleteIfExists(this.file);
+        Files.deleteIfExists(this.folder.resolve("download.log"));
+        Files.deleteIfExists(this.folder);
+    }
+
+    @Benchmark
+    public long download() throws IOException {
+        Files.deleteIfExists(this.file);
+        return Files.size(this.downloader.download(this.url, this.file));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(DownloadBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * Downloader exposing the transfer of a single file.
+     */
+    private static class FileDownloader extends ProductDownloader<ProductDescriptor> {
+
+        FileDownloader(Path folder) throws IOException {
+            super(folder.toString(), new Properties(), null);
+            setDownloadStore(ProductStore.AWS);
+            resetCounter();
+            this.productLogger = new Logger.ScopeLogger(folder.resolve("download.log").toString());
+        }
+
+        Path download(String remoteUrl, Path file) throws IOException {
+            return downloadFile(remoteUrl, file);
+        }
+
+        void close() throws IOException {
+            this.productLogger.close();
+        }
+
+        @Override
+        protected String getProductUrl(ProductDescriptor descriptor) { return null; }
+
+        @Override
+        protected String getMetadataUrl(ProductDescriptor descriptor) { return null; }
+
+        @Override
+        protected Path download(ProductDescriptor product) { return null; }
+
+        @Override
+        protected boolean isIntendedFor(ProductDescriptor product) { return true; }
+    }
+}
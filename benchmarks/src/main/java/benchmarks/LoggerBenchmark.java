@@ -0,0 +1,98 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.util.LogFormatter;
+import ro.cs.products.util.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.FileHandler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Measures the cost of a log call in a download loop: a discarded debug message, and a message written
+ * to the log of a product, against the former implementation, which formatted every message and wrote it
+ * synchronously, flushing after each one.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar LoggerBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoggerBenchmark {
+    private static final java.util.logging.Logger julLogger =
+            java.util.logging.Logger.getLogger(java.util.logging.Logger.GLOBAL_LOGGER_NAME);
+
+    private Path folder;
+    private Logger.ScopeLogger scopeLogger;
+    private FileHandler fileHandler;
+    private long counter;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.folder = Files.createTempDirectory("logger");
+        this.scopeLogger = new Logger.ScopeLogger(folder.resolve("download.log").toString());
+        this.fileHandler = new FileHandler(folder.resolve("download_old.log").toString());
+        this.fileHandler.setFormatter(new LogFormatter());
+        // debug messages are discarded, as when not running verbose
+        julLogger.setLevel(Level.INFO);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.scopeLogger.close();
+        this.fileHandler.close();
+        try (java.util.stream.Stream<Path> files = Files.list(folder)) {
+            files.forEach(file -> file.toFile().delete());
+        }
+        Files.delete(folder);
+    }
+
+    @Benchmark
+    public void discardedDebug() {
+        Logger.getRootLogger().debug("(%s,%s) %s [elapsed: %ss]", "product", "Tile", "B01.jp2", counter++);
+    }
+
+    @Benchmark
+    public void discardedDebugFormatted() {
+        // former implementation: formatted before the level is checked
+        julLogger.fine(String.format("(%s,%s) %s [elapsed: %ss]", "product", "Tile", "B01.jp2", counter++));
+    }
+
+    @Benchmark
+    public void productLog() {
+        scopeLogger.info("(%s,%s) %s [elapsed: %ss]", "product", "Tile", "B01.jp2", counter++);
+    }
+
+    @Benchmark
+    public void productLogSynchronous() {
+        // former implementation: written and flushed by the calling thread
+        fileHandler.publish(new LogRecord(Level.INFO, String.format("(%s,%s) %s [elapsed: %ss]",
+                                                                    "product", "Tile", "B01.jp2", counter++)));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LoggerBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,85 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.base.ProductDescriptor;
+import ro.cs.products.sentinel2.ProductType;
+import ro.cs.products.sentinel2.amazon.Result;
+import ro.cs.products.sentinel2.amazon.ResultParser;
+import ro.cs.products.sentinel2.scihub.SciHubSearch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the parsing of a page of search results, from the fixtures of this module:
+ * an S3 listing of the products of a day (1000 common prefixes) and a SciHub feed of 100 products.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar SearchResultsBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchResultsBenchmark {
+    private String listing;
+    private String feed;
+    private SciHubSearch search;
+
+    @Setup
+    public void setUp() throws IOException, URISyntaxException {
+        this.listing = fixture("s3-listing.xml");
+        this.feed = fixture("scihub-feed.xml");
+        this.search = new SciHubSearch("https://scihub.copernicus.eu/apihub/search", ProductType.S2MSI1C);
+        this.search.setClouds(50);
+    }
+
+    @Benchmark
+    public Result parseListing() {
+        return ResultParser.parse(this.listing);
+    }
+
+    @Benchmark
+    public List<ProductDescriptor> parseFeed() {
+        return this.search.parse(this.feed);
+    }
+
+    static String fixture(String name) throws IOException {
+        try (InputStream inputStream = SearchResultsBenchmark.class.getResourceAsStream("/fixtures/" + name)) {
+            if (inputStream == null) {
+                throw new IOException("Missing fixture " + name);
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[65536];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(SearchResultsBenchmark.class.getSimpleName()).build()).run();
+    }
+}
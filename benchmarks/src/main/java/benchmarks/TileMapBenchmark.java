@@ -0,0 +1,91 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.Executor;
+import ro.cs.products.base.TileMap;
+
+import java.awt.geom.Rectangle2D;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the loading of the Landsat-8 tile map shipped with the application (about 29k path/row extents)
+ * and the lookup of the tiles intersecting a country-sized and a tile-sized area of interest.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar TileMapBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TileMapBenchmark {
+    private static final Rectangle2D COUNTRY = new Rectangle2D.Double(20.2, 43.6, 9.5, 4.7);
+    private static final Rectangle2D TILE = new Rectangle2D.Double(23.5, 45.5, 0.2, 0.2);
+
+    private byte[] tileMapData;
+    private TileMap tileMap;
+
+    @Setup
+    public void setUp() throws IOException {
+        try (InputStream inputStream = Executor.class.getResourceAsStream("L8tilemap.dat")) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[65536];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            this.tileMapData = buffer.toByteArray();
+        }
+        this.tileMap = read();
+    }
+
+    @Benchmark
+    public TileMap readMap() throws IOException {
+        return read();
+    }
+
+    @Benchmark
+    public Set<String> intersectCountry() {
+        return this.tileMap.intersectingTiles(COUNTRY);
+    }
+
+    @Benchmark
+    public Set<String> intersectTile() {
+        return this.tileMap.intersectingTiles(TILE);
+    }
+
+    private TileMap read() throws IOException {
+        // the maps of the application are singletons, a new one is needed for each read
+        TileMap map = new TileMap() {
+            @Override
+            public void fromKml(BufferedReader bufferedReader) { }
+        };
+        map.read(new ByteArrayInputStream(this.tileMapData));
+        return map;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TileMapBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,101 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.util.Polygon2D;
+
+import java.awt.geom.Path2D;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Compares the single-pass WKT reader of {@link Polygon2D} with the former regular expression based one,
+ * on a synthetic country-like MULTIPOLYGON.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar WKTParserBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WKTParserBenchmark {
+    private static final Pattern polyPattern = Pattern.compile("POLYGON\\(\\(.*\\)\\)");
+    private static final Pattern coordPattern = Pattern.compile("((?:-?(?:\\d+\\.\\d+)) (?:-?(?:\\d+\\.\\d+)))");
+
+    @Param({ "1000", "250000" })
+    private int vertices;
+
+    private String wkt;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        int polygons = Math.max(1, vertices / 5000);
+        int perPolygon = vertices / polygons;
+        StringBuilder builder = new StringBuilder(vertices * 24);
+        builder.append("MULTIPOLYGON(");
+        for (int p = 0; p < polygons; p++) {
+            double cx = -10 + random.nextDouble() * 40, cy = 35 + random.nextDouble() * 25;
+            builder.append(p > 0 ? ",((" : "((");
+            for (int i = 0; i < perPolygon; i++) {
+                double angle = 2 * Math.PI * i / perPolygon;
+                double radius = 0.5 + random.nextDouble() * 0.05;
+                builder.append(round(cx + radius * Math.cos(angle))).append(" ").append(round(cy + radius * Math.sin(angle))).append(",");
+            }
+            builder.append(round(cx + 0.5)).append(" ").append(round(cy)).append("))");
+        }
+        builder.append(")");
+        this.wkt = builder.toString();
+    }
+
+    // boundary datasets are usually published with a precision of 7 decimals
+    private static double round(double value) {
+        return Math.round(value * 1e7) / 1e7;
+    }
+
+    @Benchmark
+    public Polygon2D singlePass() {
+        return Polygon2D.fromWKT(this.wkt);
+    }
+
+    @Benchmark
+    public Path2D regex() {
+        Path2D.Double polygon = new Path2D.Double();
+        Matcher matcher = polyPattern.matcher(this.wkt);
+        Matcher coordMatcher = coordPattern.matcher(matcher.matches() ? matcher.group(0) : this.wkt);
+        boolean first = true;
+        while (coordMatcher.find()) {
+            String[] coords = coordMatcher.group().split(" ");
+            double x = Double.parseDouble(coords[0]), y = Double.parseDouble(coords[1]);
+            if (first) {
+                polygon.moveTo(x, y);
+                first = false;
+            } else {
+                polygon.lineTo(x, y);
+            }
+        }
+        return polygon;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(WKTParserBenchmark.class.getSimpleName()).build()).run();
+    }
+}
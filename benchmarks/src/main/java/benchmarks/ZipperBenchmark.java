@@ -0,0 +1,120 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import ro.cs.products.util.OutputFormat;
+import ro.cs.products.util.Zipper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures the compression of a synthetic product (4 random 16MB rasters and a few metadata files),
+ * in each archive format and, for zip archives, with 1 and 4 threads, against the former implementation,
+ * which read each file in memory and deflated everything.
+ *
+ * Run it with: <code>java -jar benchmarks/target/benchmarks.jar ZipperBenchmark</code>
+ *
+ * @author Cosmin Cara
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ZipperBenchmark {
+    private static final int RASTER_SIZE = 16 << 20;
+
+    @Param({ "1", "4" })
+    private int threads;
+
+    @Param({ "ZIP", "TAR", "TAR_ZST" })
+    private OutputFormat format;
+
+    private Path folder;
+    private Path productFolder;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        this.folder = Files.createTempDirectory("zipper");
+        this.productFolder = Files.createDirectories(folder.resolve("product.SAFE"));
+        Path imgData = Files.createDirectories(productFolder.resolve("GRANULE").resolve("L1C_T34TFQ").resolve("IMG_DATA"));
+        byte[] raster = new byte[RASTER_SIZE];
+        for (int band = 1; band <= 4; band++) {
+            random.nextBytes(raster);
+            Files.write(imgData.resolve(String.format("T34TFQ_B%02d.jp2", band)), raster);
+        }
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < 200000; i++) {
+            lines.add("    <VALUES>" + random.nextDouble() + " " + random.nextDouble() + "</VALUES>");
+        }
+        Files.write(productFolder.resolve("MTD_MSIL1C.xml"), lines, StandardCharsets.UTF_8);
+        Files.write(imgData.resolveSibling("MTD_TL.xml"), lines, StandardCharsets.UTF_8);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+            while (iterator.hasNext()) {
+                Files.delete(iterator.next());
+            }
+        }
+    }
+
+    @Benchmark
+    public long compress() throws IOException {
+        return Files.size(Zipper.compress(productFolder, "product", false, threads, format));
+    }
+
+    @Benchmark
+    public long compressInMemory() throws IOException {
+        // former implementation: each file read in memory, everything deflated
+        Path zipFile = folder.resolve("product_old.zip");
+        Files.deleteIfExists(zipFile);
+        try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(zipFile))) {
+            try (Stream<Path> files = Files.walk(productFolder)) {
+                Iterator<Path> pathIterator = files.iterator();
+                while (pathIterator.hasNext()) {
+                    Path path = pathIterator.next();
+                    outputStream.putNextEntry(new ZipEntry(productFolder.relativize(path).toString()));
+                    if (!Files.isDirectory(path)) {
+                        outputStream.write(Files.readAllBytes(path));
+                    }
+                    outputStream.closeEntry();
+                }
+            }
+        }
+        return Files.size(zipFile);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ZipperBenchmark.class.getSimpleName()).build()).run();
+    }
+}
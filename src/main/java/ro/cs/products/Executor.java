@@ -26,11 +26,14 @@ import org.apache.commons.cli.MissingOptionException;
 import org.apache.commons.cli.Option;
 import org.apache.commons.cli.OptionGroup;
 import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
 import ro.cs.products.base.AbstractSearch;
 import ro.cs.products.base.DownloadMode;
+import ro.cs.products.base.ProductCatalog;
 import ro.cs.products.base.ProductDescriptor;
 import ro.cs.products.base.SensorType;
 import ro.cs.products.base.TileMap;
+import ro.cs.products.daemon.DownloadDaemon;
 import ro.cs.products.landsat.CollectionCategory;
 import ro.cs.products.landsat.LandsatAWSSearch;
 import ro.cs.products.landsat.LandsatCollection;
@@ -48,17 +51,22 @@ import ro.cs.products.sentinel2.angles.FillAnglesMethod;
 import ro.cs.products.sentinel2.angles.ProductInspector;
 import ro.cs.products.sentinel2.scihub.PreOpsSciHubSearch;
 import ro.cs.products.sentinel2.scihub.SciHubSearch;
+import ro.cs.products.util.OutputFormat;
 import ro.cs.products.util.Constants;
 import ro.cs.products.util.Logger;
+import ro.cs.products.util.Metrics;
 import ro.cs.products.util.NetUtils;
 import ro.cs.products.util.Polygon2D;
+import ro.cs.products.util.RequestTrace;
 import ro.cs.products.util.ReturnCode;
+import ro.cs.products.util.SimplificationMethod;
 import ro.cs.products.util.Utilities;
 
 import java.awt.geom.Rectangle2D;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -68,6 +76,7 @@ import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
 import java.util.Calendar;
 import java.util.Collections;
@@ -84,9 +93,10 @@ import java.util.stream.Collectors;
  * @author Cosmin Cara
  */
 public class Executor {
+    private static final long METRICS_EXPORT_PERIOD = 15;
 
     private static Options options;
-    private static Properties props;
+    private static Properties defaultProps;
     private static String version;
     private static BatchProgressListener batchProgressListener;
     private static ProgressListener fileProgressListener;
@@ -124,10 +134,10 @@ public class Executor {
             e.printStackTrace();
             System.exit(Integer.MAX_VALUE);
         }
-        props = new Properties();
+        defaultProps = new Properties();
         try {
-            props.load(Executor.class.getResourceAsStream("download.properties"));
-            version = props.getProperty("version");
+            defaultProps.load(Executor.class.getResourceAsStream("download.properties"));
+            version = defaultProps.getProperty("version");
         } catch (IOException ignored) {
         }
     }
@@ -135,18 +145,71 @@ public class Executor {
     public static void main(String[] args) throws Exception {
         if (args.length == 0) {
             HelpFormatter formatter = new HelpFormatter();
-            formatter.printHelp("ProductDownload-" + version, options);
+            formatter.printHelp("ProductDownload-" + version, null, options,
+                                "\nTo run as a daemon accepting download jobs over HTTP: ProductDownload-" + version + " " +
+                                        DownloadDaemon.COMMAND + " [port] [workers]");
             System.exit(0);
         }
-        CommandLineParser parser = new DefaultParser();
-        CommandLine commandLine = parser.parse(options, args);
-        System.exit(execute(commandLine));
+        if (DownloadDaemon.COMMAND.equals(args[0])) {
+            DownloadDaemon.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        System.exit(execute(args));
     }
 
     public static int execute(String[] args) throws Exception {
+        CommandLine commandLine = parse(args);
+        if (commandLine.hasOption(Constants.PARAM_METRICS_FILE)) {
+            Metrics.startExport(Paths.get(commandLine.getOptionValue(Constants.PARAM_METRICS_FILE)), METRICS_EXPORT_PERIOD);
+        }
+        if (commandLine.hasOption(Constants.PARAM_TRACE_FILE)) {
+            RequestTrace.enable(Paths.get(commandLine.getOptionValue(Constants.PARAM_TRACE_FILE)));
+        }
+        try {
+            return execute(commandLine, batchProgressListener, fileProgressListener);
+        } finally {
+            Metrics.stopExport();
+            RequestTrace.disable();
+        }
+    }
+
+    /**
+     * Runs a job of the daemon, reporting its progress to the given listeners. Unlike {@link #execute(String[])},
+     * the metrics export and the request trace (which are process-wide) are not started.
+     */
+    public static int execute(String[] args, BatchProgressListener batchListener, ProgressListener fileListener) throws Exception {
+        return execute(parse(args), batchListener, fileListener);
+    }
+
+    /**
+     * Parses (and validates) the arguments of the command line.
+     */
+    public static CommandLine parse(String[] args) throws ParseException {
         CommandLineParser parser = new DefaultParser();
-        CommandLine commandLine = parser.parse(options, args);
-        return execute(commandLine);
+        return parser.parse(options, args);
+    }
+
+    /**
+     * Loads the tile extents shipped with the application, so that the first job of a daemon doesn't pay for it.
+     */
+    public static void preloadTileMaps() throws IOException {
+        for (SensorType sensorType : SensorType.values()) {
+            if (Executor.class.getResource(sensorType + "tilemap.dat") != null) {
+                loadTileMap(sensorType, null, Logger.getRootLogger());
+            }
+        }
+    }
+
+    /**
+     * Returns the settings of download.properties, each one replaced by the system property of the same name, if set
+     * (for example -Dscihub.search.url=...), so that the products can be searched and fetched from a mirror.
+     */
+    private static Properties loadProperties() {
+        Properties properties = new Properties();
+        for (String name : defaultProps.stringPropertyNames()) {
+            properties.setProperty(name, System.getProperty(name, defaultProps.getProperty(name)));
+        }
+        return properties;
     }
 
     private static Option buildOption(String[] values) {
@@ -169,8 +232,10 @@ public class Executor {
         return optionBuilder.build();
     }
 
-    private static int execute(CommandLine commandLine) throws Exception {
+    private static int execute(CommandLine commandLine, BatchProgressListener batchProgressListener,
+                               ProgressListener fileProgressListener) throws Exception {
         int retCode = ReturnCode.OK;
+        Properties props = loadProperties();
         String logFile = props.getProperty("master.log.file");
         String folder;
         boolean debugMode = getArgValue(commandLine, Constants.PARAM_VERBOSE, Boolean.class, false);
@@ -183,9 +248,7 @@ public class Executor {
         if (sensorType == SensorType.L8) {
             l8collection = getArgValue(commandLine, Constants.PARAM_L8_COLLECTION, LandsatCollection.class, LandsatCollection.C1);
         }
-        if (commandLine.hasOption(Constants.PARAM_INPUT_FOLDER) &&
-                (downloadMode != DownloadMode.COPY && downloadMode != DownloadMode.SYMLINK
-                        && downloadMode != DownloadMode.FILTERED_SYMLINK)) {
+        if (commandLine.hasOption(Constants.PARAM_INPUT_FOLDER) && !downloadMode.isLocal()) {
             folder = commandLine.getOptionValue(Constants.PARAM_INPUT_FOLDER);
             Utilities.ensureExists(Paths.get(folder));
             Logger.initialize(Paths.get(folder, logFile).toAbsolutePath().toString(), debugMode);
@@ -215,7 +278,18 @@ public class Executor {
                             }
                         }
                         ProductInspector inspector = new ProductInspector(rootFolder, fillAnglesMethod, products);
-                        inspector.traverse();
+                        if (commandLine.hasOption(Constants.PARAM_PARALLELISM)) {
+                            inspector.setParallelism(getArgValue(commandLine, Constants.PARAM_PARALLELISM, Integer.class, 1));
+                        }
+                        inspector.setProgressListener(batchProgressListener);
+                        ProductInspector.Summary summary = inspector.traverse();
+                        logger.info("Inspection completed: %s", summary);
+                        if (summary.getFailed() > 0) {
+                            for (Path tile : summary.getFailedTiles()) {
+                                logger.warn("Not repaired: %s", tile);
+                            }
+                            retCode = ReturnCode.DOWNLOAD_ERROR;
+                        }
                     } catch (IOException e) {
                         logger.error(e.getMessage());
                         retCode = ReturnCode.DOWNLOAD_ERROR;
@@ -268,22 +342,7 @@ public class Executor {
             if (archive != null) {
                 downloader.overrideBaseUrl(archive);
             }
-            TileMap tileMap = sensorType == SensorType.S2 ?
-                    SentinelTilesMap.getInstance() :
-                    LandsatTilesMap.getInstance();
-
-            if (commandLine.hasOption(Constants.PARAM_TILE_SHAPE_FILE)) {
-                String tileShapeFile = commandLine.getOptionValue(Constants.PARAM_TILE_SHAPE_FILE);
-                if (Files.exists(Paths.get(tileShapeFile))) {
-                    logger.debug(String.format("Reading %s tiles extents", sensorType));
-                    tileMap.fromKmlFile(tileShapeFile);
-                    logger.debug(String.valueOf(tileMap.getCount() + " tiles found"));
-                }
-            } else if (tileMap.getCount() == 0) {
-                logger.debug(String.format("Loading %s tiles extents", sensorType));
-                tileMap.read(Executor.class.getResourceAsStream(sensorType + "tilemap.dat"));
-                logger.debug(String.valueOf(tileMap.getCount() + " tile extents loaded"));
-            }
+            TileMap tileMap = loadTileMap(sensorType, commandLine.getOptionValue(Constants.PARAM_TILE_SHAPE_FILE), logger);
 
             if (commandLine.hasOption(Constants.PARAM_AREA)) {
                 String[] points = commandLine.getOptionValues(Constants.PARAM_AREA);
@@ -344,18 +403,37 @@ public class Executor {
                 logger.info("Download will be attempted from %s", store);
             }
 
-            downloader.shouldCompress(commandLine.hasOption(Constants.PARAM_FLAG_COMPRESS));
+            OutputFormat outputFormat = getArgValue(commandLine, Constants.PARAM_OUTPUT_FORMAT, OutputFormat.class,
+                                                    commandLine.hasOption(Constants.PARAM_FLAG_COMPRESS) ?
+                                                            OutputFormat.ZIP : OutputFormat.DIRECTORY);
+            downloader.shouldCompress(outputFormat.isArchive());
             downloader.shouldDeleteAfterCompression(commandLine.hasOption(Constants.PARAM_FLAG_DELETE));
+            downloader.setOutputFormat(outputFormat);
+            if (commandLine.hasOption(Constants.PARAM_ZIP_THREADS)) {
+                downloader.setCompressionThreads(getArgValue(commandLine, Constants.PARAM_ZIP_THREADS, Integer.class,
+                                                             Runtime.getRuntime().availableProcessors()));
+            }
+            if (commandLine.hasOption(Constants.PARAM_COPY_THREADS)) {
+                downloader.setCopyThreads(getArgValue(commandLine, Constants.PARAM_COPY_THREADS, Integer.class, 4));
+            }
             if (commandLine.hasOption(Constants.PARAM_FILL_ANGLES)) {
                 if (downloader instanceof SentinelProductDownloader) {
                     ((SentinelProductDownloader) downloader).setFillMissingAnglesMethod(Enum.valueOf(FillAnglesMethod.class,
                             commandLine.hasOption(Constants.PARAM_FILL_ANGLES) ?
                                     commandLine.getOptionValue(Constants.PARAM_FILL_ANGLES).toUpperCase() :
                                     FillAnglesMethod.NONE.name()));
+                    ((SentinelProductDownloader) downloader).setKeepOriginalMetadata(commandLine.hasOption(Constants.PARAM_FLAG_KEEP_ORIGINAL));
                 } else {
                     logger.warn("Argument --ma will be ignored for Landsat8");
                 }
             }
+            if (commandLine.hasOption(Constants.PARAM_FLAG_CLIP)) {
+                if (downloader instanceof LandsatProductDownloader && areaOfInterest.getNumPoints() > 0) {
+                    ((LandsatProductDownloader) downloader).setClipArea(areaOfInterest);
+                } else {
+                    logger.warn("Argument --clip will be ignored (it applies to Landsat8 products and an area of interest)");
+                }
+            }
 
             int numPoints = areaOfInterest.getNumPoints();
             tiles = tiles.stream().map(t -> t.startsWith("T") ? t.substring(1) : t).collect(Collectors.toSet());
@@ -439,7 +517,10 @@ public class Executor {
             }
             searchProvider.filter(products);
             searchProvider.setTiles(tiles);
+            searchProvider.setTileMap(tileMap);
             searchProvider.setClouds(clouds);
+            searchProvider.setAoiSimplification(getArgValue(commandLine, Constants.PARAM_AOI_SIMPLIFICATION,
+                                                            SimplificationMethod.class, SimplificationMethod.DOUGLAS_PEUCKER));
 
             if (searchPreOps) {
                 String preOpsSearchUrl = props.getProperty(Constants.PROPERTY_NAME_SEARCH_PREOPS_URL, Constants.PROPERTY_DEFAULT_SEARCH_PREOPS_URL);
@@ -456,14 +537,25 @@ public class Executor {
                 }
             }
             searchProvider.setRetrieveAllPages(commandLine.hasOption("all"));
-            products = searchProvider.execute();
+            ProductCatalog catalog = searchProvider.executeCatalog();
+            int[] rows = catalog.rows();
+            ProductCatalog.SortBy sortBy = getArgValue(commandLine, Constants.PARAM_SORT, ProductCatalog.SortBy.class, null);
+            if (sortBy != null) {
+                rows = catalog.sort(rows, sortBy, true);
+            }
+            if (rows.length > 0) {
+                logger.info("Products found per tile: %s",
+                            catalog.groupBy(rows, ProductCatalog.GroupBy.TILE).entrySet().stream()
+                                    .map(group -> group.getKey() + "=" + group.getValue().length)
+                                    .collect(Collectors.joining(", ")));
+            }
             if (searchMode) {
                 Path resultFile = Paths.get(folder).resolve("results.txt");
-                Files.write(resultFile,
-                            products.stream()
-                                    .map(ProductDescriptor::getName)
-                                    .collect(Collectors.toList())
-                            );
+                try (Writer writer = Files.newBufferedWriter(resultFile)) {
+                    catalog.writeNames(rows, writer);
+                }
+            } else {
+                products = catalog.materialize(rows);
             }
 
             if (!searchMode) {
@@ -503,15 +595,42 @@ public class Executor {
         Logger.getRootLogger().debug("Executing with the following arguments:");
         for (Option option : cmd.getOptions()) {
             if (option.hasArgs()) {
-                Logger.getRootLogger().debug(option.getOpt() + "=" + String.join(" ", option.getValues()));
+                Logger.getRootLogger().debug(() -> option.getOpt() + "=" + String.join(" ", option.getValues()));
             } else if (option.hasArg()) {
-                Logger.getRootLogger().debug(option.getOpt() + "=" + option.getValue());
+                Logger.getRootLogger().debug(() -> option.getOpt() + "=" + option.getValue());
             } else {
                 Logger.getRootLogger().debug(option.getOpt());
             }
         }
     }
 
+    /**
+     * Returns a map of the tiles of the given KML file or, if none is given, the tile map of the given sensor,
+     * loading (once) the tile extents shipped with the application.
+     * The maps of the sensors are shared by the jobs of a daemon: they are only written while loaded, under the lock
+     * of this class, and the tiles of a KML file go to a map of the job.
+     */
+    private static TileMap loadTileMap(SensorType sensorType, String tileShapeFile, Logger.CustomLogger logger) throws IOException {
+        if (tileShapeFile != null && Files.exists(Paths.get(tileShapeFile))) {
+            TileMap tileMap = sensorType == SensorType.S2 ? new SentinelTilesMap() : new LandsatTilesMap();
+            logger.debug(String.format("Reading %s tiles extents", sensorType));
+            tileMap.fromKmlFile(tileShapeFile);
+            logger.debug(String.valueOf(tileMap.getCount() + " tiles found"));
+            return tileMap;
+        }
+        synchronized (Executor.class) {
+            TileMap tileMap = sensorType == SensorType.S2 ?
+                    SentinelTilesMap.getInstance() :
+                    LandsatTilesMap.getInstance();
+            if (tileMap.getCount() == 0) {
+                logger.debug(String.format("Loading %s tiles extents", sensorType));
+                tileMap.read(Executor.class.getResourceAsStream(sensorType + "tilemap.dat"));
+                logger.debug(String.valueOf(tileMap.getCount() + " tile extents loaded"));
+            }
+            return tileMap;
+        }
+    }
+
     private static String nullIfEmpty(String string) {
         return string != null ? (string.isEmpty() ? null : string) : null;
     }
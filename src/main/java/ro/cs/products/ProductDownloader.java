@@ -20,34 +20,43 @@
 package ro.cs.products;
 
 import ro.cs.products.base.DownloadMode;
+import ro.cs.products.base.LocalArchiveCatalog;
 import ro.cs.products.base.ProductDescriptor;
 import ro.cs.products.sentinel2.ProductStore;
+import ro.cs.products.util.FileLinks;
 import ro.cs.products.util.Logger;
+import ro.cs.products.util.Metrics;
 import ro.cs.products.util.NetUtils;
+import ro.cs.products.util.OutputFormat;
+import ro.cs.products.util.OutputSink;
+import ro.cs.products.util.ParallelCopy;
+import ro.cs.products.util.RemoteZip;
+import ro.cs.products.util.RequestTrace;
 import ro.cs.products.util.ReturnCode;
 import ro.cs.products.util.Utilities;
+import ro.cs.products.util.Zipper;
 
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.net.HttpURLConnection;
 import java.nio.ByteBuffer;
 import java.nio.channels.SeekableByteChannel;
-import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
-import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Base class for downloaders
@@ -59,6 +68,7 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
     private static final String completeMessage = "(%s,%s) %s [elapsed: %ss]";
     private static final String errorMessage ="Cannot download %s: %s";
     private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int CATALOG_SCAN_THREADS = 16;
     protected static final String NAME_SEPARATOR = "_";
     public static final String URL_SEPARATOR = "/";
 
@@ -71,6 +81,9 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
 
     protected boolean shouldCompress;
     protected boolean shouldDeleteAfterCompression;
+    protected int compressionThreads = Runtime.getRuntime().availableProcessors();
+    protected int copyThreads = 4;
+    protected OutputFormat outputFormat = OutputFormat.ZIP;
     protected DownloadMode downloadMode;
     protected ProductStore store;
     protected double[] averageDownloadSpeed;
@@ -84,6 +97,15 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
     protected NetUtils netUtils;
     protected ProductDownloader<T> additionalDownloader;
 
+    private OutputSink productArchive;
+    private Path productArchiveFile;
+    private Path productArchiveRoot;
+    private Path abandonedArchiveRoot;
+    private Set<Path> archivedFiles;
+    private ParallelCopy copier;
+    private LocalArchiveCatalog localCatalog;
+    private Path localCatalogRoot;
+
     public ProductDownloader(String targetFolder, Properties properties, NetUtils netUtils) {
         this.destination = targetFolder;
         this.props = properties;
@@ -136,71 +158,87 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
         int retCode = ReturnCode.OK;
         if (products != null) {
             int productCounter = 1, productCount = products.size();
-            for (T product : products) {
-                long startTime = System.currentTimeMillis();
-                Path file = null;
-                currentProduct = "Product " + String.valueOf(productCounter++) + "/" + String.valueOf(productCount);
-                try {
-                    Utilities.ensureExists(Paths.get(destination));
-                    switch (this.store) {
-                        case LOCAL:
-                            switch (this.downloadMode) {
-                                case COPY:
-                                    file = copy(product, Paths.get(baseUrl), Paths.get(destination));
-                                    break;
-                                case SYMLINK:
-                                    file = link(product, Paths.get(baseUrl), Paths.get(destination));
-                                    break;
-                                case FILTERED_SYMLINK:
-                                    file = link(product);
-                                    break;
-                            }
-                            if (file == null) {
-                                retCode = ReturnCode.EMPTY_PRODUCT;
-                                getLogger().warn("(" + currentProduct + ") Product copy or link failed");
-                            }
-                            break;
-                        case SCIHUB:
-                        case AWS:
-                        default:
-                            file = download(product);
-                            if (file == null) {
-                                if (this.additionalDownloader != null && this.additionalDownloader.isIntendedFor(product)) {
-                                    file = this.additionalDownloader.download(product);
-                                    if (file == null) {
-                                        retCode = ReturnCode.EMPTY_PRODUCT;
-                                    }
-                                } else {
+            try {
+                for (T product : products) {
+                    long startTime = System.currentTimeMillis();
+                    Path file = null;
+                    // the products left, including the current one
+                    Metrics.gauge("download_queue_depth").set(productCount - productCounter + 1);
+                    currentProduct = "Product " + String.valueOf(productCounter++) + "/" + String.valueOf(productCount);
+                    try {
+                        Utilities.ensureExists(Paths.get(destination));
+                        switch (this.store) {
+                            case LOCAL:
+                                switch (this.downloadMode) {
+                                    case COPY:
+                                        file = copy(product, Paths.get(baseUrl), Paths.get(destination));
+                                        break;
+                                    case SYMLINK:
+                                        file = link(product, Paths.get(baseUrl), Paths.get(destination));
+                                        break;
+                                    case FILTERED_SYMLINK:
+                                    case HARDLINK:
+                                    case REFLINK:
+                                        file = link(product);
+                                        break;
+                                }
+                                if (file == null) {
                                     retCode = ReturnCode.EMPTY_PRODUCT;
+                                    getLogger().warn("(" + currentProduct + ") Product copy or link failed");
                                 }
-                                if (retCode == ReturnCode.EMPTY_PRODUCT) {
-                                    getLogger().warn("(" + currentProduct + ") Product download aborted");
+                                break;
+                            case SCIHUB:
+                            case AWS:
+                            default:
+                                file = download(product);
+                                if (file == null) {
+                                    if (this.additionalDownloader != null && this.additionalDownloader.isIntendedFor(product)) {
+                                        Metrics.counter("download_retries_total", "store", this.store.name()).increment();
+                                        file = this.additionalDownloader.download(product);
+                                        if (file == null) {
+                                            retCode = ReturnCode.EMPTY_PRODUCT;
+                                        }
+                                    } else {
+                                        retCode = ReturnCode.EMPTY_PRODUCT;
+                                    }
+                                    if (retCode == ReturnCode.EMPTY_PRODUCT) {
+                                        getLogger().warn("(" + currentProduct + ") Product download aborted");
+                                    }
                                 }
+                                break;
+                        }
+                    } catch (IOException ignored) {
+                        getLogger().warn("(" + currentProduct + ") IO Exception: " + ignored.getMessage());
+                        retCode = ReturnCode.DOWNLOAD_ERROR;
+                    } finally {
+                        discardArchive();
+                        this.abandonedArchiveRoot = null;
+                        if (productLogger != null) {
+                            try {
+                                productLogger.close();
+                            } catch (IOException e) {
+                                getLogger().error(e.getMessage());
+                            } finally {
+                                productLogger = null;
                             }
-                            break;
-                    }
-                } catch (IOException ignored) {
-                    getLogger().warn("(" + currentProduct + ") IO Exception: " + ignored.getMessage());
-                    retCode = ReturnCode.DOWNLOAD_ERROR;
-                } finally {
-                    if (productLogger != null) {
-                        try {
-                            productLogger.close();
-                        } catch (IOException e) {
-                            getLogger().error(e.getMessage());
-                        } finally {
-                            productLogger = null;
                         }
                     }
+                    long millis = System.currentTimeMillis() - startTime;
+                    if (file != null && Files.exists(file)) {
+                        getLogger().info("(" + currentProduct + ") Download completed in %s", Utilities.formatTime(millis));
+                        Metrics.counter("products_total", "store", this.store.name()).increment();
+                    } else {
+                        Metrics.counter("product_failures_total", "store", this.store.name()).increment();
+                    }
+                    if (batchProgressListener != null) {
+                        // the counter was already advanced to the next product
+                        batchProgressListener.notifyProgress((double) (productCounter - 1) / (double) productCount);
+                    }
                 }
-                long millis = System.currentTimeMillis() - startTime;
-                if (file != null && Files.exists(file)) {
-                    getLogger().info("(" + currentProduct + ") Download completed in %s", Utilities.formatTime(millis));
-                }
-                if (batchProgressListener != null) {
-                    batchProgressListener.notifyProgress((double) productCounter / (double) productCount);
-                }
+            } finally {
+                closeCopier();
             }
+            Metrics.gauge("download_queue_depth").set(0);
         }
         return retCode;
     }
@@ -219,6 +257,34 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
         this.shouldDeleteAfterCompression = shouldDeleteAfterCompression;
     }
 
+    /**
+     * Sets the number of threads used for compressing a product
+     */
+    void setCompressionThreads(int compressionThreads) {
+        if (compressionThreads < 1) {
+            throw new IllegalArgumentException("The number of compression threads must be greater than 0");
+        }
+        this.compressionThreads = compressionThreads;
+    }
+
+    /**
+     * Sets the number of files copied at the same time from a device, when copying products from a local archive
+     */
+    void setCopyThreads(int copyThreads) {
+        if (copyThreads < 1) {
+            throw new IllegalArgumentException("The number of copy threads must be greater than 0");
+        }
+        this.copyThreads = copyThreads;
+        closeCopier();
+    }
+
+    /**
+     * Sets the format in which products are written, when compressed
+     */
+    void setOutputFormat(OutputFormat outputFormat) {
+        this.outputFormat = outputFormat;
+    }
+
     /**
      * Returns the URL, as a string, of the given product
      */
@@ -232,10 +298,15 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
      */
     protected abstract Path download(T product) throws IOException;
     /**
-     * Creates a symbolic link for the given product and returns the link if succeeded, or <code>null</code> if failed.
-     * The default behavior (of always returning null) should be overridden by implementors.
+     * Links the given product, or only its selected parts, and returns the link if succeeded, or <code>null</code>
+     * if failed. The default behavior links the whole product for hard links and clones, and returns null
+     * for filtered symbolic links; it should be overridden by implementors able to filter the product.
      */
-    protected Path link(T product) throws IOException { return null; }
+    protected Path link(T product) throws IOException {
+        return this.downloadMode == DownloadMode.HARDLINK || this.downloadMode == DownloadMode.REFLINK ?
+                link(product, Paths.get(baseUrl), Paths.get(destination)) :
+                null;
+    }
 
     /**
      * Checks if this downloader is able to download products of the given type.
@@ -243,13 +314,28 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
      */
     protected abstract boolean isIntendedFor(T product);
 
+    /**
+     * Returns the predicate recognizing the names of the products (folders or files) in a local archive,
+     * or <code>null</code> if the products cannot be recognized by their names, in which case the local archive
+     * is not catalogued.
+     */
+    protected Predicate<String> productNames() {
+        return null;
+    }
+
     /**
      * Returns the path of the given product, in the case of local archives.
-     * The archive is assumed to be organized by year, month and day
+     * The product is looked up in the catalog of the archive; if the archive is not catalogued, it is assumed
+     * to be organized by year, month and day
      * @param root      The root folder for the local archive
      * @param product   The product descriptor
      */
     protected Path findProductPath(Path root, T product) {
+        LocalArchiveCatalog catalog = getLocalCatalog(root);
+        if (catalog != null) {
+            LocalArchiveCatalog.Product entry = catalog.find(product.getName());
+            return entry != null ? entry.getPath() : null;
+        }
         // Products are assumed to be organized by year (yyyy), month (MM) and day (dd)
         // If it's not the case, this method should be overridden
         String date = product.getSensingDate();
@@ -268,6 +354,58 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
         return productPath;
     }
 
+    /**
+     * Returns the folders of a product of a local archive, starting with the product folder.
+     */
+    protected List<Path> listProductFolders(Path productPath) throws IOException {
+        LocalArchiveCatalog.Product entry = findCatalogEntry(productPath);
+        return entry != null ? entry.getFolders() : Utilities.listFolders(productPath);
+    }
+
+    /**
+     * Returns the files of a folder of a product of a local archive.
+     */
+    protected List<Path> listProductFiles(Path productPath, Path folder) throws IOException {
+        LocalArchiveCatalog.Product entry = findCatalogEntry(productPath);
+        return entry != null ? entry.getFiles(folder) : Utilities.listFiles(folder);
+    }
+
+    private LocalArchiveCatalog.Product findCatalogEntry(Path productPath) {
+        if (this.localCatalog == null) {
+            return null;
+        }
+        LocalArchiveCatalog.Product entry = this.localCatalog.find(productPath.getFileName().toString());
+        return entry != null && entry.isDirectory() && entry.getPath().equals(productPath) ? entry : null;
+    }
+
+    /**
+     * Opens (once) the catalog of the given local archive. If the catalog cannot be opened, the archive
+     * is looked up by its layout.
+     */
+    private LocalArchiveCatalog getLocalCatalog(Path root) {
+        Predicate<String> productNames = productNames();
+        if (productNames == null) {
+            return null;
+        }
+        if (!root.equals(this.localCatalogRoot)) {
+            this.localCatalogRoot = root;
+            try {
+                this.localCatalog = LocalArchiveCatalog.open(root, productNames, CATALOG_SCAN_THREADS);
+            } catch (IOException e) {
+                getLogger().warn("Cannot catalog the local archive %s: %s", root, e.getMessage());
+                this.localCatalog = null;
+            }
+        }
+        return this.localCatalog;
+    }
+
+    private void closeCopier() {
+        if (this.copier != null) {
+            this.copier.close();
+            this.copier = null;
+        }
+    }
+
     protected Path copy(T product, Path sourceRoot, Path targetRoot) throws IOException {
         Path sourcePath = findProductPath(sourceRoot, product);
         if (sourcePath == null) {
@@ -275,44 +413,43 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
             return null;
         }
         Path destinationPath = targetRoot.resolve(sourcePath.getFileName());
-        if (Files.isDirectory(sourcePath)) {
-            if (!Files.exists(destinationPath)) {
-                Files.createDirectory(destinationPath);
-            }
-            Files.walkFileTree(sourcePath, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                    Path target = destinationPath.resolve(sourcePath.relativize(dir));
-                    if (!Files.exists(target)) {
-                        Files.createDirectory(target);
-                    }
-                    return FileVisitResult.CONTINUE;
-                }
-
-                @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    Files.copy(file,
-                               destinationPath.resolve(sourcePath.relativize(file)),
-                               StandardCopyOption.REPLACE_EXISTING);
-                    return FileVisitResult.CONTINUE;
-                }
-            });
-        } else {
-            Files.copy(sourcePath, destinationPath, StandardCopyOption.REPLACE_EXISTING);
+        if (this.copier == null) {
+            this.copier = new ParallelCopy(copyThreads);
         }
+        ParallelCopy.Result result = this.copier.copy(sourcePath, destinationPath);
+        getLogger().debug("Product %s: %s files copied (%skB), %s files up to date", product.getName(),
+                          result.getCopied(), result.getBytes() / 1024, result.getSkipped());
         return destinationPath;
     }
 
+    /**
+     * Links the whole product, according to the download mode: a symbolic link to the product folder,
+     * or a tree of hard links or clones of its files.
+     */
     protected Path link(T product, Path sourceRoot, Path targetRoot) throws IOException {
         Path sourcePath = findProductPath(sourceRoot, product);
         if (sourcePath == null) {
             getLogger().warn("Product %s not found in the local archive", product.getName());
+            return null;
         }
-        Path destinationPath = sourcePath != null ? targetRoot.resolve(sourcePath.getFileName()) : null;
-        if (destinationPath != null && !Files.exists(destinationPath)) {
-            return Files.createSymbolicLink(destinationPath, sourcePath);
-        } else {
-            return destinationPath;
+        Path destinationPath = targetRoot.resolve(sourcePath.getFileName());
+        switch (this.downloadMode) {
+            case HARDLINK:
+                if (Files.isDirectory(sourcePath)) {
+                    for (Path folder : listProductFolders(sourcePath)) {
+                        Path targetFolder = Files.createDirectories(destinationPath.resolve(sourcePath.relativize(folder).toString()));
+                        linkFiles(listProductFiles(sourcePath, folder), targetFolder);
+                    }
+                    return destinationPath;
+                }
+                return linkFile(sourcePath, destinationPath);
+            case REFLINK:
+                if (!FileLinks.reflink(sourcePath, destinationPath)) {
+                    return copy(product, sourceRoot, targetRoot);
+                }
+                return destinationPath;
+            default:
+                return Files.exists(destinationPath) ? destinationPath : Files.createSymbolicLink(destinationPath, sourcePath);
         }
     }
 
@@ -320,8 +457,50 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
         return Files.exists(file) ? file : Files.copy(sourcePath, file);
     }
 
+    /**
+     * Links the files of a folder of a product into the given folder, according to the download mode.
+     * The clones are made by a single command for all the files. The files that cannot be linked are copied.
+     */
+    protected void linkFiles(List<Path> files, Path targetFolder) throws IOException {
+        if (DownloadMode.REFLINK.equals(this.downloadMode)) {
+            List<Path> missing = new ArrayList<>();
+            for (Path file : files) {
+                if (!Files.exists(targetFolder.resolve(file.getFileName().toString()))) {
+                    missing.add(file);
+                }
+            }
+            if (FileLinks.reflink(missing, targetFolder)) {
+                return;
+            }
+        }
+        for (Path file : files) {
+            linkFile(file, targetFolder.resolve(file.getFileName().toString()));
+        }
+    }
+
+    /**
+     * Links a file of a product, according to the download mode: a symbolic link, a hard link or a clone.
+     * The file is copied if it cannot be linked.
+     */
     protected Path linkFile(Path sourcePath, Path file) throws IOException {
-        return Files.exists(file) ? file : Files.createSymbolicLink(file, sourcePath);
+        if (Files.exists(file)) {
+            return file;
+        }
+        switch (this.downloadMode) {
+            case HARDLINK:
+                if (FileLinks.hardLink(sourcePath, file)) {
+                    return file;
+                }
+                break;
+            case REFLINK:
+                if (FileLinks.reflink(sourcePath, file)) {
+                    return file;
+                }
+                break;
+            default:
+                return Files.createSymbolicLink(file, sourcePath);
+        }
+        return Files.copy(sourcePath, file, StandardCopyOption.COPY_ATTRIBUTES);
     }
 
     protected Path downloadFile(String remoteUrl, Path file) throws IOException {
@@ -329,27 +508,182 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
     }
 
     protected Path downloadFile(String remoteUrl, Path file, String authToken) throws IOException {
-        return downloadFile(remoteUrl, file, this.downloadMode, authToken);
+        return downloadFile(remoteUrl, file, this.downloadMode, authToken, null);
+    }
+
+    /**
+     * Downloads a file whose contents is transformed while downloaded. The handler receives the remote stream and
+     * is responsible for writing the file. Since the local file is not a copy of the remote one, it is always
+     * downloaded again.
+     *
+     * @param remoteUrl The url of the remote file
+     * @param file      The local file
+     * @param authToken The authentication token (if any)
+     * @param handler   The handler of the remote contents
+     * @return  The local file, or <code>null</code> if the remote file was not found
+     */
+    protected Path downloadFile(String remoteUrl, Path file, String authToken, ContentHandler handler) throws IOException {
+        return downloadFile(remoteUrl, file, this.downloadMode, authToken, handler);
+    }
+
+    /**
+     * Opens the archive of the product assembled in the given folder, if products are compressed and their files
+     * are not kept. From then on, the files downloaded into the folder are written directly into the archive,
+     * without being written to the folder.
+     */
+    protected void openArchive(Path productFolder) throws IOException {
+        discardArchive();
+        this.abandonedArchiveRoot = null;
+        if (!shouldCompress || !shouldDeleteAfterCompression || !outputFormat.isArchive()) {
+            return;
+        }
+        Path archiveFile = productFolder.resolveSibling(productFolder.getFileName() + "." + outputFormat.getExtension());
+        Files.deleteIfExists(archiveFile);
+        this.productArchive = Zipper.createSink(archiveFile, outputFormat, compressionThreads);
+        this.productArchiveFile = archiveFile;
+        this.productArchiveRoot = productFolder.toAbsolutePath();
+        this.archivedFiles = new HashSet<>();
+        getLogger().debug("Product files will be written to %s", archiveFile);
+    }
+
+    /**
+     * Compresses the product assembled in the given folder. If the archive of the product is open, the files
+     * written to the folder (such as the processed metadata) are added to it and the archive is closed.
+     * Otherwise, the folder is compressed (unless products are written as folders).
+     * A product whose archive was discarded after a failed transfer is not compressed.
+     *
+     * @return  The archive of the product
+     */
+    protected Path compress(Path productFolder) throws IOException {
+        if (!outputFormat.isArchive()) {
+            return productFolder;
+        }
+        if (isAbandoned(productFolder)) {
+            throw new IOException(String.format("The archive of %s was discarded after a failed transfer",
+                                                productFolder.getFileName()));
+        }
+        if (this.productArchive == null || !this.productArchiveRoot.equals(productFolder.toAbsolutePath())) {
+            return Zipper.compress(productFolder, productFolder.getFileName().toString(), shouldDeleteAfterCompression,
+                                   compressionThreads, outputFormat);
+        }
+        Path archiveFile = this.productArchiveFile;
+        try {
+            Zipper.addFolder(this.productArchive, productFolder);
+            this.productArchive.finish();
+            this.productArchive.close();
+            this.productArchive = null;
+        } finally {
+            discardArchive();
+        }
+        Zipper.delete(productFolder);
+        return archiveFile;
+    }
+
+    /**
+     * Checks if the given file has been downloaded, either in its folder or in the product archive.
+     */
+    protected boolean isDownloaded(Path file) {
+        return file != null &&
+                (Files.exists(file) || (this.archivedFiles != null && this.archivedFiles.contains(file.toAbsolutePath())));
+    }
+
+    /**
+     * Discards the archive of the current product after one of its files failed to transfer.
+     * The remaining files of the product are not downloaded anymore.
+     */
+    private void abandonArchive() {
+        getLogger().warn("(%s) Discarding the archive %s", currentProduct, this.productArchiveFile);
+        this.abandonedArchiveRoot = this.productArchiveRoot;
+        discardArchive();
+    }
+
+    private boolean isAbandoned(Path file) {
+        return this.abandonedArchiveRoot != null && file.toAbsolutePath().startsWith(this.abandonedArchiveRoot);
+    }
+
+    /**
+     * Closes and deletes the archive of the current product, if it was not completed.
+     */
+    protected void discardArchive() {
+        if (this.productArchive != null) {
+            try {
+                this.productArchive.close();
+                Files.deleteIfExists(this.productArchiveFile);
+            } catch (IOException e) {
+                getLogger().warn("Cannot delete %s: %s", this.productArchiveFile, e.getMessage());
+            }
+        }
+        this.productArchive = null;
+        this.productArchiveFile = null;
+        this.productArchiveRoot = null;
+        this.archivedFiles = null;
     }
 
     protected void resetCounter() { this.averageDownloadSpeed = new double[] { 0.0, 0.0 }; }
 
     protected double getAverageSpeed() { return this.averageDownloadSpeed[0]; }
 
-    private Path downloadFile(String remoteUrl, Path file, DownloadMode mode, String authToken) throws IOException {
+    private Path downloadFile(String remoteUrl, Path file, DownloadMode mode, String authToken, ContentHandler handler) throws IOException {
+        if (handler == null && isAbandoned(file)) {
+            getLogger().debug("Skipping %s, the product archive was discarded", file.getFileName());
+            return null;
+        }
         HttpURLConnection connection = null;
+        boolean archiving = false;
+        boolean writing = false;
+        String host = Metrics.host(remoteUrl);
+        Metrics.Gauge inFlight = Metrics.gauge("downloads_in_flight");
+        inFlight.increment();
+        RequestTrace trace = RequestTrace.start(remoteUrl);
         try {
             Logger.getRootLogger().debug("Begin download for %s", remoteUrl);
+            long startNanos = System.nanoTime();
             connection = NetUtils.openConnection(remoteUrl, authToken);
+            trace.prepare(connection);
+            connection.connect();
+            trace.connected();
+            Metrics.histogram("download_connect_seconds", "host", host).recordSince(startNanos);
             long remoteFileLength = connection.getContentLengthLong();
+            trace.responded(connection.getResponseCode());
+            Metrics.histogram("download_first_byte_seconds", "host", host).recordSince(startNanos);
             long localFileLength = 0;
-            if (Files.exists(file)) {
+            if (handler == null && this.productArchive != null && file.toAbsolutePath().startsWith(this.productArchiveRoot)) {
+                archiving = true;
+                Path archived = downloadToArchive(connection, file, host, startNanos);
+                trace.transferred(remoteFileLength);
+                return archived;
+            }
+            if (handler != null) {
+                int kBytes = (int) (remoteFileLength / 1024);
+                getLogger().info(startMessage, currentProduct, currentStep, file.getFileName(), kBytes);
+                if (this.fileProgressListener != null) {
+                    this.fileProgressListener.notifyProgress(0, 0);
+                }
+                long start = System.currentTimeMillis();
+                try (ProgressInputStream inputStream = new ProgressInputStream(connection.getInputStream(), remoteFileLength, start)) {
+                    writing = true;
+                    handler.handle(inputStream.unclosable(), file);
+                    inputStream.checkComplete();
+                }
+                trace.transferred(remoteFileLength);
+                long millis = Math.max(System.currentTimeMillis() - start, 1);
+                updateAverageSpeed(remoteFileLength, millis);
+                recordTransfer(host, remoteFileLength, startNanos);
+                getLogger().debug(completeMessage, currentProduct, currentStep, file.getFileName(), millis / 1000);
+                Logger.getRootLogger().debug("End download for %s", remoteUrl);
+            } else if (Files.exists(file)) {
                 localFileLength = Files.size(file);
                 if (localFileLength != remoteFileLength) {
                     if (DownloadMode.RESUME.equals(mode)) {
+                        Metrics.counter("download_retries_total", "store", this.store.name()).increment();
                         connection.disconnect();
+                        trace.close();
+                        trace = RequestTrace.start(remoteUrl).retry(1);
                         connection = NetUtils.openConnection(remoteUrl, authToken);
                         connection.setRequestProperty("Range", "bytes=" + localFileLength + "-");
+                        trace.prepare(connection);
+                        connection.connect();
+                        trace.connected();
                     } else {
                         Files.delete(file);
                     }
@@ -361,7 +695,7 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
                                                  localFileLength);
                 }
             }
-            if (localFileLength != remoteFileLength) {
+            if (handler == null && localFileLength != remoteFileLength) {
                 int kBytes = (int) (remoteFileLength / 1024);
                 getLogger().info(startMessage, currentProduct, currentStep, file.getFileName(), kBytes);
                 InputStream inputStream = null;
@@ -373,6 +707,8 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
                     //Logger.getRootLogger().debug("Local temporary file %s created", file.toString());
                     long start = System.currentTimeMillis();
                     inputStream = connection.getInputStream();
+                    trace.responded(connection.getResponseCode());
+                    writing = true;
                     outputStream = Files.newByteChannel(file, EnumSet.of(StandardOpenOption.CREATE,
                                                                          StandardOpenOption.APPEND,
                                                                          StandardOpenOption.WRITE));
@@ -392,30 +728,56 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
                         }
                     }
                     Logger.getRootLogger().debug("End reading from input stream");
+                    if (remoteFileLength >= 0 && outputStream.size() != remoteFileLength) {
+                        throw new IOException(String.format("Transfer interrupted after %s of %s bytes",
+                                                            outputStream.size(), remoteFileLength));
+                    }
+                    trace.transferred(totalRead);
                     millis = Math.max(System.currentTimeMillis() - start, 1);
-                    double currentSpeed = (double) remoteFileLength  / 1024. / (double) millis * 1000.;
-                    this.averageDownloadSpeed[0] =
-                            (this.averageDownloadSpeed[0] * this.averageDownloadSpeed[1] + currentSpeed) / (this.averageDownloadSpeed[1] + 1);
-                    this.averageDownloadSpeed[1] += 1;
+                    updateAverageSpeed(remoteFileLength, millis);
+                    recordTransfer(host, totalRead, startNanos);
                     getLogger().debug(completeMessage, currentProduct, currentStep, file.getFileName(), millis / 1000);
                 } finally {
                     if (outputStream != null) outputStream.close();
                     if (inputStream != null) inputStream.close();
                 }
                 Logger.getRootLogger().debug("End download for %s", remoteUrl);
-            } else {
+            } else if (handler == null) {
                 Logger.getRootLogger().debug("File already downloaded");
                 getLogger().info(completeMessage, currentProduct, currentStep, file.getFileName(), 0);
             }
         } catch (FileNotFoundException fnex) {
             getLogger().warn(errorMessage, remoteUrl, "No such file");
+            Metrics.counter("download_failures_total", "store", this.store.name()).increment();
+            trace.failed(fnex);
             file = null;
         } catch (InterruptedIOException iioe) {
             getLogger().error("Operation timed out");
+            Metrics.counter("download_failures_total", "store", this.store.name()).increment();
+            trace.failed(iioe);
+            if (archiving) {
+                abandonArchive();
+            } else if (writing && (handler != null || !DownloadMode.RESUME.equals(mode))) {
+                Files.deleteIfExists(file);
+            }
             throw new IOException("Operation timed out");
         } catch (Exception ex) {
             getLogger().error(errorMessage, remoteUrl, ex.getMessage());
+            Metrics.counter("download_failures_total", "store", this.store.name()).increment();
+            trace.failed(ex);
+            if (archiving) {
+                abandonArchive();
+                file = null;
+            } else if (writing) {
+                // a partial file is only kept to be resumed, and the output of a handler is never resumed
+                if (handler != null || !DownloadMode.RESUME.equals(mode)) {
+                    Files.deleteIfExists(file);
+                }
+                file = null;
+            }
         } finally {
+            trace.close();
+            inFlight.decrement();
             if (connection != null) {
                 connection.disconnect();
             }
@@ -423,8 +785,194 @@ public abstract class ProductDownloader<T extends ProductDescriptor> {
         return Utilities.ensurePermissions(file);
     }
 
+    /**
+     * Writes the remote file directly into the product archive.
+     */
+    private Path downloadToArchive(HttpURLConnection connection, Path file, String host, long startNanos) throws IOException {
+        long remoteFileLength = connection.getContentLengthLong();
+        String entryName = this.productArchiveRoot.relativize(file.toAbsolutePath()).toString().replace('\\', '/');
+        getLogger().info(startMessage, currentProduct, currentStep, file.getFileName(), (int) (remoteFileLength / 1024));
+        if (this.fileProgressListener != null) {
+            this.fileProgressListener.notifyProgress(0, 0);
+        }
+        long start = System.currentTimeMillis();
+        long lastModified = connection.getLastModified() > 0 ? connection.getLastModified() : start;
+        try (InputStream inputStream = new ProgressInputStream(connection.getInputStream(), remoteFileLength, start)) {
+            long written = this.productArchive.addEntry(entryName, lastModified, remoteFileLength, inputStream);
+            if (remoteFileLength >= 0 && written != remoteFileLength) {
+                throw new IOException(String.format("Transfer interrupted after %s of %s bytes", written, remoteFileLength));
+            }
+        }
+        this.archivedFiles.add(file.toAbsolutePath());
+        long millis = Math.max(System.currentTimeMillis() - start, 1);
+        updateAverageSpeed(remoteFileLength, millis);
+        recordTransfer(host, remoteFileLength, startNanos);
+        getLogger().debug(completeMessage, currentProduct, currentStep, file.getFileName(), millis / 1000);
+        return file;
+    }
+
+    /**
+     * Downloads an entry of a remote zip archive (with a range request) to the given file,
+     * or directly into the product archive, if open.
+     *
+     * @param archive   The remote archive
+     * @param entry     The entry to download
+     * @param file      The local file
+     * @param handler   The handler of the entry contents (if any)
+     * @return  The local file, or <code>null</code> if the entry could not be downloaded
+     */
+    protected Path downloadEntry(RemoteZip archive, RemoteZip.Entry entry, Path file, ContentHandler handler) throws IOException {
+        if (handler == null && isAbandoned(file)) {
+            getLogger().debug("Skipping %s, the product archive was discarded", file.getFileName());
+            return null;
+        }
+        boolean archiving = false;
+        getLogger().info(startMessage, currentProduct, currentStep, file.getFileName(), (int) (entry.getSize() / 1024));
+        if (this.fileProgressListener != null) {
+            this.fileProgressListener.notifyProgress(0, 0);
+        }
+        long start = System.currentTimeMillis();
+        long startNanos = System.nanoTime();
+        Metrics.Gauge inFlight = Metrics.gauge("downloads_in_flight");
+        inFlight.increment();
+        try (ProgressInputStream inputStream = new ProgressInputStream(archive.openEntry(entry), entry.getSize(), start)) {
+            if (handler != null) {
+                handler.handle(inputStream.unclosable(), file);
+                inputStream.checkComplete();
+            } else if (this.productArchive != null && file.toAbsolutePath().startsWith(this.productArchiveRoot)) {
+                archiving = true;
+                String entryName = this.productArchiveRoot.relativize(file.toAbsolutePath()).toString().replace('\\', '/');
+                long written = this.productArchive.addEntry(entryName, entry.getLastModified(), entry.getSize(), inputStream);
+                if (written != entry.getSize()) {
+                    throw new IOException(String.format("Transfer interrupted after %s of %s bytes", written, entry.getSize()));
+                }
+                this.archivedFiles.add(file.toAbsolutePath());
+            } else {
+                Files.copy(inputStream, file, StandardCopyOption.REPLACE_EXISTING);
+                Utilities.ensurePermissions(file);
+            }
+        } catch (InterruptedIOException iioe) {
+            getLogger().error("Operation timed out");
+            if (archiving) {
+                abandonArchive();
+            }
+            throw new IOException("Operation timed out");
+        } catch (IOException ex) {
+            getLogger().error(errorMessage, entry.getName(), ex.getMessage());
+            Metrics.counter("download_failures_total", "store", this.store.name()).increment();
+            if (archiving) {
+                abandonArchive();
+            }
+            Files.deleteIfExists(file);
+            return null;
+        } finally {
+            inFlight.decrement();
+        }
+        long millis = Math.max(System.currentTimeMillis() - start, 1);
+        updateAverageSpeed(entry.getCompressedSize(), millis);
+        recordTransfer(Metrics.host(archive.getUrl()), entry.getCompressedSize(), startNanos);
+        getLogger().debug(completeMessage, currentProduct, currentStep, file.getFileName(), millis / 1000);
+        return file;
+    }
+
+    private void updateAverageSpeed(long length, long millis) {
+        double currentSpeed = (double) length  / 1024. / (double) millis * 1000.;
+        this.averageDownloadSpeed[0] =
+                (this.averageDownloadSpeed[0] * this.averageDownloadSpeed[1] + currentSpeed) / (this.averageDownloadSpeed[1] + 1);
+        this.averageDownloadSpeed[1] += 1;
+    }
+
+    /**
+     * Records a completed transfer in the metrics of the store and of the host
+     */
+    private void recordTransfer(String host, long length, long startNanos) {
+        Metrics.histogram("download_transfer_seconds", "host", host).recordSince(startNanos);
+        Metrics.counter("download_bytes_total", "store", this.store.name()).add(Math.max(length, 0));
+        Metrics.counter("download_files_total", "store", this.store.name()).increment();
+    }
+
     protected Logger.CustomLogger getLogger() {
         return productLogger != null ? productLogger : Logger.getRootLogger();
     }
 
+    /**
+     * Handler of the contents of a remote file, as it is downloaded.
+     */
+    @FunctionalInterface
+    protected interface ContentHandler {
+        /**
+         * Consumes the remote stream and writes the local file.
+         */
+        void handle(InputStream content, Path file) throws IOException;
+    }
+
+    /**
+     * Input stream that notifies the file progress listener as it is read, and fails if it ends before the expected length.
+     */
+    private class ProgressInputStream extends FilterInputStream {
+        private final long length;
+        private final long start;
+        private long totalRead;
+
+        ProgressInputStream(InputStream in, long length, long start) {
+            super(in);
+            this.length = length;
+            this.start = start;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                notifyRead(1);
+            } else {
+                checkLength();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int read = super.read(buffer, offset, count);
+            if (read > 0) {
+                notifyRead(read);
+            } else if (read < 0) {
+                checkLength();
+            }
+            return read;
+        }
+
+        /**
+         * Returns a view of this stream that a handler may close while this stream stays open.
+         */
+        InputStream unclosable() {
+            return new FilterInputStream(this) {
+                @Override
+                public void close() { }
+            };
+        }
+
+        /**
+         * Reads what a handler left unread, so that a short transfer is detected even if the handler stopped early.
+         */
+        void checkComplete() throws IOException {
+            byte[] buffer = new byte[8192];
+            while (read(buffer, 0, buffer.length) >= 0) { }
+        }
+
+        private void checkLength() throws IOException {
+            if (length >= 0 && totalRead != length) {
+                throw new IOException(String.format("Transfer interrupted after %s of %s bytes", totalRead, length));
+            }
+        }
+
+        private void notifyRead(int count) {
+            totalRead += count;
+            if (fileProgressListener != null && length > 0) {
+                long millis = Math.max(System.currentTimeMillis() - start, 1);
+                fileProgressListener.notifyProgress((double) totalRead / (double) length,
+                                                    (double) (totalRead / 1024 / 1024) / (double) millis * 1000.);
+            }
+        }
+    }
 }
@@ -20,16 +20,19 @@ package ro.cs.products.base;
 
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.UsernamePasswordCredentials;
+import ro.cs.products.util.Logger;
+import ro.cs.products.util.Metrics;
 import ro.cs.products.util.Polygon2D;
+import ro.cs.products.util.SimplificationMethod;
 
+import java.awt.geom.Rectangle2D;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.Calendar;
 import java.util.List;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -40,11 +43,13 @@ import java.util.stream.Collectors;
 public abstract class AbstractSearch<T extends Object> {
     protected URI url;
     protected Polygon2D aoi;
+    protected SimplificationMethod aoiSimplification;
     protected double cloudFilter;
     protected String sensingStart;
     protected String sensingEnd;
     protected int relativeOrbit;
     protected Set<String> tiles;
+    protected TileMap tileMap;
     protected T productType;
     protected AbstractSearch<T> additionalProvider;
     protected List<NameValuePair> params;
@@ -57,6 +62,7 @@ public abstract class AbstractSearch<T extends Object> {
     public AbstractSearch(String url) throws URISyntaxException {
         this.url = new URI(url);
         this.cloudFilter = Double.MAX_VALUE;
+        this.aoiSimplification = SimplificationMethod.DOUGLAS_PEUCKER;
     }
 
     public AbstractSearch<T> auth(String user, String pwd) {
@@ -66,11 +72,13 @@ public abstract class AbstractSearch<T extends Object> {
 
     public void copyFiltersFrom(AbstractSearch<T> anotherSearch) {
         this.aoi = anotherSearch.aoi;
+        this.aoiSimplification = anotherSearch.aoiSimplification;
         this.cloudFilter = anotherSearch.cloudFilter;
         this.sensingStart = anotherSearch.sensingStart;
         this.sensingEnd = anotherSearch.sensingEnd;
         this.relativeOrbit = anotherSearch.relativeOrbit;
         this.tiles = anotherSearch.tiles;
+        this.tileMap = anotherSearch.tileMap;
         this.productType = anotherSearch.productType;
         this.params = anotherSearch.params;
         this.filter = anotherSearch.filter;
@@ -96,6 +104,8 @@ public abstract class AbstractSearch<T extends Object> {
 
     public void setAreaOfInterest(Polygon2D polygon) { this.aoi = polygon; }
 
+    public void setAoiSimplification(SimplificationMethod method) { this.aoiSimplification = method; }
+
     public void setClouds(double clouds) {
         this.cloudFilter = clouds;
     }
@@ -106,6 +116,11 @@ public abstract class AbstractSearch<T extends Object> {
 
     public Set<String> getTiles() { return this.tiles; }
 
+    /**
+     * Sets the tile extents used to find the tiles of the area of interest, instead of the shared map of the sensor.
+     */
+    public void setTileMap(TileMap tileMap) { this.tileMap = tileMap; }
+
     public void setProductType(T type) { this.productType = type; }
 
     public T getProductType() { return this.productType; }
@@ -118,48 +133,118 @@ public abstract class AbstractSearch<T extends Object> {
 
     public List<ProductDescriptor> execute() throws Exception {
         List<ProductDescriptor> products = new ArrayList<>();
+        execute(products::addAll);
+        return products;
+    }
+
+    /**
+     * Executes the search and collects the results in a columnar catalog.
+     * Results are added page by page, so the descriptors of a page can be reclaimed as soon as the page is processed.
+     */
+    public ProductCatalog executeCatalog() throws Exception {
+        ProductCatalog catalog = new ProductCatalog();
+        execute(catalog::addAll);
+        return catalog;
+    }
+
+    private void execute(Consumer<List<ProductDescriptor>> consumer) throws Exception {
         if (this.allPages) {
-            final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyyMMdd");
-            final Calendar calendar = Calendar.getInstance();
-            calendar.set(2016, Calendar.DECEMBER, 5);
+            // products before this date don't follow the compact naming and are not filtered on tiles
+            final long cutOffDay = LocalDate.of(2016, 12, 5).toEpochDay();
             List<ProductDescriptor> subList;
             do {
                 start(this.offset);
-                subList = executeImpl();
+                subList = executePage();
                 if (subList != null) {
-                    products.addAll(subList.stream()
-                                .filter(p -> {
-                                    try {
-                                        return  dateFormat.parse(p.getSensingDate()).after(calendar.getTime()) &&
-                                                tiles.stream().anyMatch(t -> p.getName().contains(t));
-                                    } catch (ParseException e) {
-                                        return false;
-                                    }
-                                }).collect(Collectors.toList()));
-                    products.addAll(subList.stream().filter(p -> {
-                        try {
-                            return dateFormat.parse(p.getSensingDate()).before(calendar.getTime());
-                        } catch (ParseException e) {
-                            return false;
-                        }
-                    }).collect(Collectors.toList()));
+                    consumer.accept(subList.stream()
+                                .filter(p -> p.getNameTokens() != null && p.getNameTokens().getSensingDay() > cutOffDay &&
+                                        tiles.stream().anyMatch(t -> p.getName().contains(t)))
+                                .collect(Collectors.toList()));
+                    consumer.accept(subList.stream()
+                                .filter(p -> p.getNameTokens() != null && p.getNameTokens().getSensingDay() <= cutOffDay)
+                                .collect(Collectors.toList()));
                     this.offset += this.pageSize;
                     start(this.offset);
                     limit(this.pageSize);
                 }
             } while (subList != null && !subList.isEmpty());
         } else {
-            products.addAll(executeImpl());
+            consumer.accept(executePage());
         }
         if (hasAdditionalProvider()) {
             this.additionalProvider.start(0);
             this.additionalProvider.setPageSize(this.pageSize);
-            products.addAll(this.additionalProvider.execute());
+            this.additionalProvider.execute(consumer);
         }
-        return products;
     }
 
     protected abstract List<ProductDescriptor> executeImpl() throws Exception;
 
+    private List<ProductDescriptor> executePage() throws Exception {
+        String provider = getClass().getSimpleName();
+        long startNanos = System.nanoTime();
+        List<ProductDescriptor> page = executeImpl();
+        Metrics.histogram("search_page_seconds", "provider", provider).recordSince(startNanos);
+        Metrics.counter("search_products_total", "provider", provider).add(page != null ? page.size() : 0);
+        return page;
+    }
+
+    /**
+     * Returns the WKT of the area of interest to be sent to a remote service.
+     * If the AOI exceeds the given number of points or WKT length, it is simplified (preserving its topology)
+     * with the configured method. If the simplified polygon no longer spans the extent of the AOI (for instance
+     * because small islands were dropped), its convex hull is used instead. The bounding box is used only
+     * if simplification is disabled or cannot produce a small enough polygon.
+     *
+     * @param maxPoints     The maximum number of points accepted by the service
+     * @param maxLength     The maximum length of the WKT text
+     */
+    protected String getFootprint(int maxPoints, int maxLength) {
+        int numPoints = this.aoi.getNumPoints();
+        if (numPoints <= maxPoints) {
+            String wkt = this.aoi.toWKT();
+            if (wkt.length() <= maxLength) {
+                return wkt;
+            }
+        }
+        if (this.aoiSimplification != null) {
+            Rectangle2D bounds = this.aoi.getBounds2D();
+            SimplificationMethod method = this.aoiSimplification;
+            String wkt = simplifyAoi(method, maxPoints, maxLength, bounds);
+            if (wkt == null && method != SimplificationMethod.CONVEX_HULL) {
+                method = SimplificationMethod.CONVEX_HULL;
+                wkt = simplifyAoi(method, maxPoints, maxLength, bounds);
+            }
+            if (wkt != null) {
+                Logger.getRootLogger().debug("AOI with %s points simplified using %s", numPoints, method);
+                return wkt;
+            }
+        }
+        Logger.getRootLogger().debug("AOI with %s points replaced by its bounding box", numPoints);
+        return this.aoi.toWKTBounds();
+    }
+
+    private String simplifyAoi(SimplificationMethod method, int maxPoints, int maxLength, Rectangle2D bounds) {
+        int budget = Math.min(maxPoints, this.aoi.getNumPoints() - 1);
+        while (budget >= 4) {
+            Polygon2D simplified = this.aoi.simplify(budget, method);
+            if (simplified == null) {
+                return null;
+            }
+            Rectangle2D simplifiedBounds = simplified.getBounds2D();
+            if (simplifiedBounds.getWidth() < 0.9 * bounds.getWidth() ||
+                    simplifiedBounds.getHeight() < 0.9 * bounds.getHeight()) {
+                return null;
+            }
+            String wkt = simplified.toWKT();
+            if (wkt.length() <= maxLength) {
+                return wkt;
+            }
+            // the length of the text is roughly proportional to the number of points
+            budget = Math.min(budget - 1, (int) ((long) budget * maxLength / wkt.length()));
+        }
+        return null;
+    }
+
     protected boolean hasAdditionalProvider() { return this.additionalProvider != null; }
 }
@@ -52,5 +52,26 @@ public enum DownloadMode {
      * No remote download will be performed.
      * This works only in conjunction with the --input command line parameter.
      */
-    FILTERED_SYMLINK
+    FILTERED_SYMLINK,
+    /**
+     * The product files (or, if tiles are filtered, the files of the product filtered tiles) will be hard-linked
+     * into the output folder. Where the files cannot be linked (e.g. on another device), they are copied.
+     * No remote download will be performed.
+     * This works only in conjunction with the --input command line parameter.
+     */
+    HARDLINK,
+    /**
+     * The product files (or, if tiles are filtered, the files of the product filtered tiles) will be cloned
+     * (copy-on-write) into the output folder. Where the file system cannot clone them, they are copied.
+     * No remote download will be performed.
+     * This works only in conjunction with the --input command line parameter.
+     */
+    REFLINK;
+
+    /**
+     * Checks if products are taken from a local (or shared) folder instead of being downloaded.
+     */
+    public boolean isLocal() {
+        return this == COPY || this == SYMLINK || this == FILTERED_SYMLINK || this == HARDLINK || this == REFLINK;
+    }
 }
@@ -0,0 +1,448 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.base;
+
+import ro.cs.products.util.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+
+/**
+ * Persistent index of the products of a local archive: for each product, its path, folders and files.
+ * Products are found wherever they are in the archive (whatever its layout), by their names.
+ *
+ * The index is built by a parallel scan of the archive and kept, as a text file, in a hidden folder of its root. When opened again,
+ * it is refreshed from the modification times of the archive folders: only the folders that changed are listed again,
+ * and only the products that appeared (or were replaced) in them are scanned. The contents of a product is assumed
+ * not to change once it is in the archive. Afterwards, products are found and listed without accessing the archive.
+ *
+ * @author Cosmin Cara
+ */
+public class LocalArchiveCatalog {
+    /** The catalog is kept in its own folder, so that saving it does not modify the archive root */
+    public static final String FOLDER_NAME = ".catalog";
+    public static final String FILE_NAME = "products.catalog";
+    private static final String HEADER = "# local archive catalog: A(rchive folder)|P(roduct)\tpath\tmodified[\tD(irectory)|F(ile)]; d(product folder)|f(ile)\tname";
+
+    private final Path root;
+    private final Predicate<String> productNames;
+    private final Map<String, Folder> folders;
+    private final Map<String, Product> products;
+    private final Set<String> seen;
+    private final AtomicInteger scanned;
+    private volatile boolean changed;
+
+    private LocalArchiveCatalog(Path root, Predicate<String> productNames) {
+        this.root = root.toAbsolutePath();
+        this.productNames = productNames;
+        this.folders = new ConcurrentHashMap<>();
+        this.products = new ConcurrentHashMap<>();
+        this.seen = ConcurrentHashMap.newKeySet();
+        this.scanned = new AtomicInteger();
+    }
+
+    /**
+     * Opens the catalog of the given archive, building or refreshing it, and saves it if it changed.
+     * If the catalog cannot be saved (for instance, if the archive is read-only), it is only kept in memory.
+     *
+     * @param root          The root folder of the archive
+     * @param productNames  Recognizes the names of the products (folders or files)
+     * @param parallelism   The number of folders scanned in parallel
+     */
+    public static LocalArchiveCatalog open(Path root, Predicate<String> productNames, int parallelism) throws IOException {
+        LocalArchiveCatalog catalog = new LocalArchiveCatalog(root, productNames);
+        try {
+            Files.createDirectories(catalog.root.resolve(FOLDER_NAME));
+        } catch (IOException e) {
+            Logger.getRootLogger().warn("Cannot create the catalog folder of %s: %s", root, e.getMessage());
+        }
+        catalog.load();
+        int count = catalog.refresh(parallelism);
+        Logger.getRootLogger().debug("%s products in %s (%s scanned)", catalog.size(), root, count);
+        if (catalog.changed) {
+            try {
+                catalog.save();
+            } catch (IOException e) {
+                Logger.getRootLogger().warn("Cannot save the catalog of %s: %s", root, e.getMessage());
+            }
+        }
+        return catalog;
+    }
+
+    /**
+     * Returns the product of the given name, or <code>null</code> if it is not in the archive.
+     */
+    public Product find(String name) {
+        return products.get(name);
+    }
+
+    /**
+     * Returns the number of products of the archive.
+     */
+    public int size() { return products.size(); }
+
+    /**
+     * Updates the catalog with the changes of the archive.
+     *
+     * @param parallelism   The number of folders scanned in parallel
+     * @return  The number of products that were scanned
+     */
+    public int refresh(int parallelism) throws IOException {
+        seen.clear();
+        scanned.set(0);
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new FolderScan(""));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        // whatever was not reached anymore has been removed from the archive
+        if (folders.keySet().retainAll(seen) | products.values().removeIf(product -> !seen.contains(product.path))) {
+            changed = true;
+        }
+        return scanned.get();
+    }
+
+    private void load() throws IOException {
+        Path file = root.resolve(FOLDER_NAME).resolve(FILE_NAME);
+        if (!Files.exists(file)) {
+            changed = true;
+            return;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            Product product = null;
+            List<String> files = null;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\t");
+                try {
+                    switch (tokens[0]) {
+                        case "A":
+                            folders.put(tokens[1].equals(".") ? "" : tokens[1], new Folder(Long.parseLong(tokens[2])));
+                            break;
+                        case "P":
+                            product = new Product(root, tokens[1], Long.parseLong(tokens[2]), "D".equals(tokens[3]));
+                            products.put(product.getName(), product);
+                            files = null;
+                            break;
+                        case "d":
+                            files = new ArrayList<>();
+                            product.files.put(tokens[1].equals(".") ? "" : tokens[1], files);
+                            break;
+                        case "f":
+                            files.add(tokens[1]);
+                            break;
+                        default:
+                            throw new IllegalArgumentException();
+                    }
+                } catch (RuntimeException e) {
+                    // the catalog will be rebuilt
+                    Logger.getRootLogger().warn("Invalid catalog entry in %s: %s", file, line);
+                    folders.clear();
+                    products.clear();
+                    changed = true;
+                    return;
+                }
+            }
+        }
+        // the children of the folders are not saved, they are the folders and products below them
+        for (String path : folders.keySet()) {
+            if (!path.isEmpty()) {
+                Folder parent = folders.get(parentOf(path));
+                if (parent != null) {
+                    parent.children.add(nameOf(path));
+                }
+            }
+        }
+        for (Product product : products.values()) {
+            Folder parent = folders.get(parentOf(product.path));
+            if (parent != null) {
+                parent.children.add(nameOf(product.path));
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Path file = root.resolve(FOLDER_NAME).resolve(FILE_NAME);
+        Path tempFile = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Map.Entry<String, Folder> entry : folders.entrySet()) {
+                    writer.write("A\t" + (entry.getKey().isEmpty() ? "." : entry.getKey()) + "\t" + entry.getValue().modified);
+                    writer.newLine();
+                }
+                for (Product product : products.values()) {
+                    writer.write("P\t" + product.path + "\t" + product.modified + "\t" + (product.directory ? "D" : "F"));
+                    writer.newLine();
+                    for (Map.Entry<String, List<String>> folder : product.files.entrySet()) {
+                        writer.write("d\t" + (folder.getKey().isEmpty() ? "." : folder.getKey()));
+                        writer.newLine();
+                        for (String name : folder.getValue()) {
+                            writer.write("f\t" + name);
+                            writer.newLine();
+                        }
+                    }
+                }
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            changed = false;
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private Path resolve(String path) {
+        return path.isEmpty() ? root : root.resolve(path);
+    }
+
+    private static String child(String parent, String name) {
+        return parent.isEmpty() ? name : parent + "/" + name;
+    }
+
+    private static String parentOf(String path) {
+        int index = path.lastIndexOf('/');
+        return index < 0 ? "" : path.substring(0, index);
+    }
+
+    private static String nameOf(String path) {
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    /**
+     * Scans a folder of the archive (other than a product): if it didn't change, its known children are scanned,
+     * otherwise it is listed again.
+     */
+    @SuppressWarnings("serial")
+    private class FolderScan extends RecursiveAction {
+        private final String path;
+
+        FolderScan(String path) {
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Path folder = resolve(path);
+                long modified;
+                try {
+                    modified = Files.readAttributes(folder, BasicFileAttributes.class).lastModifiedTime().toMillis();
+                } catch (NoSuchFileException e) {
+                    return;
+                }
+                seen.add(path);
+                Folder known = folders.get(path);
+                List<RecursiveAction> scans = new ArrayList<>();
+                if (known != null && known.modified == modified) {
+                    for (String name : known.children) {
+                        String childPath = child(path, name);
+                        Product product = products.get(name);
+                        if (product != null && product.path.equals(childPath)) {
+                            seen.add(childPath);
+                        } else if (folders.containsKey(childPath)) {
+                            scans.add(new FolderScan(childPath));
+                        }
+                    }
+                } else {
+                    Folder current = new Folder(modified);
+                    try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+                        for (Path entry : entries) {
+                            String name = entry.getFileName().toString();
+                            if (name.startsWith(".")) {
+                                continue;
+                            }
+                            if (productNames.test(name)) {
+                                current.children.add(name);
+                                scans.add(new ProductScan(child(path, name)));
+                            } else if (Files.isDirectory(entry)) {
+                                current.children.add(name);
+                                scans.add(new FolderScan(child(path, name)));
+                            }
+                        }
+                    }
+                    folders.put(path, current);
+                    changed = true;
+                }
+                invokeAll(scans);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Scans a product found in a folder that changed: unless it is already known, with the same modification time,
+     * its folders and files are listed.
+     */
+    @SuppressWarnings("serial")
+    private class ProductScan extends RecursiveAction {
+        private final String path;
+
+        ProductScan(String path) {
+            this.path = path;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                Path productPath = resolve(path);
+                BasicFileAttributes attributes;
+                try {
+                    attributes = Files.readAttributes(productPath, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    return;
+                }
+                seen.add(path);
+                long modified = attributes.lastModifiedTime().toMillis();
+                Product known = products.get(nameOf(path));
+                if (known != null && known.path.equals(path) && known.modified == modified) {
+                    return;
+                }
+                Product product = new Product(root, path, modified, attributes.isDirectory());
+                if (product.directory) {
+                    Files.walkFileTree(productPath, new SimpleFileVisitor<Path>() {
+                        @Override
+                        public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                            product.files.put(productPath.relativize(dir).toString().replace('\\', '/'), new ArrayList<>());
+                            return FileVisitResult.CONTINUE;
+                        }
+
+                        @Override
+                        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                            product.files.get(productPath.relativize(file.getParent()).toString().replace('\\', '/'))
+                                         .add(file.getFileName().toString());
+                            return FileVisitResult.CONTINUE;
+                        }
+                    });
+                }
+                if (known != null && !known.path.equals(path)) {
+                    Logger.getRootLogger().debug("Product %s found both in %s and %s", product.getName(), known.path, path);
+                }
+                products.put(product.getName(), product);
+                scanned.incrementAndGet();
+                changed = true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * A folder of the archive (other than a product), with the names of its sub-folders and products.
+     */
+    private static class Folder {
+        private final long modified;
+        private final Set<String> children;
+
+        Folder(long modified) {
+            this.modified = modified;
+            this.children = ConcurrentHashMap.newKeySet();
+        }
+    }
+
+    /**
+     * A product of the archive, with its folders and files.
+     */
+    public static class Product {
+        private final Path root;
+        private final String path;
+        private final long modified;
+        private final boolean directory;
+        // folder (relative to the product, "" for the product folder) -> file names
+        private final Map<String, List<String>> files;
+
+        Product(Path root, String path, long modified, boolean directory) {
+            this.root = root;
+            this.path = path;
+            this.modified = modified;
+            this.directory = directory;
+            this.files = Collections.synchronizedMap(new LinkedHashMap<>());
+        }
+
+        public String getName() { return nameOf(path); }
+
+        /**
+         * Returns the location of the product (a folder or a file).
+         */
+        public Path getPath() { return root.resolve(path); }
+
+        public boolean isDirectory() { return directory; }
+
+        /**
+         * Returns the folders of the product, starting with the product folder.
+         */
+        public List<Path> getFolders() {
+            Path productPath = getPath();
+            List<Path> result = new ArrayList<>(files.size());
+            for (String folder : files.keySet()) {
+                result.add(folder.isEmpty() ? productPath : productPath.resolve(folder));
+            }
+            return result;
+        }
+
+        /**
+         * Returns the files of the given folder of the product.
+         */
+        public List<Path> getFiles(Path folder) {
+            String key = getPath().relativize(folder).toString().replace('\\', '/');
+            List<String> names = files.get(key);
+            List<Path> result = new ArrayList<>();
+            if (names != null) {
+                for (String name : names) {
+                    result.add(folder.resolve(name));
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,422 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.base;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Modifier;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * Compact, column oriented store of search results.
+ * Instead of keeping one descriptor object per product, the catalog keeps the attributes needed for
+ * sorting and grouping in primitive columns (sensing date as epoch day, cloud coverage as float, relative orbit),
+ * the tiles and descriptor types in dictionaries, and the names and identifiers in a single shared character buffer.
+ * Descriptors are rebuilt (from name, identifier and cloud coverage) only when requested.
+ *
+ * Selections are expressed as arrays of row indices, so that sorts and groupings can be chained
+ * without copying the data.
+ *
+ * @author Cosmin Cara
+ */
+public class ProductCatalog implements Iterable<ProductDescriptor> {
+    private static final int INITIAL_CAPACITY = 256;
+
+    public enum SortBy {
+        /* Sensing (acquisition) date */
+        SENSING_DATE,
+        /* Cloud coverage percentage */
+        CLOUDS,
+        /* Tile identifier, in alphabetical order */
+        TILE,
+        /* Relative orbit (or WRS path) */
+        ORBIT
+    }
+
+    public enum GroupBy {
+        /* Tile identifier */
+        TILE,
+        /* Relative orbit (or WRS path) */
+        ORBIT,
+        /* Sensing month, as yyyy-MM */
+        MONTH
+    }
+
+    private char[] chars;
+    private int charCount;
+    // offsets[2*row] is the start of the name, offsets[2*row+1] the start of the id, offsets[2*row+2] the end of the id
+    private int[] offsets;
+    private int[] sensingDays;
+    private float[] clouds;
+    private int[] orbits;
+    private int[] tiles;
+    private byte[] types;
+    private int size;
+    private final Map<String, Integer> tileIndex;
+    private final List<String> tileNames;
+    private final Map<Class<?>, Integer> typeIndex;
+    private final List<Constructor<? extends ProductDescriptor>> typeConstructors;
+
+    public ProductCatalog() {
+        this.chars = new char[INITIAL_CAPACITY * 64];
+        this.offsets = new int[2 * INITIAL_CAPACITY + 1];
+        this.sensingDays = new int[INITIAL_CAPACITY];
+        this.clouds = new float[INITIAL_CAPACITY];
+        this.orbits = new int[INITIAL_CAPACITY];
+        this.tiles = new int[INITIAL_CAPACITY];
+        this.types = new byte[INITIAL_CAPACITY];
+        this.tileIndex = new HashMap<>();
+        this.tileNames = new ArrayList<>();
+        this.typeIndex = new HashMap<>();
+        this.typeConstructors = new ArrayList<>();
+    }
+
+    /**
+     * Adds a product to the catalog. Descriptors without a name cannot be rebuilt and are ignored.
+     *
+     * @param descriptor    The product descriptor
+     * @return  <code>true</code> if the product was added
+     */
+    public boolean add(ProductDescriptor descriptor) {
+        String name = descriptor.getName();
+        if (name == null) {
+            return false;
+        }
+        ensureCapacity(size + 1);
+        String id = descriptor.getId();
+        offsets[2 * size] = charCount;
+        appendChars(name);
+        offsets[2 * size + 1] = charCount;
+        if (id != null) {
+            appendChars(id);
+        }
+        offsets[2 * size + 2] = charCount;
+        ProductNameTokens tokens = descriptor.getNameTokens();
+        sensingDays[size] = tokens != null ? tokens.getSensingDay() : ProductNameTokens.UNKNOWN;
+        orbits[size] = tokens != null ? tokens.getRelativeOrbit() : ProductNameTokens.UNKNOWN;
+        tiles[size] = tokens != null && tokens.getTile() != null ? internTile(tokens.getTile()) : -1;
+        clouds[size] = (float) descriptor.getCloudsPercentage();
+        types[size] = internType(descriptor.getClass());
+        size++;
+        return true;
+    }
+
+    public void addAll(Iterable<? extends ProductDescriptor> descriptors) {
+        if (descriptors != null) {
+            for (ProductDescriptor descriptor : descriptors) {
+                add(descriptor);
+            }
+        }
+    }
+
+    /**
+     * Appends all the rows of another catalog, without materializing them.
+     */
+    public void addAll(ProductCatalog other) {
+        ensureCapacity(size + other.size);
+        for (int row = 0; row < other.size; row++) {
+            int start = other.offsets[2 * row], end = other.offsets[2 * row + 2];
+            int shift = charCount - start;
+            offsets[2 * size] = charCount;
+            appendChars(other.chars, start, end - start);
+            offsets[2 * size + 1] = other.offsets[2 * row + 1] + shift;
+            offsets[2 * size + 2] = charCount;
+            sensingDays[size] = other.sensingDays[row];
+            orbits[size] = other.orbits[row];
+            clouds[size] = other.clouds[row];
+            tiles[size] = other.tiles[row] >= 0 ? internTile(other.tileNames.get(other.tiles[row])) : -1;
+            types[size] = internType(other.typeConstructors.get(other.types[row]).getDeclaringClass());
+            size++;
+        }
+    }
+
+    public int size() { return size; }
+
+    public boolean isEmpty() { return size == 0; }
+
+    public String getName(int row) {
+        checkRow(row);
+        return new String(chars, offsets[2 * row], offsets[2 * row + 1] - offsets[2 * row]);
+    }
+
+    public String getId(int row) {
+        checkRow(row);
+        int start = offsets[2 * row + 1], end = offsets[2 * row + 2];
+        return end > start ? new String(chars, start, end - start) : null;
+    }
+
+    /**
+     * Returns the sensing date as days since epoch, or ProductNameTokens.UNKNOWN.
+     */
+    public int getSensingDay(int row) {
+        checkRow(row);
+        return sensingDays[row];
+    }
+
+    public float getCloudsPercentage(int row) {
+        checkRow(row);
+        return clouds[row];
+    }
+
+    public int getOrbit(int row) {
+        checkRow(row);
+        return orbits[row];
+    }
+
+    public String getTile(int row) {
+        checkRow(row);
+        return tiles[row] >= 0 ? tileNames.get(tiles[row]) : null;
+    }
+
+    /**
+     * Returns the distinct tiles of the catalog.
+     */
+    public List<String> getTiles() { return new ArrayList<>(tileNames); }
+
+    /**
+     * Writes the product names, one per line, straight from the name buffer.
+     */
+    public void writeNames(int[] rows, Writer writer) throws IOException {
+        for (int row : rows) {
+            checkRow(row);
+            writer.write(chars, offsets[2 * row], offsets[2 * row + 1] - offsets[2 * row]);
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    /**
+     * Returns the indices of all the rows, in insertion order.
+     */
+    public int[] rows() {
+        int[] rows = new int[size];
+        for (int i = 0; i < size; i++) {
+            rows[i] = i;
+        }
+        return rows;
+    }
+
+    /**
+     * Returns a sorted copy of the given selection. The sort is stable.
+     */
+    public int[] sort(int[] rows, SortBy key, boolean ascending) {
+        int[] ranks = key == SortBy.TILE ? tileRanks() : null;
+        long[] keys = new long[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            int value;
+            switch (key) {
+                case SENSING_DATE:
+                    value = sensingDays[row];
+                    break;
+                case CLOUDS:
+                    int bits = Float.floatToIntBits(clouds[row]);
+                    value = bits ^ ((bits >> 31) & Integer.MAX_VALUE);
+                    break;
+                case TILE:
+                    value = tiles[row] >= 0 ? ranks[tiles[row]] : -1;
+                    break;
+                default:
+                    value = orbits[row];
+                    break;
+            }
+            // the sort key goes in the upper half, the position in the lower one
+            keys[i] = ((long) (ascending ? value : ~value) << 32) | i;
+        }
+        Arrays.sort(keys);
+        int[] sorted = new int[rows.length];
+        for (int i = 0; i < keys.length; i++) {
+            sorted[i] = rows[(int) keys[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * Groups the rows of the given selection, in key order. Rows for which the key is unknown are left out.
+     */
+    public Map<String, int[]> groupBy(int[] rows, GroupBy key) {
+        Map<String, int[]> groups = new TreeMap<>();
+        Map<String, Integer> counts = new HashMap<>();
+        String[] rowKeys = new String[rows.length];
+        for (int i = 0; i < rows.length; i++) {
+            String groupKey = groupKey(rows[i], key);
+            if (groupKey != null) {
+                rowKeys[i] = groupKey;
+                counts.merge(groupKey, 1, Integer::sum);
+            }
+        }
+        Map<String, Integer> filled = new HashMap<>();
+        for (int i = 0; i < rows.length; i++) {
+            String groupKey = rowKeys[i];
+            if (groupKey != null) {
+                int[] group = groups.computeIfAbsent(groupKey, k -> new int[counts.get(k)]);
+                int position = filled.merge(groupKey, 1, Integer::sum) - 1;
+                group[position] = rows[i];
+            }
+        }
+        return groups;
+    }
+
+    /**
+     * Rebuilds the descriptor of the given row.
+     */
+    public ProductDescriptor get(int row) {
+        checkRow(row);
+        try {
+            ProductDescriptor descriptor = typeConstructors.get(types[row]).newInstance(getName(row));
+            descriptor.setId(getId(row));
+            descriptor.setCloudsPercentage(clouds[row]);
+            return descriptor;
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(String.format("Cannot create descriptor for %s", getName(row)), e);
+        }
+    }
+
+    /**
+     * Rebuilds the descriptors of the given selection.
+     */
+    public List<ProductDescriptor> materialize(int[] rows) {
+        List<ProductDescriptor> descriptors = new ArrayList<>(rows.length);
+        for (int row : rows) {
+            descriptors.add(get(row));
+        }
+        return descriptors;
+    }
+
+    /**
+     * Iterates over the catalog, rebuilding each descriptor only when it is reached.
+     */
+    @Override
+    public Iterator<ProductDescriptor> iterator() {
+        return new Iterator<ProductDescriptor>() {
+            private int current;
+
+            @Override
+            public boolean hasNext() { return current < size; }
+
+            @Override
+            public ProductDescriptor next() {
+                if (current >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(current++);
+            }
+        };
+    }
+
+    private String groupKey(int row, GroupBy key) {
+        switch (key) {
+            case TILE:
+                return tiles[row] >= 0 ? tileNames.get(tiles[row]) : null;
+            case ORBIT:
+                return orbits[row] != ProductNameTokens.UNKNOWN ? String.format("%03d", orbits[row]) : null;
+            default:
+                if (sensingDays[row] == ProductNameTokens.UNKNOWN) {
+                    return null;
+                }
+                LocalDate date = LocalDate.ofEpochDay(sensingDays[row]);
+                return String.format("%04d-%02d", date.getYear(), date.getMonthValue());
+        }
+    }
+
+    private int[] tileRanks() {
+        Integer[] order = new Integer[tileNames.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> tileNames.get(a).compareTo(tileNames.get(b)));
+        int[] ranks = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            ranks[order[i]] = i;
+        }
+        return ranks;
+    }
+
+    private int internTile(String tile) {
+        Integer index = tileIndex.get(tile);
+        if (index == null) {
+            index = tileNames.size();
+            tileNames.add(tile);
+            tileIndex.put(tile, index);
+        }
+        return index;
+    }
+
+    private byte internType(Class<?> type) {
+        Integer index = typeIndex.get(type);
+        if (index == null) {
+            // anonymous subclasses (used by some searches to initialize descriptors) are rebuilt as their parent
+            Class<?> concrete = type;
+            while (concrete.isAnonymousClass() || Modifier.isAbstract(concrete.getModifiers())) {
+                concrete = concrete.getSuperclass();
+            }
+            try {
+                typeConstructors.add(concrete.asSubclass(ProductDescriptor.class).getConstructor(String.class));
+            } catch (NoSuchMethodException e) {
+                throw new IllegalArgumentException(String.format("%s cannot be created from a product name", concrete.getName()));
+            }
+            index = typeConstructors.size() - 1;
+            typeIndex.put(type, index);
+        }
+        return index.byteValue();
+    }
+
+    private void appendChars(String value) {
+        int length = value.length();
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length << 1, charCount + length));
+        }
+        value.getChars(0, length, chars, charCount);
+        charCount += length;
+    }
+
+    private void appendChars(char[] source, int start, int length) {
+        if (charCount + length > chars.length) {
+            chars = Arrays.copyOf(chars, Math.max(chars.length << 1, charCount + length));
+        }
+        System.arraycopy(source, start, chars, charCount, length);
+        charCount += length;
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > sensingDays.length) {
+            int newCapacity = Math.max(capacity, sensingDays.length << 1);
+            offsets = Arrays.copyOf(offsets, 2 * newCapacity + 1);
+            sensingDays = Arrays.copyOf(sensingDays, newCapacity);
+            clouds = Arrays.copyOf(clouds, newCapacity);
+            orbits = Arrays.copyOf(orbits, newCapacity);
+            tiles = Arrays.copyOf(tiles, newCapacity);
+            types = Arrays.copyOf(types, newCapacity);
+        }
+    }
+
+    private void checkRow(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException(String.format("Row %d outside [0, %d)", row, size));
+        }
+    }
+}
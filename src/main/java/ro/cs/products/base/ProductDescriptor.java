@@ -33,6 +33,7 @@ public abstract class ProductDescriptor {
     protected double cloudsPercentage;
     protected String sensingDate;
     protected String version;
+    protected ProductNameTokens tokens;
 
     public ProductDescriptor() {}
 
@@ -59,6 +60,11 @@ public abstract class ProductDescriptor {
         this.id = id;
     }
 
+    /**
+     * Returns the attributes parsed from the product name, or <code>null</code> if the name was not set.
+     */
+    public ProductNameTokens getNameTokens() { return tokens; }
+
     public String getVersion() { return version; }
 
     public void setVersion(String version) { this.version = version; }
@@ -82,6 +88,10 @@ public abstract class ProductDescriptor {
         return this.name;
     }
 
+    /**
+     * Checks that the name matches the expected pattern and, if so, parses it into the name tokens.
+     * Since it is invoked from the constructor, implementations should not rely on field initializers.
+     */
     protected abstract boolean verifyProductName(String name);
 
     protected String[] getTokens(Pattern pattern, String input, Map<Integer, String> replacements) {
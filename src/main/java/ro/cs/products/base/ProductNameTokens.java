@@ -0,0 +1,180 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.base;
+
+import java.time.LocalDate;
+
+/**
+ * Immutable record of the attributes encoded in a product name.
+ * The name is parsed once, when the descriptor is created, and the descriptors answer
+ * all the name-related queries from this record.
+ * Dates are kept as days since epoch and times as seconds of day, so that comparing or sorting
+ * products by date doesn't involve any parsing or allocation.
+ *
+ * @author Cosmin Cara
+ */
+public final class ProductNameTokens {
+    /* Value of the numeric attributes that are not part of the name */
+    public static final int UNKNOWN = -1;
+
+    private final String platform;
+    private final int sensingDay;
+    private final int sensingTime;
+    private final int relativeOrbit;
+    private final String tile;
+    private final int baseline;
+
+    /**
+     * Creates a token record.
+     *
+     * @param platform      The platform (satellite) identifier, as it appears in the name
+     * @param sensingDay    The sensing (acquisition) date, as days since 1970-01-01
+     * @param sensingTime   The sensing time, as seconds of day, or UNKNOWN
+     * @param relativeOrbit The relative orbit (or WRS path for Landsat), or UNKNOWN
+     * @param tile          The tile identifier, as it appears in the name, or <code>null</code>
+     * @param baseline      The processing baseline (e.g. 204 for N0204), or UNKNOWN
+     */
+    public ProductNameTokens(String platform, int sensingDay, int sensingTime, int relativeOrbit, String tile, int baseline) {
+        this.platform = platform;
+        this.sensingDay = sensingDay;
+        this.sensingTime = sensingTime;
+        this.relativeOrbit = relativeOrbit;
+        this.tile = tile;
+        this.baseline = baseline;
+    }
+
+    public String getPlatform() { return platform; }
+
+    /**
+     * Returns the sensing date as days since epoch.
+     */
+    public int getSensingDay() { return sensingDay; }
+
+    /**
+     * Returns the sensing time as seconds of day, or UNKNOWN if the name has only the date.
+     */
+    public int getSensingTime() { return sensingTime; }
+
+    public int getRelativeOrbit() { return relativeOrbit; }
+
+    public String getTile() { return tile; }
+
+    public int getBaseline() { return baseline; }
+
+    public LocalDate getSensingLocalDate() { return LocalDate.ofEpochDay(sensingDay); }
+
+    /**
+     * Returns the sensing date formatted as yyyyMMdd.
+     */
+    public String formatSensingDate() {
+        char[] chars = new char[8];
+        formatDate(chars);
+        return new String(chars);
+    }
+
+    /**
+     * Returns the sensing date and time formatted as yyyyMMdd'T'HHmmss.
+     */
+    public String formatSensingDateTime() {
+        char[] chars = new char[15];
+        formatDate(chars);
+        int time = Math.max(sensingTime, 0);
+        chars[8] = 'T';
+        formatDigits(chars, 9, 2, time / 3600);
+        formatDigits(chars, 11, 2, time / 60 % 60);
+        formatDigits(chars, 13, 2, time % 60);
+        return new String(chars);
+    }
+
+    /**
+     * Parses a non-negative decimal number from the given characters.
+     * Returns UNKNOWN if the range contains a non-digit character.
+     */
+    public static int parseDigits(CharSequence input, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = input.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return UNKNOWN;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Parses a yyyyMMdd date starting at the given offset into days since epoch.
+     */
+    public static int parseEpochDay(CharSequence input, int offset) {
+        return (int) LocalDate.of(parseDigits(input, offset, offset + 4),
+                                  parseDigits(input, offset + 4, offset + 6),
+                                  parseDigits(input, offset + 6, offset + 8)).toEpochDay();
+    }
+
+    /**
+     * Parses a HHmmss time starting at the given offset into seconds of day.
+     */
+    public static int parseSecondOfDay(CharSequence input, int offset) {
+        return parseDigits(input, offset, offset + 2) * 3600 +
+                parseDigits(input, offset + 2, offset + 4) * 60 +
+                parseDigits(input, offset + 4, offset + 6);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        ProductNameTokens that = (ProductNameTokens) o;
+        return sensingDay == that.sensingDay && sensingTime == that.sensingTime &&
+                relativeOrbit == that.relativeOrbit && baseline == that.baseline &&
+                (platform != null ? platform.equals(that.platform) : that.platform == null) &&
+                (tile != null ? tile.equals(that.tile) : that.tile == null);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = platform != null ? platform.hashCode() : 0;
+        result = 31 * result + sensingDay;
+        result = 31 * result + sensingTime;
+        result = 31 * result + relativeOrbit;
+        result = 31 * result + (tile != null ? tile.hashCode() : 0);
+        result = 31 * result + baseline;
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ProductNameTokens{platform=" + platform + ", sensing=" + formatSensingDateTime() +
+                ", orbit=" + relativeOrbit + ", tile=" + tile + ", baseline=" + baseline + "}";
+    }
+
+    private void formatDate(char[] chars) {
+        LocalDate date = LocalDate.ofEpochDay(sensingDay);
+        formatDigits(chars, 0, 4, date.getYear());
+        formatDigits(chars, 4, 2, date.getMonthValue());
+        formatDigits(chars, 6, 2, date.getDayOfMonth());
+    }
+
+    private static void formatDigits(char[] chars, int offset, int length, int value) {
+        for (int i = offset + length - 1; i >= offset; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
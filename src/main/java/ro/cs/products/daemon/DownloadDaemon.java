@@ -0,0 +1,347 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.daemon;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.ParseException;
+import ro.cs.products.Executor;
+import ro.cs.products.util.Constants;
+import ro.cs.products.util.Logger;
+import ro.cs.products.util.Metrics;
+import ro.cs.products.util.NetUtils;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonString;
+import javax.json.JsonStructure;
+import javax.json.JsonValue;
+import javax.json.JsonWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Long-running process accepting download jobs over a local HTTP/JSON API, so that the start of the JVM,
+ * the loading of the tile maps and the opening of the connections are paid once, not for each download.
+ * The jobs take the same arguments as the command line and run on a fixed number of workers, sharing
+ * the tile maps, the connection pools and the metrics of the process. The options that would change the whole process
+ * (the metrics, the trace and the proxy) are rejected: the proxy is set by the proxy.* entries of download.properties.
+ * <ul>
+ *     <li><code>POST /jobs</code> with <code>{"args": ["--out", "...", ...]}</code>: submits a job (201, or 400 if
+ *     the arguments are not valid)</li>
+ *     <li><code>GET /jobs</code>: the jobs known to the daemon</li>
+ *     <li><code>GET /jobs/&lt;id&gt;</code>: the status of a job</li>
+ *     <li><code>GET /jobs/&lt;id&gt;/progress</code>: the progress of a job</li>
+ *     <li><code>DELETE /jobs/&lt;id&gt;</code>: cancels a job that didn't start (409 otherwise)</li>
+ *     <li><code>GET /metrics</code>: the metrics of the process, in the Prometheus text format</li>
+ * </ul>
+ * The API has no authentication, so it listens only on the loopback interface.
+ *
+ * @author Cosmin Cara
+ */
+public class DownloadDaemon implements AutoCloseable {
+    public static final String COMMAND = "serve";
+    public static final int DEFAULT_PORT = 8642;
+    public static final int DEFAULT_WORKERS = 2;
+    /* The finished jobs are forgotten, oldest first, above this count */
+    private static final int MAX_FINISHED_JOBS = 1000;
+    private static final String JOBS_PATH = "/jobs";
+
+    private final HttpServer server;
+    private final ExecutorService scheduler;
+    private final ExecutorService dispatcher;
+    private final Map<String, Job> jobs;
+    private final AtomicLong counter;
+    private final int workers;
+
+    public DownloadDaemon(int port, int workers) throws IOException {
+        this.workers = workers;
+        this.jobs = new LinkedHashMap<>();
+        this.counter = new AtomicLong();
+        this.scheduler = Executors.newFixedThreadPool(workers, threadFactory("job"));
+        this.dispatcher = Executors.newFixedThreadPool(2, threadFactory("daemon-http"));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.setExecutor(this.dispatcher);
+        this.server.createContext(JOBS_PATH, this::handleJobs);
+        this.server.createContext("/metrics", this::handleMetrics);
+    }
+
+    public void start() {
+        this.server.start();
+    }
+
+    /**
+     * Returns the port the daemon listens on (useful when created with port 0).
+     */
+    public int getPort() {
+        return this.server.getAddress().getPort();
+    }
+
+    /**
+     * Queues a job with the given (command line) arguments.
+     *
+     * @throws ParseException   If the arguments are not valid
+     */
+    public Job submit(String[] args) throws ParseException {
+        CommandLine commandLine = Executor.parse(args);
+        if (commandLine.hasOption(Constants.PARAM_METRICS_FILE) || commandLine.hasOption(Constants.PARAM_TRACE_FILE)) {
+            throw new ParseException("The metrics and the trace are process-wide in daemon mode: use GET /metrics");
+        }
+        for (String option : new String[] { Constants.PARAM_PROXY_TYPE, Constants.PARAM_PROXY_HOST, Constants.PARAM_PROXY_PORT,
+                                            Constants.PARAM_PROXY_USER, Constants.PARAM_PROXY_PASSWORD }) {
+            if (commandLine.hasOption(option)) {
+                throw new ParseException("The proxy is process-wide in daemon mode: set it in download.properties");
+            }
+        }
+        Job job = new Job(String.valueOf(counter.incrementAndGet()), args);
+        synchronized (this.jobs) {
+            this.jobs.put(job.getId(), job);
+            forgetFinishedJobs();
+        }
+        synchronized (job) {
+            job.setFuture(this.scheduler.submit(job::run));
+        }
+        Logger.getRootLogger().info("Job %s queued", job.getId());
+        return job;
+    }
+
+    public Job getJob(String id) {
+        synchronized (this.jobs) {
+            return this.jobs.get(id);
+        }
+    }
+
+    public List<Job> getJobs() {
+        synchronized (this.jobs) {
+            return new ArrayList<>(this.jobs.values());
+        }
+    }
+
+    /**
+     * Stops accepting jobs and waits (a while) for the running ones to complete.
+     */
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.dispatcher.shutdownNow();
+        for (Job job : getJobs()) {
+            job.cancel();
+        }
+        this.scheduler.shutdown();
+        try {
+            if (!this.scheduler.awaitTermination(30, TimeUnit.SECONDS)) {
+                this.scheduler.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.scheduler.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void forgetFinishedJobs() {
+        long finished = this.jobs.values().stream().filter(j -> j.getStatus().isFinished()).count();
+        Iterator<Job> iterator = this.jobs.values().iterator();
+        while (finished > MAX_FINISHED_JOBS && iterator.hasNext()) {
+            if (iterator.next().getStatus().isFinished()) {
+                iterator.remove();
+                finished--;
+            }
+        }
+    }
+
+    private void handleJobs(HttpExchange exchange) throws IOException {
+        try {
+            String method = exchange.getRequestMethod();
+            String path = exchange.getRequestURI().getPath().substring(JOBS_PATH.length());
+            String[] segments = path.startsWith("/") ? path.substring(1).split("/") : new String[] { path };
+            if (segments.length == 1 && segments[0].isEmpty()) {
+                if ("POST".equals(method)) {
+                    submit(exchange);
+                } else if ("GET".equals(method)) {
+                    sendJson(exchange, 200, listJobs());
+                } else {
+                    sendError(exchange, 405, "Unsupported method " + method);
+                }
+                return;
+            }
+            Job job = getJob(segments[0]);
+            if (job == null || segments.length > 2 || (segments.length == 2 && !"progress".equals(segments[1]))) {
+                sendError(exchange, 404, "No such job");
+            } else if (segments.length == 2) {
+                if ("GET".equals(method)) {
+                    sendJson(exchange, 200, job.progressToJson());
+                } else {
+                    sendError(exchange, 405, "Unsupported method " + method);
+                }
+            } else if ("GET".equals(method)) {
+                sendJson(exchange, 200, job.toJson());
+            } else if ("DELETE".equals(method)) {
+                if (job.cancel()) {
+                    Logger.getRootLogger().info("Job %s cancelled", job.getId());
+                    sendJson(exchange, 200, job.toJson());
+                } else {
+                    sendError(exchange, 409, "Job " + job.getId() + " is " + job.getStatus().name().toLowerCase());
+                }
+            } else {
+                sendError(exchange, 405, "Unsupported method " + method);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void submit(HttpExchange exchange) throws IOException {
+        String[] args;
+        try (JsonReader reader = Json.createReader(exchange.getRequestBody())) {
+            JsonObject request = reader.readObject();
+            JsonArray values = request.getJsonArray("args");
+            if (values == null) {
+                sendError(exchange, 400, "Missing args");
+                return;
+            }
+            args = new String[values.size()];
+            for (int i = 0; i < args.length; i++) {
+                JsonValue value = values.get(i);
+                if (value.getValueType() != JsonValue.ValueType.STRING) {
+                    sendError(exchange, 400, "The args must be strings");
+                    return;
+                }
+                args[i] = ((JsonString) value).getString();
+            }
+        } catch (JsonException | ClassCastException e) {
+            sendError(exchange, 400, "Invalid request: " + e.getMessage());
+            return;
+        }
+        try {
+            Job job = submit(args);
+            exchange.getResponseHeaders().set("Location", JOBS_PATH + "/" + job.getId());
+            sendJson(exchange, 201, job.toJson());
+        } catch (ParseException e) {
+            sendError(exchange, 400, e.getMessage());
+        }
+    }
+
+    private JsonObject listJobs() {
+        JsonArrayBuilder array = Json.createArrayBuilder();
+        int queued = 0;
+        int running = 0;
+        for (Job job : getJobs()) {
+            array.add(job.toJson());
+            if (job.getStatus() == Job.Status.QUEUED) {
+                queued++;
+            } else if (job.getStatus() == Job.Status.RUNNING) {
+                running++;
+            }
+        }
+        return Json.createObjectBuilder()
+                .add("workers", this.workers)
+                .add("queued", queued)
+                .add("running", running)
+                .add("jobs", array)
+                .build();
+    }
+
+    private void handleMetrics(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                sendError(exchange, 405, "Unsupported method " + exchange.getRequestMethod());
+                return;
+            }
+            StringWriter writer = new StringWriter();
+            Metrics.writePrometheus(writer);
+            send(exchange, 200, "text/plain; version=0.0.4", writer.toString());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, Json.createObjectBuilder().add("error", message).build());
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonStructure json) throws IOException {
+        StringWriter writer = new StringWriter();
+        try (JsonWriter jsonWriter = Json.createWriter(writer)) {
+            jsonWriter.write(json);
+        }
+        send(exchange, status, "application/json", writer.toString());
+    }
+
+    private static void send(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private static ThreadFactory threadFactory(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Starts the daemon. The arguments are the port (default 8642) and the number of jobs run at the same time
+     * (default 2). The messages of the daemon and of its jobs go to daemon.log, in the working folder.
+     */
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int workers = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_WORKERS;
+        // the keep-alive cache of HttpURLConnection reads its size when first used
+        if (System.getProperty("http.maxConnections") == null) {
+            System.setProperty("http.maxConnections", String.valueOf(4 * workers));
+        }
+        NetUtils.setMaxConnections(4 * workers);
+        Logger.initialize(Paths.get("daemon.log").toAbsolutePath().toString(), false);
+        Executor.preloadTileMaps();
+        DownloadDaemon daemon = new DownloadDaemon(port, workers);
+        Runtime.getRuntime().addShutdownHook(new Thread(daemon::close, "daemon-shutdown"));
+        daemon.start();
+        Logger.getRootLogger().info("Accepting download jobs on http://%s:%s%s (%s workers)",
+                                    InetAddress.getLoopbackAddress().getHostAddress(), daemon.getPort(), JOBS_PATH, workers);
+        // the workers and the HTTP threads are daemon threads, the process lives until it is stopped
+        Thread.currentThread().join();
+    }
+}
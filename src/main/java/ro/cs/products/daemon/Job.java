@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.daemon;
+
+import ro.cs.products.Executor;
+import ro.cs.products.util.Logger;
+import ro.cs.products.util.ReturnCode;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import java.time.Instant;
+import java.util.concurrent.Future;
+
+/**
+ * A download job of the daemon: the arguments it was submitted with (the same as on the command line),
+ * its state and its progress, as reported by the downloader.
+ *
+ * @author Cosmin Cara
+ */
+public class Job {
+
+    public enum Status {
+        QUEUED,
+        RUNNING,
+        SUCCEEDED,
+        FAILED,
+        CANCELLED;
+
+        public boolean isFinished() {
+            return this != QUEUED && this != RUNNING;
+        }
+    }
+
+    private final String id;
+    private final String[] args;
+    private final long submitted;
+    private volatile Status status;
+    private volatile long started;
+    private volatile long finished;
+    private volatile Integer returnCode;
+    private volatile String error;
+    private volatile double productProgress;
+    private volatile double fileProgress;
+    private volatile double rate;
+    private Future<?> future;
+
+    Job(String id, String[] args) {
+        this.id = id;
+        this.args = args.clone();
+        this.submitted = System.currentTimeMillis();
+        this.status = Status.QUEUED;
+    }
+
+    public String getId() { return id; }
+
+    public String[] getArgs() { return args.clone(); }
+
+    public Status getStatus() { return status; }
+
+    /**
+     * Returns the return code of the downloader, or <code>null</code> if the job didn't complete.
+     */
+    public Integer getReturnCode() { return returnCode; }
+
+    /**
+     * Returns the message of the error that stopped the job, if any.
+     */
+    public String getError() { return error; }
+
+    /**
+     * Returns the fraction of the products already processed.
+     */
+    public double getProductProgress() { return productProgress; }
+
+    void setFuture(Future<?> future) { this.future = future; }
+
+    /**
+     * Cancels the job, if not yet started.
+     *
+     * @return  <code>true</code> if the job was cancelled
+     */
+    synchronized boolean cancel() {
+        if (this.status != Status.QUEUED) {
+            return false;
+        }
+        this.status = Status.CANCELLED;
+        this.finished = System.currentTimeMillis();
+        if (this.future != null) {
+            this.future.cancel(false);
+        }
+        return true;
+    }
+
+    void run() {
+        synchronized (this) {
+            if (this.status != Status.QUEUED) {
+                return;
+            }
+            this.status = Status.RUNNING;
+            this.started = System.currentTimeMillis();
+        }
+        Logger.getRootLogger().info("Job %s started", id);
+        try {
+            int code = Executor.execute(args,
+                                        value -> this.productProgress = value,
+                                        (value, rate) -> {
+                                            this.fileProgress = value;
+                                            this.rate = rate;
+                                        });
+            this.returnCode = code;
+            this.status = code == ReturnCode.OK ? Status.SUCCEEDED : Status.FAILED;
+        } catch (Exception e) {
+            this.error = e.getMessage() != null ? e.getMessage() : e.getClass().getName();
+            this.status = Status.FAILED;
+            Logger.getRootLogger().error("Job %s failed: %s", id, this.error);
+        } finally {
+            this.finished = System.currentTimeMillis();
+        }
+        Logger.getRootLogger().info("Job %s completed with status %s", id, status);
+    }
+
+    JsonObject toJson() {
+        JsonArrayBuilder arguments = Json.createArrayBuilder();
+        for (String arg : args) {
+            arguments.add(arg);
+        }
+        JsonObjectBuilder builder = Json.createObjectBuilder()
+                .add("id", id)
+                .add("status", status.name())
+                .add("args", arguments)
+                .add("submitted", Instant.ofEpochMilli(submitted).toString());
+        if (started > 0) {
+            builder.add("started", Instant.ofEpochMilli(started).toString());
+        }
+        if (finished > 0) {
+            builder.add("finished", Instant.ofEpochMilli(finished).toString());
+        }
+        if (returnCode != null) {
+            builder.add("returnCode", returnCode);
+        }
+        if (error != null) {
+            builder.add("error", error);
+        }
+        return builder.add("progress", progressToJson()).build();
+    }
+
+    /**
+     * Returns the progress of the job: the fraction of the products processed, the fraction of the current file
+     * downloaded and the transfer rate of the current file (MB/s).
+     */
+    JsonObject progressToJson() {
+        return Json.createObjectBuilder()
+                .add("status", status.name())
+                .add("products", productProgress)
+                .add("file", fileProgress)
+                .add("rate", rate)
+                .build();
+    }
+}
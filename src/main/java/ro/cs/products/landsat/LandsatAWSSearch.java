@@ -74,7 +74,7 @@ public class LandsatAWSSearch extends AbstractSearch<CollectionCategory> {
         Set<String> tiles = this.tiles != null && this.tiles.size() > 0 ?
                 this.tiles :
                 this.aoi != null ?
-                        LandsatTilesMap.getInstance().intersectingTiles(this.aoi.getBounds2D()) :
+                        (this.tileMap != null ? this.tileMap : LandsatTilesMap.getInstance()).intersectingTiles(this.aoi.getBounds2D()) :
                         new HashSet<>();
         final DateTimeFormatter fileDateFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd");
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
@@ -90,6 +90,8 @@ public class LandsatAWSSearch extends AbstractSearch<CollectionCategory> {
         startDate.setTime(dateFormat.parse(this.sensingStart));
         Calendar endDate = Calendar.getInstance();
         endDate.setTime(dateFormat.parse(this.sensingEnd));
+        final long startDay = LocalDate.of(startDate.get(Calendar.YEAR), startDate.get(Calendar.MONTH) + 1, startDate.get(Calendar.DAY_OF_MONTH)).toEpochDay();
+        final long endDay = LocalDate.of(endDate.get(Calendar.YEAR), endDate.get(Calendar.MONTH) + 1, endDate.get(Calendar.DAY_OF_MONTH)).toEpochDay();
         final String baseUrl = this.url.toString();
         final boolean isPreCollection = baseUrl.contains("prefix=c1");
         for (String tile : tiles) {
@@ -104,12 +106,13 @@ public class LandsatAWSSearch extends AbstractSearch<CollectionCategory> {
                 for (String name : names) {
                     if (!isPreCollection || (this.productType != null && name.endsWith(this.productType.toString()))) {
                         LandsatProductDescriptor temporaryDescriptor = new LandsatProductDescriptor(name);
-                        Calendar productDate = temporaryDescriptor.getAcquisitionDate();
-                        if (startDate.before(productDate) && endDate.after(productDate)) {
+                        int productDay = temporaryDescriptor.getNameTokens().getSensingDay();
+                        if (startDay < productDay && productDay < endDay) {
                             String jsonTile = tileUrl + name + ProductDownloader.URL_SEPARATOR + name + "_MTL.json";
                             jsonTile = jsonTile.replace(Constants.L8_SEARCH_URL_SUFFIX, "");
                             double clouds = getTileCloudPercentage(jsonTile);
                             if (clouds > this.cloudFilter) {
+                                Calendar productDate = temporaryDescriptor.getAcquisitionDate();
                                 productDate.add(Calendar.MONTH, -1);
                                 Logger.getRootLogger().warn(
                                         String.format("Tile %s from %s has %.2f %% clouds",
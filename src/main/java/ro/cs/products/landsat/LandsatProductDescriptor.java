@@ -20,10 +20,9 @@ package ro.cs.products.landsat;
 
 import ro.cs.products.ProductDownloader;
 import ro.cs.products.base.ProductDescriptor;
+import ro.cs.products.base.ProductNameTokens;
 import ro.cs.products.util.Constants;
 
-import java.text.SimpleDateFormat;
-import java.time.LocalDate;
 import java.time.Year;
 import java.time.ZoneId;
 import java.util.Calendar;
@@ -40,7 +39,7 @@ public class LandsatProductDescriptor extends ProductDescriptor {
     private static final Pattern preCollectionNamePattern = Pattern.compile("L\\w[1-8](\\d{3})(\\d{3})(\\d{4})(\\d{3})\\w{3}\\d{2}");
     private static final Pattern collection1NamePattern = Pattern.compile("L\\w\\d{2}_L[1-2]\\w{2}_(\\d{3})(\\d{3})_(\\d{4})(\\d{2})(\\d{2})_\\d{8}_\\d{2}_(\\w{2})");
     private boolean oldFormat;
-    private String[] nameTokens;
+    private String category;
     private String row;
     private String path;
     private CollectionCategory productType;
@@ -48,11 +47,16 @@ public class LandsatProductDescriptor extends ProductDescriptor {
     public LandsatProductDescriptor() {
     }
 
+    /**
+     * Checks if the given name is the name of a Landsat product (pre-collection or collection 1)
+     */
+    public static boolean isProductName(String name) {
+        return preCollectionNamePattern.matcher(name).matches() || collection1NamePattern.matcher(name).matches();
+    }
+
     public LandsatProductDescriptor(String name) {
         super(name);
         this.version = this.oldFormat ? Constants.L8_PRECOLL : Constants.L8_COLL;
-        this.nameTokens = this.oldFormat ? getTokens(preCollectionNamePattern, name, null)
-                : getTokens(collection1NamePattern, name, null);
     }
 
     @Override
@@ -65,19 +69,19 @@ public class LandsatProductDescriptor extends ProductDescriptor {
 
     @Override
     public String getSensingDate() {
-        return new SimpleDateFormat("yyyyMMdd").format(getAcquisitionDate().getTime());
+        return this.tokens.formatSensingDate();
     }
 
     public CollectionCategory getProductType() {
         if (this.productType == null) {
-            this.productType = Enum.valueOf(CollectionCategory.class, nameTokens[5]);
+            this.productType = Enum.valueOf(CollectionCategory.class, this.category);
         }
         return this.productType;
     }
 
     String getRow() {
-        if (this.row == null && this.nameTokens != null) {
-            this.row = nameTokens[1];
+        if (this.row == null && this.tokens != null) {
+            this.row = this.tokens.getTile().substring(3);
         }
         return this.row;
     }
@@ -87,8 +91,8 @@ public class LandsatProductDescriptor extends ProductDescriptor {
     }
 
     public String getPath() {
-        if (this.path == null && this.nameTokens != null) {
-            this.path = nameTokens[0];
+        if (this.path == null && this.tokens != null) {
+            this.path = this.tokens.getTile().substring(0, 3);
         }
         return this.path;
     }
@@ -112,28 +116,37 @@ public class LandsatProductDescriptor extends ProductDescriptor {
 
     Calendar getAcquisitionDate() {
         Calendar calendar = Calendar.getInstance();
-        LocalDate localDate = null;
-        Matcher matcher;
-        if (this.oldFormat) {
-            matcher = preCollectionNamePattern.matcher(name);
-            //noinspection ResultOfMethodCallIgnored
-            matcher.matches();
-            localDate = Year.of(Integer.parseInt(matcher.group(3))).atDay(Integer.parseInt(matcher.group(4)));
-        } else {
-            matcher = collection1NamePattern.matcher(name);
-            //noinspection ResultOfMethodCallIgnored
-            matcher.matches();
-            localDate = LocalDate.parse(matcher.group(3)
-                                                + "-" + matcher.group(4)
-                                                + "-" + matcher.group(5));
-        }
-        calendar.setTime(Date.from(localDate.atStartOfDay().atZone(ZoneId.systemDefault()).toInstant()));
+        calendar.setTime(Date.from(this.tokens.getSensingLocalDate().atStartOfDay().atZone(ZoneId.systemDefault()).toInstant()));
         return calendar;
     }
 
     @Override
     protected boolean verifyProductName(String name) {
-        this.oldFormat = preCollectionNamePattern.matcher(name).matches();
-        return this.oldFormat || collection1NamePattern.matcher(name).matches();
+        Matcher matcher = preCollectionNamePattern.matcher(name);
+        this.oldFormat = matcher.matches();
+        if (!this.oldFormat) {
+            matcher = collection1NamePattern.matcher(name);
+            if (!matcher.matches()) {
+                return false;
+            }
+        }
+        int sensingDay;
+        if (this.oldFormat) {
+            // pre-collection names hold the year and the day of year
+            sensingDay = (int) Year.of(ProductNameTokens.parseDigits(name, matcher.start(3), matcher.end(3)))
+                                   .atDay(ProductNameTokens.parseDigits(name, matcher.start(4), matcher.end(4)))
+                                   .toEpochDay();
+            this.category = null;
+        } else {
+            sensingDay = ProductNameTokens.parseEpochDay(name, matcher.start(3));
+            this.category = matcher.group(6);
+        }
+        // the WRS path plays the role of the relative orbit, and the path and row form the tile identifier
+        this.tokens = new ProductNameTokens(name.substring(0, this.oldFormat ? 3 : 4),
+                                            sensingDay, ProductNameTokens.UNKNOWN,
+                                            ProductNameTokens.parseDigits(name, matcher.start(1), matcher.end(1)),
+                                            name.substring(matcher.start(1), matcher.end(2)),
+                                            ProductNameTokens.UNKNOWN);
+        return true;
     }
 }
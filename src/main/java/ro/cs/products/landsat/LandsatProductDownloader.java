@@ -21,16 +21,20 @@ package ro.cs.products.landsat;
 import ro.cs.products.ProductDownloader;
 import ro.cs.products.util.Constants;
 import ro.cs.products.util.Logger;
+import ro.cs.products.util.Polygon2D;
+import ro.cs.products.util.RemoteTiff;
 import ro.cs.products.util.Utilities;
-import ro.cs.products.util.Zipper;
 
+import java.awt.Rectangle;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.LinkedHashSet;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Predicate;
 
 /**
  * Simple tool to download Landsat-8 L1T products from Amazon WS.
@@ -53,6 +57,8 @@ public class LandsatProductDownloader extends ProductDownloader<LandsatProductDe
         add("_BQA.TIF");
     }};
 
+    private Polygon2D clipArea;
+
     public LandsatProductDownloader(String targetFolder, Properties properties) {
         super(targetFolder, properties, null);
 
@@ -61,6 +67,12 @@ public class LandsatProductDownloader extends ProductDownloader<LandsatProductDe
             baseUrl += "/";
     }
 
+    /**
+     * Restricts the band rasters to the given area: only the internal tiles of the rasters that intersect it
+     * are downloaded, into cropped rasters.
+     */
+    public void setClipArea(Polygon2D area) { this.clipArea = area; }
+
     @Override
     protected String getMetadataUrl(LandsatProductDescriptor descriptor) {
         return getProductUrl(descriptor) + descriptor.getName() + "_MTL.txt";
@@ -72,22 +84,40 @@ public class LandsatProductDownloader extends ProductDownloader<LandsatProductDe
         String productName = product.getName();
         Path rootPath = Utilities.ensureExists(Paths.get(destination, productName));
         productLogger = new Logger.ScopeLogger(rootPath.resolve("download.log").toString());
+        openArchive(rootPath);
         url = getMetadataUrl(product);
         Path metadataFile = rootPath.resolve(productName + "_MTL.txt");
         currentStep = "Metadata";
         getLogger().debug("Downloading metadata file %s", metadataFile);
-        metadataFile = downloadFile(url, metadataFile);
-        if (metadataFile != null && Files.exists(metadataFile)) {
+        SceneCorners corners = null;
+        boolean inScene = true;
+        if (this.clipArea != null) {
+            // the corners of the scene are read from the metadata, which is kept on disk until the end
+            metadataFile = downloadFile(url, metadataFile, null,
+                                        (content, file) -> Files.copy(content, file, StandardCopyOption.REPLACE_EXISTING));
+            if (isDownloaded(metadataFile)) {
+                corners = SceneCorners.read(metadataFile);
+                if (!corners.intersects(this.clipArea)) {
+                    getLogger().warn("The area of interest doesn't intersect the product %s", productName);
+                    inScene = false;
+                }
+            }
+        } else {
+            metadataFile = downloadFile(url, metadataFile);
+        }
+        if (isDownloaded(metadataFile)) {
             for (String suffix : bandFiles) {
                 String bandName = suffix.substring(1, suffix.indexOf("."));
-                if (this.bands == null || this.bands.contains(bandName)) {
+                if (inScene && (this.bands == null || this.bands.contains(bandName))) {
                     String bandFileName = productName + suffix;
                     currentStep = "Band " + bandFileName;
                     try {
                         String bandFileUrl = getProductUrl(product) + bandFileName;
                         Path path = rootPath.resolve(bandFileName);
-                        getLogger().debug("Downloading band raster %s from %s", path, bandFileUrl);
-                        downloadFile(bandFileUrl, path);
+                        if (corners == null || downloadWindow(bandFileUrl, path, corners) == null) {
+                            getLogger().debug("Downloading band raster %s from %s", path, bandFileUrl);
+                            downloadFile(bandFileUrl, path);
+                        }
                     } catch (IOException ex) {
                         getLogger().warn("Download for %s failed [%s]", bandFileName, ex.getMessage());
                     }
@@ -110,11 +140,37 @@ public class LandsatProductDownloader extends ProductDownloader<LandsatProductDe
         }
         if (shouldCompress && rootPath != null) {
             getLogger().debug("Compressing product %s", product);
-            Zipper.compress(rootPath, rootPath.getFileName().toString(), shouldDeleteAfterCompression);
+            rootPath = compress(rootPath);
         }
         return rootPath;
     }
 
+    /**
+     * Downloads the internal tiles of a band raster that intersect the clip area into a cropped raster.
+     *
+     * @return  The cropped raster, or <code>null</code> if the raster cannot be read by tiles
+     */
+    private Path downloadWindow(String url, Path file, SceneCorners corners) throws IOException {
+        RemoteTiff tiff;
+        try {
+            tiff = RemoteTiff.open(url, null);
+        } catch (IOException ex) {
+            getLogger().debug("Cannot read the tiles of %s [%s]", url, ex.getMessage());
+            return null;
+        }
+        if (tiff == null) {
+            return null;
+        }
+        Rectangle window = corners.window(this.clipArea, tiff.getWidth(), tiff.getHeight());
+        getLogger().info("(%s,%s) %s [window: %sx%s of %sx%s pixels]", currentProduct, currentStep, file.getFileName(),
+                         window.width, window.height, tiff.getWidth(), tiff.getHeight());
+        long start = System.currentTimeMillis();
+        Rectangle bounds = tiff.crop(window, file);
+        getLogger().debug("(%s,%s) %s [cropped to %s, %skB read in %ss]", currentProduct, currentStep, file.getFileName(),
+                          bounds, tiff.getTransferred() / 1024, (System.currentTimeMillis() - start) / 1000);
+        return file;
+    }
+
     @Override
     protected String getProductUrl(LandsatProductDescriptor descriptor) {
         return baseUrl + descriptor.getProductRelativePath();
@@ -124,4 +180,9 @@ public class LandsatProductDownloader extends ProductDownloader<LandsatProductDe
     protected boolean isIntendedFor(LandsatProductDescriptor product) {
         return true;
     }
+
+    @Override
+    protected Predicate<String> productNames() {
+        return LandsatProductDescriptor::isProductName;
+    }
 }
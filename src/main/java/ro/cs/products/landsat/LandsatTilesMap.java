@@ -40,7 +40,10 @@ public class LandsatTilesMap extends TileMap {
         return instance;
     }
 
-    private LandsatTilesMap() { super(); }
+    /**
+     * Creates an empty map, unlike the shared map returned by {@link #getInstance()}.
+     */
+    public LandsatTilesMap() { super(); }
 
     @Override
     public void fromKml(BufferedReader bufferedReader) throws IOException {
@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.landsat;
+
+import ro.cs.products.util.Polygon2D;
+
+import java.awt.Rectangle;
+import java.awt.geom.PathIterator;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The geographic corners of a Landsat-8 scene, as given by its MTL metadata file, used to locate an area
+ * in the band rasters of the scene without reprojecting it.
+ * Between the corners, the position of a point is interpolated bilinearly. Since this departs from the
+ * projection of the scene by a few hundred meters at most, the windows are extended by a margin of 0.5%
+ * of the scene (about 900m).
+ *
+ * @author Cosmin Cara
+ */
+public class SceneCorners {
+    private static final Pattern CORNER = Pattern.compile("\\s*CORNER_(UL|UR|LL|LR)_(LAT|LON)_PRODUCT\\s*=\\s*(-?[\\d.]+)\\s*");
+    private static final double MARGIN = 0.005;
+    private static final int ITERATIONS = 20;
+
+    /* The bilinear mapping, as a + b*u + c*v + d*u*v, for longitudes [0] and latitudes [1] */
+    private final double[] a;
+    private final double[] b;
+    private final double[] c;
+    private final double[] d;
+
+    /**
+     * Creates the corners of a scene, each given as <code>{lon, lat}</code>.
+     */
+    public SceneCorners(double[] upperLeft, double[] upperRight, double[] lowerLeft, double[] lowerRight) {
+        this.a = new double[2];
+        this.b = new double[2];
+        this.c = new double[2];
+        this.d = new double[2];
+        for (int i = 0; i < 2; i++) {
+            a[i] = upperLeft[i];
+            b[i] = upperRight[i] - upperLeft[i];
+            c[i] = lowerLeft[i] - upperLeft[i];
+            d[i] = lowerRight[i] - upperRight[i] - lowerLeft[i] + upperLeft[i];
+        }
+    }
+
+    /**
+     * Reads the corners of the scene (<code>CORNER_UL_LAT_PRODUCT</code> and the like) from its MTL file.
+     */
+    public static SceneCorners read(Path metadataFile) throws IOException {
+        Map<String, Double> values = new HashMap<>();
+        for (String line : Files.readAllLines(metadataFile, StandardCharsets.UTF_8)) {
+            Matcher matcher = CORNER.matcher(line);
+            if (matcher.matches()) {
+                values.put(matcher.group(1) + matcher.group(2), Double.parseDouble(matcher.group(3)));
+            }
+        }
+        if (values.size() != 8) {
+            throw new IOException(String.format("The scene corners are missing from %s", metadataFile));
+        }
+        return new SceneCorners(new double[] { values.get("ULLON"), values.get("ULLAT") },
+                                new double[] { values.get("URLON"), values.get("URLAT") },
+                                new double[] { values.get("LLLON"), values.get("LLLAT") },
+                                new double[] { values.get("LRLON"), values.get("LRLAT") });
+    }
+
+    /**
+     * Locates a point in the scene.
+     *
+     * @return  The position of the point, as fractions of the width and of the height of the scene
+     *          (between 0 and 1 for the points inside the scene)
+     */
+    public double[] toImage(double lon, double lat) {
+        double u = 0.5, v = 0.5;
+        for (int i = 0; i < ITERATIONS; i++) {
+            // Newton's method on the bilinear mapping
+            double fx = a[0] + b[0] * u + c[0] * v + d[0] * u * v - lon;
+            double fy = a[1] + b[1] * u + c[1] * v + d[1] * u * v - lat;
+            double dxu = b[0] + d[0] * v, dxv = c[0] + d[0] * u;
+            double dyu = b[1] + d[1] * v, dyv = c[1] + d[1] * u;
+            double determinant = dxu * dyv - dxv * dyu;
+            if (determinant == 0) {
+                break;
+            }
+            double du = (fx * dyv - fy * dxv) / determinant;
+            double dv = (fy * dxu - fx * dyu) / determinant;
+            u -= du;
+            v -= dv;
+            if (Math.abs(du) < 1e-12 && Math.abs(dv) < 1e-12) {
+                break;
+            }
+        }
+        return new double[] { u, v };
+    }
+
+    /**
+     * Computes the window of a raster of the scene that covers the given area.
+     *
+     * @param area      The area, in geographic coordinates
+     * @param width     The width of the raster
+     * @param height    The height of the raster
+     * @return  The window, in pixels, or <code>null</code> if the area doesn't intersect the scene
+     */
+    public Rectangle window(Polygon2D area, int width, int height) {
+        double[] bounds = bounds(area);
+        if (bounds == null) {
+            return null;
+        }
+        int x = (int) Math.floor(bounds[0] * width);
+        int y = (int) Math.floor(bounds[1] * height);
+        return new Rectangle(x, y,
+                             Math.max((int) Math.ceil(bounds[2] * width) - x, 1),
+                             Math.max((int) Math.ceil(bounds[3] * height) - y, 1));
+    }
+
+    /**
+     * Checks if the given area intersects the scene.
+     */
+    public boolean intersects(Polygon2D area) {
+        return bounds(area) != null;
+    }
+
+    /**
+     * Computes the bounds, in fractions of the scene and clipped to it, of the given area.
+     */
+    private double[] bounds(Polygon2D area) {
+        double minU = Double.MAX_VALUE, minV = Double.MAX_VALUE, maxU = -Double.MAX_VALUE, maxV = -Double.MAX_VALUE;
+        double[] coordinates = new double[6];
+        PathIterator iterator = area.getPath().getPathIterator(null);
+        while (!iterator.isDone()) {
+            int segment = iterator.currentSegment(coordinates);
+            if (segment == PathIterator.SEG_MOVETO || segment == PathIterator.SEG_LINETO) {
+                double[] position = toImage(coordinates[0], coordinates[1]);
+                minU = Math.min(minU, position[0]);
+                maxU = Math.max(maxU, position[0]);
+                minV = Math.min(minV, position[1]);
+                maxV = Math.max(maxV, position[1]);
+            }
+            iterator.next();
+        }
+        minU = Math.max(minU - MARGIN, 0);
+        minV = Math.max(minV - MARGIN, 0);
+        maxU = Math.min(maxU + MARGIN, 1);
+        maxV = Math.min(maxV + MARGIN, 1);
+        return minU < maxU && minV < maxV ? new double[] { minU, minV, maxU, maxV } : null;
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.sentinel2;
+
+import ro.cs.products.util.Constants;
+import ro.cs.products.util.XmlFactories;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Filters the granule list of a product metadata file, keeping only the granules of a given set of tiles.
+ * The metadata is read as a stream of XML events and written as it is read: only the granule being examined
+ * is held in memory, whatever the size of the document or the layout of its elements.
+ * A granule is any <code>Granule</code> or <code>Granules</code> (PSD 13) element having a granule identifier;
+ * a <code>Granule_List</code> left without granules is removed as well.
+ *
+ * @author Cosmin Cara
+ */
+public class GranuleListFilter {
+    private static final String GRANULE_LIST_ELEMENT = "Granule_List";
+    private static final String GRANULE_ELEMENT = "Granule";
+    private static final String GRANULES_ELEMENT = "Granules";
+    private static final Pattern TILE_ID_PATTERN = Pattern.compile(".*_T(\\d{2}[A-Z]{3})_.*");
+
+    private final Set<String> tiles;
+
+    private GranuleListFilter(Set<String> tiles) {
+        this.tiles = tiles;
+    }
+
+    /**
+     * Filters the given product metadata file. The source and the target may be the same file.
+     *
+     * @param metadataFile  The product metadata file
+     * @param targetFile    The file to receive the filtered metadata
+     * @param tiles         The identifiers (e.g. 35TMK) of the tiles to keep. If <code>null</code> or empty, all the
+     *                      granules are kept.
+     * @return  The granules of the product and the tiles that were kept
+     *
+     * @throws IOException
+     */
+    public static Result filter(Path metadataFile, Path targetFile, Set<String> tiles) throws IOException {
+        try (Reader reader = Files.newBufferedReader(metadataFile, StandardCharsets.UTF_8)) {
+            return new GranuleListFilter(tiles).process(reader, metadataFile.getFileName().toString(), targetFile);
+        }
+    }
+
+    /**
+     * Filters the product metadata read from the given stream.
+     *
+     * @param metadata      The stream of product metadata
+     * @param targetFile    The file to receive the filtered metadata
+     * @param tiles         The identifiers (e.g. 35TMK) of the tiles to keep. If <code>null</code> or empty, all the
+     *                      granules are kept.
+     * @return  The granules of the product and the tiles that were kept
+     *
+     * @throws IOException
+     */
+    public static Result filter(InputStream metadata, Path targetFile, Set<String> tiles) throws IOException {
+        try (Reader reader = new BufferedReader(new InputStreamReader(metadata, StandardCharsets.UTF_8))) {
+            return new GranuleListFilter(tiles).process(reader, targetFile.getFileName().toString(), targetFile);
+        }
+    }
+
+    /**
+     * Extracts the tile identifier (e.g. 35TMK) from a granule identifier.
+     *
+     * @return  The tile identifier, or <code>null</code> if the granule identifier doesn't contain one
+     */
+    public static String getTileId(String granuleIdentifier) {
+        if (granuleIdentifier == null) {
+            return null;
+        }
+        Matcher matcher = TILE_ID_PATTERN.matcher(granuleIdentifier);
+        return matcher.matches() ? matcher.group(1) : null;
+    }
+
+    private Result process(Reader source, String name, Path targetFile) throws IOException {
+        Result result = new Result();
+        Path folder = targetFile.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(folder, targetFile.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                XMLEventReader eventReader = XmlFactories.INPUT.createXMLEventReader(source);
+                XMLEventWriter eventWriter = XmlFactories.OUTPUT.createXMLEventWriter(writer);
+                transform(eventReader, eventWriter, result);
+                eventReader.close();
+                eventWriter.close();
+            } catch (XMLStreamException e) {
+                throw new IOException(String.format("Cannot parse %s: %s", name, e.getMessage()), e);
+            }
+            try {
+                Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+        } finally {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Copies the events from the reader to the writer, except for the granules that are not kept.
+     * Whitespace is held until the next event is written, so that a removed element leaves no empty line.
+     * The start of a granule list is held until its first kept granule.
+     */
+    private void transform(XMLEventReader reader, XMLEventWriter writer, Result result) throws XMLStreamException {
+        List<XMLEvent> pendingList = null;
+        XMLEvent pendingWhitespace = null;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartDocument()) {
+                // the parser doesn't report the whitespace of the prolog
+                StartDocument start = (StartDocument) event;
+                writer.add(XmlFactories.EVENT.createStartDocument(StandardCharsets.UTF_8.name(), start.getVersion()));
+                writer.add(XmlFactories.EVENT.createCharacters("\n"));
+                continue;
+            }
+            if (event.isCharacters() && event.asCharacters().isWhiteSpace()) {
+                if (pendingWhitespace != null) {
+                    write(pendingList, pendingWhitespace, writer);
+                }
+                pendingWhitespace = event;
+                continue;
+            }
+            if (event.isStartElement()) {
+                StartElement element = event.asStartElement();
+                String localName = element.getName().getLocalPart();
+                if (GRANULE_LIST_ELEMENT.equals(localName) && pendingList == null) {
+                    pendingList = new ArrayList<>();
+                    if (pendingWhitespace != null) {
+                        pendingList.add(pendingWhitespace);
+                        pendingWhitespace = null;
+                    }
+                    pendingList.add(event);
+                    continue;
+                }
+                String granuleId = GRANULE_ELEMENT.equals(localName) || GRANULES_ELEMENT.equals(localName) ?
+                        attributeValue(element, Constants.XML_ATTR_GRANULE_ID) : null;
+                if (granuleId != null) {
+                    result.granules.add(startTag(element));
+                    String tileId = getTileId(granuleId);
+                    if (tiles != null && !tiles.isEmpty() && (tileId == null || !tiles.contains(tileId))) {
+                        skipElement(reader);
+                        pendingWhitespace = null;
+                        continue;
+                    }
+                    result.kept++;
+                    if (tileId != null) {
+                        result.tileIds.add(tileId);
+                    }
+                    if (pendingList != null) {
+                        for (XMLEvent listEvent : pendingList) {
+                            writer.add(listEvent);
+                        }
+                        pendingList = null;
+                    }
+                }
+            } else if (event.isEndElement() && pendingList != null &&
+                    GRANULE_LIST_ELEMENT.equals(event.asEndElement().getName().getLocalPart())) {
+                // no granule of this list was kept
+                pendingList = null;
+                pendingWhitespace = null;
+                continue;
+            }
+            if (pendingWhitespace != null) {
+                write(pendingList, pendingWhitespace, writer);
+                pendingWhitespace = null;
+            }
+            write(pendingList, event, writer);
+        }
+        if (pendingWhitespace != null) {
+            writer.add(pendingWhitespace);
+        }
+    }
+
+    private static void write(List<XMLEvent> pendingList, XMLEvent event, XMLEventWriter writer) throws XMLStreamException {
+        if (pendingList != null) {
+            pendingList.add(event);
+        } else {
+            writer.add(event);
+        }
+    }
+
+    /**
+     * Consumes the events up to (and including) the end of the element just started.
+     */
+    private static void skipElement(XMLEventReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0 && reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+        }
+    }
+
+    private static String attributeValue(StartElement element, String name) {
+        Iterator<?> attributes = element.getAttributes();
+        while (attributes.hasNext()) {
+            Attribute attribute = (Attribute) attributes.next();
+            if (name.equals(attribute.getName().getLocalPart())) {
+                return attribute.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Rebuilds the start tag of the element, attributes in document order, as it would be found in a metadata line.
+     */
+    private static String startTag(StartElement element) {
+        StringBuilder builder = new StringBuilder("<").append(element.getName().getLocalPart());
+        Iterator<?> attributes = element.getAttributes();
+        while (attributes.hasNext()) {
+            Attribute attribute = (Attribute) attributes.next();
+            builder.append(" ").append(attribute.getName().getLocalPart()).append("=\"");
+            escape(attribute.getValue(), builder);
+            builder.append("\"");
+        }
+        return builder.append(">").toString();
+    }
+
+    private static void escape(String value, StringBuilder builder) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '&':
+                    builder.append("&amp;");
+                    break;
+                case '<':
+                    builder.append("&lt;");
+                    break;
+                case '"':
+                    builder.append("&quot;");
+                    break;
+                default:
+                    builder.append(c);
+            }
+        }
+    }
+
+    /**
+     * The outcome of filtering a product metadata file.
+     */
+    public static class Result {
+        private final List<String> granules = new ArrayList<>();
+        private final Set<String> tileIds = new LinkedHashSet<>();
+        private int kept;
+
+        /**
+         * Returns the start tags of all the granules of the product (kept or not), in document order.
+         */
+        public List<String> getGranules() { return granules; }
+
+        /**
+         * Returns the identifiers of the tiles whose granules were kept.
+         */
+        public Set<String> getTileIds() { return tileIds; }
+
+        /**
+         * Checks if at least one granule was kept.
+         */
+        public boolean hasTiles() { return kept > 0; }
+    }
+}
@@ -19,15 +19,18 @@
 package ro.cs.products.sentinel2;
 
 import ro.cs.products.ProductDownloader;
+import ro.cs.products.base.ProductNameTokens;
 import ro.cs.products.util.Constants;
 import ro.cs.products.util.Logger;
 
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.time.LocalDate;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -54,16 +57,12 @@ public class S2L1CProductDescriptor extends SentinelProductDescriptor {
 
     @Override
     public PlatformType getPlatform() {
-        String[] tokens = this.oldFormat ?
-                getTokens(ProductV13, this.name, null) :
-                getTokens(ProductV14, this.name, null);
-        return Enum.valueOf(PlatformType.class, tokens[0]);
+        return Enum.valueOf(PlatformType.class, this.tokens.getPlatform());
     }
 
     @Override
     public String getSensingDate() {
-        String[] tokens = getTokens(this.oldFormat ? ProductV13 : ProductV14, this.name, null);
-        return this.oldFormat ? tokens[7].substring(1, 9) : tokens[2].substring(0, 8);
+        return this.tokens.formatSensingDate();
     }
 
     @Override
@@ -76,31 +75,13 @@ public class S2L1CProductDescriptor extends SentinelProductDescriptor {
 
     @Override
     public String getProductRelativePath() {
-        String year, day, month;
-        if (this.oldFormat) {
-            String[] tokens = getTokens(ProductV13, this.name, null);
-            String dateToken = tokens[7];
-            year = dateToken.substring(1, 5);
-            month = String.valueOf(Integer.parseInt(dateToken.substring(5, 7)));
-            day = String.valueOf(Integer.parseInt(dateToken.substring(7, 9)));
-        } else {
-            String[] tokens = getTokens(ProductV14, this.name, null);
-            String dateToken = tokens[2];
-            year = dateToken.substring(0, 4);
-            month = String.valueOf(Integer.parseInt(dateToken.substring(4, 6)));
-            day = String.valueOf(Integer.parseInt(dateToken.substring(6, 8)));
-        }
-        return year + ProductDownloader.URL_SEPARATOR + month + ProductDownloader.URL_SEPARATOR + day + ProductDownloader.URL_SEPARATOR + this.name + ProductDownloader.URL_SEPARATOR;
+        LocalDate date = this.tokens.getSensingLocalDate();
+        return date.getYear() + ProductDownloader.URL_SEPARATOR + date.getMonthValue() + ProductDownloader.URL_SEPARATOR + date.getDayOfMonth() + ProductDownloader.URL_SEPARATOR + this.name + ProductDownloader.URL_SEPARATOR;
     }
 
     @Override
     String getTileIdentifier() {
-        String tileId = null;
-        if (!this.oldFormat) {
-            tileId = getTokens(ProductV14, this.name, null)[5];
-            tileId = tileId.substring(1);
-        }
-        return tileId;
+        return this.oldFormat ? null : this.tokens.getTile().substring(1);
     }
 
     @Override
@@ -172,14 +153,11 @@ public class S2L1CProductDescriptor extends SentinelProductDescriptor {
     @Override
     String getBandFileName(String granuleIdentifier, String band) {
         String fileName;
-        String[] tokens;
-        String prodName = this.name.endsWith(".SAFE") ? this.name.substring(0, this.name.length() - 5) : this.name;
         if (this.oldFormat) {
-            tokens = getTokens(TileV13, granuleIdentifier, null);
+            String[] tokens = getTokens(TileV13, granuleIdentifier, null);
             fileName = String.join("_", Arrays.copyOfRange(tokens, 0, 6)) + "__" + String.join("_", Arrays.copyOfRange(tokens, 6, 9)) + "_" + band;
         } else {
-            tokens = getTokens(ProductV14, prodName, null);
-            fileName = tokens[5] + "_" + tokens[2] + "_" + band;
+            fileName = this.tokens.getTile() + "_" + this.tokens.formatSensingDateTime() + "_" + band;
         }
         return fileName;
     }
@@ -214,7 +192,23 @@ public class S2L1CProductDescriptor extends SentinelProductDescriptor {
 
     @Override
     protected boolean verifyProductName(String name) {
-        this.oldFormat = ProductV13.matcher(name).matches();
-        return this.oldFormat || ProductV14.matcher(name).matches();
+        Matcher matcher = ProductV13.matcher(name);
+        this.oldFormat = matcher.matches();
+        if (this.oldFormat) {
+            // the sensing date of a PSD 13 product is the start of the validity interval (V<start>_<end>)
+            int sensing = matcher.start(8) + 1;
+            this.tokens = new ProductNameTokens(getPlatformName(name),
+                                                ProductNameTokens.parseEpochDay(name, sensing),
+                                                ProductNameTokens.parseSecondOfDay(name, sensing + 9),
+                                                ProductNameTokens.parseDigits(name, matcher.start(7) + 1, matcher.end(7)),
+                                                null, ProductNameTokens.UNKNOWN);
+            return true;
+        }
+        matcher = ProductV14.matcher(name);
+        if (matcher.matches()) {
+            this.tokens = parseCompactName(name, matcher);
+            return true;
+        }
+        return false;
     }
 }
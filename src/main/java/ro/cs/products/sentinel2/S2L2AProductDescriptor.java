@@ -22,6 +22,8 @@ package ro.cs.products.sentinel2;
 import ro.cs.products.ProductDownloader;
 import ro.cs.products.util.Constants;
 
+import java.time.LocalDate;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
@@ -41,14 +43,12 @@ public class S2L2AProductDescriptor extends SentinelProductDescriptor {
 
     @Override
     public PlatformType getPlatform() {
-        String[] tokens = getTokens(ProductV14, this.name, null);
-        return Enum.valueOf(PlatformType.class, tokens[0]);
+        return Enum.valueOf(PlatformType.class, this.tokens.getPlatform());
     }
 
     @Override
     public String getSensingDate() {
-        String[] tokens = getTokens(ProductV14, this.name, null);
-        return tokens[2].substring(0, 8);
+        return this.tokens.formatSensingDate();
     }
 
     @Override
@@ -61,20 +61,13 @@ public class S2L2AProductDescriptor extends SentinelProductDescriptor {
 
     @Override
     public String getProductRelativePath() {
-        String year, day, month;
-
-        String[] tokens = getTokens(ProductV14, this.name, null);
-        String dateToken = tokens[2];
-        year = dateToken.substring(0, 4);
-        month = String.valueOf(Integer.parseInt(dateToken.substring(4, 6)));
-        day = String.valueOf(Integer.parseInt(dateToken.substring(6, 8)));
-
-        return year + ProductDownloader.URL_SEPARATOR + month + ProductDownloader.URL_SEPARATOR + day + ProductDownloader.URL_SEPARATOR + this.name + ProductDownloader.URL_SEPARATOR;
+        LocalDate date = this.tokens.getSensingLocalDate();
+        return date.getYear() + ProductDownloader.URL_SEPARATOR + date.getMonthValue() + ProductDownloader.URL_SEPARATOR + date.getDayOfMonth() + ProductDownloader.URL_SEPARATOR + this.name + ProductDownloader.URL_SEPARATOR;
     }
 
     @Override
     String getTileIdentifier() {
-        return getTokens(ProductV14, this.name, null)[5];
+        return this.tokens.getTile();
     }
 
     @Override
@@ -107,10 +100,7 @@ public class S2L2AProductDescriptor extends SentinelProductDescriptor {
 
     @Override
     String getBandFileName(String granuleIdentifier, String band) {
-        String[] tokens;
-        String prodName = this.name.endsWith(".SAFE") ? this.name.substring(0, this.name.length() - 5) : this.name;
-        tokens = getTokens(ProductV14, prodName, null);
-        return "L2A_" + tokens[5] + "_" + tokens[2] + "_" + band;
+        return "L2A_" + this.tokens.getTile() + "_" + this.tokens.formatSensingDateTime() + "_" + band;
     }
 
     @Override
@@ -120,6 +110,11 @@ public class S2L2AProductDescriptor extends SentinelProductDescriptor {
 
     @Override
     protected boolean verifyProductName(String name) {
-        return ProductV14.matcher(name).matches();
+        Matcher matcher = ProductV14.matcher(name);
+        if (matcher.matches()) {
+            this.tokens = parseCompactName(name, matcher);
+            return true;
+        }
+        return false;
     }
 }
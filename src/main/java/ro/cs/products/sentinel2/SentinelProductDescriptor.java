@@ -20,6 +20,9 @@
 package ro.cs.products.sentinel2;
 
 import ro.cs.products.base.ProductDescriptor;
+import ro.cs.products.base.ProductNameTokens;
+
+import java.util.regex.Matcher;
 
 /**
  * @author Cosmin Cara
@@ -50,4 +53,30 @@ public abstract class SentinelProductDescriptor extends ProductDescriptor {
 
     abstract String getEcmWftFileName(String granuleIdentifier);
 
+    /**
+     * Builds the name tokens from a successful match of a PSD 14 (compact) product name.
+     * The groups are expected to be: platform, product level, sensing time, baseline, orbit, tile and discriminator.
+     */
+    static ProductNameTokens parseCompactName(String name, Matcher matcher) {
+        int sensing = matcher.start(3);
+        return new ProductNameTokens(getPlatformName(name),
+                                     ProductNameTokens.parseEpochDay(name, sensing),
+                                     ProductNameTokens.parseSecondOfDay(name, sensing + 9),
+                                     ProductNameTokens.parseDigits(name, matcher.start(5) + 1, matcher.end(5)),
+                                     matcher.group(6),
+                                     ProductNameTokens.parseDigits(name, matcher.start(4) + 1, matcher.end(4)));
+    }
+
+    /**
+     * Returns the (shared) name of the platform the product name starts with.
+     */
+    static String getPlatformName(String name) {
+        for (PlatformType type : PlatformType.values()) {
+            if (name.startsWith(type.name())) {
+                return type.name();
+            }
+        }
+        return name.substring(0, 3);
+    }
+
 }
@@ -24,6 +24,7 @@ import ro.cs.products.sentinel2.angles.MetadataRepairer;
 import ro.cs.products.util.Constants;
 import ro.cs.products.util.Logger;
 import ro.cs.products.util.NetUtils;
+import ro.cs.products.util.RemoteZip;
 import ro.cs.products.util.Utilities;
 import ro.cs.products.util.Zipper;
 
@@ -32,22 +33,24 @@ import javax.json.JsonArray;
 import javax.json.JsonObject;
 import javax.json.JsonReader;
 import java.io.BufferedReader;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -125,6 +128,8 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
         add("SNW_60m.jp2");
     }};
 
+    private static final Pattern maskBandPattern = Pattern.compile("_(B\\d[\\dA])[_.]");
+
     String productsUrl;
     String baseUrl;
     String zipsUrl;
@@ -135,8 +140,8 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
 
     Set<String> filteredTiles;
     boolean shouldFilterTiles;
-    Pattern tileIdPattern;
     FillAnglesMethod fillMissingAnglesMethod;
+    boolean keepOriginalMetadata;
 
     Logger.ScopeLogger productLogger;
 
@@ -171,26 +176,20 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
 
     public void setFilteredTiles(Set<String> tiles, boolean unpacked) {
         this.filteredTiles = tiles;
-        if (shouldFilterTiles = (tiles != null && tiles.size() > 0) || unpacked) {
-            StringBuilder text = new StringBuilder();
-            text.append("(?:.+)(");
-            if (tiles != null) {
-                int idx = 1, n = tiles.size();
-                for (String tile : tiles) {
-                    text.append(tile);
-                    if (idx++ < n)
-                        text.append("|");
-                }
-                text.append(")(?:.+)");
-                tileIdPattern = Pattern.compile(text.toString());
-            }
-        }
+        this.shouldFilterTiles = (tiles != null && tiles.size() > 0) || unpacked;
     }
 
     public void setFillMissingAnglesMethod(FillAnglesMethod value) {
         this.fillMissingAnglesMethod = value;
     }
 
+    /**
+     * Sets whether the original tile metadata is kept (as .bkp) when its angles grids are repaired.
+     */
+    public void setKeepOriginalMetadata(boolean value) {
+        this.keepOriginalMetadata = value;
+    }
+
     @Override
     public void setBandList(String[] bands) {
         if (bands != null) {
@@ -210,14 +209,16 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
         this.destination = anotherDownloader.destination;
         this.shouldCompress = anotherDownloader.shouldCompress;
         this.shouldDeleteAfterCompression = anotherDownloader.shouldDeleteAfterCompression;
+        this.compressionThreads = anotherDownloader.compressionThreads;
+        this.outputFormat = anotherDownloader.outputFormat;
         this.productLogger = anotherDownloader.productLogger;
         this.batchProgressListener = anotherDownloader.batchProgressListener;
         this.fileProgressListener = anotherDownloader.fileProgressListener;
         this.bands = anotherDownloader.bands;
         this.filteredTiles = anotherDownloader.filteredTiles;
         this.shouldFilterTiles = anotherDownloader.shouldFilterTiles;
-        this.tileIdPattern = anotherDownloader.tileIdPattern;
         this.fillMissingAnglesMethod = anotherDownloader.fillMissingAnglesMethod;
+        this.keepOriginalMetadata = anotherDownloader.keepOriginalMetadata;
         this.store = anotherDownloader.store;
     }
 
@@ -283,6 +284,11 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
         return PlatformType.S2A.equals(platform) || PlatformType.S2B.equals(platform);
     }
 
+    @Override
+    protected Predicate<String> productNames() {
+        return name -> name.endsWith(".SAFE");
+    }
+
     @Override
     protected Path findProductPath(Path root, SentinelProductDescriptor product) {
         String name = product.getName();
@@ -298,23 +304,27 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
         Utilities.ensureExists(Paths.get(destination));
         String productName = productDescriptor.getName();
         boolean isL1C = productDescriptor instanceof S2L1CProductDescriptor;
-        if (Constants.PSD_13.equals(productDescriptor.getVersion()) && !shouldFilterTiles) {
+        boolean isSubset = isSubset();
+        if (Constants.PSD_13.equals(productDescriptor.getVersion()) && (!shouldFilterTiles || isSubset)) {
             currentStep = "Archive";
             url = odataArchivePath.replace(Constants.ODATA_UUID, productDescriptor.getId());
-            rootPath = Paths.get(destination, productName + ".zip");
-            rootPath = downloadFile(url, rootPath, this.netUtils.getAuthToken());
+            if (isSubset) {
+                rootPath = downloadFromArchive(url, productName, this.netUtils.getAuthToken());
+            } else {
+                rootPath = Paths.get(destination, productName + ".zip");
+                rootPath = downloadFile(url, rootPath, this.netUtils.getAuthToken());
+            }
         }
         if (rootPath == null || !Files.exists(rootPath)) {
             rootPath = Utilities.ensureExists(Paths.get(destination, productName + ".SAFE"));
+            openArchive(rootPath);
             url = getMetadataUrl(productDescriptor);
             Path metadataFile = rootPath.resolve(productDescriptor.getMetadataFileName());
             currentStep = "Metadata";
-            downloadFile(url, metadataFile, this.netUtils.getAuthToken());
-            if (Files.exists(metadataFile)) {
-                List<String> allLines = Files.readAllLines(metadataFile);
-                List<String> metaTileNames = Utilities.filter(allLines, "<Granule" + (Constants.PSD_13.equals(productDescriptor.getVersion()) ? "s" : " "));
-                boolean hasTiles = updateMedatata(metadataFile, allLines) != null;
-                if (!shouldFilterTiles || hasTiles) {
+            GranuleListFilter.Result granules = downloadMetadata(url, metadataFile, this.netUtils.getAuthToken());
+            if (granules != null && Files.exists(metadataFile)) {
+                List<String> metaTileNames = granules.getGranules();
+                if (!shouldFilterTiles || granules.hasTiles()) {
                     Path tilesFolder = Utilities.ensureExists(rootPath.resolve(Constants.FOLDER_GRANULE));
                     Utilities.ensureExists(rootPath.resolve(Constants.FOLDER_AUXDATA));
                     Path dataStripFolder = Utilities.ensureExists(rootPath.resolve(Constants.FOLDER_DATASTRIP));
@@ -330,7 +340,7 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                             int idx = tileName.lastIndexOf(NAME_SEPARATOR + "T");
                             tileId = tileName.substring(idx + 2, idx + 7);
                         }
-                        if (filteredTiles.size() == 0 || filteredTiles.contains(tileId)) {
+                        if (filteredTiles == null || filteredTiles.size() == 0 || filteredTiles.contains(tileId)) {
                             String granuleId = Utilities.getAttributeValue(tileName, Constants.XML_ATTR_GRANULE_ID);
                             if (dataStripId == null) {
                                 dataStripId = Utilities.getAttributeValue(tileName, Constants.XML_ATTR_DATASTRIP_ID);
@@ -360,12 +370,12 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                         Path imgData = Utilities.ensureExists(tileFolder.resolve(Constants.FOLDER_IMG_DATA));
                         Path qiData = Utilities.ensureExists(tileFolder.resolve(Constants.FOLDER_QI_DATA));
                         String metadataName = productDescriptor.getGranuleMetadataFileName(granuleId);
-                        Path tileMetaFile = downloadFile(pathBuilder.root(tileUrl).node(metadataName).value(),
-                                                         tileFolder.resolve(metadataName),
-                                                         this.netUtils.getAuthToken());
-                        if (tileMetaFile != null) {
+                        Path tileMetaFile = tileFolder.resolve(metadataName);
+                        List<String> tileMetadataLines = downloadTileMetadata(pathBuilder.root(tileUrl).node(metadataName).value(),
+                                                                              tileMetaFile,
+                                                                              this.netUtils.getAuthToken());
+                        if (tileMetadataLines != null) {
                             if (Files.exists(tileMetaFile)) {
-                                List<String> tileMetadataLines = MetadataRepairer.parse(tileMetaFile, this.fillMissingAnglesMethod);
                                 if (isL1C) {
                                     for (String bandFileName : l1cBandFiles) {
                                         if (this.bands == null || this.bands.contains(bandFileName.substring(0, bandFileName.indexOf(".")))) {
@@ -376,7 +386,7 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                                                          imgData.resolve(productDescriptor.getBandFileName(granuleId, bandFileName)),
                                                          this.netUtils.getAuthToken());
                                         } else {
-                                            getLogger().debug("Band %s skipped", bandFileName.substring(0, bandFileName.indexOf(".")));
+                                            getLogger().debug(() -> "Band " + bandFileName.substring(0, bandFileName.indexOf(".")) + " skipped");
                                         }
                                     }
                                 } else {
@@ -392,7 +402,7 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                                                              imgDataRes.resolve(productDescriptor.getBandFileName(granuleId, bandFileName)),
                                                              this.netUtils.getAuthToken());
                                             } else {
-                                                getLogger().debug("Band %s skipped", bandFileName.substring(0, bandFileName.indexOf(".")));
+                                                getLogger().debug(() -> "Band " + bandFileName.substring(0, bandFileName.indexOf(".")) + " skipped");
                                             }
                                         }
                                     }
@@ -453,9 +463,9 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                 rootPath = null;
             }
         }
-        if (rootPath != null && Files.exists(rootPath) && shouldCompress && !rootPath.endsWith(".zip")) {
+        if (rootPath != null && Files.isDirectory(rootPath) && shouldCompress) {
             getLogger().debug("Compressing product %s", productDescriptor);
-            Zipper.compress(rootPath, rootPath.getFileName().toString(), shouldDeleteAfterCompression);
+            rootPath = compress(rootPath);
         }
         return rootPath;
     }
@@ -470,30 +480,26 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
             url = zipsUrl + productName + ".zip";
             rootPath = Paths.get(destination, product + ".zip");
             productLogger = new Logger.ScopeLogger(rootPath.getParent().resolve("download.log").toString());
-            rootPath = downloadFile(url, rootPath);
+            rootPath = isSubset() ? downloadFromArchive(url, productName, null) : downloadFile(url, rootPath);
         }
         if (rootPath == null || !Files.exists(rootPath)) {
             // let's try to assemble the product
             rootPath = Utilities.ensureExists(Paths.get(destination, productName + ".SAFE"));
             productLogger = new Logger.ScopeLogger(rootPath.resolve("download.log").toString());
+            openArchive(rootPath);
             String baseProductUrl = getProductUrl(product);
             url = baseProductUrl + "metadata.xml";
             Path metadataFile = rootPath.resolve(product.getMetadataFileName()); //rootPath.resolve(productName.replace("PRD_MSIL1C", "MTD_SAFL1C") + ".xml");
             currentStep = "Metadata";
             getLogger().debug("Downloading metadata file %s", metadataFile);
-            metadataFile = downloadFile(url, metadataFile);
-            if (metadataFile != null && Files.exists(metadataFile)) {
+            GranuleListFilter.Result granules = downloadMetadata(url, metadataFile, null);
+            if (granules != null && Files.exists(metadataFile)) {
                 Path inspireFile = metadataFile.resolveSibling("INSPIRE.xml");
                 Path manifestFile = metadataFile.resolveSibling("manifest.safe");
                 Path previewFile = metadataFile.resolveSibling("preview.png");
-                List<String> allLines = Files.readAllLines(metadataFile);
-                List<String> metaTileNames = Utilities.filter(allLines, "<Granule" + (Constants.PSD_13.equals(product.getVersion()) ? "s" : " "));
-                // maybe there's an old product with incorrect metadata
-                if (metaTileNames.isEmpty() && Constants.PSD_13.equals(product.getVersion())) {
-                    metaTileNames = Utilities.filter(allLines, "<Granule ");
-                }
-                boolean hasTiles = updateMedatata(metadataFile, allLines) != null;
-                if (hasTiles) {
+                // both Granule and Granules elements (older products with incorrect metadata) are reported
+                List<String> metaTileNames = granules.getGranules();
+                if (granules.hasTiles()) {
                     downloadFile(baseProductUrl + "inspire.xml", inspireFile);
                     downloadFile(baseProductUrl + "manifest.safe", manifestFile);
                     if (Constants.PSD_13.equals(productDescriptor.getVersion()))
@@ -540,8 +546,10 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                             Path qiData = Utilities.ensureExists(tileFolder.resolve(Constants.FOLDER_QI_DATA));
                             String metadataName = product.getGranuleMetadataFileName(tileName);
                             getLogger().debug("Downloading tile metadata %s", tileFolder.resolve(metadataName));
-                            Path tileMetaFile = downloadFile(tileUrl + "/metadata.xml", tileFolder.resolve(metadataName));
-                            List<String> tileMetadataLines = MetadataRepairer.parse(tileMetaFile, this.fillMissingAnglesMethod);
+                            List<String> tileMetadataLines = downloadTileMetadata(tileUrl + "/metadata.xml", tileFolder.resolve(metadataName), null);
+                            if (tileMetadataLines == null) {
+                                tileMetadataLines = new ArrayList<>();
+                            }
                             for (String bandFileName : l1cBandFiles) {
                                 if (this.bands == null || this.bands.contains(bandFileName.substring(0, bandFileName.indexOf(".")))) {
                                     try {
@@ -553,7 +561,7 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                                         getLogger().warn("Download for %s failed [%s]", bandFileName, ex.getMessage());
                                     }
                                 } else {
-                                    getLogger().debug("Band %s skipped", bandFileName.substring(0, bandFileName.indexOf(".")));
+                                    getLogger().debug(() -> "Band " + bandFileName.substring(0, bandFileName.indexOf(".")) + " skipped");
                                 }
                             }
                             List<String> lines = Utilities.filter(tileMetadataLines, "<MASK_FILENAME");
@@ -628,9 +636,9 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                 rootPath = null;
             }
         }
-        if (rootPath != null && Files.exists(rootPath) && shouldCompress) {
+        if (rootPath != null && Files.isDirectory(rootPath) && shouldCompress) {
             getLogger().debug("Compressing product %s", product);
-            Zipper.compress(rootPath, rootPath.getFileName().toString(), shouldDeleteAfterCompression);
+            rootPath = compress(rootPath);
         }
         return rootPath;
     }
@@ -652,12 +660,12 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
         Path metadataFile = destinationPath.resolve(product.getMetadataFileName());
         currentStep = "Metadata";
         getLogger().debug("Copying metadata file %s", metadataFile);
-        copyFile(productSourcePath.resolve(metadataFile.getFileName()), metadataFile);
-        if (Files.exists(metadataFile)) {
-            List<String> allLines = Files.readAllLines(metadataFile);
-            Set<String> tileNames = updateMedatata(metadataFile, allLines);
-            if (tileNames != null) {
-                List<Path> folders = Utilities.listFolders(productSourcePath);
+        Path sourceMetadataFile = productSourcePath.resolve(metadataFile.getFileName());
+        if (Files.exists(sourceMetadataFile)) {
+            GranuleListFilter.Result granules = updateMedatata(sourceMetadataFile, metadataFile);
+            final Set<String> tileNames = granules.getTileIds();
+            if (granules.hasTiles()) {
+                List<Path> folders = listProductFolders(productSourcePath);
                 final Path destPath = destinationPath;
                 folders.stream()
                         .filter(folder -> !folder.toString().contains("GRANULE") ||
@@ -665,18 +673,10 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
                                           tileNames.stream().anyMatch(tn -> folder.toString().contains(tn)))
                         .forEach(folder -> {
                                 try {
-                                    Utilities.ensureExists(destPath.resolve(productSourcePath.relativize(folder)));
-                                    Utilities.listFiles(folder)
-                                            .forEach(file -> {
-                                                try {
-                                                    linkFile(file,
-                                                             destPath.resolve(productSourcePath.relativize(file)));
-                                                } catch (IOException e) {
-                                                    getLogger().warn(e.getMessage());
-                                                }
-                                            });
+                                    Path targetFolder = Utilities.ensureExists(destPath.resolve(productSourcePath.relativize(folder)));
+                                    linkFiles(listProductFiles(productSourcePath, folder), targetFolder);
                                 } catch (IOException e) {
-                                    e.printStackTrace();
+                                    getLogger().warn(e.getMessage());
                                 }
                         });
             } else {
@@ -696,6 +696,20 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
         return productsUrl + descriptor.getProductRelativePath();
     }
 
+    /**
+     * Downloads the metadata of a tile, repairing its angles grids (if requested) while it is downloaded.
+     *
+     * @return  The lines of the (repaired) metadata, or <code>null</code> if the metadata was not found
+     */
+    private List<String> downloadTileMetadata(String url, Path file, String authToken) throws IOException {
+        final List<String> lines = new ArrayList<>();
+        Path metadataFile = downloadFile(url, file, authToken,
+                                         (content, target) -> lines.addAll(MetadataRepairer.repair(content, target,
+                                                                                                   this.fillMissingAnglesMethod,
+                                                                                                   this.keepOriginalMetadata)));
+        return metadataFile != null ? lines : null;
+    }
+
     private String tilePathToTileId(String tilePath) {
         String[] tokens = tilePath.split(URL_SEPARATOR);
         return String.format("%02d%s%s",
@@ -730,50 +744,149 @@ public class SentinelProductDownloader extends ProductDownloader<SentinelProduct
         return ret;
     }
 
-    private Set<String> updateMedatata(Path metaFile, List<String> originalLines) throws IOException {
-        Set<String> extractedTileNames = null;
-        if (shouldFilterTiles) {
-            int tileCount = 0;
-            List<String> lines = new ArrayList<>();
-            for (int i = 0; i < originalLines.size(); i++) {
-                String line = originalLines.get(i);
-                boolean canProceed = line.contains("<Granule_List>") | line.contains("<Granule");
-                if (canProceed) {
-                    final String nextLine = originalLines.get(i + 1);
-                    if (nextLine.contains("<Granules")) {
-                        final Matcher matcher = tileIdPattern.matcher(nextLine);
-                        if (matcher.matches()) {
-                            if (extractedTileNames == null) {
-                                extractedTileNames = new HashSet<>();
-                            }
-                            extractedTileNames.add(matcher.group(1));
-                            lines.addAll(originalLines.subList(i, i + 17));
-                            tileCount++;
-                        }
-                        i += 16;
-                    } else if (line.contains("<Granule ")) {
-                        final Matcher matcher = tileIdPattern.matcher(line);
-                        if (matcher.matches()) {
-                            if (extractedTileNames == null) {
-                                extractedTileNames = new HashSet<>();
-                            }
-                            extractedTileNames.add(matcher.group(1));
-                            lines.addAll(originalLines.subList(i, i + 16));
-                            tileCount++;
-                        }
-                        i += 15;
-                    } else {
-                        lines.add(line);
-                    }
-                } else {
-                    lines.add(line);
-                }
+    /**
+     * Checks if only some of the tiles or bands of the products are to be downloaded.
+     */
+    private boolean isSubset() {
+        return this.bands != null || (this.filteredTiles != null && this.filteredTiles.size() > 0);
+    }
+
+    /**
+     * Downloads, from the remote zip archive of a product, only the entries of the filtered tiles and bands,
+     * each with a range request. The product metadata keeps only the granules of the filtered tiles and the angles
+     * grids of the granule metadata are repaired (if requested).
+     *
+     * @return  The product folder, or <code>null</code> if the archive cannot be read by ranges,
+     * doesn't contain any of the filtered tiles or one of its entries could not be downloaded
+     */
+    private Path downloadFromArchive(String url, String productName, String authToken) throws IOException {
+        RemoteZip archive;
+        try {
+            archive = RemoteZip.open(url, authToken);
+        } catch (FileNotFoundException e) {
+            getLogger().warn("Cannot download %s: No such file", url);
+            return null;
+        }
+        if (archive == null) {
+            return null;
+        }
+        Set<String> tiles = this.filteredTiles != null && this.filteredTiles.size() > 0 ? this.filteredTiles : null;
+        Map<RemoteZip.Entry, String> selected = new LinkedHashMap<>();
+        boolean hasTiles = false;
+        for (RemoteZip.Entry entry : archive.getEntries()) {
+            String name = entry.getName();
+            int idx = name.indexOf(".SAFE/");
+            String relativePath = idx >= 0 ? name.substring(idx + 6) : name;
+            if (entry.isDirectory() || relativePath.isEmpty()) {
+                continue;
+            }
+            if (isSelected(relativePath, tiles)) {
+                selected.put(entry, relativePath);
+                hasTiles |= relativePath.startsWith(Constants.FOLDER_GRANULE + URL_SEPARATOR);
+            } else {
+                getLogger().debug("%s skipped", relativePath);
+            }
+        }
+        if (tiles != null && !hasTiles) {
+            getLogger().warn("(" + currentProduct + ") The product %s did not contain any tiles from the tile list", productName);
+            return null;
+        }
+        Path rootPath = Utilities.ensureExists(Paths.get(destination, productName + ".SAFE"));
+        openArchive(rootPath);
+        getLogger().debug("%s of %s entries of %s will be downloaded", selected.size(), archive.getEntries().size(), url);
+        int counter = 1;
+        String count = String.valueOf(selected.size());
+        List<String> failed = new ArrayList<>();
+        for (Map.Entry<RemoteZip.Entry, String> entry : selected.entrySet()) {
+            currentStep = "Entry " + String.valueOf(counter++) + "/" + count;
+            String relativePath = entry.getValue();
+            Path file = rootPath.resolve(relativePath).normalize();
+            if (!file.startsWith(rootPath)) {
+                getLogger().warn("Entry %s is outside of the product", relativePath);
+                continue;
+            }
+            Utilities.ensureExists(file.getParent());
+            boolean isProductMetadata = tiles != null && !relativePath.contains(URL_SEPARATOR) &&
+                    relativePath.contains("MTD_") && relativePath.endsWith(".xml");
+            boolean isTileMetadata = this.fillMissingAnglesMethod != FillAnglesMethod.NONE &&
+                    relativePath.matches(Constants.FOLDER_GRANULE + "/[^/]+/[^/]+\\.xml");
+            ContentHandler handler = null;
+            if (isProductMetadata) {
+                handler = (content, target) -> GranuleListFilter.filter(content, target, tiles);
+            } else if (isTileMetadata) {
+                handler = (content, target) -> MetadataRepairer.repair(content, target, this.fillMissingAnglesMethod,
+                                                                       this.keepOriginalMetadata);
+            }
+            if (downloadEntry(archive, entry.getKey(), file, handler) == null) {
+                failed.add(relativePath);
+            }
+        }
+        if (!failed.isEmpty()) {
+            getLogger().warn("(" + currentProduct + ") %s entries of %s could not be downloaded: %s",
+                             failed.size(), productName, String.join(", ", failed));
+            discardArchive();
+            Zipper.delete(rootPath);
+            return null;
+        }
+        return rootPath;
+    }
+
+    /**
+     * Checks if the archive entry with the given path (relative to the product folder) belongs to the filtered tiles
+     * and, for rasters and masks, to the filtered bands.
+     */
+    private boolean isSelected(String relativePath, Set<String> tiles) {
+        String[] tokens = relativePath.split(URL_SEPARATOR);
+        if (tokens.length < 3 || !Constants.FOLDER_GRANULE.equals(tokens[0])) {
+            return true;
+        }
+        if (tiles != null) {
+            String tileId = GranuleListFilter.getTileId(tokens[1]);
+            if (tileId == null || !tiles.contains(tileId)) {
+                return false;
+            }
+        }
+        if (this.bands != null && tokens.length > 3) {
+            String fileName = tokens[tokens.length - 1];
+            if (Constants.FOLDER_IMG_DATA.equals(tokens[2])) {
+                return this.bands.contains(getBandName(fileName));
             }
-            if (tileCount > 0) {
-                Files.write(metaFile, lines, StandardCharsets.UTF_8);
+            if (Constants.FOLDER_QI_DATA.equals(tokens[2])) {
+                Matcher matcher = maskBandPattern.matcher(fileName);
+                return !matcher.find() || this.bands.contains(matcher.group(1));
             }
         }
-        return extractedTileNames;
+        return true;
+    }
+
+    /**
+     * Returns the band (as in the band list) of a raster file: B01 for ..._B01.jp2, B02_10m for ..._B02_10m.jp2.
+     */
+    private static String getBandName(String fileName) {
+        int idx = fileName.lastIndexOf('.');
+        String[] tokens = (idx > 0 ? fileName.substring(0, idx) : fileName).split(NAME_SEPARATOR);
+        String last = tokens[tokens.length - 1];
+        return tokens.length > 1 && last.matches("\\d+m") ? tokens[tokens.length - 2] + NAME_SEPARATOR + last : last;
+    }
+
+    /**
+     * Downloads the product metadata, keeping only the granules of the filtered tiles (if any).
+     *
+     * @return  The granules of the product, or <code>null</code> if the metadata was not found
+     */
+    private GranuleListFilter.Result downloadMetadata(String url, Path file, String authToken) throws IOException {
+        final GranuleListFilter.Result[] granules = new GranuleListFilter.Result[1];
+        Path metadataFile = downloadFile(url, file, authToken,
+                                         (content, target) -> granules[0] = GranuleListFilter.filter(content, target,
+                                                                                                    shouldFilterTiles ? filteredTiles : null));
+        return metadataFile != null ? granules[0] : null;
+    }
+
+    /**
+     * Writes the given product metadata to the target file, keeping only the granules of the filtered tiles (if any).
+     */
+    private GranuleListFilter.Result updateMedatata(Path metaFile, Path targetFile) throws IOException {
+        return GranuleListFilter.filter(metaFile, targetFile, shouldFilterTiles ? filteredTiles : null);
     }
 
     private void copyFromResources(String fileName, Path file) throws IOException {
@@ -42,7 +42,10 @@ public class SentinelTilesMap extends TileMap {
         return instance;
     }
 
-    private SentinelTilesMap() { super(); }
+    /**
+     * Creates an empty map, unlike the shared map returned by {@link #getInstance()}.
+     */
+    public SentinelTilesMap() { super(); }
 
     @Override
     public void fromKml(BufferedReader bufferedReader) throws IOException {
@@ -66,7 +66,7 @@ public class AmazonSearch extends AbstractSearch<ProductType> {
         Set<String> tiles = this.tiles != null && this.tiles.size() > 0 ?
                 this.tiles :
                 this.aoi != null ?
-                        SentinelTilesMap.getInstance().intersectingTiles(this.aoi.getBounds2D()) :
+                        (this.tileMap != null ? this.tileMap : SentinelTilesMap.getInstance()).intersectingTiles(this.aoi.getBounds2D()) :
                         new HashSet<>();
         SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
         if (this.sensingStart == null || this.sensingStart.isEmpty()) {
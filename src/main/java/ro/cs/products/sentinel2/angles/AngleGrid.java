@@ -21,82 +21,125 @@ package ro.cs.products.sentinel2.angles;
 import ro.cs.products.util.Constants;
 
 import java.util.Arrays;
+import java.util.Locale;
 
 /**
  * Wrapper over a S2 granule angle grid.
+ * The values are kept row by row in a flat array, which may be shared with other grids
+ * (see {@link MetaGrid}), in which case the grid is a view over a region of the array.
  *
  * @author Cosmin Cara
  */
 public class AngleGrid {
 
-    private final double[][] values;
-    private int rows;
-    private int cols;
+    private final double[] values;
+    private final int offset;
+    private final int rows;
+    private final int cols;
 
     public AngleGrid() {
         this(23, 23);
     }
 
     public AngleGrid(int rows, int cols) {
+        this(new double[rows * cols], 0, rows, cols);
+    }
+
+    /**
+     * Creates a grid over the region of the given array that starts at the given offset.
+     */
+    AngleGrid(double[] values, int offset, int rows, int cols) {
+        if (offset < 0 || offset + rows * cols > values.length) {
+            throw new IllegalArgumentException("Grid outside of array");
+        }
+        this.values = values;
+        this.offset = offset;
         this.rows = rows;
         this.cols = cols;
-        values = new double[this.rows][this.cols];
     }
 
     public int getRowsCount() { return rows; }
 
     public int getColsCount() { return cols; }
 
+    /**
+     * Returns a copy of the values of the given row.
+     */
     public double[] getRowValues(int row) {
-        return this.isIndexValid(row) ? this.values[row] : null;
+        if (!isRowValid(row)) {
+            return null;
+        }
+        int start = offset + row * cols;
+        return Arrays.copyOfRange(this.values, start, start + cols);
     }
 
     public double getValueAt(int row, int col) {
-        return this.isIndexValid(row) && this.isIndexValid(col) ? this.values[row][col] : Double.NaN;
+        return this.isRowValid(row) && this.isColValid(col) ? this.values[offset + row * cols + col] : Double.NaN;
     }
 
     public void setRowValues(int row, String values) {
-        if(values != null && this.isIndexValid(row)) {
-            String[] split = values.split(" ");
-
-            for(int i = 0; i < split.length; ++i) {
-                this.setValueAt(row, i, Double.parseDouble(split[i]));
+        if (values != null && this.isRowValid(row)) {
+            int length = values.length();
+            int col = 0;
+            int start = 0;
+            while (start < length) {
+                int end = values.indexOf(' ', start);
+                if (end < 0) {
+                    end = length;
+                }
+                if (end > start) {
+                    this.setValueAt(row, col++, Double.parseDouble(values.substring(start, end)));
+                }
+                start = end + 1;
             }
         }
     }
 
     public void setRowValues(int row, double[] values) {
-        this.values[row] = values;
+        if (this.isRowValid(row)) {
+            System.arraycopy(values, 0, this.values, offset + row * cols, Math.min(cols, values.length));
+        }
     }
 
     public void setValueAt(int row, int col, double value) {
-        if(this.isIndexValid(row) && this.isIndexValid(col)) {
-            this.values[row][col] = value;
+        if (this.isRowValid(row) && this.isColValid(col)) {
+            this.values[offset + row * cols + col] = value;
         }
     }
 
     public double meanValue() {
         double sum = 0.0D;
         int count = 0;
-        for (int row = 0; row < this.values.length; row++) {
-            for (int col = 0; col < this.values[0].length; col++) {
-                if (!Double.isNaN(this.values[row][col])) {
-                    sum += this.values[row][col];
-                    count++;
-                }
+        for (int i = offset; i < offset + rows * cols; i++) {
+            double value = this.values[i];
+            if (value == value) {
+                sum += value;
+                count++;
             }
         }
-
         return count > 0 ? sum / (double) count : Double.NaN;
     }
 
+    /**
+     * Copies the values of this grid to the given array, starting at the given offset.
+     */
+    void copyTo(double[] target, int targetOffset) {
+        System.arraycopy(this.values, this.offset, target, targetOffset, rows * cols);
+    }
+
     public String toString() {
-        StringBuilder buffer = new StringBuilder();
+        StringBuilder buffer = new StringBuilder(rows * cols * 8 + 256);
         buffer.append(Constants.LEVEL_3).append("<COL_STEP unit=\"m\">5000</COL_STEP>\n").append(Constants.LEVEL_3).append("<ROW_STEP unit=\"m\">5000</ROW_STEP>\n").append(Constants.LEVEL_3).append("<Values_List>\n");
 
-        for(int i = 0; i < rows; ++i) {
+        for (int i = 0; i < rows; ++i) {
             buffer.append(Constants.LEVEL_4).append("<VALUES>");
-            buffer.append(this.asString(this.getRowValues(i)));
+            int start = offset + i * cols;
+            for (int col = 0; col < cols; col++) {
+                if (col > 0) {
+                    buffer.append(' ');
+                }
+                appendFixed3(buffer, this.values[start + col]);
+            }
             buffer.append("</VALUES>\n");
         }
 
@@ -104,21 +147,44 @@ public class AngleGrid {
         return buffer.toString();
     }
 
-    private boolean isIndexValid(int index) {
-        return index >= 0 && index < 23;
-    }
-
-    private String asString(double[] doubles) {
-        String result = "";
-        if (doubles == null) {
-            doubles = new double[rows];
-            Arrays.fill(doubles, Double.NaN);
+    /**
+     * Appends the given value with 3 decimals, the same as <code>String.format(Locale.ROOT, "%.3f")</code> would
+     * (or NaN), but without the formatter overhead.
+     */
+    static void appendFixed3(StringBuilder buffer, double value) {
+        if (Double.isNaN(value)) {
+            buffer.append("NaN");
+            return;
         }
-
-        for (double aDouble : doubles) {
-            result += (Double.isNaN(aDouble) ? "NaN" : String.format("%.3f", aDouble)) + " ";
+        double absolute = Math.abs(value);
+        double scaled = absolute * 1000.0;
+        double fraction = scaled - Math.floor(scaled);
+        if (Double.isInfinite(value) || scaled >= 1e12 || Math.abs(fraction - 0.5) < 1e-6) {
+            // huge values, or too close to a rounding tie for the binary product to be trusted
+            buffer.append(String.format(Locale.ROOT, "%.3f", value));
+            return;
+        }
+        long units = Math.round(scaled);
+        if (Double.doubleToRawLongBits(value) < 0) {
+            buffer.append('-');
         }
+        long integer = units / 1000;
+        int decimals = (int) (units % 1000);
+        buffer.append(integer).append('.');
+        if (decimals < 100) {
+            buffer.append('0');
+        }
+        if (decimals < 10) {
+            buffer.append('0');
+        }
+        buffer.append(decimals);
+    }
+
+    private boolean isRowValid(int index) {
+        return index >= 0 && index < rows;
+    }
 
-        return result.trim();
+    private boolean isColValid(int index) {
+        return index >= 0 && index < cols;
     }
 }
@@ -28,12 +28,18 @@ import java.util.Set;
 
 /**
  * This class manipulates the angle grids of a product.
+ * The values of all the grids are kept in a single array, ordered by detector, band index, row and column,
+ * so that the grids of a detector are contiguous and the values of a pixel in consecutive bands are
+ * <code>rows * cols</code> apart.
  *
  * @author Cosmin Cara
  */
 public class MetaGrid {
+    private static final int DETECTORS = 12;
 
-    private AngleGrid[][] angleGrids;
+    private final double[] values;
+    private final boolean[] present;
+    private final int bands;
     private Map<Integer, Integer> bandIndices;
     private int rows;
     private int cols;
@@ -45,8 +51,9 @@ public class MetaGrid {
      * the bands order is specified.
      */
     public MetaGrid(int[] bandsOrder, int rows, int cols) {
-        int bands = bandsOrder != null ? bandsOrder.length : 13;
-        angleGrids = new AngleGrid[12][bands];
+        bands = bandsOrder != null ? bandsOrder.length : 13;
+        values = new double[DETECTORS * bands * rows * cols];
+        present = new boolean[DETECTORS * bands];
         bandIndices = new HashMap<>();
         if (bandsOrder != null) {
             for (int b = 0; b < bandsOrder.length; b++) {
@@ -71,6 +78,7 @@ public class MetaGrid {
 
     /**
      * Adds an angles grid to this meta grid, for the given band and detector.
+     * The values of the grid are copied.
      *
      * @param detectorId    The detector identifier
      * @param bandId        The band identifier
@@ -81,19 +89,21 @@ public class MetaGrid {
         if (grid == null || grid.getRowsCount() != rows || grid.getColsCount() != cols) {
             throw new IllegalArgumentException("grid");
         }
-        int bandIndex = bandIndices.get(bandId);
-        angleGrids[detectorId - 1][bandIndex] = grid;
+        int slot = slot(detectorId - 1, bandIndices.get(bandId));
+        grid.copyTo(values, slot * rows * cols);
+        present[slot] = true;
     }
 
     /**
-     * Returns the angles grid for the given band and detector.
+     * Returns the angles grid for the given band and detector, or <code>null</code> if there is none.
+     * The returned grid is a view over this meta grid.
      *
      * @param bandId        The band identifier
      * @param detectorId    The detector identifier
      */
     public AngleGrid getGrid(int bandId, int detectorId) {
         checkValidIndices(detectorId - 1, bandId);
-        return angleGrids[detectorId - 1][bandIndices.get(bandId)];
+        return gridAt(detectorId - 1, bandIndices.get(bandId));
     }
     /**
      * Returns all the angles grids for a given band.
@@ -104,8 +114,8 @@ public class MetaGrid {
         checkValidIndices(0, bandId);
         int bandIdx = bandIndices.get(bandId);
         List<AngleGrid> grids = new ArrayList<>();
-        for (AngleGrid[] angleGrid : angleGrids) {
-            grids.add(angleGrid[bandIdx]);
+        for (int detector = 0; detector < DETECTORS; detector++) {
+            grids.add(gridAt(detector, bandIdx));
         }
         return grids;
     }
@@ -150,9 +160,10 @@ public class MetaGrid {
         int bandIdx = bandIndices.get(bandId);
         double sum = 0.0;
         int count = 0;
-        for (int detectorId = 0; detectorId < angleGrids.length; detectorId++) {
-            if (angleGrids[detectorId][bandIdx] != null) {
-                double mean = angleGrids[detectorId][bandIdx].meanValue();
+        for (int detectorId = 0; detectorId < DETECTORS; detectorId++) {
+            AngleGrid grid = gridAt(detectorId, bandIdx);
+            if (grid != null) {
+                double mean = grid.meanValue();
                 if (!Double.isNaN(mean)) {
                     sum += mean;
                     count++;
@@ -169,38 +180,59 @@ public class MetaGrid {
      */
     public Set<Integer[]> fillGaps() {
         Set<Integer[]> missingBands = new HashSet<>();
-        if (angleGrids.length > 0) {
-            for (int j = 0; j < angleGrids.length; j++) {
-                for (int i = 0; i < angleGrids[0].length; i++) {
-                    if (angleGrids[j][i] == null) {
-                        missingBands.add(new Integer[] { getBandIdFromIndex(i), j + 1 });
-                    }
+        for (int j = 0; j < DETECTORS; j++) {
+            for (int i = 0; i < bands; i++) {
+                if (!present[slot(j, i)]) {
+                    missingBands.add(new Integer[] { getBandIdFromIndex(i), j + 1 });
                 }
             }
         }
-        for (int i = 0; i < angleGrids.length; i++) {
-            fillDetectorGaps(i);
+        if (!FillAnglesMethod.NONE.equals(method)) {
+            int[] lastBand = new int[rows * cols];
+            double[] lastValue = new double[rows * cols];
+            for (int i = 0; i < DETECTORS; i++) {
+                fillDetectorGaps(i, lastBand, lastValue);
+            }
         }
         return missingBands;
     }
 
-    private void fillDetectorGaps(int detectorId) {
-        if (!FillAnglesMethod.NONE.equals(method)) {
-            AngleGrid[] detGrids = angleGrids[detectorId];
-            for (int row = 0; row < rows; row++) {
-                double[] values = new double[detGrids.length];
-                for (int col = 0; col < cols; col++) {
-                    for (int b = 0; b < values.length; b++) {
-                        if (detGrids[b] == null) {
-                            detGrids[b] = createEmpty();
-                        }
-                        values[b] = detGrids[b].getValueAt(row, col);
-                    }
-                    if (FillAnglesMethod.INTERPOLATE.equals(method)) {
-                        values = interpolate(values);
-                        for (int b = 0; b < values.length; b++) {
-                            detGrids[b].setValueAt(row, col, values[b]);
+    /**
+     * Creates the missing grids of a detector and, for the INTERPOLATE method, fills the NaN values of each pixel
+     * by linear interpolation between the closest bands having a value for that pixel.
+     * The bands are swept in order, with the pixels of a band in the inner loop (unit stride), keeping for each pixel
+     * the last band having a value. The last band is not used as an interpolation end, as in {@link #interpolate(double[])}.
+     *
+     * @param lastBand  Work array (one element per pixel) for the index of the last band having a value
+     * @param lastValue Work array (one element per pixel) for the value in that band
+     */
+    private void fillDetectorGaps(int detector, int[] lastBand, double[] lastValue) {
+        final int pixels = rows * cols;
+        for (int b = 0; b < bands; b++) {
+            int slot = slot(detector, b);
+            if (!present[slot]) {
+                Arrays.fill(values, slot * pixels, (slot + 1) * pixels, Double.NaN);
+                present[slot] = true;
+            }
+        }
+        if (FillAnglesMethod.INTERPOLATE.equals(method)) {
+            final int detectorStart = slot(detector, 0) * pixels;
+            Arrays.fill(lastBand, -1);
+            for (int b = 0; b < bands - 1; b++) {
+                final int bandStart = detectorStart + b * pixels;
+                for (int p = 0; p < pixels; p++) {
+                    final double value = values[bandStart + p];
+                    if (value == value) {
+                        final int previous = lastBand[p];
+                        if (previous >= 0 && b - previous > 1) {
+                            final double start = lastValue[p];
+                            final double delta = (value - start) / (b - previous);
+                            for (int k = previous + 1; k < b; k++) {
+                                values[detectorStart + k * pixels + p] = start + delta * (k - previous);
+                            }
                         }
+                        lastBand[p] = b;
+                        lastValue[p] = value;
                     }
                 }
             }
@@ -208,19 +240,18 @@ public class MetaGrid {
     }
 
     private void checkValidIndices(int detectorId, int bandId) {
-        if (detectorId >= angleGrids.length || bandId >= angleGrids[detectorId].length) {
+        if (detectorId >= DETECTORS || bandId >= bands) {
             throw new IllegalArgumentException("Out of bounds");
         }
     }
 
-    private AngleGrid createEmpty() {
-        AngleGrid newGrid = new AngleGrid(rows, cols);
-        for (int i = 0; i < rows; i++) {
-            double[] doubles = new double[cols];
-            Arrays.fill(doubles, Double.NaN);
-            newGrid.setRowValues(i, doubles);
-        }
-        return newGrid;
+    private int slot(int detector, int bandIndex) {
+        return detector * bands + bandIndex;
+    }
+
+    private AngleGrid gridAt(int detector, int bandIndex) {
+        int slot = slot(detector, bandIndex);
+        return present[slot] ? new AngleGrid(values, slot * rows * cols, rows, cols) : null;
     }
 
     public static double[] interpolate(double[] data) {
@@ -18,19 +18,43 @@
  */
 package ro.cs.products.sentinel2.angles;
 
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.AttributesImpl;
 import ro.cs.products.util.Constants;
 import ro.cs.products.util.Logger;
 import ro.cs.products.util.Utilities;
+import ro.cs.products.util.XmlFactories;
 
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.BufferedReader;
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.FilterWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.Serializable;
+import java.io.StringReader;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -43,8 +67,13 @@ import java.util.TreeSet;
  * @author Cosmin Cara
  */
 public class MetadataRepairer {
+    private static final String GRID_ELEMENT = "Viewing_Incidence_Angles_Grids";
+    private static final String MEAN_ELEMENT = "Mean_Viewing_Incidence_Angle";
+    private static final String MEAN_LIST_ELEMENT = "Mean_Viewing_Incidence_Angle_List";
 
-    private FillAnglesMethod fillMissingAnglesMethod;
+    private final FillAnglesMethod fillMissingAnglesMethod;
+    private boolean repaired;
+    private Writer output;
 
     private MetadataRepairer(FillAnglesMethod method) {
         fillMissingAnglesMethod = method;
@@ -52,24 +81,221 @@ public class MetadataRepairer {
 
     /**
      * Parses and repairs the given metadata file.
+     * The file is read once. If angle grids are missing and a fill method is given, the repaired document is written
+     * to a temporary file which then replaces the original one, while the original is kept as <code>.bkp</code>.
      *
      * @param metadataFile  The granule metadata file
      * @param fillMethod    The method for compensating missing angles grids
+     * @return  The lines of the (repaired) metadata file
      *
      * @throws IOException
      */
     public static List<String> parse(Path metadataFile, FillAnglesMethod fillMethod) throws IOException {
         MetadataRepairer instance = new MetadataRepairer(fillMethod);
-        return instance.parse(metadataFile);
+        return instance.parse(metadataFile, metadataFile, true);
     }
 
-    private List<String> parse(Path metadataFile) throws IOException {
-        List<String> tileMetadataLines = Files.readAllLines(metadataFile);
-        int gridCount = Utilities.filter(tileMetadataLines, "<Viewing_Incidence_Angles_Grids").size();
+    /**
+     * Parses the given metadata file and writes it, repaired if needed, to another file.
+     * The source file is left untouched.
+     *
+     * @param metadataFile  The granule metadata file
+     * @param repairedFile  The file to receive the (repaired) metadata
+     * @param fillMethod    The method for compensating missing angles grids
+     * @return  The lines of the (repaired) metadata file
+     *
+     * @throws IOException
+     */
+    public static List<String> parse(Path metadataFile, Path repairedFile, FillAnglesMethod fillMethod) throws IOException {
+        MetadataRepairer instance = new MetadataRepairer(fillMethod);
+        return instance.parse(metadataFile, repairedFile, true);
+    }
+
+    /**
+     * Same as {@link #parse(Path, Path, FillAnglesMethod)}, but without keeping the lines of the file.
+     * If the two files are the same, the file is repaired in place.
+     *
+     * @param metadataFile  The granule metadata file
+     * @param repairedFile  The file to receive the (repaired) metadata
+     * @param fillMethod    The method for compensating missing angles grids
+     * @return  <code>true</code> if missing angles grids have been added
+     *
+     * @throws IOException
+     */
+    public static boolean repair(Path metadataFile, Path repairedFile, FillAnglesMethod fillMethod) throws IOException {
+        MetadataRepairer instance = new MetadataRepairer(fillMethod);
+        instance.parse(metadataFile, repairedFile, false);
+        return instance.repaired;
+    }
+
+    /**
+     * Repairs the metadata read from the given stream (for instance, while it is downloaded) and writes it
+     * to the given file. The stream is parsed as it is read, so the metadata is not written twice.
+     *
+     * @param metadata      The stream of granule metadata
+     * @param repairedFile  The file to receive the (repaired) metadata
+     * @param fillMethod    The method for compensating missing angles grids
+     * @param keepOriginal  If <code>true</code>, the metadata, as read, is also written to a <code>.bkp</code> file
+     * @return  The lines of the (repaired) metadata file
+     *
+     * @throws IOException
+     */
+    public static List<String> repair(InputStream metadata, Path repairedFile, FillAnglesMethod fillMethod, boolean keepOriginal) throws IOException {
+        MetadataRepairer instance = new MetadataRepairer(fillMethod);
+        Path original = keepOriginal ? Paths.get(repairedFile.toAbsolutePath().toString() + ".bkp") : null;
+        try (InputStream stream = original != null ? new TeeInputStream(metadata, Files.newOutputStream(original)) : metadata;
+             Reader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8))) {
+            return instance.process(reader, repairedFile, repairedFile, false, true);
+        }
+    }
+
+    private List<String> parse(Path metadataFile, Path targetFile, boolean keepLines) throws IOException {
+        final boolean inPlace = metadataFile.toAbsolutePath().equals(targetFile.toAbsolutePath());
+        try (Reader reader = Files.newBufferedReader(metadataFile, StandardCharsets.UTF_8)) {
+            return process(reader, metadataFile, targetFile, inPlace, keepLines);
+        }
+    }
+
+    /**
+     * Reads the metadata and writes it, repaired if needed, to the target file.
+     * If <code>inPlace</code> is set, the source is the target file itself, which is written only if it is repaired.
+     * Without a fill method, the metadata is copied as it is.
+     */
+    private List<String> process(Reader source, Path metadataFile, Path targetFile, boolean inPlace, boolean keepLines) throws IOException {
+        final boolean copy = FillAnglesMethod.NONE.equals(fillMissingAnglesMethod);
+        List<String> lines = new ArrayList<>();
+        List<String> repairedLines = new ArrayList<>();
+        Path tempFile = null;
+        repaired = false;
+        try {
+            if (!inPlace || !copy) {
+                Path folder = targetFile.toAbsolutePath().getParent();
+                tempFile = Files.createTempFile(folder, targetFile.getFileName().toString(), ".tmp");
+            }
+            try (Writer writer = tempFile == null ? null : keepLines && !copy ?
+                         new LineCollectingWriter(Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8), repairedLines) :
+                         Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8);
+                 Reader reader = copy && writer != null ?
+                         new CopyingReader(keepLines ? new LineCollectingReader(source, lines) : source, writer) :
+                         keepLines ? new LineCollectingReader(source, lines) : source) {
+                XMLEventReader eventReader = XmlFactories.INPUT.createXMLEventReader(reader);
+                XMLEventWriter eventWriter = writer != null && !copy ? XmlFactories.OUTPUT.createXMLEventWriter(writer) : null;
+                output = writer;
+                repaired = transform(metadataFile, eventReader, eventWriter);
+                eventReader.close();
+                if (eventWriter != null) {
+                    eventWriter.close();
+                }
+            } catch (XMLStreamException e) {
+                throw new IOException(String.format("Cannot parse %s: %s", metadataFile, e.getMessage()), e);
+            }
+            if (tempFile != null && (repaired || !inPlace)) {
+                if (repaired && inPlace) {
+                    backup(metadataFile);
+                }
+                try {
+                    Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(tempFile, targetFile, StandardCopyOption.REPLACE_EXISTING);
+                }
+                tempFile = null;
+            }
+        } finally {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        return repaired ? repairedLines : lines;
+    }
+
+    /**
+     * Copies the events from the reader to the writer (if any), buffering only the angles section
+     * (from the first viewing incidence grid to the end of the mean viewing angles list), which is written
+     * after the missing grids and mean angles have been computed.
+     *
+     * @return  <code>true</code> if grids have been added
+     */
+    private boolean transform(Path metadataFile, XMLEventReader reader, XMLEventWriter writer) throws XMLStreamException {
+        List<XMLEvent> section = null;
+        XmlAnglesReader.Handler handler = null;
+        String indentation = "";
+        int depth = 0, sectionDepth = -1, gridCount = 0;
+        boolean repaired = false;
+        while (reader.hasNext()) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+                if (GRID_ELEMENT.equals(event.asStartElement().getName().getLocalPart())) {
+                    gridCount++;
+                    if (section == null && sectionDepth < 0) {
+                        section = new ArrayList<>();
+                        sectionDepth = depth;
+                        handler = newHandler();
+                    }
+                }
+            }
+            if (section != null) {
+                if (event.isEndElement() && depth < sectionDepth) {
+                    // the parent of the angles section is closed
+                    repaired = writeSection(metadataFile, section, gridCount, handler, indentation, writer);
+                    section = null;
+                } else {
+                    section.add(event);
+                    forward(event, handler);
+                    if (event.isEndElement() && MEAN_LIST_ELEMENT.equals(event.asEndElement().getName().getLocalPart())) {
+                        depth--;
+                        repaired = writeSection(metadataFile, section, gridCount, handler, indentation, writer);
+                        section = null;
+                        continue;
+                    }
+                }
+            }
+            if (event.isEndElement()) {
+                depth--;
+            }
+            if (section == null && writer != null) {
+                if (event.isStartDocument()) {
+                    // the parser doesn't report the whitespace of the prolog
+                    StartDocument start = (StartDocument) event;
+                    writer.add(XmlFactories.EVENT.createStartDocument(StandardCharsets.UTF_8.name(), start.getVersion()));
+                    writer.add(XmlFactories.EVENT.createCharacters("\n"));
+                    continue;
+                }
+                writer.add(event);
+                if (event.isCharacters()) {
+                    indentation = indentationOf(event.asCharacters().getData(), indentation);
+                }
+            }
+        }
+        if (section != null) {
+            repaired = writeSection(metadataFile, section, gridCount, handler, indentation, writer);
+        }
+        if (gridCount != 13 * 12 && sectionDepth < 0) {
+            Logger.getRootLogger().warn("Metadata %s doesn't contain one or more angles grids!", metadataFile.getFileName());
+        }
+        return repaired;
+    }
+
+    private boolean writeSection(Path metadataFile, List<XMLEvent> section, int gridCount, XmlAnglesReader.Handler handler,
+                                 String indentation, XMLEventWriter writer) throws XMLStreamException {
+        boolean repaired = false;
+        int meansIndex = -1;
+        String meansIndentation = indentation;
+        for (int i = 0; i < section.size(); i++) {
+            XMLEvent event = section.get(i);
+            if (event.isStartElement() && MEAN_ELEMENT.equals(event.asStartElement().getName().getLocalPart())) {
+                meansIndex = i;
+                break;
+            }
+            if (event.isCharacters()) {
+                meansIndentation = indentationOf(event.asCharacters().getData(), meansIndentation);
+            }
+        }
+        String gridFragment = null, meanFragment = null;
         if (gridCount != 13 * 12) {
             Logger.getRootLogger().warn("Metadata %s doesn't contain one or more angles grids!", metadataFile.getFileName());
             if (!FillAnglesMethod.NONE.equals(fillMissingAnglesMethod)) {
-                Map<String, MetaGrid> angleGridMap = XmlAnglesReader.parse(metadataFile);
+                Map<String, MetaGrid> angleGridMap = handler.getResult();
                 List<ViewingIncidenceAngleGrid> missingAngles = computeMissingAngles(angleGridMap);
                 StringBuilder lines = new StringBuilder();
                 String message = "Angle grids have been computed for ";
@@ -89,15 +315,109 @@ public class MetadataRepairer {
                         message += "band " + String.valueOf(e.getKey()) + " [detectors: " + Utilities.join(e.getValue(), ",") + "]; ";
                     }
                 }
-                String[] tokens = lines.toString().split("\n");
-                if(!insertAngles(metadataFile, tileMetadataLines, Arrays.asList(tokens), meansToXml(computeMeanAngles(angleGridMap, missingAngles, true), computeMeanAngles(angleGridMap, missingAngles, false)))) {
+                List<String> meanLines = meansToXml(computeMeanAngles(angleGridMap, missingAngles, true), computeMeanAngles(angleGridMap, missingAngles, false));
+                if (meansIndex < 0 || writer == null) {
                     Logger.getRootLogger().warn("Metadata for tile %s has not been updated!", metadataFile.getFileName());
                 } else {
+                    gridFragment = lines.toString();
+                    meanFragment = String.join("\n", meanLines);
+                    repaired = true;
                     Logger.getRootLogger().info(message);
                 }
             }
         }
-        return tileMetadataLines;
+        if (writer != null) {
+            if (gridFragment != null) {
+                writeFragment(writer, gridFragment, indentation);
+            }
+            for (int i = 0; i < section.size(); i++) {
+                if (i == meansIndex && meanFragment != null) {
+                    writeFragment(writer, meanFragment, meansIndentation);
+                }
+                writer.add(section.get(i));
+            }
+        }
+        return repaired;
+    }
+
+    private static XmlAnglesReader.Handler newHandler() throws XMLStreamException {
+        XmlAnglesReader.Handler handler = new XmlAnglesReader.Handler();
+        try {
+            handler.startDocument();
+        } catch (SAXException e) {
+            throw new XMLStreamException(e);
+        }
+        return handler;
+    }
+
+    /**
+     * Passes a buffered event to the SAX handler that collects the angle grids.
+     */
+    private static void forward(XMLEvent event, XmlAnglesReader.Handler handler) throws XMLStreamException {
+        try {
+            if (event.isStartElement()) {
+                StartElement element = event.asStartElement();
+                AttributesImpl attributes = new AttributesImpl();
+                Iterator<?> iterator = element.getAttributes();
+                while (iterator.hasNext()) {
+                    Attribute attribute = (Attribute) iterator.next();
+                    QName name = attribute.getName();
+                    attributes.addAttribute(name.getNamespaceURI(), name.getLocalPart(), name.getLocalPart(), "CDATA", attribute.getValue());
+                }
+                QName name = element.getName();
+                handler.startElement(name.getNamespaceURI(), name.getLocalPart(), name.getLocalPart(), attributes);
+            } else if (event.isEndElement()) {
+                QName name = event.asEndElement().getName();
+                handler.endElement(name.getNamespaceURI(), name.getLocalPart(), name.getLocalPart());
+            } else if (event.isCharacters()) {
+                char[] chars = event.asCharacters().getData().toCharArray();
+                handler.characters(chars, 0, chars.length);
+            }
+        } catch (SAXException e) {
+            throw new XMLStreamException(e);
+        }
+    }
+
+    /**
+     * Writes a generated xml fragment, followed by the indentation of the element it is inserted before.
+     * The fragment is well-formed and needs no escaping, so it is written as it is, instead of going
+     * through the event writer.
+     */
+    private void writeFragment(XMLEventWriter writer, String fragment, String indentation) throws XMLStreamException {
+        String text = fragment.trim();
+        if (!text.isEmpty()) {
+            // closes any pending start tag
+            writer.add(XmlFactories.EVENT.createCharacters(""));
+            writer.flush();
+            try {
+                output.write(text);
+                output.write("\n");
+                output.write(indentation);
+            } catch (IOException e) {
+                throw new XMLStreamException(e);
+            }
+        }
+    }
+
+    private static String indentationOf(String whitespace, String previous) {
+        int lineStart = whitespace.lastIndexOf('\n');
+        if (lineStart < 0 || !whitespace.trim().isEmpty()) {
+            return previous;
+        }
+        return whitespace.substring(lineStart + 1);
+    }
+
+    /**
+     * Keeps the original file as .bkp. A hard link is used where the file system supports it, to avoid copying the file.
+     */
+    private static void backup(Path metadataFile) throws IOException {
+        Path backup = Paths.get(metadataFile.toAbsolutePath().toString() + ".bkp");
+        Files.deleteIfExists(backup);
+        try {
+            Files.createLink(backup, metadataFile);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(metadataFile, backup);
+        }
     }
 
     private List<ViewingIncidenceAngleGrid> computeMissingAngles(Map<String, MetaGrid> angleGridMap) {
@@ -171,32 +491,234 @@ public class MetadataRepairer {
         return Arrays.asList(buffer.toString().split("\n"));
     }
 
-    private boolean insertAngles(Path metaFile, List<String> originalLines, List<String> gridLines, List<String> meanLines) throws IOException {
-        boolean gridUpdated = false;
-        boolean meansUpdated = meanLines.isEmpty();
-        int lineCount = originalLines.size();
+    /**
+     * Splits the text passing through a reader or a writer into lines.
+     */
+    private static class LineCollector {
+        private final List<String> lines;
+        private final StringBuilder currentLine;
+
+        LineCollector(List<String> lines) {
+            this.lines = lines;
+            this.currentLine = new StringBuilder(256);
+        }
 
-        for(int idx = 0; idx < lineCount; ++idx) {
-            String line = originalLines.get(idx);
-            if(line.contains("<Viewing_Incidence_Angles_Grids") && !gridUpdated) {
-                gridUpdated = originalLines.addAll(idx, gridLines);
-                idx += gridLines.size();
-                lineCount += gridLines.size();
+        void collect(char c) {
+            if (c == '\n') {
+                int length = currentLine.length();
+                lines.add(currentLine.substring(0, length > 0 && currentLine.charAt(length - 1) == '\r' ? length - 1 : length));
+                currentLine.setLength(0);
+            } else {
+                currentLine.append(c);
             }
+        }
 
-            if(line.contains("<Mean_Viewing_Incidence_Angle ") && !meansUpdated) {
-                meansUpdated = originalLines.addAll(idx, meanLines);
-                idx = lineCount;
+        void collect(char[] buffer, int offset, int length) {
+            for (int i = offset; i < offset + length; i++) {
+                collect(buffer[i]);
             }
         }
 
-        if(gridUpdated && meansUpdated) {
-            Path backup = Paths.get(metaFile.toAbsolutePath().toString() + ".bkp");
-            Files.deleteIfExists(backup);
-            Files.copy(metaFile, backup);
-            Files.write(metaFile, originalLines, StandardCharsets.UTF_8);
+        void flush() {
+            if (currentLine.length() > 0) {
+                lines.add(currentLine.toString());
+                currentLine.setLength(0);
+            }
         }
+    }
 
-        return gridUpdated && meansUpdated;
+    /**
+     * Reader that keeps the lines of the text passing through it.
+     */
+    private static class LineCollectingReader extends FilterReader {
+        private final LineCollector collector;
+        private boolean ended;
+
+        LineCollectingReader(Reader in, List<String> lines) {
+            super(in);
+            this.collector = new LineCollector(lines);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                collector.collect((char) c);
+            } else {
+                end();
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                collector.collect(buffer, offset, count);
+            } else if (count < 0) {
+                end();
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!ended) {
+                    // the xml parser may stop before the end of the text
+                    char[] buffer = new char[8192];
+                    while (read(buffer, 0, buffer.length) >= 0) { }
+                }
+            } finally {
+                super.close();
+            }
+        }
+
+        private void end() {
+            if (!ended) {
+                collector.flush();
+                ended = true;
+            }
+        }
+    }
+
+    /**
+     * Writer that keeps the lines of the text passing through it.
+     */
+    private static class LineCollectingWriter extends FilterWriter {
+        private final LineCollector collector;
+
+        LineCollectingWriter(Writer out, List<String> lines) {
+            super(out);
+            this.collector = new LineCollector(lines);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            super.write(c);
+            collector.collect((char) c);
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            super.write(buffer, offset, length);
+            collector.collect(buffer, offset, length);
+        }
+
+        @Override
+        public void write(String text, int offset, int length) throws IOException {
+            super.write(text, offset, length);
+            for (int i = offset; i < offset + length; i++) {
+                collector.collect(text.charAt(i));
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            collector.flush();
+            super.close();
+        }
+    }
+
+    /**
+     * Reader that writes the text passing through it to another writer.
+     */
+    private static class CopyingReader extends FilterReader {
+        private final Writer copy;
+        private boolean ended;
+
+        CopyingReader(Reader in, Writer copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = super.read();
+            if (c >= 0) {
+                copy.write(c);
+            } else {
+                ended = true;
+            }
+            return c;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                copy.write(buffer, offset, count);
+            } else if (count < 0) {
+                ended = true;
+            }
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!ended) {
+                    // the xml parser may stop before the end of the text
+                    char[] buffer = new char[8192];
+                    while (read(buffer, 0, buffer.length) >= 0) { }
+                }
+            } finally {
+                super.close();
+            }
+        }
+    }
+
+    /**
+     * Input stream that writes the bytes passing through it to an output stream, closed with it.
+     */
+    private static class TeeInputStream extends FilterInputStream {
+        private final OutputStream copy;
+
+        TeeInputStream(InputStream in, OutputStream copy) {
+            super(in);
+            this.copy = copy;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                copy.write(b);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int count = super.read(buffer, offset, length);
+            if (count > 0) {
+                copy.write(buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes are read, so that they are copied
+            byte[] buffer = new byte[(int) Math.min(n, 8192)];
+            long skipped = 0;
+            int count;
+            while (skipped < n && (count = read(buffer, 0, (int) Math.min(buffer.length, n - skipped))) > 0) {
+                skipped += count;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() { return false; }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                copy.close();
+            }
+        }
     }
 }
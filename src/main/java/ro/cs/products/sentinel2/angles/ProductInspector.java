@@ -18,11 +18,11 @@
  */
 package ro.cs.products.sentinel2.angles;
 
+import ro.cs.products.BatchProgressListener;
 import ro.cs.products.util.Logger;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.FileVisitor;
@@ -30,12 +30,23 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Utility class for inspecting (and modifying if needed) a tree of products.
+ * The inspection is done in two stages: the tree is first walked for finding the tile metadata files,
+ * which are then repaired in parallel.
+ * The processed files are recorded in a {@link RepairManifest} at the root of the tree, so that the files
+ * which have not changed since are skipped by subsequent inspections.
  *
  * @author Cosmin Cara
  */
@@ -44,6 +55,8 @@ public class ProductInspector {
     private Path root;
     private FillAnglesMethod method;
     private Set<String> products;
+    private int parallelism;
+    private BatchProgressListener progressListener;
 
     public ProductInspector(String path, FillAnglesMethod fillAnglesMethod, Set<String> products) throws FileNotFoundException{
         this.root = Paths.get(path);
@@ -52,9 +65,91 @@ public class ProductInspector {
         }
         this.products = products;
         this.method = fillAnglesMethod;
+        this.parallelism = Runtime.getRuntime().availableProcessors();
     }
 
-    public void traverse() throws IOException {
+    /**
+     * Sets the number of tiles repaired at the same time.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be greater than 0");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets the listener notified with the fraction of products processed.
+     */
+    public void setProgressListener(BatchProgressListener listener) { this.progressListener = listener; }
+
+    /**
+     * Inspects the tree and repairs the tiles having missing angles grids.
+     *
+     * @return  The summary of the operation
+     */
+    public Summary traverse() throws IOException {
+        try (RepairManifest manifest = new RepairManifest(root)) {
+            return traverse(manifest);
+        }
+    }
+
+    private Summary traverse(RepairManifest manifest) throws IOException {
+        Summary summary = new Summary();
+        Map<Path, List<Path>> tiles = discover(manifest, summary);
+        if (summary.getSkipped() > 0) {
+            Logger.getRootLogger().info("%d tiles are up to date", summary.getSkipped());
+        }
+        if (tiles.isEmpty()) {
+            return summary;
+        }
+        Logger.getRootLogger().info("Found %d tiles to inspect in %d products", tiles.values().stream().mapToInt(List::size).sum(), tiles.size());
+        final int productCount = tiles.size();
+        final AtomicInteger completed = new AtomicInteger();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            for (Map.Entry<Path, List<Path>> entry : tiles.entrySet()) {
+                final String productName = entry.getKey().getFileName().toString();
+                final List<Path> productTiles = entry.getValue();
+                final Summary productSummary = new Summary();
+                final AtomicInteger remaining = new AtomicInteger(productTiles.size());
+                for (Path tile : productTiles) {
+                    pool.execute(() -> {
+                        inspect(tile, productSummary, manifest);
+                        if (remaining.decrementAndGet() == 0) {
+                            int count = completed.incrementAndGet();
+                            summary.add(productSummary);
+                            Logger.getRootLogger().info("[%d/%d] %s: %d tiles repaired, %d skipped, %d failed",
+                                                        count, productCount, productName, productSummary.getRepaired(),
+                                                        productSummary.getSkipped(), productSummary.getFailed());
+                            if (progressListener != null) {
+                                progressListener.notifyProgress((double) count / (double) productCount);
+                            }
+                        }
+                    });
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.MINUTES)) {
+                Logger.getRootLogger().debug("%d of %d products processed", completed.get(), productCount);
+            }
+        } catch (InterruptedException e) {
+            pool.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw new IOException("Inspection interrupted");
+        }
+        return summary;
+    }
+
+    /**
+     * Walks the tree and returns the tile metadata files, grouped by product.
+     * The files that are up to date in the manifest are only counted as skipped.
+     */
+    private Map<Path, List<Path>> discover(RepairManifest manifest, Summary summary) throws IOException {
+        final Map<Path, List<Path>> tiles = new LinkedHashMap<>();
         Files.walkFileTree(root, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE,
                 new FileVisitor<Path>() {
                     @Override
@@ -75,22 +170,16 @@ public class ProductInspector {
                     @Override
                     public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
                         String fileName = file.getFileName().toString();
-                        if (fileName.startsWith("S2A_OPER_MTD_L1C_TL_") && fileName.endsWith(".xml")) {
-                            if (!Files.exists(file.resolveSibling(fileName.replace(".xml", ".orig")))) {
-                                Path previous = file.resolveSibling(fileName + ".bkp");
-                                List<String> originalLines;
-                                if (Files.exists(previous)) {
-                                    originalLines = MetadataRepairer.parse(previous, method);
-                                    Files.move(Paths.get(previous.toAbsolutePath().toString() + ".bkp"), Paths.get(file.toAbsolutePath().toString().replace(".xml", ".orig")));
-                                    Files.delete(previous);
-                                    Files.move(file, previous);
-                                } else {
-                                    originalLines = MetadataRepairer.parse(file, method);
-                                }
-                                Files.write(file, originalLines, StandardCharsets.UTF_8);
-                            } else {
-                                Logger.getRootLogger().info(String.format("%s already processed", fileName));
+                        if (isTileMetadata(fileName)) {
+                            if (manifest.isUpToDate(file, attrs.size(), attrs.lastModifiedTime().toMillis(), method)) {
+                                summary.skipped.incrementAndGet();
+                                return FileVisitResult.SKIP_SIBLINGS;
                             }
+                            Path product = productOf(file);
+                            if (!tiles.containsKey(product)) {
+                                tiles.put(product, new ArrayList<>());
+                            }
+                            tiles.get(product).add(file);
                             return FileVisitResult.SKIP_SIBLINGS;
                         }
                         return FileVisitResult.CONTINUE;
@@ -106,6 +195,63 @@ public class ProductInspector {
                         return FileVisitResult.CONTINUE;
                     }
                 });
+        return tiles;
+    }
+
+    private void inspect(Path file, Summary summary, RepairManifest manifest) {
+        String fileName = file.getFileName().toString();
+        try {
+            RepairManifest.Entry entry = manifest.get(file);
+            Path original = file.resolveSibling(fileName.replace(".xml", ".orig"));
+            Path previous = file.resolveSibling(fileName + ".bkp");
+            boolean repaired;
+            if (entry == null && Files.exists(original)) {
+                // processed before the manifest was kept
+                Logger.getRootLogger().info(String.format("%s already processed", fileName));
+                repaired = false;
+            } else if (entry == null && Files.exists(previous)) {
+                // the file has been repaired at download: repair again from the untouched original
+                Files.move(previous, original);
+                Files.move(file, previous);
+                repaired = MetadataRepairer.repair(original, file, method);
+            } else if (entry != null && !entry.getMethod().equals(method) &&
+                    (Files.exists(original) || Files.exists(previous))) {
+                // processed with another method: repair again from the untouched original
+                repaired = MetadataRepairer.repair(Files.exists(original) ? original : previous, file, method);
+            } else {
+                repaired = MetadataRepairer.repair(file, file, method);
+            }
+            manifest.record(file, method);
+            if (repaired) {
+                summary.repaired.incrementAndGet();
+            } else {
+                summary.skipped.incrementAndGet();
+            }
+        } catch (Exception e) {
+            Logger.getRootLogger().error("Cannot repair %s: %s", file, e.getMessage());
+            summary.failed.incrementAndGet();
+            summary.failedTiles.add(file);
+        }
+    }
+
+    private boolean isTileMetadata(String fileName) {
+        // PSD 13 tiles have the full name of the metadata file (S2A_OPER_MTD_L1C_TL_...), PSD 14 tiles have MTD_TL.xml
+        return "MTD_TL.xml".equals(fileName) ||
+                (fileName.startsWith("S2") && fileName.contains("_OPER_MTD_L1C_TL_") && fileName.endsWith(".xml"));
+    }
+
+    /**
+     * Returns the product folder (the closest .SAFE folder) containing the given tile metadata file.
+     */
+    private Path productOf(Path file) {
+        Path current = file.getParent();
+        while (current != null && !current.equals(root)) {
+            if (current.getFileName().toString().endsWith(".SAFE")) {
+                return current;
+            }
+            current = current.getParent();
+        }
+        return file.getParent();
     }
 
     private boolean acceptPath(Path path) {
@@ -123,4 +269,34 @@ public class ProductInspector {
         }
         return result;
     }
+
+    /**
+     * Counts of the tiles repaired, skipped (complete, already processed or unchanged since last time) and failed.
+     */
+    public static class Summary {
+        private final AtomicInteger repaired = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final List<Path> failedTiles = Collections.synchronizedList(new ArrayList<>());
+
+        public int getRepaired() { return repaired.get(); }
+
+        public int getSkipped() { return skipped.get(); }
+
+        public int getFailed() { return failed.get(); }
+
+        public List<Path> getFailedTiles() { return failedTiles; }
+
+        void add(Summary other) {
+            repaired.addAndGet(other.getRepaired());
+            skipped.addAndGet(other.getSkipped());
+            failed.addAndGet(other.getFailed());
+            failedTiles.addAll(other.getFailedTiles());
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d tiles repaired, %d skipped, %d failed", getRepaired(), getSkipped(), getFailed());
+        }
+    }
 }
@@ -0,0 +1,243 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.sentinel2.angles;
+
+import ro.cs.products.util.Logger;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent record of the tile metadata files processed by {@link ProductInspector}, kept at the root
+ * of the inspected archive.
+ * For each file, the manifest holds its path (relative to the root), its size and modification time after
+ * processing, the SHA-256 of its contents and the method used for filling the angles grids.
+ * A file whose size, modification time and fill method match its entry doesn't need to be processed again.
+ * When only the modification time differs (the archive was copied or the file touched), the hash tells whether
+ * the contents changed.
+ *
+ * The manifest is a text file, with one tab-separated entry per line. While inspecting, entries are appended
+ * as tiles are done (so that an interrupted run doesn't lose them), a later entry replacing an earlier one
+ * for the same path. The file is compacted when closed.
+ *
+ * @author Cosmin Cara
+ */
+public class RepairManifest implements Closeable {
+    public static final String FILE_NAME = "angles_repair.manifest";
+    private static final String HEADER = "# path\tsize\tmodified\tsha256\tmethod";
+
+    private final Path root;
+    private final Path manifestFile;
+    private final Map<String, Entry> entries;
+    private BufferedWriter journal;
+
+    /**
+     * Loads the manifest of the given archive root (if any).
+     */
+    public RepairManifest(Path root) throws IOException {
+        this.root = root;
+        this.manifestFile = root.resolve(FILE_NAME);
+        this.entries = new HashMap<>();
+        if (Files.exists(manifestFile)) {
+            List<String> lines = Files.readAllLines(manifestFile, StandardCharsets.UTF_8);
+            for (String line : lines) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\t");
+                if (tokens.length != 5) {
+                    Logger.getRootLogger().warn("Invalid manifest entry: %s", line);
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(tokens[0], Long.parseLong(tokens[1]), Long.parseLong(tokens[2]),
+                                            tokens[3], Enum.valueOf(FillAnglesMethod.class, tokens[4]));
+                    entries.put(entry.getPath(), entry);
+                } catch (IllegalArgumentException e) {
+                    Logger.getRootLogger().warn("Invalid manifest entry: %s", line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the entry of the given file, or <code>null</code> if the file was not processed.
+     */
+    public synchronized Entry get(Path file) {
+        return entries.get(relativePath(file));
+    }
+
+    /**
+     * Checks if the given file has been processed with the given method and has not changed since.
+     * If the file has the recorded size but not the recorded modification time, its contents are hashed and,
+     * if unchanged, the entry is updated with the new modification time.
+     *
+     * @param file          The metadata file
+     * @param size          The current size of the file
+     * @param lastModified  The current modification time of the file, in milliseconds
+     * @param method        The fill method
+     */
+    public boolean isUpToDate(Path file, long size, long lastModified, FillAnglesMethod method) throws IOException {
+        Entry entry = get(file);
+        if (entry == null || entry.getSize() != size || !entry.getMethod().equals(method)) {
+            return false;
+        }
+        if (entry.getLastModified() == lastModified) {
+            return true;
+        }
+        if (!entry.getHash().equals(hash(file))) {
+            return false;
+        }
+        append(new Entry(entry.getPath(), size, lastModified, entry.getHash(), method));
+        return true;
+    }
+
+    /**
+     * Records the given file, as it is now, as processed with the given method.
+     */
+    public Entry record(Path file, FillAnglesMethod method) throws IOException {
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        Entry entry = new Entry(relativePath(file), size, lastModified, hash(file), method);
+        append(entry);
+        return entry;
+    }
+
+    private void append(Entry entry) throws IOException {
+        synchronized (this) {
+            entries.put(entry.getPath(), entry);
+            if (journal == null) {
+                boolean newFile = !Files.exists(manifestFile);
+                journal = Files.newBufferedWriter(manifestFile, StandardCharsets.UTF_8,
+                                                  StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+                if (newFile) {
+                    journal.write(HEADER);
+                    journal.newLine();
+                }
+            }
+            journal.write(entry.toString());
+            journal.newLine();
+            journal.flush();
+        }
+    }
+
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Rewrites the manifest with only the latest entry of each file.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (journal == null) {
+            return;
+        }
+        journal.close();
+        journal = null;
+        Path tempFile = Files.createTempFile(root, FILE_NAME, ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write(HEADER);
+                writer.newLine();
+                for (Entry entry : entries.values()) {
+                    writer.write(entry.toString());
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, manifestFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    private String relativePath(Path file) {
+        return root.toAbsolutePath().relativize(file.toAbsolutePath()).toString().replace('\\', '/');
+    }
+
+    private static String hash(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        byte[] buffer = new byte[65536];
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder builder = new StringBuilder(64);
+        for (byte b : digest.digest()) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Manifest entry of a metadata file.
+     */
+    public static class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final String hash;
+        private final FillAnglesMethod method;
+
+        Entry(String path, long size, long lastModified, String hash, FillAnglesMethod method) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.method = method;
+        }
+
+        public String getPath() { return path; }
+
+        public long getSize() { return size; }
+
+        public long getLastModified() { return lastModified; }
+
+        public String getHash() { return hash; }
+
+        public FillAnglesMethod getMethod() { return method; }
+
+        @Override
+        public String toString() {
+            return path + "\t" + size + "\t" + lastModified + "\t" + hash + "\t" + method.name();
+        }
+    }
+}
@@ -30,6 +30,7 @@ import ro.cs.products.sentinel2.ProductType;
 import ro.cs.products.sentinel2.S2L1CProductDescriptor;
 import ro.cs.products.sentinel2.S2L2AProductDescriptor;
 import ro.cs.products.sentinel2.scihub.json.Product;
+import ro.cs.products.util.Constants;
 import ro.cs.products.util.Logger;
 import ro.cs.products.util.NetUtils;
 
@@ -142,7 +143,7 @@ public class PreOpsSciHubSearch extends AbstractSearch<ProductType> {
     protected List<ProductDescriptor> executeImpl() throws IOException {
         List<ProductDescriptor> results = new ArrayList<>();
         if (this.aoi.getNumPoints() > 0) {
-            filter("footprint", "\"Intersects(" + (this.aoi.getNumPoints() < 200 ? this.aoi.toWKT() : this.aoi.toWKTBounds()) + ")\"");
+            filter("footprint", "\"Intersects(" + getFootprint(Constants.MAX_FOOTPRINT_POINTS, Constants.MAX_FOOTPRINT_LENGTH) + ")\"");
         }
         String queryUrl = getQuery();
         Logger.getRootLogger().info(queryUrl);
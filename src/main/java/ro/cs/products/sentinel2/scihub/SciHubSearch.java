@@ -28,6 +28,7 @@ import ro.cs.products.base.ProductDescriptor;
 import ro.cs.products.sentinel2.ProductType;
 import ro.cs.products.sentinel2.S2L1CProductDescriptor;
 import ro.cs.products.sentinel2.S2L2AProductDescriptor;
+import ro.cs.products.util.Constants;
 import ro.cs.products.util.Logger;
 import ro.cs.products.util.NetUtils;
 
@@ -128,11 +129,53 @@ public class SciHubSearch extends AbstractSearch<ProductType> {
         return this.url.toString() + "?" + URLEncodedUtils.format(params, "UTF-8").replace("+", "%20");
     }
 
+    /**
+     * Extracts the products of a page of search results (the Atom feed returned by SciHub),
+     * skipping the ones over the cloud coverage filter.
+     *
+     * @param feed  The response of the query
+     */
+    public List<ProductDescriptor> parse(String feed) {
+        List<ProductDescriptor> results = new ArrayList<>();
+        String[] strings = feed.split("\n");
+        ProductDescriptor currentProduct = null;
+        double currentClouds;
+        for (String string : strings) {
+            if (string.contains("<entry>")) {
+                currentProduct = (this.productType == null || ProductType.S2MSI1C.equals(this.productType)) ?
+                        new S2L1CProductDescriptor() : new S2L2AProductDescriptor();
+            } else if (string.contains("</entry>")) {
+                if (currentProduct != null) {
+                    double cloudsPercentage = currentProduct.getCloudsPercentage();
+                    if (cloudFilter == 0 || cloudsPercentage <= cloudFilter) {
+                        results.add(currentProduct);
+                    } else {
+                        Logger.getRootLogger().debug("%s skipped [clouds: %s]", currentProduct, cloudsPercentage);
+                    }
+                }
+            } else if (string.contains("<title>")) {
+                if (currentProduct != null) {
+                    currentProduct.setName(string.replace("<title>", "").replace("</title>", ""));
+                }
+            } else if (string.contains("cloudcoverpercentage")) {
+                currentClouds = Double.parseDouble(string.replace("<double name=\"cloudcoverpercentage\">", "").replace("</double>", ""));
+                if (currentProduct != null) {
+                    currentProduct.setCloudsPercentage(currentClouds);
+                }
+            } else if (string.contains("<id>")) {
+                if (currentProduct != null) {
+                    currentProduct.setId(string.replace("<id>", "").replace("</id>", ""));
+                }
+            }
+        }
+        return results;
+    }
+
     protected List<ProductDescriptor> executeImpl() throws IOException {
         List<ProductDescriptor> results = new ArrayList<>();
         if (this.aoi.getNumPoints() > 0) {
             if (!this.filter.contains("footprint")) {
-                filter("footprint", "\"Intersects(" + (this.aoi.getNumPoints() < 200 ? this.aoi.toWKT() : this.aoi.toWKTBounds()) + ")\"");
+                filter("footprint", "\"Intersects(" + getFootprint(Constants.MAX_FOOTPRINT_POINTS, Constants.MAX_FOOTPRINT_LENGTH) + ")\"");
             }
         }
         String queryUrl = getQuery();
@@ -140,37 +183,7 @@ public class SciHubSearch extends AbstractSearch<ProductType> {
         try (CloseableHttpResponse response = NetUtils.openConnection(queryUrl, credentials)) {
             switch (response.getStatusLine().getStatusCode()) {
                 case 200:
-                    String[] strings = EntityUtils.toString(response.getEntity()).split("\n");
-                    ProductDescriptor currentProduct = null;
-                    double currentClouds;
-                    for (String string : strings) {
-                        if (string.contains("<entry>")) {
-                            currentProduct = (this.productType == null || ProductType.S2MSI1C.equals(this.productType)) ?
-                                    new S2L1CProductDescriptor() : new S2L2AProductDescriptor();
-                        } else if (string.contains("</entry>")) {
-                            if (currentProduct != null) {
-                                double cloudsPercentage = currentProduct.getCloudsPercentage();
-                                if (cloudFilter == 0 || cloudsPercentage <= cloudFilter) {
-                                    results.add(currentProduct);
-                                } else {
-                                    Logger.getRootLogger().debug("%s skipped [clouds: %s]", currentProduct, cloudsPercentage);
-                                }
-                            }
-                        } else if (string.contains("<title>")) {
-                            if (currentProduct != null) {
-                                currentProduct.setName(string.replace("<title>", "").replace("</title>", ""));
-                            }
-                        } else if (string.contains("cloudcoverpercentage")) {
-                            currentClouds = Double.parseDouble(string.replace("<double name=\"cloudcoverpercentage\">", "").replace("</double>", ""));
-                            if (currentProduct != null) {
-                                currentProduct.setCloudsPercentage(currentClouds);
-                            }
-                        } else if (string.contains("<id>")) {
-                            if (currentProduct != null) {
-                                currentProduct.setId(string.replace("<id>", "").replace("</id>", ""));
-                            }
-                        }
-                    }
+                    results.addAll(parse(EntityUtils.toString(response.getEntity())));
                     break;
                 case 401:
                     Logger.getRootLogger().info("The supplied credentials are invalid!");
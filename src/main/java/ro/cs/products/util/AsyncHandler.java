@@ -0,0 +1,195 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Log handler that writes the records on a background thread. The records are queued in a bounded ring buffer,
+ * from which the writer thread takes them in batches, writing each batch with a single flush.
+ * When the buffer is full, debug records are dropped, while the others wait for room in the buffer.
+ *
+ * @author Cosmin Cara
+ */
+public class AsyncHandler extends Handler {
+    private static final int CAPACITY = 8192;
+    private static final int BATCH_SIZE = 512;
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private final BlockingQueue<LogRecord> buffer;
+    private final Writer writer;
+    private final boolean closeStream;
+    private final Thread thread;
+    private final AtomicLong published;
+    private final AtomicLong dropped;
+    private long written;
+    private volatile boolean closed;
+
+    /**
+     * Creates a handler writing to the given file
+     * @param file      The log file
+     * @param append    If the records are appended to the file, or replace its contents
+     */
+    public static AsyncHandler toFile(String file, boolean append) throws IOException {
+        return new AsyncHandler(new FileOutputStream(file, append), true);
+    }
+
+    /**
+     * Creates a handler writing to the standard error stream, as the console handler does
+     */
+    public static AsyncHandler toConsole() {
+        return new AsyncHandler(System.err, false);
+    }
+
+    private AsyncHandler(OutputStream stream, boolean closeStream) {
+        this.buffer = new ArrayBlockingQueue<>(CAPACITY);
+        this.writer = new BufferedWriter(new OutputStreamWriter(stream, StandardCharsets.UTF_8));
+        this.closeStream = closeStream;
+        this.published = new AtomicLong();
+        this.dropped = new AtomicLong();
+        setFormatter(new LogFormatter());
+        this.thread = new Thread(this::write, "log-" + counter.incrementAndGet());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Returns the number of debug records dropped because the buffer was full.
+     */
+    public long getDropped() { return dropped.get(); }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (closed || !isLoggable(record)) {
+            return;
+        }
+        if (!buffer.offer(record)) {
+            if (record.getLevel().intValue() < Level.INFO.intValue()) {
+                dropped.incrementAndGet();
+                return;
+            }
+            try {
+                buffer.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        published.incrementAndGet();
+    }
+
+    /**
+     * Waits until the records published so far are written.
+     */
+    @Override
+    public void flush() {
+        long target = published.get();
+        synchronized (this) {
+            while (written < target && thread.isAlive()) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the pending records and closes the output.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        flush();
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // the records published while closing
+        List<LogRecord> batch = new ArrayList<>();
+        buffer.drainTo(batch);
+        writeBatch(batch);
+        try {
+            if (closeStream) {
+                writer.close();
+            } else {
+                writer.flush();
+            }
+        } catch (IOException e) {
+            reportError(null, e, ErrorManager.CLOSE_FAILURE);
+        }
+    }
+
+    private void write() {
+        List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+        while (!closed) {
+            try {
+                LogRecord first = buffer.poll(1, TimeUnit.SECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+            } catch (InterruptedException e) {
+                break;
+            }
+            buffer.drainTo(batch, BATCH_SIZE - 1);
+            writeBatch(batch);
+            batch.clear();
+        }
+    }
+
+    private void writeBatch(List<LogRecord> batch) {
+        try {
+            for (LogRecord record : batch) {
+                writer.write(getFormatter().format(record));
+            }
+            writer.flush();
+        } catch (Exception e) {
+            reportError(null, e, ErrorManager.WRITE_FAILURE);
+        }
+        synchronized (this) {
+            written += batch.size();
+            notifyAll();
+        }
+    }
+}
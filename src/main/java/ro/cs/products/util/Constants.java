@@ -52,11 +52,14 @@ public class Constants {
     public static final String PARAM_L8_COLLECTION = "l8col";
     public static final String PARAM_S2_PRODUCT_TYPE = "s2t";
     public static final String PARAM_L8_PRODUCT_TYPE = "l8t";
+    public static final String PARAM_FLAG_CLIP = "clip";
     public static final double DEFAULT_CLOUD_PERCENTAGE = 100.0;
     public static final String DEFAULT_START_DATE = "NOW-7DAY";
     public static final String PATTERN_START_DATE = "NOW-%sDAY";
     public static final String DEFAULT_END_DATE = "NOW";
     public static final int DEFAULT_RESULTS_LIMIT = 10;
+    public static final int MAX_FOOTPRINT_POINTS = 200;
+    public static final int MAX_FOOTPRINT_LENGTH = 8000;
     public static final String PROPERTY_NAME_SEARCH_URL = "scihub.search.url";
     public static final String PROPERTY_NAME_SEARCH_PREOPS_URL = "preops.scihub.search.url";
     public static final String PROPERTY_NAME_SCIHUB_PRODUCTS_URL = "scihub.product.url";
@@ -78,8 +81,17 @@ public class Constants {
     public static final String LEVEL_3 = "          ";
     public static final String LEVEL_4 = "            ";
     public static final String PARAM_FILL_ANGLES = "ma";
+    public static final String PARAM_FLAG_KEEP_ORIGINAL = "ko";
+    public static final String PARAM_AOI_SIMPLIFICATION = "as";
+    public static final String PARAM_PARALLELISM = "par";
+    public static final String PARAM_ZIP_THREADS = "zt";
+    public static final String PARAM_COPY_THREADS = "ct";
+    public static final String PARAM_METRICS_FILE = "mx";
+    public static final String PARAM_TRACE_FILE = "tr";
+    public static final String PARAM_OUTPUT_FORMAT = "of";
     public static final String PARAM_VERBOSE = "v";
     public static final String PARAM_SEARCH_ONLY = "q";
+    public static final String PARAM_SORT = "so";
     public static final String SEARCH_PARAM_RELATIVE_ORBIT_NUMBER = "relativeOrbitNumber";
     public static final String PARAM_PROXY_TYPE = "ptype";
     public static final String PARAM_PROXY_HOST = "phost";
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Index of the file entries of an archive, written next to it (as <code>&lt;archive&gt;.idx</code>) when the archive
+ * is finished, so that an entry can be read later without going through the archive.
+ * The index is a text file with a line per entry:
+ * <pre>
+ *     offset  length  size  encoding  name
+ * </pre>
+ * (tab-separated), where <code>offset</code> is the position in the archive file of the first byte of the data
+ * of the entry, <code>length</code> the number of bytes the data occupies in the archive, <code>size</code> the
+ * size of the entry and <code>encoding</code> one of <code>stored</code>, <code>deflated</code> (raw deflate
+ * stream) or <code>zstd</code> (Zstandard frames, whose contents starts with the entry).
+ *
+ * @author Cosmin Cara
+ */
+public class EntryIndex {
+    public static final String EXTENSION = ".idx";
+    public static final String STORED = "stored";
+    public static final String DEFLATED = "deflated";
+    public static final String ZSTD = "zstd";
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Returns the index file of the given archive.
+     */
+    public static Path indexFileOf(Path archiveFile) {
+        return archiveFile.resolveSibling(archiveFile.getFileName() + EXTENSION);
+    }
+
+    /**
+     * Reads the index of the given archive.
+     */
+    public static List<Entry> read(Path archiveFile) throws IOException {
+        List<Entry> entries = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(indexFileOf(archiveFile), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] tokens = line.split("\t", 5);
+                if (tokens.length != 5) {
+                    throw new IOException(String.format("Invalid index line: %s", line));
+                }
+                entries.add(new Entry(tokens[4], Long.parseLong(tokens[0]), Long.parseLong(tokens[1]),
+                                      Long.parseLong(tokens[2]), tokens[3]));
+            }
+        } catch (NumberFormatException e) {
+            throw new IOException(String.format("Invalid index of %s: %s", archiveFile, e.getMessage()));
+        }
+        return entries;
+    }
+
+    void add(String name, long offset, long length, long size, String encoding) {
+        entries.add(new Entry(name, offset, length, size, encoding));
+    }
+
+    /**
+     * Writes the index of the given archive.
+     */
+    void write(Path archiveFile) throws IOException {
+        Path indexFile = indexFileOf(archiveFile);
+        Path tempFile = Files.createTempFile(indexFile.toAbsolutePath().getParent(), indexFile.getFileName().toString(), ".tmp");
+        try {
+            try (BufferedWriter writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                writer.write("# offset\tlength\tsize\tencoding\tname");
+                writer.newLine();
+                for (Entry entry : entries) {
+                    writer.write(entry.offset + "\t" + entry.length + "\t" + entry.size + "\t" + entry.encoding + "\t" + entry.name);
+                    writer.newLine();
+                }
+            }
+            try {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+        } finally {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+    }
+
+    /**
+     * The location of an entry in its archive.
+     */
+    public static class Entry {
+        private final String name;
+        private final long offset;
+        private final long length;
+        private final long size;
+        private final String encoding;
+
+        Entry(String name, long offset, long length, long size, String encoding) {
+            this.name = name;
+            this.offset = offset;
+            this.length = length;
+            this.size = size;
+            this.encoding = encoding;
+        }
+
+        public String getName() { return name; }
+
+        public long getOffset() { return offset; }
+
+        public long getLength() { return length; }
+
+        public long getSize() { return size; }
+
+        public String getEncoding() { return encoding; }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Links that give the files of a local archive copy semantics, without the cost of a copy:
+ * hard links, and copy-on-write clones (reflinks) on the file systems that support them (Btrfs, XFS, ZFS, APFS...).
+ * Java has no API for cloning, which is done by <code>cp</code>: GNU <code>cp --reflink=auto</code> on Linux and
+ * <code>cp -c</code> on macOS. Both fall back by themselves to a copy when the file system cannot clone, or when
+ * the source and the target are on different devices. Elsewhere, the files are not cloned.
+ *
+ * @author Cosmin Cara
+ */
+public final class FileLinks {
+    /* How cp is told to clone */
+    private enum Cloner { GNU, MACOS, NONE }
+
+    private static volatile Cloner cloner;
+
+    private FileLinks() { }
+
+    /**
+     * Creates a hard link to the given file.
+     *
+     * @param source    The existing file
+     * @param target    The link to create
+     * @return  <code>false</code> if the file system cannot link the two files (for instance, if they are on different
+     *          devices), in which case nothing is created
+     */
+    public static boolean hardLink(Path source, Path target) throws IOException {
+        Path targetFolder = target.toAbsolutePath().getParent();
+        if (!Files.getFileStore(source).equals(Files.getFileStore(targetFolder))) {
+            return false;
+        }
+        try {
+            Files.createLink(target, source);
+            return true;
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // the file stores may compare equal while the link is refused, as across bind mounts (EXDEV)
+            return false;
+        }
+    }
+
+    /**
+     * Clones the given file or folder (with all its contents), keeping the modification times.
+     * Where the file system cannot clone, the files are copied.
+     *
+     * @param source    The existing file or folder
+     * @param target    The clone to create
+     * @return  <code>false</code> if cloning is not available on this system, in which case nothing is created
+     */
+    public static boolean reflink(Path source, Path target) throws IOException {
+        String sourcePath = source.toAbsolutePath().toString();
+        String targetPath = target.toAbsolutePath().toString();
+        switch (cloner()) {
+            case GNU:
+                run("cp", "-R", "-T", "--reflink=auto", "--preserve=timestamps", sourcePath, targetPath);
+                return true;
+            case MACOS:
+                // the contents of a folder are cloned into the target, whether it exists or not
+                run("cp", "-R", "-c", "-p", Files.isDirectory(source) ? sourcePath + "/." : sourcePath, targetPath);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Clones the given files into a folder, keeping their names and modification times, with a single command.
+     * Where the file system cannot clone, the files are copied.
+     *
+     * @param sources       The existing files
+     * @param targetFolder  The existing folder receiving the clones
+     * @return  <code>false</code> if cloning is not available on this system, in which case nothing is created
+     */
+    public static boolean reflink(List<Path> sources, Path targetFolder) throws IOException {
+        Cloner cloner = cloner();
+        if (cloner == Cloner.NONE) {
+            return false;
+        }
+        if (sources.isEmpty()) {
+            return true;
+        }
+        List<String> command = new ArrayList<>();
+        if (cloner == Cloner.GNU) {
+            Collections.addAll(command, "cp", "--reflink=auto", "--preserve=timestamps", "-t",
+                               targetFolder.toAbsolutePath().toString());
+            for (Path source : sources) {
+                command.add(source.toAbsolutePath().toString());
+            }
+        } else {
+            Collections.addAll(command, "cp", "-c", "-p");
+            for (Path source : sources) {
+                command.add(source.toAbsolutePath().toString());
+            }
+            command.add(targetFolder.toAbsolutePath().toString());
+        }
+        run(command.toArray(new String[0]));
+        return true;
+    }
+
+    /**
+     * Finds (once) how the <code>cp</code> command of this system clones files, if it does.
+     */
+    private static Cloner cloner() {
+        if (cloner == null) {
+            Cloner result;
+            if (System.getProperty("os.name", "").startsWith("Mac")) {
+                // the BSD cp of macOS clones with -c since 10.12, and has no --version
+                result = Cloner.MACOS;
+            } else {
+                try {
+                    result = run("cp", "--version").contains("coreutils") ? Cloner.GNU : Cloner.NONE;
+                } catch (IOException e) {
+                    result = Cloner.NONE;
+                }
+            }
+            if (result == Cloner.NONE) {
+                Logger.getRootLogger().debug("Files cannot be cloned on this system, they will be copied");
+            }
+            cloner = result;
+        }
+        return cloner;
+    }
+
+    /**
+     * Runs the given command.
+     *
+     * @return  The output of the command
+     * @throws IOException  If the command cannot be run or fails
+     */
+    private static String run(String... command) throws IOException {
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (InputStream inputStream = process.getInputStream()) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) > 0) {
+                output.write(buffer, 0, read);
+            }
+        }
+        try {
+            int code = process.waitFor();
+            String text = new String(output.toByteArray(), StandardCharsets.UTF_8);
+            if (code != 0) {
+                throw new IOException(String.format("%s failed [code %s]: %s", String.join(" ", command), code, text.trim()));
+            }
+            return text;
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while running " + command[0]);
+        }
+    }
+}
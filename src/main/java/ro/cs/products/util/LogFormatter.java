@@ -18,8 +18,9 @@
  */
 package ro.cs.products.util;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
 import java.util.logging.Formatter;
 import java.util.logging.LogRecord;
 
@@ -29,6 +30,9 @@ import java.util.logging.LogRecord;
  * @author  Cosmin Cara
  */
 public class LogFormatter extends Formatter {
+    private static final DateTimeFormatter timeFormat = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+                                                                         .withZone(ZoneId.systemDefault());
+
     @Override
     public String format(LogRecord record) {
         String level = record.getLevel().getName();
@@ -41,8 +45,6 @@ public class LogFormatter extends Formatter {
     }
 
     private String formatTime(long millis) {
-        SimpleDateFormat date_format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-        Date resultDate = new Date(millis);
-        return date_format.format(resultDate);
+        return timeFormat.format(Instant.ofEpochMilli(millis));
     }
 }
@@ -19,15 +19,19 @@
 package ro.cs.products.util;
 
 import java.io.IOException;
-import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
-import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
 /**
  * Simple file logger.
+ * The level of a message is checked before the message is formatted, and messages may be given as suppliers,
+ * so that debug messages cost nothing when debugging is off. The console and the log files are written
+ * asynchronously.
  *
  * @author Cosmin Cara
  */
@@ -38,38 +42,64 @@ public class Logger {
         void info(String message, Object...args);
         void warn(String message, Object...args);
         void error(String message, Object...args);
+
+        /**
+         * Checks if debug messages are written, to avoid preparing the arguments of messages that would be discarded
+         */
+        boolean isDebugEnabled();
+
+        /**
+         * Logs a debug message built only if debug messages are written
+         */
+        default void debug(Supplier<String> message) {
+            if (isDebugEnabled()) {
+                debug(message.get());
+            }
+        }
     }
 
     private static final java.util.logging.Logger logger;
+    private static final List<AsyncHandler> asyncHandlers = new CopyOnWriteArrayList<>();
+    // the lowest level written by any handler
+    private static volatile int threshold;
     private static String rootLogFile;
     private static CustomLogger rootLogger = new CustomLogger() {
         @Override
-        public void debug(String message, Object... args) { fine(message, args); }
+        public void debug(String message, Object... args) { log(Level.FINE, message, args); }
 
         @Override
         public void info(String message, Object... args) {
-            information(message, args);
+            log(Level.INFO, message, args);
         }
 
         @Override
         public void warn(String message, Object... args) {
-            warning(message, args);
+            log(Level.WARNING, message, args);
         }
 
         @Override
         public void error(String message, Object... args) {
-            err(message, args);
+            log(Level.SEVERE, message, args);
         }
+
+        @Override
+        public boolean isDebugEnabled() { return isLoggable(Level.FINE); }
     };
 
     static {
         logger = java.util.logging.Logger.getLogger(java.util.logging.Logger.GLOBAL_LOGGER_NAME);
         java.util.logging.Logger rootLogger = java.util.logging.Logger.getLogger("");
         Handler[] handlers = rootLogger.getHandlers();
-        if (handlers[0] instanceof ConsoleHandler) {
-            handlers[0].setFormatter(new LogFormatter());
+        if (handlers.length > 0 && handlers[0] instanceof ConsoleHandler) {
+            // the console is written asynchronously too
+            AsyncHandler console = register(AsyncHandler.toConsole());
+            console.setLevel(handlers[0].getLevel());
+            rootLogger.removeHandler(handlers[0]);
+            rootLogger.addHandler(console);
         }
         logger.setLevel(Level.ALL);
+        updateThreshold();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> asyncHandlers.forEach(AsyncHandler::close)));
     }
 
     public static void initialize(String masterLogFile, boolean verbose) throws IOException {
@@ -85,14 +115,22 @@ public class Logger {
         return rootLogger;
     }
 
+    /**
+     * Checks if messages of the given level are written by any handler
+     */
+    public static boolean isLoggable(Level level) {
+        return level.intValue() >= threshold;
+    }
+
     private static Handler registerHandler(String logFile, boolean verbose) throws IOException {
-        Handler fileHandler = new FileHandler(logFile, true);
-        fileHandler.setFormatter(new LogFormatter());
+        Handler fileHandler = register(AsyncHandler.toFile(logFile, true));
         logger.addHandler(fileHandler);
         Level level = verbose ? Level.ALL : Level.INFO;
         logger.setLevel(level);
-        Arrays.stream(java.util.logging.Logger.getLogger("").getHandlers())
-                .forEach(h -> h.setLevel(level));
+        for (Handler handler : java.util.logging.Logger.getLogger("").getHandlers()) {
+            handler.setLevel(level);
+        }
+        updateThreshold();
         return fileHandler;
     }
 
@@ -100,85 +138,94 @@ public class Logger {
         handler.setFormatter(new LogFormatter());
         handler.setLevel(logger.getLevel());
         logger.addHandler(handler);
+        updateThreshold();
     }
 
-    private static void fine(String message, Object...args) {
-        if (args != null && args.length > 0) {
-            message = String.format(message, args);
-        }
-        logger.fine(message);
+    private static AsyncHandler register(AsyncHandler handler) {
+        asyncHandlers.add(handler);
+        return handler;
     }
 
-    private static void information(String message, Object...args) {
-        if (args != null && args.length > 0) {
-            message = String.format(message, args);
-        }
-        logger.info(message);
+    private static void unregister(AsyncHandler handler) {
+        asyncHandlers.remove(handler);
+        handler.close();
     }
 
-    private static void warning(String message, Object...args) {
-        if (args != null && args.length > 0) {
-            message = String.format(message, args);
+    private static void updateThreshold() {
+        int lowest = Level.OFF.intValue();
+        for (Handler handler : logger.getHandlers()) {
+            lowest = Math.min(lowest, handler.getLevel().intValue());
+        }
+        for (Handler handler : java.util.logging.Logger.getLogger("").getHandlers()) {
+            lowest = Math.min(lowest, handler.getLevel().intValue());
         }
-        logger.warning(message);
+        threshold = Math.max(lowest, logger.getLevel().intValue());
     }
 
-    private static void err(String message, Object...args) {
+    private static void log(Level level, String message, Object...args) {
+        if (level.intValue() < threshold) {
+            return;
+        }
         if (args != null && args.length > 0) {
             message = String.format(message, args);
         }
-        logger.severe(message);
+        logger.log(level, message);
     }
 
+    /**
+     * Logger writing the messages of a single product in its own file.
+     * It writes the same levels as the root logger.
+     */
     public static class ScopeLogger implements CustomLogger, AutoCloseable {
 
-        private Handler fileHandler;
+        private AsyncHandler fileHandler;
+        private final int level;
 
         public ScopeLogger(String logFile) throws IOException {
-            //fileHandler = registerHandler(logFile);
-            fileHandler = new FileHandler(logFile);
-            fileHandler.setFormatter(new LogFormatter());
+            fileHandler = register(AsyncHandler.toFile(logFile, false));
+            level = logger.getLevel().intValue();
         }
 
         @Override
         public void debug(String message, Object...args) {
-            if (args != null && args.length > 0) {
-                message = String.format(message, args);
-            }
-            fileHandler.publish(new LogRecord(Level.FINE, message));
+            publish(Level.FINE, message, args);
         }
 
         @Override
         public void info(String message, Object...args) {
-            if (args != null && args.length > 0) {
-                message = String.format(message, args);
-            }
-            fileHandler.publish(new LogRecord(Level.INFO, message));
+            publish(Level.INFO, message, args);
         }
 
         @Override
         public void warn(String message, Object...args) {
-            if (args != null && args.length > 0) {
-                message = String.format(message, args);
-            }
-            fileHandler.publish(new LogRecord(Level.WARNING, message));
+            publish(Level.WARNING, message, args);
         }
 
         @Override
         public void error(String message, Object...args) {
-            if (args != null && args.length > 0) {
-                message = String.format(message, args);
-            }
-            fileHandler.publish(new LogRecord(Level.SEVERE, message));
+            publish(Level.SEVERE, message, args);
         }
 
+        @Override
+        public boolean isDebugEnabled() { return Level.FINE.intValue() >= level; }
+
         @Override
         public void close() throws IOException {
             if (fileHandler != null) {
-                fileHandler.close();
-                logger.removeHandler(fileHandler);
+                unregister(fileHandler);
+                fileHandler = null;
+            }
+        }
+
+        private void publish(Level recordLevel, String message, Object...args) {
+            if (recordLevel.intValue() < level || fileHandler == null) {
+                return;
+            }
+            if (args != null && args.length > 0) {
+                message = String.format(message, args);
             }
+            fileHandler.publish(new LogRecord(recordLevel, message));
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,414 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Registry of the runtime metrics: counters, gauges and latency histograms, identified by a name and labels
+ * (for instance, the store or the host). The metrics can be exported periodically to a file, in the Prometheus
+ * text format or, if the file name ends with .json, as JSON.
+ *
+ * Counters and histograms are cheap to update from any thread: looking a metric up is a map access,
+ * and updating it does not lock.
+ *
+ * @author Cosmin Cara
+ */
+public class Metrics {
+    private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+    private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" };
+    // name{labels} -> metric, sorted so that the metrics of the same name are exported together
+    private static final Map<String, Metric> registry = new ConcurrentSkipListMap<>();
+    private static ScheduledExecutorService exporter;
+    private static Path exportFile;
+
+    /**
+     * Returns the counter of the given name and labels, creating it if needed.
+     *
+     * @param name      The name of the counter
+     * @param labels    The names and values of the labels, alternating
+     */
+    public static Counter counter(String name, String... labels) {
+        return (Counter) registry.computeIfAbsent(key(name, labels), k -> new Counter(name, labels));
+    }
+
+    /**
+     * Returns the gauge of the given name and labels, creating it if needed.
+     */
+    public static Gauge gauge(String name, String... labels) {
+        return (Gauge) registry.computeIfAbsent(key(name, labels), k -> new Gauge(name, labels));
+    }
+
+    /**
+     * Returns the histogram of the given name and labels, creating it if needed.
+     * Histograms record durations, in nanoseconds, and are exported in seconds.
+     */
+    public static Histogram histogram(String name, String... labels) {
+        return (Histogram) registry.computeIfAbsent(key(name, labels), k -> new Histogram(name, labels));
+    }
+
+    /**
+     * Returns the host of the given URL, to be used as a label
+     */
+    public static String host(String url) {
+        int start = url.indexOf("://");
+        start = start < 0 ? 0 : start + 3;
+        int end = start;
+        while (end < url.length() && "/?#".indexOf(url.charAt(end)) < 0) {
+            end++;
+        }
+        int at = url.lastIndexOf('@', end - 1);
+        return url.substring(Math.max(start, at + 1), end);
+    }
+
+    /**
+     * Starts writing the metrics to the given file, at the given interval, and when stopped.
+     */
+    public static synchronized void startExport(Path file, long periodSeconds) {
+        stopExport();
+        exportFile = file;
+        exporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        exporter.scheduleAtFixedRate(Metrics::exportQuietly, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Stops the periodic export, writing the metrics a last time.
+     */
+    public static synchronized void stopExport() {
+        if (exporter != null) {
+            exporter.shutdownNow();
+            exporter = null;
+            exportQuietly();
+            exportFile = null;
+        }
+    }
+
+    /**
+     * Writes the metrics to the given file (replacing it), as JSON if the file name ends with .json,
+     * otherwise in the Prometheus text format.
+     */
+    public static void export(Path file) throws IOException {
+        Path parent = file.toAbsolutePath().getParent();
+        Path tempFile = Files.createTempFile(parent, file.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tempFile, StandardCharsets.UTF_8)) {
+                if (file.getFileName().toString().endsWith(".json")) {
+                    writeJson(writer);
+                } else {
+                    writePrometheus(writer);
+                }
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    /**
+     * Removes all the metrics
+     */
+    public static void clear() {
+        registry.clear();
+    }
+
+    private static void exportQuietly() {
+        Path file = exportFile;
+        if (file != null) {
+            try {
+                export(file);
+            } catch (IOException e) {
+                Logger.getRootLogger().warn("Cannot export the metrics to %s: %s", file, e.getMessage());
+            }
+        }
+    }
+
+    private static String key(String name, String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+        return labels.length == 0 ? name : name + "{" + formatLabels(labels) + "}";
+    }
+
+    private static String formatLabels(String... labels) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(labels[i]).append("=\"")
+                   .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                   .append('"');
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text format.
+     */
+    public static void writePrometheus(Writer writer) throws IOException {
+        String lastName = null;
+        for (Metric metric : registry.values()) {
+            if (!metric.name.equals(lastName)) {
+                writer.write("# TYPE " + metric.name + " " + metric.type() + "\n");
+                lastName = metric.name;
+            }
+            String labels = formatLabels(metric.labels);
+            if (metric instanceof Histogram) {
+                Histogram histogram = (Histogram) metric;
+                String separator = labels.isEmpty() ? "" : ",";
+                for (double quantile : QUANTILES) {
+                    writer.write(String.format(Locale.ROOT, "%s{%s%squantile=\"%s\"} %.9f\n", metric.name, labels, separator,
+                                               quantile, seconds(histogram.getPercentile(quantile))));
+                }
+                String suffix = labels.isEmpty() ? "" : "{" + labels + "}";
+                writer.write(String.format(Locale.ROOT, "%s_sum%s %.9f\n", metric.name, suffix, seconds(histogram.getSum())));
+                writer.write(metric.name + "_count" + suffix + " " + histogram.getCount() + "\n");
+            } else {
+                writer.write(metric.name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + metric.value() + "\n");
+            }
+        }
+    }
+
+    private static void writeJson(Writer writer) {
+        try (JsonGenerator generator = Json.createGenerator(writer)) {
+            generator.writeStartObject()
+                     .write("timestamp", System.currentTimeMillis())
+                     .writeStartArray("metrics");
+            for (Metric metric : registry.values()) {
+                generator.writeStartObject()
+                         .write("name", metric.name)
+                         .write("type", metric.type())
+                         .writeStartObject("labels");
+                for (int i = 0; i < metric.labels.length; i += 2) {
+                    generator.write(metric.labels[i], metric.labels[i + 1]);
+                }
+                generator.writeEnd();
+                if (metric instanceof Histogram) {
+                    Histogram histogram = (Histogram) metric;
+                    generator.write("count", histogram.getCount())
+                             .write("sum", seconds(histogram.getSum()))
+                             .write("min", seconds(histogram.getMin()))
+                             .write("max", seconds(histogram.getMax()));
+                    for (int i = 0; i < QUANTILES.length; i++) {
+                        generator.write(QUANTILE_NAMES[i], seconds(histogram.getPercentile(QUANTILES[i])));
+                    }
+                } else {
+                    generator.write("value", metric.value());
+                }
+                generator.writeEnd();
+            }
+            generator.writeEnd().writeEnd();
+        }
+    }
+
+    private static double seconds(long nanos) {
+        return nanos / 1e9;
+    }
+
+    /**
+     * Base class of the metrics
+     */
+    public static abstract class Metric {
+        private final String name;
+        private final String[] labels;
+
+        Metric(String name, String[] labels) {
+            this.name = name;
+            this.labels = labels.clone();
+        }
+
+        public String getName() { return name; }
+
+        abstract String type();
+
+        abstract long value();
+    }
+
+    /**
+     * A count that only increases, such as the number of bytes downloaded.
+     */
+    public static class Counter extends Metric {
+        private final LongAdder count = new LongAdder();
+
+        Counter(String name, String[] labels) {
+            super(name, labels);
+        }
+
+        public void increment() { count.increment(); }
+
+        public void add(long value) { count.add(value); }
+
+        public long get() { return count.sum(); }
+
+        @Override
+        String type() { return "counter"; }
+
+        @Override
+        long value() { return get(); }
+    }
+
+    /**
+     * A value that goes up and down, such as the number of downloads in progress.
+     */
+    public static class Gauge extends Metric {
+        private final AtomicLong current = new AtomicLong();
+
+        Gauge(String name, String[] labels) {
+            super(name, labels);
+        }
+
+        public void increment() { current.incrementAndGet(); }
+
+        public void decrement() { current.decrementAndGet(); }
+
+        public void set(long value) { current.set(value); }
+
+        public long get() { return current.get(); }
+
+        @Override
+        String type() { return "gauge"; }
+
+        @Override
+        long value() { return get(); }
+    }
+
+    /**
+     * Histogram of durations, in nanoseconds, with buckets of logarithmic width (as HdrHistogram does):
+     * each power of two is divided in 16 buckets, so that the recorded values are known within 1/16 (6.25%),
+     * whatever their magnitude, in a fixed array of counts.
+     */
+    public static class Histogram extends Metric {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+        private final AtomicLong max = new AtomicLong();
+
+        Histogram(String name, String[] labels) {
+            super(name, labels);
+        }
+
+        /**
+         * Records a duration
+         * @param nanos     The duration, in nanoseconds
+         */
+        public void record(long nanos) {
+            long value = Math.max(nanos, 0);
+            counts.incrementAndGet(index(value));
+            count.increment();
+            sum.add(value);
+            if (value < min.get()) {
+                min.accumulateAndGet(value, Math::min);
+            }
+            if (value > max.get()) {
+                max.accumulateAndGet(value, Math::max);
+            }
+        }
+
+        /**
+         * Records the time elapsed since the given start, as given by {@link System#nanoTime()}
+         */
+        public void recordSince(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long getCount() { return count.sum(); }
+
+        public long getSum() { return sum.sum(); }
+
+        public long getMin() { return getCount() > 0 ? min.get() : 0; }
+
+        public long getMax() { return max.get(); }
+
+        /**
+         * Returns the value below which the given fraction of the recorded values fall, within the bucket precision
+         * @param quantile  The fraction, between 0 and 1
+         */
+        public long getPercentile(double quantile) {
+            long total = 0;
+            long[] snapshot = new long[counts.length()];
+            for (int i = 0; i < snapshot.length; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * total));
+            long seen = 0;
+            for (int i = 0; i < snapshot.length; i++) {
+                seen += snapshot[i];
+                if (seen >= rank) {
+                    return Math.min(Math.max(highestValue(i), getMin()), getMax());
+                }
+            }
+            return getMax();
+        }
+
+        @Override
+        String type() { return "summary"; }
+
+        @Override
+        long value() { return getCount(); }
+
+        static int index(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return ((shift + 1) << SUB_BUCKET_BITS) + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+        }
+
+        static long highestValue(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int shift = (index >>> SUB_BUCKET_BITS) - 1;
+            long lowest = (long) (SUB_BUCKETS + (index & (SUB_BUCKETS - 1))) << shift;
+            return lowest + (1L << shift) - 1;
+        }
+    }
+}
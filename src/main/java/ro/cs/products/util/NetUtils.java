@@ -26,9 +26,11 @@ import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 
 import java.io.IOException;
@@ -53,8 +55,19 @@ public class NetUtils {
     private String authToken;
     private static Proxy javaNetProxy;
     private static HttpHost apacheHttpProxy;
-    private static CredentialsProvider proxyCredentials;
+    /* The proxy credentials are copied into the credentials of each request, which are not shared between jobs */
+    private static AuthScope proxyScope;
+    private static Credentials proxyCredentials;
     private static int timeout = 30000;
+    /* All the searches share one client, so that the connections are kept alive between requests (and jobs) */
+    private static final PoolingHttpClientConnectionManager connectionManager;
+    private static final CloseableHttpClient httpClient;
+
+    static {
+        connectionManager = new PoolingHttpClientConnectionManager();
+        setMaxConnections(8);
+        httpClient = HttpClients.custom().setConnectionManager(connectionManager).build();
+    }
 
     public void setAuthToken(String value) {
         authToken = value;
@@ -75,8 +88,8 @@ public class NetUtils {
                 }
             });
             if (user != null && pwd != null) {
-                proxyCredentials = new BasicCredentialsProvider();
-                proxyCredentials.setCredentials(new AuthScope(host, port), new UsernamePasswordCredentials(user, pwd));
+                proxyScope = new AuthScope(host, port);
+                proxyCredentials = new UsernamePasswordCredentials(user, pwd);
             }
             apacheHttpProxy = new HttpHost(host, port, proxyType.name());
         }
@@ -86,6 +99,14 @@ public class NetUtils {
         timeout = newTimeout;
     }
 
+    /**
+     * Sets the number of connections to a host that the searches can keep open at the same time.
+     */
+    public static void setMaxConnections(int perHost) {
+        connectionManager.setDefaultMaxPerRoute(perHost);
+        connectionManager.setMaxTotal(perHost * 4);
+    }
+
     public boolean isAvailable(String url) {
         boolean status;
         try {
@@ -126,7 +147,7 @@ public class NetUtils {
         } catch (IOException e) {
             Logger.getRootLogger().debug("Could not open connection to %s [%s]", url, e.getMessage());
         }
-        if (connection != null) {
+        if (connection != null && Logger.getRootLogger().isDebugEnabled()) {
             StringBuilder builder = new StringBuilder();
             Map<String, List<String>> requestProperties = connection.getRequestProperties();
             for (Map.Entry<String, List<String>> entry : requestProperties.entrySet()) {
@@ -146,20 +167,16 @@ public class NetUtils {
     public static CloseableHttpResponse openConnection(String url, Credentials credentials) {
         CloseableHttpResponse response = null;
         try {
-            CloseableHttpClient httpClient;
             URI uri = new URI(url);
-            CredentialsProvider credentialsProvider = null;
+            HttpClientContext context = HttpClientContext.create();
+            CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+            if (proxyCredentials != null) {
+                credentialsProvider.setCredentials(proxyScope, proxyCredentials);
+            }
             if (credentials != null) {
-                credentialsProvider = proxyCredentials != null ? proxyCredentials : new BasicCredentialsProvider();
                 credentialsProvider.setCredentials(new AuthScope(uri.getHost(), uri.getPort()), credentials);
             }
-            if (credentialsProvider != null) {
-                httpClient = HttpClients.custom()
-                                        .setDefaultCredentialsProvider(credentialsProvider)
-                                        .build();
-            } else {
-                httpClient = HttpClients.custom().build();
-            }
+            context.setCredentialsProvider(credentialsProvider);
             HttpGet get = new HttpGet(uri);
             if (apacheHttpProxy != null) {
                 RequestConfig config = RequestConfig.custom().setProxy(apacheHttpProxy).build();
@@ -170,9 +187,14 @@ public class NetUtils {
             if (config != null) {
                 Logger.getRootLogger().debug("Details: %s", config.toString());
             }
-            response = httpClient.execute(get);
+            long startNanos = System.nanoTime();
+            response = httpClient.execute(get, context);
+            Metrics.histogram("http_response_seconds", "host", uri.getHost()).recordSince(startNanos);
+            Metrics.counter("http_requests_total", "host", uri.getHost(),
+                            "status", String.valueOf(response.getStatusLine().getStatusCode())).increment();
             Logger.getRootLogger().debug("HTTP GET %s returned %s", url, response.getStatusLine().getStatusCode());
         } catch (URISyntaxException | IOException e) {
+            Metrics.counter("http_failures_total", "host", Metrics.host(url)).increment();
             Logger.getRootLogger().debug("Could not create connection to %s : %s", url, e.getMessage());
         }
         return response;
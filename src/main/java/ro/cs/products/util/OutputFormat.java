@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+/**
+ * Formats in which downloaded products are written.
+ *
+ * @author Cosmin Cara
+ */
+public enum OutputFormat {
+    /*
+     * Folder of product files, as they are downloaded
+     */
+    DIRECTORY(null),
+    /*
+     * Zip archive, text files deflated and rasters stored
+     */
+    ZIP("zip"),
+    /*
+     * Uncompressed POSIX (ustar/pax) tar archive
+     */
+    TAR("tar"),
+    /*
+     * POSIX tar archive compressed with Zstandard, rasters stored
+     */
+    TAR_ZST("tar.zst");
+
+    private final String extension;
+
+    OutputFormat(String extension) {
+        this.extension = extension;
+    }
+
+    /**
+     * Returns the extension of the archive files, or <code>null</code> for folders.
+     */
+    public String getExtension() { return extension; }
+
+    public boolean isArchive() { return extension != null; }
+}
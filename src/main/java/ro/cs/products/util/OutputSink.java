@@ -0,0 +1,64 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * Sequential writer of an archive, into which the files of a product are streamed as they are produced.
+ * Entries are written in the order they are added.
+ * If the contents of an entry cannot be read entirely, the entry is removed from the archive
+ * and the archive can still receive other entries.
+ * Once finished, the archive is accompanied by the {@link EntryIndex} of its entries.
+ *
+ * @author Cosmin Cara
+ */
+public interface OutputSink extends Closeable {
+    /**
+     * Adds a directory entry. The name should end with '/'.
+     */
+    void addDirectory(String name, long lastModified) throws IOException;
+
+    /**
+     * Adds the given file.
+     *
+     * @param file  The file to add
+     * @param name  The name of the entry
+     */
+    void addFile(Path file, String name) throws IOException;
+
+    /**
+     * Adds an entry whose contents is read from the given stream.
+     *
+     * @param name          The name of the entry
+     * @param lastModified  The modification time of the entry, in milliseconds
+     * @param size          The expected size of the contents, or -1 if not known
+     * @param content       The contents of the entry
+     * @return  The number of bytes of the entry
+     */
+    long addEntry(String name, long lastModified, long size, InputStream content) throws IOException;
+
+    /**
+     * Writes the remaining entries, the end of the archive and its index. Nothing can be added afterwards.
+     */
+    void finish() throws IOException;
+}
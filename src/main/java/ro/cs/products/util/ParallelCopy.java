@@ -0,0 +1,249 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Copier of folders, whose files are copied by several threads.
+ * The source folder is walked once: the directories are created as they are found, while the files are copied
+ * in parallel, the large ones with {@link FileChannel#transferTo}, which leaves the transfer to the kernel.
+ * A file whose copy already has the same size and modification time is not copied again. Since the copies keep
+ * the modification time of their source, an interrupted copy is resumed where it stopped.
+ * The number of files read at the same time from a device (file store) is bounded, also when the copier
+ * is shared by several threads, while the devices are read in parallel: the pool has as many threads per device
+ * as there were devices copied from. The copier should be closed once no longer needed, to release its threads.
+ *
+ * @author Cosmin Cara
+ */
+public class ParallelCopy implements AutoCloseable {
+    /* Files from this size on are transferred by the kernel, the smaller ones are simply copied */
+    private static final long TRANSFER_THRESHOLD = 1 << 20;
+
+    private final int threadsPerDevice;
+    private final ThreadPoolExecutor executor;
+    /* The permits to read from each device */
+    private final Map<FileStore, Semaphore> devicePermits = new HashMap<>();
+
+    /**
+     * Creates a copier.
+     *
+     * @param threadsPerDevice  The maximum number of files read at the same time from a device
+     */
+    public ParallelCopy(int threadsPerDevice) {
+        if (threadsPerDevice < 1) {
+            throw new IllegalArgumentException("The number of threads must be greater than 0");
+        }
+        this.threadsPerDevice = threadsPerDevice;
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threadsPerDevice, threadsPerDevice, 0L, TimeUnit.MILLISECONDS,
+                                               new LinkedBlockingQueue<>(), runnable -> {
+            Thread thread = new Thread(runnable, "copy-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Copies a file, or a folder with all its contents. Symbolic links are followed.
+     * If a file cannot be copied, the others are still copied before the failure is reported.
+     *
+     * @param source    The file or folder to copy
+     * @param target    The copy
+     * @return  The outcome of the copy
+     */
+    public Result copy(Path source, Path target) throws IOException {
+        Semaphore permits = devicePermits(Files.getFileStore(source));
+        Result result = new Result();
+        if (!Files.isDirectory(source)) {
+            acquire(permits, source);
+            try {
+                copyFile(source, Files.readAttributes(source, BasicFileAttributes.class), target, result);
+            } finally {
+                permits.release();
+            }
+            return result;
+        }
+        List<Future<?>> copies = new ArrayList<>();
+        Files.walkFileTree(source, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                Files.createDirectories(target.resolve(source.relativize(dir).toString()));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Path targetFile = target.resolve(source.relativize(file).toString());
+                // the permit is taken before the file is queued, so that the threads never wait for a device
+                acquire(permits, file);
+                try {
+                    copies.add(executor.submit(() -> {
+                        try {
+                            copyFile(file, attrs, targetFile, result);
+                        } finally {
+                            permits.release();
+                        }
+                        return null;
+                    }));
+                } catch (RejectedExecutionException e) {
+                    permits.release();
+                    throw e;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        IOException failure = null;
+        for (Future<?> copy : copies) {
+            try {
+                copy.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                for (Future<?> pending : copies) {
+                    pending.cancel(true);
+                }
+                throw new InterruptedIOException("Interrupted while copying " + source);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (failure == null) {
+                    failure = cause instanceof IOException ? (IOException) cause : new IOException(cause);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+        return result;
+    }
+
+    /**
+     * Stops the threads of the copier, once the copies in progress are completed.
+     */
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Returns the permits to read from a device. The first time a device is seen, the pool gets threads for it.
+     */
+    private synchronized Semaphore devicePermits(FileStore store) {
+        Semaphore permits = devicePermits.get(store);
+        if (permits == null) {
+            permits = new Semaphore(threadsPerDevice);
+            devicePermits.put(store, permits);
+            if (devicePermits.size() > 1) {
+                int threads = threadsPerDevice * devicePermits.size();
+                executor.setMaximumPoolSize(threads);
+                executor.setCorePoolSize(threads);
+            }
+        }
+        return permits;
+    }
+
+    private static void acquire(Semaphore permits, Path file) throws InterruptedIOException {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while copying " + file);
+        }
+    }
+
+    private void copyFile(Path file, BasicFileAttributes attrs, Path target, Result result) throws IOException {
+        if (Files.exists(target)) {
+            BasicFileAttributes targetAttrs = Files.readAttributes(target, BasicFileAttributes.class);
+            if (targetAttrs.size() == attrs.size() &&
+                    targetAttrs.lastModifiedTime().toMillis() == attrs.lastModifiedTime().toMillis()) {
+                result.skipped.incrementAndGet();
+                return;
+            }
+        }
+        if (attrs.size() < TRANSFER_THRESHOLD) {
+            Files.copy(file, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        } else {
+            try (FileChannel input = FileChannel.open(file, StandardOpenOption.READ);
+                 FileChannel output = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                                                       StandardOpenOption.TRUNCATE_EXISTING)) {
+                long size = input.size();
+                long position = 0;
+                while (position < size) {
+                    long transferred = input.transferTo(position, size - position, output);
+                    if (transferred <= 0) {
+                        throw new IOException(String.format("Unexpected end of %s", file));
+                    }
+                    position += transferred;
+                }
+            }
+            // the modification time is set last, so that a partial copy is never taken for a complete one
+            Files.setLastModifiedTime(target, attrs.lastModifiedTime());
+        }
+        result.copied.incrementAndGet();
+        result.bytes.addAndGet(attrs.size());
+    }
+
+    /**
+     * The outcome of a copy.
+     */
+    public static class Result {
+        private final AtomicInteger copied = new AtomicInteger();
+        private final AtomicInteger skipped = new AtomicInteger();
+        private final AtomicLong bytes = new AtomicLong();
+
+        /**
+         * Returns the number of files copied.
+         */
+        public int getCopied() { return copied.get(); }
+
+        /**
+         * Returns the number of files not copied, because their copy was up to date.
+         */
+        public int getSkipped() { return skipped.get(); }
+
+        /**
+         * Returns the number of bytes copied.
+         */
+        public long getBytes() { return bytes.get(); }
+    }
+}
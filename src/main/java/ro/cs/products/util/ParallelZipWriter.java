@@ -0,0 +1,620 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Zip archive writer that deflates entries on several threads.
+ * Entries are split in blocks of {@link #BLOCK_SIZE} bytes which are deflated independently (each block
+ * primed with the last 32KB preceding it, as pigz does) and ended with a sync flush, so that their concatenation
+ * is a single deflate stream. The archive itself is written sequentially, in the order the entries were added,
+ * while the following blocks are being deflated. Only a bounded number of blocks is in flight at any time.
+ *
+ * Deflated entries are followed by a data descriptor; stored entries have their CRC computed (also in parallel)
+ * before being written, since stored entries with data descriptors are not supported by all readers.
+ * Entries read from streams are written as they are read, their local header being completed afterwards.
+ * Zip64 records are written only when sizes, offsets or the number of entries require them.
+ * When the archive is finished, the offsets of the entries are also written in an {@link EntryIndex}.
+ *
+ * @author Cosmin Cara
+ */
+class ParallelZipWriter implements OutputSink {
+    static final int BLOCK_SIZE = 1 << 17;
+    private static final int DICTIONARY_SIZE = 1 << 15;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+    /* deflated entries larger than this get zip64 sizes, as their compressed size is unknown beforehand */
+    private static final long ZIP64_DEFLATED_LIMIT = ZIP64_LIMIT - (ZIP64_LIMIT >> 6);
+    private static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    private final Path zipFile;
+    private final FileChannel channel;
+    private final OutputStream outputStream;
+    private final ExecutorService executor;
+    private final int window;
+    private final Deque<Item> pending;
+    private final List<Entry> entries;
+    private final byte[] buffer;
+    private long written;
+
+    /**
+     * Creates a writer for the given archive file.
+     *
+     * @param zipFile   The archive file (overwritten if it exists)
+     * @param threads   The number of threads deflating blocks
+     */
+    ParallelZipWriter(Path zipFile, int threads) throws IOException {
+        if (threads < 1) {
+            throw new IllegalArgumentException("The number of threads must be greater than 0");
+        }
+        this.zipFile = zipFile;
+        Files.deleteIfExists(EntryIndex.indexFileOf(zipFile));
+        this.channel = FileChannel.open(zipFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                        StandardOpenOption.WRITE);
+        this.outputStream = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        final AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "zip-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.window = threads * 4;
+        this.pending = new ArrayDeque<>();
+        this.entries = new ArrayList<>();
+        this.buffer = new byte[1 << 16];
+    }
+
+    @Override
+    public void addDirectory(String name, long lastModified) throws IOException {
+        Entry entry = new Entry(name, lastModified, METHOD_STORED, 0);
+        enqueue(new Item(entry, null, 0, 0, true, null));
+    }
+
+    /**
+     * Adds the file, deflated if it is a text file (see {@link Zipper#isCompressible(String)}).
+     */
+    @Override
+    public void addFile(Path file, String name) throws IOException {
+        addFile(file, name, Zipper.isCompressible(name));
+    }
+
+    /**
+     * Adds a file entry, either deflated or stored.
+     */
+    void addFile(Path file, String name, boolean deflate) throws IOException {
+        long size = Files.size(file);
+        Entry entry = new Entry(name, Files.getLastModifiedTime(file).toMillis(), deflate ? METHOD_DEFLATED : METHOD_STORED, size);
+        if (!deflate) {
+            enqueue(new Item(entry, file, 0, 0, true, executor.submit(() -> checksum(file, size))));
+            return;
+        }
+        long offset = 0;
+        do {
+            final long blockOffset = offset;
+            final int length = (int) Math.min(BLOCK_SIZE, size - offset);
+            final boolean last = offset + length >= size;
+            enqueue(new Item(entry, file, blockOffset, length, last,
+                             executor.submit(() -> deflate(file, blockOffset, length, last))));
+            offset += length;
+        } while (offset < size);
+    }
+
+    /**
+     * Adds an entry read from the given stream, once the entries already added have been written.
+     * Text entries are deflated (on the current thread), the others stored.
+     */
+    @Override
+    public long addEntry(String name, long lastModified, long size, InputStream content) throws IOException {
+        while (!pending.isEmpty()) {
+            write(pending.poll());
+        }
+        boolean deflate = Zipper.isCompressible(name);
+        Entry entry = new Entry(name, lastModified, deflate ? METHOD_DEFLATED : METHOD_STORED, 0);
+        entry.offset = written;
+        // sizes are not known yet, zip64 fields are reserved if the entry may need them
+        entry.zip64 = size < 0 || size >= ZIP64_DEFLATED_LIMIT;
+        writeBytes(localHeader(entry, false));
+        CRC32 crc = new CRC32();
+        Deflater deflater = deflate ? new Deflater(Deflater.DEFAULT_COMPRESSION, true) : null;
+        try {
+            byte[] chunk = deflate ? new byte[16384] : null;
+            int read;
+            while ((read = content.read(buffer)) > 0) {
+                crc.update(buffer, 0, read);
+                entry.size += read;
+                if (deflater != null) {
+                    deflater.setInput(buffer, 0, read);
+                    while (!deflater.needsInput()) {
+                        writeCompressed(deflater.deflate(chunk), chunk, entry);
+                    }
+                } else {
+                    outputStream.write(buffer, 0, read);
+                    written += read;
+                    entry.compressedSize += read;
+                }
+            }
+            if (deflater != null) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    writeCompressed(deflater.deflate(chunk), chunk, entry);
+                }
+            }
+            entry.crc = crc.getValue();
+            if (!entry.zip64 && (entry.size >= ZIP64_LIMIT || entry.compressedSize >= ZIP64_LIMIT)) {
+                throw new IOException(String.format("%s is larger than announced", name));
+            }
+            outputStream.flush();
+            channel.write(ByteBuffer.wrap(localHeader(entry, false)), entry.offset);
+        } catch (IOException | RuntimeException e) {
+            // the entry is dropped
+            outputStream.flush();
+            channel.truncate(entry.offset);
+            channel.position(entry.offset);
+            written = entry.offset;
+            throw e;
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+        entries.add(entry);
+        return entry.size;
+    }
+
+    /**
+     * Writes the remaining entries, the central directory and the index.
+     */
+    @Override
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            write(pending.poll());
+        }
+        long centralDirectoryOffset = written;
+        EntryIndex index = new EntryIndex();
+        for (Entry entry : entries) {
+            writeCentralHeader(entry);
+            if (!entry.name.endsWith("/")) {
+                index.add(entry.name, entry.offset + localHeaderLength(entry), entry.compressedSize, entry.size,
+                          entry.method == METHOD_DEFLATED ? EntryIndex.DEFLATED : EntryIndex.STORED);
+            }
+        }
+        writeEnd(centralDirectoryOffset, written - centralDirectoryOffset);
+        outputStream.flush();
+        index.write(zipFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Item item : pending) {
+            if (item.result != null) {
+                item.result.cancel(true);
+            }
+        }
+        pending.clear();
+        executor.shutdownNow();
+        outputStream.close();
+        channel.close();
+    }
+
+    private void enqueue(Item item) throws IOException {
+        while (pending.size() >= window) {
+            write(pending.poll());
+        }
+        pending.add(item);
+    }
+
+    private void write(Item item) throws IOException {
+        Entry entry = item.entry;
+        if (item.result == null) {
+            // directory
+            entry.offset = written;
+            writeLocalHeader(entry, false);
+            entries.add(entry);
+        } else if (entry.method == METHOD_STORED) {
+            entry.crc = (Long) get(item.result);
+            entry.compressedSize = entry.size;
+            entry.offset = written;
+            writeLocalHeader(entry, false);
+            long copied = 0;
+            try (InputStream inputStream = Files.newInputStream(item.file)) {
+                int read;
+                while (copied < entry.size && (read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, entry.size - copied))) > 0) {
+                    outputStream.write(buffer, 0, read);
+                    copied += read;
+                }
+            }
+            if (copied != entry.size) {
+                throw new IOException(String.format("%s has changed while being archived", item.file));
+            }
+            written += copied;
+            entries.add(entry);
+        } else {
+            Block block = (Block) get(item.result);
+            if (item.offset == 0) {
+                entry.offset = written;
+                entry.zip64 = entry.size >= ZIP64_DEFLATED_LIMIT;
+                entry.dataDescriptor = true;
+                writeLocalHeader(entry, true);
+                entry.crc = block.crc;
+            } else {
+                entry.crc = crc32Combine(entry.crc, block.crc, item.length);
+            }
+            outputStream.write(block.data, 0, block.length);
+            written += block.length;
+            entry.compressedSize += block.length;
+            if (item.last) {
+                writeInt(0x08074b50);
+                writeInt(entry.crc);
+                if (entry.zip64) {
+                    writeLong(entry.compressedSize);
+                    writeLong(entry.size);
+                } else {
+                    writeInt(entry.compressedSize);
+                    writeInt(entry.size);
+                }
+                entries.add(entry);
+            }
+        }
+    }
+
+    private Object get(Future<?> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while archiving");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private void writeLocalHeader(Entry entry, boolean dataDescriptor) throws IOException {
+        entry.zip64 = entry.zip64 || entry.size >= ZIP64_LIMIT;
+        writeBytes(localHeader(entry, dataDescriptor));
+    }
+
+    private void writeCompressed(int count, byte[] chunk, Entry entry) throws IOException {
+        outputStream.write(chunk, 0, count);
+        written += count;
+        entry.compressedSize += count;
+    }
+
+    private byte[] localHeader(Entry entry, boolean dataDescriptor) {
+        boolean zip64 = entry.zip64;
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer header = ByteBuffer.allocate(30 + name.length + (zip64 ? 20 : 0)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(0x04034b50);
+        header.putShort((short) (zip64 ? 45 : 20));
+        header.putShort((short) (FLAG_UTF8 | (dataDescriptor ? FLAG_DATA_DESCRIPTOR : 0)));
+        header.putShort((short) entry.method);
+        header.putInt((int) dosTime(entry.lastModified));
+        header.putInt((int) (dataDescriptor ? 0 : entry.crc));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : dataDescriptor ? 0 : entry.compressedSize));
+        header.putInt((int) (zip64 ? ZIP64_LIMIT : dataDescriptor ? 0 : entry.size));
+        header.putShort((short) name.length);
+        header.putShort((short) (zip64 ? 20 : 0));
+        header.put(name);
+        if (zip64) {
+            header.putShort((short) 0x0001);
+            header.putShort((short) 16);
+            header.putLong(dataDescriptor ? 0 : entry.size);
+            header.putLong(dataDescriptor ? 0 : entry.compressedSize);
+        }
+        return header.array();
+    }
+
+    private static int localHeaderLength(Entry entry) {
+        return 30 + entry.name.getBytes(StandardCharsets.UTF_8).length + (entry.zip64 ? 20 : 0);
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        byte[] name = entry.name.getBytes(StandardCharsets.UTF_8);
+        boolean largeSize = entry.size >= ZIP64_LIMIT;
+        boolean largeCompressedSize = entry.compressedSize >= ZIP64_LIMIT;
+        boolean largeOffset = entry.offset >= ZIP64_LIMIT;
+        int extraLength = (largeSize ? 8 : 0) + (largeCompressedSize ? 8 : 0) + (largeOffset ? 8 : 0);
+        boolean zip64 = extraLength > 0;
+        writeInt(0x02014b50);
+        writeShort(zip64 || entry.zip64 ? 45 : 20);
+        writeShort(zip64 || entry.zip64 ? 45 : 20);
+        writeShort(FLAG_UTF8 | (entry.dataDescriptor ? FLAG_DATA_DESCRIPTOR : 0));
+        writeShort(entry.method);
+        writeInt(dosTime(entry.lastModified));
+        writeInt(entry.crc);
+        writeInt(largeCompressedSize ? ZIP64_LIMIT : entry.compressedSize);
+        writeInt(largeSize ? ZIP64_LIMIT : entry.size);
+        writeShort(name.length);
+        writeShort(zip64 ? extraLength + 4 : 0);
+        writeShort(0);
+        writeShort(0);
+        writeShort(0);
+        writeInt(entry.name.endsWith("/") ? 0x10 : 0);
+        writeInt(largeOffset ? ZIP64_LIMIT : entry.offset);
+        writeBytes(name);
+        if (zip64) {
+            writeShort(0x0001);
+            writeShort(extraLength);
+            if (largeSize) {
+                writeLong(entry.size);
+            }
+            if (largeCompressedSize) {
+                writeLong(entry.compressedSize);
+            }
+            if (largeOffset) {
+                writeLong(entry.offset);
+            }
+        }
+    }
+
+    private void writeEnd(long offset, long size) throws IOException {
+        int count = entries.size();
+        if (count >= 0xFFFF || offset >= ZIP64_LIMIT || size >= ZIP64_LIMIT) {
+            long zip64EndOffset = written;
+            writeInt(0x06064b50);
+            writeLong(44);
+            writeShort(45);
+            writeShort(45);
+            writeInt(0);
+            writeInt(0);
+            writeLong(count);
+            writeLong(count);
+            writeLong(size);
+            writeLong(offset);
+            writeInt(0x07064b50);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+        writeInt(0x06054b50);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, 0xFFFF));
+        writeShort(Math.min(count, 0xFFFF));
+        writeInt(Math.min(size, ZIP64_LIMIT));
+        writeInt(Math.min(offset, ZIP64_LIMIT));
+        writeShort(0);
+    }
+
+    private void writeShort(int value) throws IOException {
+        outputStream.write(value & 0xFF);
+        outputStream.write((value >>> 8) & 0xFF);
+        written += 2;
+    }
+
+    private void writeInt(long value) throws IOException {
+        writeShort((int) (value & 0xFFFF));
+        writeShort((int) ((value >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long value) throws IOException {
+        writeInt(value & ZIP64_LIMIT);
+        writeInt(value >>> 32);
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        outputStream.write(bytes);
+        written += bytes.length;
+    }
+
+    private static long dosTime(long millis) {
+        LocalDateTime time = LocalDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneId.systemDefault());
+        if (time.getYear() < 1980) {
+            return (1 << 21) | (1 << 16);
+        }
+        return ((long) (time.getYear() - 1980) << 25) | (time.getMonthValue() << 21) | (time.getDayOfMonth() << 16) |
+                (time.getHour() << 11) | (time.getMinute() << 5) | (time.getSecond() >> 1);
+    }
+
+    private static long checksum(Path file, long size) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] data = new byte[1 << 16];
+        long total = 0;
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            int read;
+            while (total < size && (read = inputStream.read(data, 0, (int) Math.min(data.length, size - total))) > 0) {
+                crc.update(data, 0, read);
+                total += read;
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Deflates a block of a file, using the (at most) 32KB preceding it as dictionary.
+     * The last block of a file ends the deflate stream, the others end with a sync flush (on a byte boundary).
+     */
+    private static Block deflate(Path file, long offset, int length, boolean last) throws IOException {
+        int dictionaryLength = (int) Math.min(offset, DICTIONARY_SIZE);
+        ByteBuffer data = ByteBuffer.allocate(dictionaryLength + length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = offset - dictionaryLength;
+            while (data.hasRemaining()) {
+                int read = channel.read(data, position);
+                if (read < 0) {
+                    throw new EOFException(String.format("%s has changed while being archived", file));
+                }
+                position += read;
+            }
+        }
+        byte[] bytes = data.array();
+        CRC32 crc = new CRC32();
+        crc.update(bytes, dictionaryLength, length);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        byte[] chunk = new byte[16384];
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try {
+            if (dictionaryLength > 0) {
+                deflater.setDictionary(bytes, 0, dictionaryLength);
+            }
+            deflater.setInput(bytes, dictionaryLength, length);
+            int count;
+            if (last) {
+                deflater.finish();
+                while (!deflater.finished()) {
+                    count = deflater.deflate(chunk);
+                    compressed.write(chunk, 0, count);
+                }
+            } else {
+                do {
+                    count = deflater.deflate(chunk, 0, chunk.length, Deflater.SYNC_FLUSH);
+                    compressed.write(chunk, 0, count);
+                } while (count == chunk.length);
+            }
+        } finally {
+            deflater.end();
+        }
+        return new Block(compressed.toByteArray(), crc.getValue());
+    }
+
+    /**
+     * Computes the CRC-32 of two concatenated sequences from their CRCs and the length of the second one
+     * (the crc32_combine of zlib).
+     */
+    static long crc32Combine(long crc1, long crc2, long length2) {
+        if (length2 <= 0) {
+            return crc1;
+        }
+        long[] even = new long[32];
+        long[] odd = new long[32];
+        odd[0] = 0xEDB88320L;
+        long row = 1;
+        for (int n = 1; n < 32; n++) {
+            odd[n] = row;
+            row <<= 1;
+        }
+        square(even, odd);
+        square(odd, even);
+        do {
+            square(even, odd);
+            if ((length2 & 1) != 0) {
+                crc1 = times(even, crc1);
+            }
+            length2 >>= 1;
+            if (length2 == 0) {
+                break;
+            }
+            square(odd, even);
+            if ((length2 & 1) != 0) {
+                crc1 = times(odd, crc1);
+            }
+            length2 >>= 1;
+        } while (length2 != 0);
+        return crc1 ^ crc2;
+    }
+
+    private static long times(long[] matrix, long vector) {
+        long sum = 0;
+        for (int i = 0; vector != 0; i++, vector >>>= 1) {
+            if ((vector & 1) != 0) {
+                sum ^= matrix[i];
+            }
+        }
+        return sum;
+    }
+
+    private static void square(long[] square, long[] matrix) {
+        for (int n = 0; n < 32; n++) {
+            square[n] = times(matrix, matrix[n]);
+        }
+    }
+
+    private static class Entry {
+        private final String name;
+        private final long lastModified;
+        private final int method;
+        private long size;
+        private long compressedSize;
+        private long crc;
+        private long offset;
+        private boolean zip64;
+        private boolean dataDescriptor;
+
+        Entry(String name, long lastModified, int method, long size) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.method = method;
+            this.size = size;
+        }
+    }
+
+    /**
+     * A unit of work: a directory, a stored file (whose result is its CRC) or a block of a deflated file.
+     */
+    private static class Item {
+        private final Entry entry;
+        private final Path file;
+        private final long offset;
+        private final int length;
+        private final boolean last;
+        private final Future<?> result;
+
+        Item(Entry entry, Path file, long offset, int length, boolean last, Future<?> result) {
+            this.entry = entry;
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+            this.last = last;
+            this.result = result;
+        }
+    }
+
+    private static class Block {
+        private final byte[] data;
+        private final int length;
+        private final long crc;
+
+        Block(byte[] data, long crc) {
+            this.data = data;
+            this.length = data.length;
+            this.crc = crc;
+        }
+    }
+}
@@ -19,77 +19,58 @@
 package ro.cs.products.util;
 
 import java.awt.geom.Path2D;
-import java.awt.geom.PathIterator;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * Wrapper for Path2D instance, to be able to retrieve the number of points in the Path2D object.
+ * Simple polygon (or multi-polygon) geometry, able to report the number of points it is made of.
+ * The vertices are kept in a primitive coordinate array, grouped in rings (the first ring of a polygon
+ * is the exterior one, the following ones are holes) and polygons.
  *
  * @author Cosmin Cara
  */
 public class Polygon2D {
-    private static final Pattern polyPattern = Pattern.compile("POLYGON\\(\\(.*\\)\\)");
-    private static final Pattern coordPattern = Pattern.compile("((?:-?(?:\\d+\\.\\d+)) (?:-?(?:\\d+\\.\\d+)))");
+    private static final int INITIAL_CAPACITY = 64;
 
-    private Path2D.Double polygon;
+    private double[] coordinates;
+    private int[] ringOffsets;
+    private int[] polygonOffsets;
     private int numPoints;
+    private int numRings;
+    private int numPolygons;
+    private Path2D.Double polygon;
 
     /**
      * Creates a polygon from a well-known text.
-     * For now, only single POLYGONs are supported.
-     * If multiple polygons are encountered, only the first one is taken into account.
+     * POLYGON (with or without holes) and MULTIPOLYGON texts are supported. If the text is not wrapped
+     * in one of these, it is read as a plain list of coordinate pairs forming a single ring.
      *
      * @param wkt   The text to parse.
      * @return      A closed polygon.
      */
     public static Polygon2D fromWKT(String wkt) {
-        Polygon2D polygon = new Polygon2D();
-        Matcher matcher = polyPattern.matcher(wkt);
-        if (matcher.matches()) {
-            String polyText = matcher.toMatchResult().group(0);
-            if (polyText != null) {
-                Matcher coordMatcher = coordPattern.matcher(polyText);
-                while (coordMatcher.find()) {
-                    //for (int i = 0; i < coordMatcher.groupCount(); i++) {
-                        String[] coords = coordMatcher.group().split(" ");
-                        polygon.append(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]));
-                    //}
-                }
-            }
-        } else {
-            // maybe we have only a list of coordinates, without being wrapped in a POLYGON((..))
-            Matcher coordMatcher = coordPattern.matcher(wkt);
-            while (coordMatcher.find()) {
-                //for (int i = 0; i < coordMatcher.groupCount(); i++) {
-                String[] coords = coordMatcher.group().split(" ");
-                polygon.append(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]));
-                //}
-            }
-        }
-        return polygon;
+        return new WKTParser(wkt).parse();
     }
 
     public Polygon2D() {
+        this.coordinates = new double[INITIAL_CAPACITY << 1];
+        this.ringOffsets = new int[4];
+        this.polygonOffsets = new int[2];
     }
 
     /**
-     * Adds a point to the current polygon.
+     * Adds a point to the current ring of the current polygon.
      * If this is not the first point, then it also adds a line between the previous point and the new one.
      *
      * @param x     The x coordinate
      * @param y     The y coordinate
      */
     public void append(double x, double y) {
-        if (polygon == null) {
-            polygon = new Path2D.Double();
-            polygon.moveTo(x, y);
-        } else {
-            polygon.lineTo(x, y);
+        if (numRings == 0) {
+            startRing();
         }
-        numPoints++;
+        addPoint(x, y);
     }
 
     /**
@@ -108,6 +89,30 @@ public class Polygon2D {
         }
     }
 
+    /**
+     * Starts a new polygon. The points appended after this call will form its exterior ring.
+     */
+    public void startPolygon() {
+        if (numPolygons == polygonOffsets.length) {
+            polygonOffsets = Arrays.copyOf(polygonOffsets, numPolygons << 1);
+        }
+        polygonOffsets[numPolygons++] = numRings;
+    }
+
+    /**
+     * Starts a new ring in the current polygon. If the polygon already has an exterior ring,
+     * the points appended after this call will form a hole.
+     */
+    public void startRing() {
+        if (numPolygons == 0) {
+            startPolygon();
+        }
+        if (numRings == ringOffsets.length) {
+            ringOffsets = Arrays.copyOf(ringOffsets, numRings << 1);
+        }
+        ringOffsets[numRings++] = numPoints;
+    }
+
     /**
      * Returns the number of points of the current polygon.
      *
@@ -116,30 +121,164 @@ public class Polygon2D {
         return numPoints;
     }
 
+    /**
+     * Returns the number of rings (exterior rings and holes) of all the polygons.
+     */
+    public int getNumRings() { return numRings; }
+
+    /**
+     * Returns the number of polygons (1 for a simple POLYGON).
+     */
+    public int getNumPolygons() { return numPolygons; }
+
     /**
      * Produces a WKT representation of this polygon.
      */
     public String toWKT() {
-        StringBuilder buffer = new StringBuilder();
-        buffer.append("POLYGON((");
-        PathIterator pathIterator = polygon.getPathIterator(null);
-        while (!pathIterator.isDone()) {
-            double[] segment = new double[6];
-            pathIterator.currentSegment(segment);
-            buffer.append(String.valueOf(segment[0])).append(" ").append(String.valueOf(segment[1])).append(",");
-            pathIterator.next();
-        }
-        buffer.setLength(buffer.length() - 1);
-        buffer.append("))");
+        if (numPoints == 0) {
+            return "POLYGON EMPTY";
+        }
+        StringBuilder buffer = new StringBuilder(numPoints * 24 + 16);
+        boolean isMulti = numPolygons > 1;
+        buffer.append(isMulti ? "MULTIPOLYGON(" : "POLYGON");
+        for (int p = 0; p < numPolygons; p++) {
+            if (p > 0) {
+                buffer.append(",");
+            }
+            buffer.append("(");
+            for (int r = polygonStart(p); r < polygonEnd(p); r++) {
+                if (r > polygonStart(p)) {
+                    buffer.append(",");
+                }
+                buffer.append("(");
+                for (int i = ringStart(r); i < ringEnd(r); i++) {
+                    buffer.append(coordinates[i << 1]).append(" ").append(coordinates[(i << 1) + 1]).append(",");
+                }
+                buffer.setLength(buffer.length() - 1);
+                buffer.append(")");
+            }
+            buffer.append(")");
+        }
+        if (isMulti) {
+            buffer.append(")");
+        }
         return buffer.toString();
     }
 
     public Rectangle2D getBounds2D() {
-        return polygon.getBounds2D();
+        if (numPoints == 0) {
+            return new Rectangle2D.Double();
+        }
+        double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+        double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < numPoints << 1; i += 2) {
+            double x = coordinates[i], y = coordinates[i + 1];
+            if (x < minX) minX = x;
+            if (x > maxX) maxX = x;
+            if (y < minY) minY = y;
+            if (y > maxY) maxY = y;
+        }
+        return new Rectangle2D.Double(minX, minY, maxX - minX, maxY - minY);
+    }
+
+    /**
+     * Returns the shape of this polygon. Holes are honoured through the even-odd winding rule.
+     */
+    public Path2D getPath() {
+        if (polygon == null) {
+            polygon = new Path2D.Double(Path2D.WIND_EVEN_ODD, Math.max(numPoints, 1));
+            for (int r = 0; r < numRings; r++) {
+                for (int i = ringStart(r); i < ringEnd(r); i++) {
+                    if (i == ringStart(r)) {
+                        polygon.moveTo(coordinates[i << 1], coordinates[(i << 1) + 1]);
+                    } else {
+                        polygon.lineTo(coordinates[i << 1], coordinates[(i << 1) + 1]);
+                    }
+                }
+            }
+        }
+        return polygon;
+    }
+
+    /**
+     * Returns a simplified copy of this polygon, using the Douglas-Peucker algorithm.
+     * No vertex of the original polygon is farther than the given tolerance from the simplified outline.
+     * Rings (islands or holes) whose extent is smaller than the tolerance are dropped, except for the largest polygon.
+     *
+     * @param tolerance     The maximum allowed deviation, in coordinate units
+     */
+    public Polygon2D simplify(double tolerance) {
+        return PolygonSimplifier.douglasPeucker(this, tolerance);
+    }
+
+    /**
+     * Returns a simplified copy of this polygon having at most the given number of points,
+     * or <code>null</code> if the polygon cannot be reduced that much with the given method.
+     * For Douglas-Peucker, the smallest tolerance (within 1%) that fits the vertex budget is used.
+     *
+     * @param maxPoints     The maximum number of points (closing points included)
+     * @param method        The simplification algorithm
+     */
+    public Polygon2D simplify(int maxPoints, SimplificationMethod method) {
+        if (numPoints <= maxPoints) {
+            return this;
+        }
+        Polygon2D result = null;
+        switch (method) {
+            case DOUGLAS_PEUCKER:
+                Rectangle2D bounds = getBounds2D();
+                double upper = Math.hypot(bounds.getWidth(), bounds.getHeight()) / 10000;
+                Polygon2D candidate = null;
+                int iterations = 0;
+                while (upper > 0 && iterations++ < 32 &&
+                        ((candidate = simplify(upper)) == null || candidate.numPoints > maxPoints)) {
+                    upper *= 2;
+                }
+                if (candidate != null && candidate.numPoints <= maxPoints) {
+                    result = candidate;
+                    double lower = upper / 2;
+                    if (iterations == 1) {
+                        // the initial tolerance fits: a smaller one that doesn't is looked for first
+                        while (iterations++ < 64 && (candidate = simplify(lower)) != null && candidate.numPoints <= maxPoints) {
+                            result = candidate;
+                            upper = lower;
+                            lower /= 2;
+                        }
+                    }
+                    while (upper - lower > upper / 100) {
+                        double middle = (lower + upper) / 2;
+                        candidate = simplify(middle);
+                        if (candidate != null && candidate.numPoints <= maxPoints) {
+                            result = candidate;
+                            upper = middle;
+                        } else {
+                            lower = middle;
+                        }
+                    }
+                }
+                break;
+            case VISVALINGAM:
+                result = PolygonSimplifier.visvalingam(this, maxPoints);
+                break;
+            case CONVEX_HULL:
+                result = convexHull();
+                if (result.numPoints > maxPoints) {
+                    result = PolygonSimplifier.visvalingam(result, maxPoints);
+                }
+                break;
+        }
+        return result != null && result.numPoints <= maxPoints ? result : null;
+    }
+
+    /**
+     * Returns the convex hull of all the vertices of this polygon.
+     */
+    public Polygon2D convexHull() {
+        return PolygonSimplifier.convexHull(this);
     }
 
     public String toWKTBounds() {
-        Rectangle2D bounds2D = polygon.getBounds2D();
+        Rectangle2D bounds2D = getBounds2D();
         return  "POLYGON((" +
                 bounds2D.getMinX() + " " + bounds2D.getMinY() + "," +
                 bounds2D.getMaxX() + " " + bounds2D.getMinY() + "," +
@@ -148,4 +287,239 @@ public class Polygon2D {
                 bounds2D.getMinX() + " " + bounds2D.getMinY() + "))";
     }
 
+    double[] coordinates() { return coordinates; }
+
+    int ringStart(int ring) { return ringOffsets[ring]; }
+
+    int ringEnd(int ring) { return ring + 1 < numRings ? ringOffsets[ring + 1] : numPoints; }
+
+    int polygonStart(int polygon) { return polygonOffsets[polygon]; }
+
+    int polygonEnd(int polygon) { return polygon + 1 < numPolygons ? polygonOffsets[polygon + 1] : numRings; }
+
+    void addPoint(double x, double y) {
+        int idx = numPoints << 1;
+        if (idx == coordinates.length) {
+            coordinates = Arrays.copyOf(coordinates, idx << 1);
+        }
+        coordinates[idx] = x;
+        coordinates[idx + 1] = y;
+        numPoints++;
+        polygon = null;
+    }
+
+    /**
+     * Single-pass WKT reader that writes the parsed vertices directly into the coordinate arrays
+     * of a polygon, without intermediate strings.
+     */
+    private static class WKTParser {
+        private static final double[] POWERS_OF_TEN = {
+                1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+                1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+        private static final long MAX_EXACT_MANTISSA = 1L << 53;
+        private final String text;
+        private final int length;
+        private final Polygon2D result;
+        private int position;
+
+        WKTParser(String text) {
+            this.text = text != null ? text : "";
+            this.length = this.text.length();
+            this.result = new Polygon2D();
+        }
+
+        Polygon2D parse() {
+            skipWhitespace();
+            if (startsWithIgnoreCase("SRID=")) {
+                int idx = text.indexOf(';', position);
+                position = idx < 0 ? length : idx + 1;
+                skipWhitespace();
+            }
+            if (startsWithIgnoreCase("MULTIPOLYGON")) {
+                position += 12;
+                if (!isEmpty()) {
+                    expect('(');
+                    do {
+                        result.startPolygon();
+                        polygonText();
+                    } while (consume(','));
+                    expect(')');
+                }
+            } else if (startsWithIgnoreCase("POLYGON")) {
+                position += 7;
+                if (!isEmpty()) {
+                    result.startPolygon();
+                    polygonText();
+                }
+            } else {
+                // maybe we have only a list of coordinates, without being wrapped in a POLYGON((..))
+                coordinateList();
+            }
+            return result;
+        }
+
+        private void polygonText() {
+            expect('(');
+            do {
+                result.startRing();
+                expect('(');
+                do {
+                    point();
+                } while (consume(','));
+                expect(')');
+            } while (consume(','));
+            expect(')');
+        }
+
+        private void point() {
+            skipWhitespace();
+            double x = number();
+            skipWhitespace();
+            double y = number();
+            result.addPoint(x, y);
+            // ignore the Z and M ordinates, if any
+            skipWhitespace();
+            while (position < length && isNumberStart(text.charAt(position))) {
+                number();
+                skipWhitespace();
+            }
+        }
+
+        private void coordinateList() {
+            boolean hasX = false;
+            double x = 0;
+            while (position < length) {
+                if (isNumberAhead()) {
+                    double value = number();
+                    if (hasX) {
+                        result.append(x, value);
+                    } else {
+                        x = value;
+                    }
+                    hasX = !hasX;
+                } else {
+                    position++;
+                }
+            }
+        }
+
+        private double number() {
+            int start = position;
+            boolean negative = false;
+            if (position < length && (text.charAt(position) == '-' || text.charAt(position) == '+')) {
+                negative = text.charAt(position++) == '-';
+            }
+            long mantissa = 0;
+            int exponent = 0, digits = 0;
+            boolean exact = true, hasDigits = false, inFraction = false;
+            while (position < length) {
+                char c = text.charAt(position);
+                if (c >= '0' && c <= '9') {
+                    hasDigits = true;
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (c - '0');
+                        if (mantissa != 0) {
+                            digits++;
+                        }
+                        if (inFraction) {
+                            exponent--;
+                        }
+                    } else {
+                        exact &= c == '0';
+                        if (!inFraction) {
+                            exponent++;
+                        }
+                    }
+                } else if (c == '.' && !inFraction) {
+                    inFraction = true;
+                } else {
+                    break;
+                }
+                position++;
+            }
+            if (!hasDigits) {
+                throw new IllegalArgumentException(String.format("Invalid WKT: number expected at position %d", start));
+            }
+            if (position < length && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+                position++;
+                boolean negativeExp = false;
+                if (position < length && (text.charAt(position) == '-' || text.charAt(position) == '+')) {
+                    negativeExp = text.charAt(position++) == '-';
+                }
+                int exp = 0;
+                int expStart = position;
+                while (position < length && text.charAt(position) >= '0' && text.charAt(position) <= '9') {
+                    exp = Math.min(exp * 10 + (text.charAt(position++) - '0'), 10000);
+                }
+                if (position == expStart) {
+                    throw new IllegalArgumentException(String.format("Invalid WKT: exponent expected at position %d", expStart));
+                }
+                exponent += negativeExp ? -exp : exp;
+            }
+            double value;
+            if (exact && mantissa < MAX_EXACT_MANTISSA && exponent >= -22 && exponent <= 22) {
+                // both operands are exact doubles, hence the result is correctly rounded
+                value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            } else {
+                value = Math.abs(Double.parseDouble(text.substring(start, position)));
+            }
+            return negative ? -value : value;
+        }
+
+        private boolean isEmpty() {
+            skipWhitespace();
+            if (startsWithIgnoreCase("EMPTY")) {
+                position += 5;
+                return true;
+            }
+            // skip the dimension qualifier, if any (Z, M or ZM)
+            while (position < length && Character.isLetter(text.charAt(position))) {
+                position++;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            skipWhitespace();
+            if (position >= length || text.charAt(position) != c) {
+                throw new IllegalArgumentException(String.format("Invalid WKT: '%s' expected at position %d", c, position));
+            }
+            position++;
+        }
+
+        private boolean consume(char c) {
+            skipWhitespace();
+            if (position < length && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void skipWhitespace() {
+            while (position < length && Character.isWhitespace(text.charAt(position))) {
+                position++;
+            }
+        }
+
+        private boolean startsWithIgnoreCase(String token) {
+            return text.regionMatches(true, position, token, 0, token.length());
+        }
+
+        private boolean isNumberAhead() {
+            int idx = position;
+            char c = text.charAt(idx);
+            if ((c == '-' || c == '+') && ++idx < length) {
+                c = text.charAt(idx);
+            }
+            if (c == '.' && ++idx < length) {
+                c = text.charAt(idx);
+            }
+            return c >= '0' && c <= '9';
+        }
+
+        private static boolean isNumberStart(char c) {
+            return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+        }
+    }
 }
@@ -0,0 +1,722 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Vertex reduction algorithms for {@link Polygon2D}.
+ * Each ring is simplified on its own. If a simplified ring crosses itself or another ring (as simplified so far,
+ * or original if not yet simplified), it is simplified again with a finer tolerance (or a larger vertex budget), and if it still does, the original ring
+ * is kept. A hole whose original ring still crosses (or that is left outside its exterior ring) is dropped, while
+ * for an exterior ring the simplification fails, so that the result is always a valid polygon.
+ *
+ * @author Cosmin Cara
+ */
+final class PolygonSimplifier {
+    /* An open ring needs at least 3 distinct vertices (4 points once closed) */
+    private static final int MIN_RING_VERTICES = 3;
+    private static final int MAX_RETRIES = 8;
+
+    private PolygonSimplifier() { }
+
+    /**
+     * Douglas-Peucker simplification of all the rings of the given polygon.
+     * Returns <code>null</code> if nothing is left after simplification.
+     */
+    static Polygon2D douglasPeucker(Polygon2D source, double tolerance) {
+        Polygon2D result = new Polygon2D();
+        double[][] rings = openRings(source);
+        int largest = largestPolygon(source);
+        for (int p = 0; p < source.getNumPolygons(); p++) {
+            boolean started = false;
+            double[] exteriorRing = null;
+            for (int r = source.polygonStart(p); r < source.polygonEnd(p); r++) {
+                double[] ring = rings[r];
+                int count = ring.length >> 1;
+                boolean exterior = r == source.polygonStart(p);
+                if (!exterior && !started) {
+                    break;
+                }
+                if (count < MIN_RING_VERTICES || (extent(ring) < tolerance && !(exterior && p == largest))) {
+                    if (exterior) {
+                        Arrays.fill(rings, r, source.polygonEnd(p), null);
+                        break;
+                    }
+                    rings[r] = null;
+                    continue;
+                }
+                List<double[]> others = others(rings, r);
+                double[] simplified = null;
+                double current = tolerance;
+                for (int retry = 0; retry < MAX_RETRIES && simplified == null; retry++) {
+                    simplified = select(ring, douglasPeucker(ring, current));
+                    if (simplified.length >> 1 < MIN_RING_VERTICES || !isSimple(simplified, others)) {
+                        simplified = null;
+                        current /= 2;
+                    }
+                }
+                if (simplified == null) {
+                    simplified = ring;
+                    if (crosses(ring, others)) {
+                        if (exterior) {
+                            return null;
+                        }
+                        rings[r] = null;
+                        continue;
+                    }
+                }
+                if (exterior) {
+                    result.startPolygon();
+                    started = true;
+                    exteriorRing = simplified;
+                } else if (!contains(exteriorRing, simplified[0], simplified[1])) {
+                    rings[r] = null;
+                    continue;
+                }
+                appendRing(result, simplified);
+                rings[r] = simplified;
+            }
+        }
+        return result.getNumPoints() > 0 ? result : null;
+    }
+
+    /**
+     * Visvalingam-Whyatt simplification of the given polygon, so that it has at most
+     * <code>maxPoints</code> points. The budget is shared among the rings proportionally to their
+     * number of vertices; the smallest rings are dropped if there is not enough room for all of them.
+     * Returns <code>null</code> if not even the largest ring fits.
+     */
+    static Polygon2D visvalingam(Polygon2D source, int maxPoints) {
+        int numRings = source.getNumRings();
+        int[] ringPolygon = new int[numRings];
+        double[] areas = new double[numRings];
+        Integer[] order = new Integer[numRings];
+        for (int p = 0; p < source.getNumPolygons(); p++) {
+            for (int r = source.polygonStart(p); r < source.polygonEnd(p); r++) {
+                ringPolygon[r] = p;
+                areas[r] = Math.abs(area(openRing(source, r)));
+                order[r] = r;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(areas[b], areas[a]));
+        // pick the largest rings while there is room for at least a triangle for each
+        boolean[] included = new boolean[numRings];
+        boolean[] polygonIncluded = new boolean[source.getNumPolygons()];
+        int budget = maxPoints;
+        int totalVertices = 0;
+        for (int r : order) {
+            int p = ringPolygon[r];
+            boolean exterior = r == source.polygonStart(p);
+            int vertices = openRing(source, r).length >> 1;
+            if (vertices < MIN_RING_VERTICES || (!exterior && !polygonIncluded[p]) || budget < MIN_RING_VERTICES + 1) {
+                continue;
+            }
+            included[r] = true;
+            polygonIncluded[p] |= exterior;
+            budget -= MIN_RING_VERTICES + 1;
+            totalVertices += vertices;
+        }
+        if (totalVertices == 0) {
+            return null;
+        }
+        Polygon2D result = new Polygon2D();
+        double[][] rings = openRings(source);
+        for (int r = 0; r < numRings; r++) {
+            if (!included[r]) {
+                rings[r] = null;
+            }
+        }
+        for (int p = 0; p < source.getNumPolygons(); p++) {
+            if (!polygonIncluded[p]) {
+                continue;
+            }
+            result.startPolygon();
+            double[] exteriorRing = null;
+            for (int r = source.polygonStart(p); r < source.polygonEnd(p); r++) {
+                if (!included[r]) {
+                    continue;
+                }
+                boolean exterior = r == source.polygonStart(p);
+                double[] ring = rings[r];
+                List<double[]> others = others(rings, r);
+                int count = ring.length >> 1;
+                int target = Math.min(count, MIN_RING_VERTICES + (int) ((long) budget * count / totalVertices));
+                double[] simplified = select(ring, visvalingam(ring, target));
+                while (!isSimple(simplified, others) && target < count) {
+                    target = Math.min(count, target + (target >> 1));
+                    simplified = select(ring, visvalingam(ring, target));
+                }
+                if (target == count && crosses(simplified, others)) {
+                    if (exterior) {
+                        return null;
+                    }
+                    rings[r] = null;
+                    continue;
+                }
+                if (exterior) {
+                    exteriorRing = simplified;
+                } else if (!contains(exteriorRing, simplified[0], simplified[1])) {
+                    rings[r] = null;
+                    continue;
+                }
+                appendRing(result, simplified);
+                rings[r] = simplified;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Convex hull (Andrew's monotone chain) of all the vertices of the given polygon.
+     */
+    static Polygon2D convexHull(Polygon2D source) {
+        double[] coordinates = source.coordinates();
+        int count = source.getNumPoints();
+        Integer[] sorted = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = i;
+        }
+        Arrays.sort(sorted, (a, b) -> {
+            int c = Double.compare(coordinates[a << 1], coordinates[b << 1]);
+            return c != 0 ? c : Double.compare(coordinates[(a << 1) + 1], coordinates[(b << 1) + 1]);
+        });
+        int[] hull = new int[2 * count + 1];
+        int k = 0;
+        for (int i = 0; i < count; i++) {
+            while (k >= 2 && cross(coordinates, hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = sorted[i];
+        }
+        for (int i = count - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(coordinates, hull[k - 2], hull[k - 1], sorted[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = sorted[i];
+        }
+        Polygon2D result = new Polygon2D();
+        // the last point of the chain is the first one, which closes the ring
+        for (int i = 0; i < k; i++) {
+            result.append(coordinates[hull[i] << 1], coordinates[(hull[i] << 1) + 1]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the indices of the vertices to keep from an open ring.
+     * The ring is anchored at its first vertex and at the vertex farthest from it.
+     */
+    private static int[] douglasPeucker(double[] ring, double tolerance) {
+        int count = ring.length >> 1;
+        // the vertex at index 'count' is the first one, closing the ring
+        boolean[] keep = new boolean[count + 1];
+        keep[0] = keep[count] = true;
+        int farthest = 0;
+        double maxDistance = -1;
+        for (int i = 1; i < count; i++) {
+            double dx = ring[i << 1] - ring[0], dy = ring[(i << 1) + 1] - ring[1];
+            double distance = dx * dx + dy * dy;
+            if (distance > maxDistance) {
+                maxDistance = distance;
+                farthest = i;
+            }
+        }
+        keep[farthest] = true;
+        double sqTolerance = tolerance * tolerance;
+        int[] stack = new int[2 * count + 4];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = farthest;
+        stack[top++] = farthest;
+        stack[top++] = count;
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+            int index = -1;
+            double max = sqTolerance;
+            for (int i = first + 1; i < last; i++) {
+                double distance = sqSegmentDistance(ring, i, first, last % count);
+                if (distance > max) {
+                    max = distance;
+                    index = i;
+                }
+            }
+            if (index > 0) {
+                keep[index] = true;
+                stack[top++] = first;
+                stack[top++] = index;
+                stack[top++] = index;
+                stack[top++] = last;
+            }
+        }
+        int kept = 0;
+        int[] indices = new int[count];
+        for (int i = 0; i < count; i++) {
+            if (keep[i]) {
+                indices[kept++] = i;
+            }
+        }
+        return Arrays.copyOf(indices, kept);
+    }
+
+    /**
+     * Returns the indices of the vertices to keep from an open ring, by repeatedly removing the vertex
+     * forming the triangle of least area with its neighbours, until <code>target</code> vertices are left.
+     */
+    private static int[] visvalingam(double[] ring, int target) {
+        int count = ring.length >> 1;
+        if (target >= count) {
+            int[] all = new int[count];
+            for (int i = 0; i < count; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        int[] previous = new int[count];
+        int[] next = new int[count];
+        double[] areas = new double[count];
+        for (int i = 0; i < count; i++) {
+            previous[i] = (i + count - 1) % count;
+            next[i] = (i + 1) % count;
+        }
+        for (int i = 0; i < count; i++) {
+            areas[i] = Math.abs(cross(ring, previous[i], i, next[i]));
+        }
+        AreaHeap heap = new AreaHeap(areas);
+        boolean[] removed = new boolean[count];
+        for (int left = count; left > target; left--) {
+            int vertex = heap.poll();
+            removed[vertex] = true;
+            int before = previous[vertex], after = next[vertex];
+            next[before] = after;
+            previous[after] = before;
+            // the area of a neighbour cannot drop below the one just removed, otherwise it would be
+            // eliminated before vertices that are less significant
+            heap.update(before, Math.max(areas[vertex], Math.abs(cross(ring, previous[before], before, after))));
+            heap.update(after, Math.max(areas[vertex], Math.abs(cross(ring, before, after, next[after]))));
+        }
+        int[] indices = new int[target];
+        for (int i = 0, k = 0; i < count; i++) {
+            if (!removed[i]) {
+                indices[k++] = i;
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Returns <code>true</code> if no two non-adjacent edges of the open ring intersect and if none of its edges
+     * intersects (or touches) an edge of the other rings.
+     */
+    static boolean isSimple(double[] ring, List<double[]> others) {
+        return !new EdgeGrid(ring, others).hasIntersection(true);
+    }
+
+    /**
+     * Returns <code>true</code> if an edge of the open ring intersects (or touches) an edge of the other rings.
+     */
+    static boolean crosses(double[] ring, List<double[]> others) {
+        return !others.isEmpty() && new EdgeGrid(ring, others).hasIntersection(false);
+    }
+
+    private static boolean intersects(double ax, double ay, double bx, double by,
+                                      double cx, double cy, double dx, double dy) {
+        double d1 = cross(cx, cy, dx, dy, ax, ay);
+        double d2 = cross(cx, cy, dx, dy, bx, by);
+        double d3 = cross(ax, ay, bx, by, cx, cy);
+        double d4 = cross(ax, ay, bx, by, dx, dy);
+        if (((d1 > 0 && d2 < 0) || (d1 < 0 && d2 > 0)) && ((d3 > 0 && d4 < 0) || (d3 < 0 && d4 > 0))) {
+            return true;
+        }
+        return (d1 == 0 && onSegment(cx, cy, dx, dy, ax, ay)) || (d2 == 0 && onSegment(cx, cy, dx, dy, bx, by)) ||
+                (d3 == 0 && onSegment(ax, ay, bx, by, cx, cy)) || (d4 == 0 && onSegment(ax, ay, bx, by, dx, dy));
+    }
+
+    private static boolean onSegment(double sx, double sy, double ex, double ey, double x, double y) {
+        return Math.min(sx, ex) <= x && x <= Math.max(sx, ex) && Math.min(sy, ey) <= y && y <= Math.max(sy, ey);
+    }
+
+    private static double cross(double ox, double oy, double ax, double ay, double bx, double by) {
+        return (ax - ox) * (by - oy) - (ay - oy) * (bx - ox);
+    }
+
+    /**
+     * Even-odd test of a point against an open ring. A <code>null</code> ring contains nothing.
+     */
+    private static boolean contains(double[] ring, double x, double y) {
+        if (ring == null) {
+            return false;
+        }
+        boolean inside = false;
+        int count = ring.length >> 1;
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            double xi = ring[i << 1], yi = ring[(i << 1) + 1], xj = ring[j << 1], yj = ring[(j << 1) + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    /**
+     * Cross product of the vectors (o,a) and (o,b), i.e. twice the signed area of the triangle o-a-b.
+     */
+    private static double cross(double[] points, int o, int a, int b) {
+        double ox = points[o << 1], oy = points[(o << 1) + 1];
+        return (points[a << 1] - ox) * (points[(b << 1) + 1] - oy) - (points[(a << 1) + 1] - oy) * (points[b << 1] - ox);
+    }
+
+    private static double sqSegmentDistance(double[] points, int point, int start, int end) {
+        double x = points[start << 1], y = points[(start << 1) + 1];
+        double dx = points[end << 1] - x, dy = points[(end << 1) + 1] - y;
+        if (dx != 0 || dy != 0) {
+            double t = ((points[point << 1] - x) * dx + (points[(point << 1) + 1] - y) * dy) / (dx * dx + dy * dy);
+            if (t > 1) {
+                x = points[end << 1];
+                y = points[(end << 1) + 1];
+            } else if (t > 0) {
+                x += dx * t;
+                y += dy * t;
+            }
+        }
+        dx = points[point << 1] - x;
+        dy = points[(point << 1) + 1] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Copies the vertices of a ring, without the closing point (if any).
+     */
+    private static double[] openRing(Polygon2D source, int ring) {
+        double[] coordinates = source.coordinates();
+        int start = source.ringStart(ring), end = source.ringEnd(ring);
+        if (end - start > 1 &&
+                coordinates[start << 1] == coordinates[(end - 1) << 1] &&
+                coordinates[(start << 1) + 1] == coordinates[((end - 1) << 1) + 1]) {
+            end--;
+        }
+        return Arrays.copyOfRange(coordinates, start << 1, end << 1);
+    }
+
+    private static double[][] openRings(Polygon2D source) {
+        double[][] rings = new double[source.getNumRings()][];
+        for (int r = 0; r < rings.length; r++) {
+            rings[r] = openRing(source, r);
+        }
+        return rings;
+    }
+
+    /**
+     * Returns the rings other than the given one, as they are at this point of the simplification (the ones
+     * already processed simplified, the others original, the dropped ones left out).
+     */
+    private static List<double[]> others(double[][] rings, int ring) {
+        List<double[]> others = new ArrayList<>();
+        for (int r = 0; r < rings.length; r++) {
+            if (r != ring && rings[r] != null) {
+                others.add(rings[r]);
+            }
+        }
+        return others;
+    }
+
+    private static double[] select(double[] ring, int[] indices) {
+        double[] selected = new double[indices.length << 1];
+        for (int i = 0; i < indices.length; i++) {
+            selected[i << 1] = ring[indices[i] << 1];
+            selected[(i << 1) + 1] = ring[(indices[i] << 1) + 1];
+        }
+        return selected;
+    }
+
+    private static void appendRing(Polygon2D target, double[] ring) {
+        target.startRing();
+        for (int i = 0; i < ring.length; i += 2) {
+            target.addPoint(ring[i], ring[i + 1]);
+        }
+        target.addPoint(ring[0], ring[1]);
+    }
+
+    private static double area(double[] ring) {
+        double area = 0;
+        int count = ring.length >> 1;
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            area += (ring[j << 1] + ring[i << 1]) * (ring[(j << 1) + 1] - ring[(i << 1) + 1]);
+        }
+        return area / 2;
+    }
+
+    private static double extent(double[] ring) {
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (int i = 0; i < ring.length; i += 2) {
+            minX = Math.min(minX, ring[i]);
+            maxX = Math.max(maxX, ring[i]);
+            minY = Math.min(minY, ring[i + 1]);
+            maxY = Math.max(maxY, ring[i + 1]);
+        }
+        return Math.max(maxX - minX, maxY - minY);
+    }
+
+    private static int largestPolygon(Polygon2D source) {
+        int largest = 0;
+        double maxArea = -1;
+        for (int p = 0; p < source.getNumPolygons(); p++) {
+            double area = Math.abs(area(openRing(source, source.polygonStart(p))));
+            if (area > maxArea) {
+                maxArea = area;
+                largest = p;
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Uniform grid over the edges of a ring and of the rings near it. Each edge is registered in the cells it
+     * passes through, so that only the edges sharing a cell are tested against each other, which keeps the
+     * intersection test close to linear for the rings of an AOI. The grid has about as many cells as edges.
+     */
+    private static final class EdgeGrid {
+        /* Cells are widened by this fraction, so that rounding doesn't miss an edge ending on a cell border */
+        private static final double MARGIN = 1e-9;
+        private final double[][] rings;
+        private final int[] edgeRing;
+        private final int[] edgeIndex;
+        private final double minX, minY, cellWidth, cellHeight;
+        private final int side;
+        private final int[] cellStarts;
+        private final int[] cellEdges;
+
+        /**
+         * The ring to test is the first one; of the others, only those whose bounds overlap it are kept.
+         */
+        EdgeGrid(double[] ring, List<double[]> others) {
+            double[] bounds = bounds(ring);
+            List<double[]> selected = new ArrayList<>();
+            selected.add(ring);
+            for (double[] other : others) {
+                double[] otherBounds = bounds(other);
+                if (otherBounds[0] <= bounds[2] && bounds[0] <= otherBounds[2] &&
+                        otherBounds[1] <= bounds[3] && bounds[1] <= otherBounds[3]) {
+                    selected.add(other);
+                }
+            }
+            this.rings = selected.toArray(new double[selected.size()][]);
+            int edges = 0;
+            for (double[] r : rings) {
+                edges += r.length >> 1;
+            }
+            this.edgeRing = new int[edges];
+            this.edgeIndex = new int[edges];
+            for (int r = 0, e = 0; r < rings.length; r++) {
+                for (int i = 0; i < rings[r].length >> 1; i++, e++) {
+                    edgeRing[e] = r;
+                    edgeIndex[e] = i;
+                }
+            }
+            // the other rings only matter where they overlap the ring tested
+            this.minX = bounds[0];
+            this.minY = bounds[1];
+            this.side = Math.max(1, (int) Math.sqrt(edges));
+            this.cellWidth = Math.max((bounds[2] - bounds[0]) / side, Double.MIN_NORMAL);
+            this.cellHeight = Math.max((bounds[3] - bounds[1]) / side, Double.MIN_NORMAL);
+            this.cellStarts = new int[side * side + 1];
+            for (int e = 0; e < edges; e++) {
+                register(e, null);
+            }
+            for (int c = 0; c < side * side; c++) {
+                cellStarts[c + 1] += cellStarts[c];
+            }
+            this.cellEdges = new int[cellStarts[side * side]];
+            int[] filled = Arrays.copyOf(cellStarts, side * side);
+            for (int e = 0; e < edges; e++) {
+                register(e, filled);
+            }
+        }
+
+        /**
+         * Returns <code>true</code> if an edge of the first ring intersects an edge of another ring or, if
+         * <code>self</code> is set, a non-adjacent edge of the first ring.
+         */
+        boolean hasIntersection(boolean self) {
+            for (int c = 0; c < side * side; c++) {
+                for (int i = cellStarts[c]; i < cellStarts[c + 1]; i++) {
+                    int a = cellEdges[i];
+                    for (int j = i + 1; j < cellStarts[c + 1]; j++) {
+                        int b = cellEdges[j];
+                        int ringA = edgeRing[a], ringB = edgeRing[b];
+                        if ((ringA != 0 && ringB != 0) || (ringA == ringB && (!self || adjacent(a, b)))) {
+                            continue;
+                        }
+                        double[] first = rings[ringA], second = rings[ringB];
+                        int a1 = edgeIndex[a] << 1, a2 = ((edgeIndex[a] + 1) % (first.length >> 1)) << 1;
+                        int b1 = edgeIndex[b] << 1, b2 = ((edgeIndex[b] + 1) % (second.length >> 1)) << 1;
+                        if (intersects(first[a1], first[a1 + 1], first[a2], first[a2 + 1],
+                                       second[b1], second[b1 + 1], second[b2], second[b2 + 1])) {
+                            return true;
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean adjacent(int a, int b) {
+            int count = rings[edgeRing[a]].length >> 1;
+            int i = edgeIndex[a], j = edgeIndex[b];
+            return (i + 1) % count == j || (j + 1) % count == i;
+        }
+
+        /**
+         * Counts the edge in the cells it passes through or, if <code>filled</code> is given, adds it to them.
+         * The edge is walked column by column, each column covering the rows between its ends in that column.
+         */
+        private void register(int edge, int[] filled) {
+            double[] ring = rings[edgeRing[edge]];
+            int i1 = edgeIndex[edge] << 1, i2 = ((edgeIndex[edge] + 1) % (ring.length >> 1)) << 1;
+            double x1 = ring[i1], y1 = ring[i1 + 1], x2 = ring[i2], y2 = ring[i2 + 1];
+            if (x1 > x2) {
+                double t = x1; x1 = x2; x2 = t;
+                t = y1; y1 = y2; y2 = t;
+            }
+            int firstColumn = column(x1 - cellWidth * MARGIN), lastColumn = column(x2 + cellWidth * MARGIN);
+            double slope = x2 > x1 ? (y2 - y1) / (x2 - x1) : 0;
+            for (int c = firstColumn; c <= lastColumn; c++) {
+                double left = Math.max(x1, minX + c * cellWidth), right = Math.min(x2, minX + (c + 1) * cellWidth);
+                double yLeft = x2 > x1 ? y1 + (left - x1) * slope : y1;
+                double yRight = x2 > x1 ? y1 + (right - x1) * slope : y2;
+                int firstRow = row(Math.min(yLeft, yRight) - cellHeight * MARGIN);
+                int lastRow = row(Math.max(yLeft, yRight) + cellHeight * MARGIN);
+                for (int r = firstRow; r <= lastRow; r++) {
+                    int cell = r * side + c;
+                    if (filled == null) {
+                        cellStarts[cell + 1]++;
+                    } else {
+                        cellEdges[filled[cell]++] = edge;
+                    }
+                }
+            }
+        }
+
+        private int column(double x) {
+            return (int) Math.max(0, Math.min(side - 1, Math.floor((x - minX) / cellWidth)));
+        }
+
+        private int row(double y) {
+            return (int) Math.max(0, Math.min(side - 1, Math.floor((y - minY) / cellHeight)));
+        }
+
+        private static double[] bounds(double[] ring) {
+            double[] bounds = { Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE };
+            for (int i = 0; i < ring.length; i += 2) {
+                bounds[0] = Math.min(bounds[0], ring[i]);
+                bounds[1] = Math.min(bounds[1], ring[i + 1]);
+                bounds[2] = Math.max(bounds[2], ring[i]);
+                bounds[3] = Math.max(bounds[3], ring[i + 1]);
+            }
+            return bounds;
+        }
+    }
+
+    /**
+     * Binary min-heap of vertex indices, keyed by the (mutable) effective area of each vertex.
+     */
+    private static final class AreaHeap {
+        private final double[] keys;
+        private final int[] heap;
+        private final int[] positions;
+        private int size;
+
+        AreaHeap(double[] keys) {
+            this.keys = keys;
+            this.size = keys.length;
+            this.heap = new int[size];
+            this.positions = new int[size];
+            for (int i = 0; i < size; i++) {
+                heap[i] = i;
+                positions[i] = i;
+            }
+            for (int i = (size >> 1) - 1; i >= 0; i--) {
+                siftDown(i);
+            }
+        }
+
+        int poll() {
+            int top = heap[0];
+            positions[top] = -1;
+            if (--size > 0) {
+                heap[0] = heap[size];
+                positions[heap[0]] = 0;
+                siftDown(0);
+            }
+            return top;
+        }
+
+        void update(int vertex, double key) {
+            int position = positions[vertex];
+            if (position < 0) {
+                return;
+            }
+            double old = keys[vertex];
+            keys[vertex] = key;
+            if (key < old) {
+                siftUp(position);
+            } else {
+                siftDown(position);
+            }
+        }
+
+        private void siftUp(int position) {
+            int vertex = heap[position];
+            while (position > 0) {
+                int parent = (position - 1) >> 1;
+                if (keys[heap[parent]] <= keys[vertex]) {
+                    break;
+                }
+                move(heap[parent], position);
+                position = parent;
+            }
+            move(vertex, position);
+        }
+
+        private void siftDown(int position) {
+            int vertex = heap[position];
+            int half = size >> 1;
+            while (position < half) {
+                int child = (position << 1) + 1;
+                if (child + 1 < size && keys[heap[child + 1]] < keys[heap[child]]) {
+                    child++;
+                }
+                if (keys[vertex] <= keys[heap[child]]) {
+                    break;
+                }
+                move(heap[child], position);
+                position = child;
+            }
+            move(vertex, position);
+        }
+
+        private void move(int vertex, int position) {
+            heap[position] = vertex;
+            positions[vertex] = position;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * HTTP range requests, shared by the readers of remote files ({@link RemoteZip}, {@link RemoteTiff}).
+ *
+ * @author Cosmin Cara
+ */
+final class RangeRequests {
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (\\d+)-(\\d+)/(\\d+|\\*)");
+
+    private RangeRequests() { }
+
+    /**
+     * Reads a range of a remote file. A negative start means the last <code>length</code> bytes.
+     * The server may answer with less bytes than asked for, if the range goes beyond the end of the file.
+     *
+     * @param range Receives the start, the end and the total length given by the server
+     * @return  The bytes, or <code>null</code> if the server doesn't answer range requests
+     */
+    static byte[] fetch(String url, String authToken, long start, int length, long[] range) throws IOException {
+        RequestTrace trace = RequestTrace.start(url);
+        try {
+            HttpURLConnection connection = start < 0 ?
+                    request(url, authToken, -1, length, trace) :
+                    request(url, authToken, start, start + length - 1, trace);
+            if (connection == null) {
+                return null;
+            }
+            try (InputStream inputStream = connection.getInputStream()) {
+                Matcher matcher = CONTENT_RANGE.matcher(String.valueOf(connection.getHeaderField("Content-Range")));
+                if (!matcher.matches()) {
+                    throw new IOException(String.format("Invalid content range for %s", url));
+                }
+                range[0] = Long.parseLong(matcher.group(1));
+                range[1] = Long.parseLong(matcher.group(2));
+                range[2] = "*".equals(matcher.group(3)) ? -1 : Long.parseLong(matcher.group(3));
+                byte[] bytes = readFully(inputStream, (int) (range[1] - range[0] + 1));
+                trace.transferred(bytes.length);
+                return bytes;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException | RuntimeException e) {
+            trace.failed(e);
+            throw e;
+        } finally {
+            trace.close();
+        }
+    }
+
+    /**
+     * Sends a range request (end inclusive; a negative start asks for the last <code>end</code> bytes).
+     *
+     * @return  The connection, or <code>null</code> if the server answered with the whole file
+     */
+    static HttpURLConnection request(String url, String authToken, long start, long end) throws IOException {
+        RequestTrace trace = RequestTrace.start(url);
+        try {
+            HttpURLConnection connection = request(url, authToken, start, end, trace);
+            if (connection != null) {
+                // the body is read by the caller
+                trace.length(connection.getContentLengthLong());
+            }
+            return connection;
+        } catch (IOException | RuntimeException e) {
+            trace.failed(e);
+            throw e;
+        } finally {
+            trace.close();
+        }
+    }
+
+    private static HttpURLConnection request(String url, String authToken, long start, long end, RequestTrace trace) throws IOException {
+        HttpURLConnection connection = NetUtils.openConnection(url, authToken);
+        if (connection == null) {
+            throw new IOException(String.format("Cannot connect to %s", url));
+        }
+        connection.setRequestProperty("Range", start < 0 ? "bytes=-" + end : "bytes=" + start + "-" + end);
+        long startNanos = System.nanoTime();
+        trace.prepare(connection);
+        connection.connect();
+        trace.connected();
+        int code = connection.getResponseCode();
+        trace.responded(code);
+        Metrics.histogram("http_response_seconds", "host", Metrics.host(url)).recordSince(startNanos);
+        if (code != HttpURLConnection.HTTP_PARTIAL) {
+            connection.disconnect();
+            if (code == HttpURLConnection.HTTP_OK) {
+                Logger.getRootLogger().debug("Range requests not supported by %s", url);
+                return null;
+            }
+            if (code == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new FileNotFoundException(url);
+            }
+            throw new IOException(String.format("Cannot read %s [code %s]", url, code));
+        }
+        return connection;
+    }
+
+    static byte[] readFully(InputStream inputStream, int length) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream(length);
+        byte[] buffer = new byte[Math.min(length, 1 << 16)];
+        int total = 0;
+        while (total < length) {
+            int read = inputStream.read(buffer, 0, Math.min(buffer.length, length - total));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of range");
+            }
+            output.write(buffer, 0, read);
+            total += read;
+        }
+        return output.toByteArray();
+    }
+
+    static void skipFully(InputStream inputStream, long count) throws IOException {
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                if (inputStream.read() < 0) {
+                    throw new EOFException("Unexpected end of range");
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+}
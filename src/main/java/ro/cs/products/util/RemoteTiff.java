@@ -0,0 +1,521 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.awt.Rectangle;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Reader of a remote tiled GeoTIFF (such as a Cloud Optimized GeoTIFF) through HTTP range requests.
+ * The header and the first image directory (the full resolution image) are read from the first 64KB of the file,
+ * with more requests only for the values that lie beyond. A window of the image can then be copied to a local
+ * GeoTIFF by requesting only the bytes of the tiles it covers.
+ * The tiles are copied as they are (still compressed), hence the copy is extended to whole tiles.
+ *
+ * @author Cosmin Cara
+ */
+public class RemoteTiff {
+    private static final int HEAD_SIZE = 1 << 16;
+    /* Tiles separated by less than this are read with a single request */
+    private static final long MAX_GAP = 1 << 16;
+    private static final long CLASSIC_LIMIT = 0xFFFFFFFFL;
+    private static final int TAG_IMAGE_WIDTH = 256;
+    private static final int TAG_IMAGE_LENGTH = 257;
+    private static final int TAG_STRIP_OFFSETS = 273;
+    private static final int TAG_SAMPLES_PER_PIXEL = 277;
+    private static final int TAG_STRIP_BYTE_COUNTS = 279;
+    private static final int TAG_PLANAR_CONFIGURATION = 284;
+    private static final int TAG_TILE_WIDTH = 322;
+    private static final int TAG_TILE_LENGTH = 323;
+    private static final int TAG_TILE_OFFSETS = 324;
+    private static final int TAG_TILE_BYTE_COUNTS = 325;
+    private static final int TAG_SUB_IFDS = 330;
+    private static final int TAG_MODEL_PIXEL_SCALE = 33550;
+    private static final int TAG_MODEL_TIEPOINT = 33922;
+    private static final int TAG_MODEL_TRANSFORMATION = 34264;
+    private static final int TAG_EXIF_IFD = 34665;
+    private static final int TAG_GPS_IFD = 34853;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_LONG = 4;
+    private static final int TYPE_DOUBLE = 12;
+    private static final int TYPE_IFD = 13;
+    private static final int TYPE_LONG8 = 16;
+    private static final int TYPE_IFD8 = 18;
+    /* The size of a value of each field type (0 for the unknown ones) */
+    private static final int[] TYPE_SIZES = { 0, 1, 1, 2, 4, 8, 1, 1, 2, 4, 8, 4, 8, 4, 0, 0, 8, 8, 8 };
+
+    private final String url;
+    private final String authToken;
+    private final Map<Integer, Field> fields;
+    private byte[] head;
+    private ByteOrder order;
+    private boolean bigTiff;
+    private int width;
+    private int height;
+    private int tileWidth;
+    private int tileHeight;
+    private int tilesAcross;
+    private int tilesDown;
+    private long[] tileOffsets;
+    private long[] tileByteCounts;
+    private long transferred;
+
+    private RemoteTiff(String url, String authToken) {
+        this.url = url;
+        this.authToken = authToken;
+        this.fields = new TreeMap<>();
+    }
+
+    /**
+     * Reads the header and the first image directory of the remote file.
+     *
+     * @param url       The URL of the file
+     * @param authToken The authentication token (if any)
+     * @return  The image, or <code>null</code> if the server doesn't answer range requests
+     *
+     * @throws IOException  If the file is not a tiled TIFF
+     */
+    public static RemoteTiff open(String url, String authToken) throws IOException {
+        RemoteTiff tiff = new RemoteTiff(url, authToken);
+        return tiff.readDirectory() ? tiff : null;
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public int getTileWidth() { return tileWidth; }
+
+    public int getTileHeight() { return tileHeight; }
+
+    /**
+     * Returns the number of bytes read from the remote file so far.
+     */
+    public long getTransferred() { return transferred; }
+
+    /**
+     * Copies the tiles of the image that cover the given window to a local GeoTIFF.
+     * The georeferencing of the copy is moved to its first pixel; all the other fields of the image are kept.
+     *
+     * @param window    The window, in pixels, which is clipped to the image
+     * @param file      The local file
+     * @return  The bounds (in pixels of this image) of the copy, or <code>null</code> if the window
+     *          doesn't intersect the image
+     */
+    public Rectangle crop(Rectangle window, Path file) throws IOException {
+        Rectangle area = window.intersection(new Rectangle(0, 0, width, height));
+        if (area.isEmpty()) {
+            return null;
+        }
+        int firstColumn = area.x / tileWidth;
+        int lastColumn = (area.x + area.width - 1) / tileWidth;
+        int firstRow = area.y / tileHeight;
+        int lastRow = (area.y + area.height - 1) / tileHeight;
+        Rectangle bounds = new Rectangle(firstColumn * tileWidth, firstRow * tileHeight,
+                                         Math.min((lastColumn + 1) * tileWidth, width) - firstColumn * tileWidth,
+                                         Math.min((lastRow + 1) * tileHeight, height) - firstRow * tileHeight);
+        // the tiles of the copy, in its own order (planes, then rows, then columns)
+        int planes = tileOffsets.length / (tilesAcross * tilesDown);
+        List<Tile> tiles = new ArrayList<>();
+        for (int plane = 0; plane < planes; plane++) {
+            for (int row = firstRow; row <= lastRow; row++) {
+                for (int column = firstColumn; column <= lastColumn; column++) {
+                    int index = (plane * tilesDown + row) * tilesAcross + column;
+                    tiles.add(new Tile(tiles.size(), tileOffsets[index], tileByteCounts[index]));
+                }
+            }
+        }
+        Map<Integer, Field> target = targetFields(bounds, tiles.size());
+        int headerLength = 8 + 2 + target.size() * 12 + 4;
+        long valuesLength = 0;
+        for (Field field : target.values()) {
+            if (field.value.length > 4) {
+                valuesLength += field.value.length + (field.value.length & 1);
+            }
+        }
+        // the tiles are written in the order of their data in the remote file, to read it in a single pass
+        List<Tile> remoteOrder = new ArrayList<>(tiles);
+        remoteOrder.sort(Comparator.comparingLong(t -> t.offset));
+        long position = headerLength + valuesLength;
+        long[] offsets = new long[tiles.size()];
+        long[] byteCounts = new long[tiles.size()];
+        for (Tile tile : remoteOrder) {
+            if (tile.length > 0) {
+                offsets[tile.index] = position;
+                byteCounts[tile.index] = tile.length;
+                position += tile.length;
+            }
+        }
+        if (position > CLASSIC_LIMIT) {
+            throw new IOException(String.format("The window %s of %s exceeds 4GB", window, url));
+        }
+        target.put(TAG_TILE_OFFSETS, longField(TAG_TILE_OFFSETS, offsets));
+        target.put(TAG_TILE_BYTE_COUNTS, longField(TAG_TILE_BYTE_COUNTS, byteCounts));
+
+        Path tempFile = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (OutputStream outputStream = new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16)) {
+                writeDirectory(target, headerLength, outputStream);
+                writeTiles(remoteOrder, outputStream);
+            }
+            try {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+            tempFile = null;
+        } finally {
+            if (tempFile != null) {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        return bounds;
+    }
+
+    private boolean readDirectory() throws IOException {
+        long[] range = new long[3];
+        this.head = RangeRequests.fetch(url, authToken, 0, HEAD_SIZE, range);
+        if (this.head == null) {
+            return false;
+        }
+        this.transferred = this.head.length;
+        if (head.length < 16 || !((head[0] == 'I' && head[1] == 'I') || (head[0] == 'M' && head[1] == 'M'))) {
+            throw new IOException(String.format("%s is not a TIFF file", url));
+        }
+        this.order = head[0] == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+        ByteBuffer header = ByteBuffer.wrap(head).order(order);
+        int version = header.getShort(2) & 0xFFFF;
+        if (version != 42 && version != 43) {
+            throw new IOException(String.format("%s is not a TIFF file", url));
+        }
+        this.bigTiff = version == 43;
+        long directoryOffset = bigTiff ? header.getLong(8) : header.getInt(4) & CLASSIC_LIMIT;
+        int countSize = bigTiff ? 8 : 2;
+        int entrySize = bigTiff ? 20 : 12;
+        int valueSize = bigTiff ? 8 : 4;
+        ByteBuffer countBuffer = read(directoryOffset, countSize);
+        long count = bigTiff ? countBuffer.getLong(0) : countBuffer.getShort(0) & 0xFFFF;
+        ByteBuffer entries = read(directoryOffset + countSize, (int) (count * entrySize));
+        for (int i = 0; i < count; i++) {
+            int start = i * entrySize;
+            int tag = entries.getShort(start) & 0xFFFF;
+            int type = entries.getShort(start + 2) & 0xFFFF;
+            long valueCount = bigTiff ? entries.getLong(start + 4) : entries.getInt(start + 4) & CLASSIC_LIMIT;
+            int typeSize = type < TYPE_SIZES.length ? TYPE_SIZES[type] : 0;
+            if (typeSize == 0) {
+                continue;
+            }
+            int length = (int) (valueCount * typeSize);
+            int valueStart = start + (bigTiff ? 12 : 8);
+            byte[] value;
+            if (length <= valueSize) {
+                value = new byte[length];
+                for (int j = 0; j < length; j++) {
+                    value[j] = entries.get(valueStart + j);
+                }
+            } else {
+                long offset = bigTiff ? entries.getLong(valueStart) : entries.getInt(valueStart) & CLASSIC_LIMIT;
+                ByteBuffer buffer = read(offset, length);
+                value = new byte[length];
+                buffer.get(value);
+            }
+            fields.put(tag, new Field(tag, type, valueCount, value));
+        }
+        if (!fields.containsKey(TAG_TILE_WIDTH) || !fields.containsKey(TAG_TILE_OFFSETS)) {
+            throw new IOException(String.format("%s is not a tiled image", url));
+        }
+        this.width = (int) longs(TAG_IMAGE_WIDTH)[0];
+        this.height = (int) longs(TAG_IMAGE_LENGTH)[0];
+        this.tileWidth = (int) longs(TAG_TILE_WIDTH)[0];
+        this.tileHeight = (int) longs(TAG_TILE_LENGTH)[0];
+        this.tilesAcross = (width + tileWidth - 1) / tileWidth;
+        this.tilesDown = (height + tileHeight - 1) / tileHeight;
+        this.tileOffsets = longs(TAG_TILE_OFFSETS);
+        this.tileByteCounts = longs(TAG_TILE_BYTE_COUNTS);
+        int planes = fields.containsKey(TAG_PLANAR_CONFIGURATION) && longs(TAG_PLANAR_CONFIGURATION)[0] == 2 ?
+                (fields.containsKey(TAG_SAMPLES_PER_PIXEL) ? (int) longs(TAG_SAMPLES_PER_PIXEL)[0] : 1) : 1;
+        if (tileOffsets.length != tilesAcross * tilesDown * planes || tileByteCounts.length != tileOffsets.length) {
+            throw new IOException(String.format("Invalid tile offsets in %s", url));
+        }
+        this.head = null;
+        return true;
+    }
+
+    /**
+     * Builds the fields of the copy of the given bounds: the size and the georeferencing are changed,
+     * the fields that cannot be copied (pointers to other directories or to strips) are dropped.
+     */
+    private Map<Integer, Field> targetFields(Rectangle bounds, int tileCount) {
+        Map<Integer, Field> target = new TreeMap<>();
+        for (Field field : fields.values()) {
+            switch (field.tag) {
+                case TAG_STRIP_OFFSETS:
+                case TAG_STRIP_BYTE_COUNTS:
+                case TAG_SUB_IFDS:
+                case TAG_EXIF_IFD:
+                case TAG_GPS_IFD:
+                    break;
+                default:
+                    if (field.type == TYPE_IFD || field.type >= TYPE_LONG8) {
+                        Logger.getRootLogger().debug("Field %s of %s is not copied", field.tag, url);
+                    } else {
+                        target.put(field.tag, field);
+                    }
+                    break;
+            }
+        }
+        target.put(TAG_IMAGE_WIDTH, longField(TAG_IMAGE_WIDTH, new long[] { bounds.width }));
+        target.put(TAG_IMAGE_LENGTH, longField(TAG_IMAGE_LENGTH, new long[] { bounds.height }));
+        // placeholders, to account for them in the size of the directory
+        target.put(TAG_TILE_OFFSETS, longField(TAG_TILE_OFFSETS, new long[tileCount]));
+        target.put(TAG_TILE_BYTE_COUNTS, longField(TAG_TILE_BYTE_COUNTS, new long[tileCount]));
+        Field tiePoints = fields.get(TAG_MODEL_TIEPOINT);
+        if (tiePoints != null && tiePoints.type == TYPE_DOUBLE) {
+            double[] values = doubles(tiePoints);
+            Field scale = fields.get(TAG_MODEL_PIXEL_SCALE);
+            if (values.length == 6 && scale != null && scale.type == TYPE_DOUBLE) {
+                // a single tie point and a pixel scale: tie the first pixel of the copy
+                double[] pixelScale = doubles(scale);
+                values[3] += (bounds.x - values[0]) * pixelScale[0];
+                values[4] -= (bounds.y - values[1]) * pixelScale[1];
+                values[0] = 0;
+                values[1] = 0;
+            } else {
+                for (int i = 0; i + 5 < values.length; i += 6) {
+                    values[i] -= bounds.x;
+                    values[i + 1] -= bounds.y;
+                }
+            }
+            target.put(TAG_MODEL_TIEPOINT, doubleField(TAG_MODEL_TIEPOINT, values));
+        }
+        Field transformation = fields.get(TAG_MODEL_TRANSFORMATION);
+        if (transformation != null && transformation.type == TYPE_DOUBLE && transformation.count == 16) {
+            double[] matrix = doubles(transformation);
+            matrix[3] += matrix[0] * bounds.x + matrix[1] * bounds.y;
+            matrix[7] += matrix[4] * bounds.x + matrix[5] * bounds.y;
+            target.put(TAG_MODEL_TRANSFORMATION, doubleField(TAG_MODEL_TRANSFORMATION, matrix));
+        }
+        return target;
+    }
+
+    /**
+     * Writes the header of a (classic) TIFF, its single directory and the values that don't fit in the directory.
+     */
+    private void writeDirectory(Map<Integer, Field> target, int headerLength, OutputStream outputStream) throws IOException {
+        ByteBuffer directory = ByteBuffer.allocate(headerLength).order(order);
+        directory.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        directory.put(directory.get(0));
+        directory.putShort((short) 42);
+        directory.putInt(8);
+        directory.putShort((short) target.size());
+        long valueOffset = headerLength;
+        List<byte[]> values = new ArrayList<>();
+        for (Field field : target.values()) {
+            directory.putShort((short) field.tag);
+            directory.putShort((short) field.type);
+            directory.putInt((int) field.count);
+            if (field.value.length <= 4) {
+                directory.put(field.value);
+                for (int i = field.value.length; i < 4; i++) {
+                    directory.put((byte) 0);
+                }
+            } else {
+                directory.putInt((int) valueOffset);
+                values.add(field.value);
+                valueOffset += field.value.length + (field.value.length & 1);
+            }
+        }
+        directory.putInt(0);
+        outputStream.write(directory.array());
+        for (byte[] value : values) {
+            outputStream.write(value);
+            if ((value.length & 1) != 0) {
+                outputStream.write(0);
+            }
+        }
+    }
+
+    /**
+     * Copies the data of the given tiles (sorted by their offset), with a request for each run of close tiles.
+     */
+    private void writeTiles(List<Tile> tiles, OutputStream outputStream) throws IOException {
+        byte[] buffer = new byte[1 << 16];
+        int first = 0;
+        while (first < tiles.size()) {
+            if (tiles.get(first).length == 0) {
+                first++;
+                continue;
+            }
+            int last = first;
+            long end = tiles.get(first).offset + tiles.get(first).length;
+            while (last + 1 < tiles.size()) {
+                Tile next = tiles.get(last + 1);
+                if (next.length > 0 && (next.offset < end || next.offset - end > MAX_GAP)) {
+                    break;
+                }
+                end = Math.max(end, next.offset + next.length);
+                last++;
+            }
+            long start = tiles.get(first).offset;
+            HttpURLConnection connection = RangeRequests.request(url, authToken, start, end - 1);
+            if (connection == null) {
+                throw new IOException(String.format("Range requests not supported by %s", url));
+            }
+            try (InputStream inputStream = connection.getInputStream()) {
+                long position = start;
+                for (int i = first; i <= last; i++) {
+                    Tile tile = tiles.get(i);
+                    if (tile.length == 0) {
+                        continue;
+                    }
+                    RangeRequests.skipFully(inputStream, tile.offset - position);
+                    long remaining = tile.length;
+                    while (remaining > 0) {
+                        int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                        if (read < 0) {
+                            throw new IOException(String.format("Unexpected end of tile data in %s", url));
+                        }
+                        outputStream.write(buffer, 0, read);
+                        remaining -= read;
+                    }
+                    position = tile.offset + tile.length;
+                }
+            } finally {
+                connection.disconnect();
+            }
+            this.transferred += end - start;
+            first = last + 1;
+        }
+    }
+
+    /**
+     * Reads a part of the file, from the first bytes if they contain it.
+     */
+    private ByteBuffer read(long offset, int length) throws IOException {
+        if (offset + length <= head.length) {
+            return ByteBuffer.wrap(head, (int) offset, length).slice().order(order);
+        }
+        long[] range = new long[3];
+        byte[] bytes = RangeRequests.fetch(url, authToken, offset, length, range);
+        if (bytes == null || bytes.length < length) {
+            throw new IOException(String.format("Cannot read %s bytes at %s from %s", length, offset, url));
+        }
+        this.transferred += bytes.length;
+        return ByteBuffer.wrap(bytes).order(order);
+    }
+
+    private long[] longs(int tag) throws IOException {
+        Field field = fields.get(tag);
+        if (field == null) {
+            throw new IOException(String.format("Field %s missing from %s", tag, url));
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(field.value).order(order);
+        long[] values = new long[(int) field.count];
+        for (int i = 0; i < values.length; i++) {
+            switch (field.type) {
+                case TYPE_SHORT:
+                    values[i] = buffer.getShort(i * 2) & 0xFFFF;
+                    break;
+                case TYPE_LONG:
+                case TYPE_IFD:
+                    values[i] = buffer.getInt(i * 4) & CLASSIC_LIMIT;
+                    break;
+                case TYPE_LONG8:
+                case TYPE_IFD8:
+                    values[i] = buffer.getLong(i * 8);
+                    break;
+                default:
+                    throw new IOException(String.format("Field %s of %s is not an integer", tag, url));
+            }
+        }
+        return values;
+    }
+
+    private double[] doubles(Field field) {
+        ByteBuffer buffer = ByteBuffer.wrap(field.value).order(order);
+        double[] values = new double[(int) field.count];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getDouble(i * 8);
+        }
+        return values;
+    }
+
+    private Field longField(int tag, long[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(order);
+        for (long value : values) {
+            buffer.putInt((int) value);
+        }
+        return new Field(tag, TYPE_LONG, values.length, buffer.array());
+    }
+
+    private Field doubleField(int tag, double[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 8).order(order);
+        for (double value : values) {
+            buffer.putDouble(value);
+        }
+        return new Field(tag, TYPE_DOUBLE, values.length, buffer.array());
+    }
+
+    /**
+     * A field of the image directory, with its value as stored (in the byte order of the file).
+     */
+    private static class Field {
+        private final int tag;
+        private final int type;
+        private final long count;
+        private final byte[] value;
+
+        Field(int tag, int type, long count, byte[] value) {
+            this.tag = tag;
+            this.type = type;
+            this.count = count;
+            this.value = value;
+        }
+    }
+
+    /**
+     * A tile of the copy: its index in the copy, and the location of its data in the remote file.
+     */
+    private static class Tile {
+        private final int index;
+        private final long offset;
+        private final long length;
+
+        Tile(int index, long offset, long length) {
+            this.index = index;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
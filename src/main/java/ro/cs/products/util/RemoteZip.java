@@ -0,0 +1,351 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Reader of a remote zip archive through HTTP range requests.
+ * The central directory is read from the end of the archive (a single request if it is smaller than 64KB),
+ * then each entry is read with a request for its own bytes, so that only the entries needed are downloaded.
+ *
+ * @author Cosmin Cara
+ */
+public class RemoteZip {
+    private static final int TAIL_SIZE = 1 << 16;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final long ZIP64_LIMIT = 0xFFFFFFFFL;
+
+    private final String url;
+    private final String authToken;
+    private final List<Entry> entries;
+    private long centralDirectoryOffset;
+
+    private RemoteZip(String url, String authToken) {
+        this.url = url;
+        this.authToken = authToken;
+        this.entries = new ArrayList<>();
+    }
+
+    /**
+     * Reads the central directory of the remote archive.
+     *
+     * @param url       The URL of the archive
+     * @param authToken The authentication token (if any)
+     * @return  The archive, or <code>null</code> if the server doesn't answer range requests
+     */
+    public static RemoteZip open(String url, String authToken) throws IOException {
+        RemoteZip zip = new RemoteZip(url, authToken);
+        return zip.readCentralDirectory() ? zip : null;
+    }
+
+    public String getUrl() { return url; }
+
+    /**
+     * Returns the entries of the archive, in the order of their data.
+     */
+    public List<Entry> getEntries() { return Collections.unmodifiableList(entries); }
+
+    /**
+     * Opens the (uncompressed) contents of the given entry. The CRC of the contents is checked when its end is read.
+     */
+    public InputStream openEntry(Entry entry) throws IOException {
+        int index = entries.indexOf(entry);
+        if (index < 0) {
+            throw new IllegalArgumentException(String.format("%s is not an entry of %s", entry.getName(), url));
+        }
+        // the data of an entry ends, at the latest, where the next entry (or the central directory) begins
+        long end = index + 1 < entries.size() ? entries.get(index + 1).offset : centralDirectoryOffset;
+        HttpURLConnection connection = RangeRequests.request(url, authToken, entry.offset, end - 1);
+        if (connection == null) {
+            throw new IOException(String.format("Cannot read %s from %s", entry.getName(), url));
+        }
+        InputStream inputStream = connection.getInputStream();
+        try {
+            ByteBuffer header = ByteBuffer.wrap(RangeRequests.readFully(inputStream, 30)).order(ByteOrder.LITTLE_ENDIAN);
+            if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new IOException(String.format("Invalid local header for %s in %s", entry.getName(), url));
+            }
+            RangeRequests.skipFully(inputStream, (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF));
+            InputStream data = new BoundedInputStream(inputStream, entry.compressedSize);
+            Inflater inflater = null;
+            switch (entry.method) {
+                case 0:
+                    break;
+                case 8:
+                    inflater = new Inflater(true);
+                    data = new InflaterInputStream(data, inflater, 1 << 16);
+                    break;
+                default:
+                    throw new IOException(String.format("Unsupported compression method %s for %s", entry.method, entry.getName()));
+            }
+            return new CheckedInputStream(data, entry, connection, inflater);
+        } catch (IOException | RuntimeException e) {
+            inputStream.close();
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    private boolean readCentralDirectory() throws IOException {
+        long[] range = new long[3];
+        byte[] tail = RangeRequests.fetch(url, authToken, -1, TAIL_SIZE, range);
+        if (tail == null) {
+            return false;
+        }
+        long tailOffset = range[0];
+        ByteBuffer buffer = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        int position = tail.length - 22;
+        while (position >= 0 && buffer.getInt(position) != END_SIGNATURE) {
+            position--;
+        }
+        if (position < 0) {
+            throw new IOException(String.format("%s is not a zip archive", url));
+        }
+        long count = buffer.getShort(position + 10) & 0xFFFF;
+        long size = buffer.getInt(position + 12) & ZIP64_LIMIT;
+        long offset = buffer.getInt(position + 16) & ZIP64_LIMIT;
+        if (position >= 20 && buffer.getInt(position - 20) == ZIP64_LOCATOR_SIGNATURE) {
+            long zip64EndOffset = buffer.getLong(position - 12);
+            ByteBuffer zip64End = zip64EndOffset >= tailOffset ?
+                    ByteBuffer.wrap(tail, (int) (zip64EndOffset - tailOffset), 56).slice() :
+                    ByteBuffer.wrap(fetch(zip64EndOffset, 56, range));
+            zip64End.order(ByteOrder.LITTLE_ENDIAN);
+            if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                throw new IOException(String.format("Invalid zip64 end of central directory in %s", url));
+            }
+            count = zip64End.getLong(32);
+            size = zip64End.getLong(40);
+            offset = zip64End.getLong(48);
+        }
+        this.centralDirectoryOffset = offset;
+        ByteBuffer directory = offset >= tailOffset ?
+                ByteBuffer.wrap(tail, (int) (offset - tailOffset), (int) size).slice() :
+                ByteBuffer.wrap(fetch(offset, (int) size, range));
+        directory.order(ByteOrder.LITTLE_ENDIAN);
+        for (long i = 0; i < count; i++) {
+            entries.add(readCentralHeader(directory));
+        }
+        entries.sort(Comparator.comparingLong(e -> e.offset));
+        return true;
+    }
+
+    /**
+     * Fetches a range of the archive that is expected to exist, once the end of the central directory was read.
+     */
+    private byte[] fetch(long offset, int length, long[] range) throws IOException {
+        byte[] data = RangeRequests.fetch(url, authToken, offset, length, range);
+        if (data == null || data.length < length) {
+            throw new IOException(String.format("Cannot read bytes %s-%s of %s", offset, offset + length - 1, url));
+        }
+        return data;
+    }
+
+    private Entry readCentralHeader(ByteBuffer directory) throws IOException {
+        int start = directory.position();
+        if (directory.remaining() < 46 || directory.getInt(start) != CENTRAL_HEADER_SIGNATURE) {
+            throw new IOException(String.format("Invalid central directory in %s", url));
+        }
+        int method = directory.getShort(start + 10) & 0xFFFF;
+        long dosTime = directory.getInt(start + 12) & ZIP64_LIMIT;
+        long crc = directory.getInt(start + 16) & ZIP64_LIMIT;
+        long compressedSize = directory.getInt(start + 20) & ZIP64_LIMIT;
+        long size = directory.getInt(start + 24) & ZIP64_LIMIT;
+        int nameLength = directory.getShort(start + 28) & 0xFFFF;
+        int extraLength = directory.getShort(start + 30) & 0xFFFF;
+        int commentLength = directory.getShort(start + 32) & 0xFFFF;
+        long offset = directory.getInt(start + 42) & ZIP64_LIMIT;
+        byte[] name = new byte[nameLength];
+        directory.position(start + 46);
+        directory.get(name);
+        int extraEnd = directory.position() + extraLength;
+        while (directory.position() + 4 <= extraEnd) {
+            int id = directory.getShort() & 0xFFFF;
+            int length = directory.getShort() & 0xFFFF;
+            int next = directory.position() + length;
+            if (id == 0x0001) {
+                // zip64 extended information: only the fields whose value didn't fit, in this order
+                if (size == ZIP64_LIMIT) {
+                    size = directory.getLong();
+                }
+                if (compressedSize == ZIP64_LIMIT) {
+                    compressedSize = directory.getLong();
+                }
+                if (offset == ZIP64_LIMIT) {
+                    offset = directory.getLong();
+                }
+            }
+            directory.position(next);
+        }
+        directory.position(extraEnd + commentLength);
+        return new Entry(new String(name, StandardCharsets.UTF_8), method, crc, compressedSize, size, offset, dosTime);
+    }
+
+    /**
+     * An entry of the remote archive, as described by the central directory.
+     */
+    public static class Entry {
+        private final String name;
+        private final int method;
+        private final long crc;
+        private final long compressedSize;
+        private final long size;
+        private final long offset;
+        private final long dosTime;
+
+        Entry(String name, int method, long crc, long compressedSize, long size, long offset, long dosTime) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.offset = offset;
+            this.dosTime = dosTime;
+        }
+
+        public String getName() { return name; }
+
+        public long getSize() { return size; }
+
+        public long getCompressedSize() { return compressedSize; }
+
+        public boolean isDirectory() { return name.endsWith("/"); }
+
+        /**
+         * Returns the modification time of the entry, in milliseconds.
+         */
+        public long getLastModified() {
+            LocalDateTime time = LocalDateTime.of((int) ((dosTime >> 25) & 0x7F) + 1980, (int) Math.max((dosTime >> 21) & 0x0F, 1),
+                                                  (int) Math.max((dosTime >> 16) & 0x1F, 1), (int) (dosTime >> 11) & 0x1F,
+                                                  (int) (dosTime >> 5) & 0x3F, (int) Math.min((dosTime << 1) & 0x3E, 59));
+            return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        }
+    }
+
+    /**
+     * Stream limited to the given number of bytes of the underlying one, which is not closed.
+     */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int read = super.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) {
+                throw new EOFException("Unexpected end of entry");
+            }
+            remaining -= read;
+            return read;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Stream of the contents of an entry, checking its size and CRC at the end and releasing the connection when closed.
+     */
+    private static class CheckedInputStream extends FilterInputStream {
+        private final Entry entry;
+        private final HttpURLConnection connection;
+        private final Inflater inflater;
+        private final CRC32 crc;
+        private long count;
+
+        CheckedInputStream(InputStream in, Entry entry, HttpURLConnection connection, Inflater inflater) {
+            super(in);
+            this.entry = entry;
+            this.connection = connection;
+            this.inflater = inflater;
+            this.crc = new CRC32();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                crc.update(b, off, read);
+                count += read;
+            } else if (read < 0 && (count != entry.size || crc.getValue() != entry.crc)) {
+                throw new IOException(String.format("%s is corrupted (size %s, CRC %x)", entry.name, count, crc.getValue()));
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (inflater != null) {
+                    inflater.end();
+                }
+                connection.getInputStream().close();
+                connection.disconnect();
+            }
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Timing trace of a single HTTP request, written as a JSON line to the trace file (if tracing is enabled).
+ * The request is divided in phases, timed in nanoseconds:
+ * <ul>
+ *     <li>dns: the resolution of the host name (cached by the JVM, so the connection does not repeat it)</li>
+ *     <li>connect: the TCP connection</li>
+ *     <li>tls: the TLS handshake, for new HTTPS connections</li>
+ *     <li>wait: from the request to the response headers (the server think time)</li>
+ *     <li>transfer: the response body, when read by the traced code</li>
+ * </ul>
+ * A request on a kept-alive connection has no connect and tls phases; this is reported (for HTTPS requests)
+ * as a reused connection. The traces are summarized by {@link TraceSummary}.
+ *
+ * When tracing is disabled, the traces do nothing.
+ *
+ * @author Cosmin Cara
+ */
+public class RequestTrace {
+    private static final RequestTrace DISABLED = new RequestTrace(null);
+    // the trace of the request being connected by the current thread, for the socket factory
+    private static final ThreadLocal<RequestTrace> connecting = new ThreadLocal<>();
+    private static Writer writer;
+    private static SSLSocketFactory socketFactory;
+
+    private final String url;
+    private final long start;
+    private final long time;
+    private long resolved;
+    private long layered;
+    private long connected;
+    private long responded;
+    private long finished;
+    private int status;
+    private long bytes = -1;
+    private int retries;
+    private String error;
+    private boolean closed;
+
+    private RequestTrace(String url) {
+        this.url = url;
+        this.start = System.nanoTime();
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts writing the traces to the given file (appending to it).
+     */
+    public static synchronized void enable(Path file) throws IOException {
+        disable();
+        writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+        socketFactory = new TracingSocketFactory(HttpsURLConnection.getDefaultSSLSocketFactory());
+    }
+
+    /**
+     * Stops tracing, closing the trace file.
+     */
+    public static synchronized void disable() throws IOException {
+        if (writer != null) {
+            writer.close();
+            writer = null;
+            socketFactory = null;
+        }
+    }
+
+    public static boolean isEnabled() {
+        return writer != null;
+    }
+
+    /**
+     * Starts the trace of a request to the given URL, resolving its host.
+     */
+    public static RequestTrace start(String url) {
+        if (writer == null) {
+            return DISABLED;
+        }
+        RequestTrace trace = new RequestTrace(url);
+        try {
+            InetAddress.getAllByName(Metrics.host(url).replaceFirst(":\\d+$", ""));
+        } catch (UnknownHostException | SecurityException ignored) {
+            // the connection will fail too, and tell why
+        }
+        trace.resolved = System.nanoTime();
+        return trace;
+    }
+
+    /**
+     * Prepares the connection of the traced request (before it is connected), so that its TLS handshake is timed.
+     */
+    public RequestTrace prepare(HttpURLConnection connection) {
+        if (this != DISABLED && connection instanceof HttpsURLConnection) {
+            HttpsURLConnection httpsConnection = (HttpsURLConnection) connection;
+            if (httpsConnection.getSSLSocketFactory() == HttpsURLConnection.getDefaultSSLSocketFactory()) {
+                SSLSocketFactory factory = socketFactory;
+                if (factory != null) {
+                    httpsConnection.setSSLSocketFactory(factory);
+                }
+            }
+            connecting.set(this);
+        }
+        return this;
+    }
+
+    /**
+     * Marks the end of the connection (including the TLS handshake)
+     */
+    public void connected() {
+        if (this != DISABLED) {
+            connected = System.nanoTime();
+            connecting.remove();
+        }
+    }
+
+    /**
+     * Marks the arrival of the response headers (the first time it is called)
+     */
+    public void responded(int status) {
+        if (this != DISABLED && responded == 0) {
+            responded = System.nanoTime();
+            this.status = status;
+        }
+    }
+
+    /**
+     * Marks the end of the response body
+     * @param bytes The size of the body
+     */
+    public void transferred(long bytes) {
+        if (this != DISABLED) {
+            finished = System.nanoTime();
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Sets the size of the response (for responses whose body is not read by the traced code)
+     */
+    public void length(long bytes) {
+        if (this != DISABLED) {
+            this.bytes = bytes;
+        }
+    }
+
+    /**
+     * Marks the request as a retry of a previous one, of the same file
+     */
+    public RequestTrace retry(int retries) {
+        if (this != DISABLED) {
+            this.retries = retries;
+        }
+        return this;
+    }
+
+    public void failed(Throwable e) {
+        if (this != DISABLED && error == null) {
+            error = e.getClass().getSimpleName() + (e.getMessage() != null ? ": " + e.getMessage() : "");
+        }
+    }
+
+    /**
+     * Writes the trace, once.
+     */
+    public void close() {
+        if (this == DISABLED || closed) {
+            return;
+        }
+        closed = true;
+        connecting.remove();
+        long end = System.nanoTime();
+        StringWriter line = new StringWriter();
+        try (JsonGenerator generator = Json.createGenerator(line)) {
+            generator.writeStartObject()
+                     .write("time", time)
+                     .write("url", url)
+                     .write("host", Metrics.host(url))
+                     .write("type", fileType(url));
+            if (status > 0) {
+                generator.write("status", status);
+            }
+            if (bytes >= 0) {
+                generator.write("bytes", bytes);
+            }
+            generator.write("retries", retries);
+            if (url.startsWith("https") && connected > 0) {
+                generator.write("reused", layered == 0);
+            }
+            generator.write("dns", resolved - start);
+            if (connected > 0) {
+                long tcp = layered > 0 ? layered : connected;
+                generator.write("connect", tcp - resolved)
+                         .write("tls", connected - tcp);
+                if (responded > 0) {
+                    generator.write("wait", responded - connected);
+                    if (finished > 0) {
+                        generator.write("transfer", finished - responded);
+                    }
+                }
+            }
+            generator.write("total", (finished > 0 ? finished : end) - start);
+            if (error != null) {
+                generator.write("error", error);
+            }
+            generator.writeEnd();
+        }
+        synchronized (RequestTrace.class) {
+            if (writer != null) {
+                try {
+                    writer.write(line.toString());
+                    writer.write('\n');
+                } catch (IOException e) {
+                    Logger.getRootLogger().warn("Cannot write the request trace: %s", e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the extension of the file of the given URL (or "none")
+     */
+    static String fileType(String url) {
+        String path;
+        try {
+            path = new URI(url).getPath();
+        } catch (URISyntaxException e) {
+            path = null;
+        }
+        if (path == null) {
+            return "none";
+        }
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && dot < name.length() - 1 ? name.substring(dot + 1).toLowerCase() : "none";
+    }
+
+    /**
+     * Socket factory noting when the TLS socket is layered over the TCP connection, that is, when the TCP connection
+     * is established and the TLS handshake begins.
+     */
+    private static class TracingSocketFactory extends SSLSocketFactory {
+        private final SSLSocketFactory factory;
+
+        TracingSocketFactory(SSLSocketFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public Socket createSocket(Socket socket, String host, int port, boolean autoClose) throws IOException {
+            RequestTrace trace = connecting.get();
+            if (trace != null) {
+                trace.layered = System.nanoTime();
+            }
+            return factory.createSocket(socket, host, port, autoClose);
+        }
+
+        @Override
+        public Socket createSocket() throws IOException {
+            return factory.createSocket();
+        }
+
+        @Override
+        public Socket createSocket(String host, int port) throws IOException {
+            return factory.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+            return factory.createSocket(host, port, localHost, localPort);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress host, int port) throws IOException {
+            return factory.createSocket(host, port);
+        }
+
+        @Override
+        public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+            return factory.createSocket(address, port, localAddress, localPort);
+        }
+
+        @Override
+        public String[] getDefaultCipherSuites() {
+            return factory.getDefaultCipherSuites();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return factory.getSupportedCipherSuites();
+        }
+    }
+}
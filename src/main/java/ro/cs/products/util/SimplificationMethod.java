@@ -0,0 +1,39 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+/**
+ * Algorithms available for reducing the number of vertices of a polygon.
+ *
+ * @author Cosmin Cara
+ */
+public enum SimplificationMethod {
+    /*
+     * Douglas-Peucker: removes the vertices closer than a tolerance to the simplified outline
+     */
+    DOUGLAS_PEUCKER,
+    /*
+     * Visvalingam-Whyatt: removes first the vertices forming the triangles of smallest area
+     */
+    VISVALINGAM,
+    /*
+     * Convex hull of all the vertices, further reduced if needed. It always covers the original polygon.
+     */
+    CONVEX_HULL
+}
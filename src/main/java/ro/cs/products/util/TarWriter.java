@@ -0,0 +1,304 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Writer of POSIX tar archives, either uncompressed or compressed with Zstandard.
+ * Entries use ustar headers; names that don't fit in them are written in a pax extended header.
+ * Entries read from streams are written as they are read, their header being completed afterwards.
+ *
+ * In compressed archives, the header and the data of each file entry start new Zstandard frames, so that the data
+ * of an entry can be decompressed on its own (from the offset given by the index of the archive) and an entry that
+ * fails can be cut off at a frame boundary. Since a header cannot be completed once compressed, entries of unknown
+ * size are first copied to a temporary file.
+ *
+ * @author Cosmin Cara
+ */
+class TarWriter implements OutputSink {
+    private static final int BLOCK = 512;
+    private static final int RECORD = 20 * BLOCK;
+    private static final long MAX_SIZE = 077777777777L;
+    private static final byte TYPE_FILE = '0';
+    private static final byte TYPE_DIRECTORY = '5';
+    private static final byte TYPE_PAX = 'x';
+
+    private final Path tarFile;
+    private final FileChannel channel;
+    private final OutputStream fileStream;
+    private final ZstdOutputStream zstdStream;
+    private final OutputStream outputStream;
+    private final EntryIndex index;
+    private final byte[] buffer;
+    /* the (uncompressed) length of the archive */
+    private long written;
+
+    TarWriter(Path tarFile, boolean compress) throws IOException {
+        this.tarFile = tarFile;
+        Files.deleteIfExists(EntryIndex.indexFileOf(tarFile));
+        this.channel = FileChannel.open(tarFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                                        StandardOpenOption.WRITE);
+        this.fileStream = new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16);
+        this.zstdStream = compress ? new ZstdOutputStream(fileStream) : null;
+        this.outputStream = compress ? zstdStream : fileStream;
+        this.index = new EntryIndex();
+        this.buffer = new byte[1 << 16];
+    }
+
+    @Override
+    public void addDirectory(String name, long lastModified) throws IOException {
+        writeHeader(name, TYPE_DIRECTORY, 0755, 0, lastModified);
+    }
+
+    @Override
+    public void addFile(Path file, String name) throws IOException {
+        try (InputStream inputStream = Files.newInputStream(file)) {
+            long size = Files.size(file);
+            long copied = addEntry(name, Files.getLastModifiedTime(file).toMillis(), size, inputStream);
+            if (copied != size) {
+                throw new IOException(String.format("%s has changed while being archived", file));
+            }
+        }
+    }
+
+    @Override
+    public long addEntry(String name, long lastModified, long size, InputStream content) throws IOException {
+        if (zstdStream != null && size < 0) {
+            return addSpooledEntry(name, lastModified, content);
+        }
+        long start = written;
+        long startPosition = boundary();
+        try {
+            long headerOffset = writeHeader(name, TYPE_FILE, 0644, Math.max(size, 0), lastModified);
+            long dataPosition = boundary();
+            if (zstdStream != null) {
+                zstdStream.setCompressing(Zipper.isCompressible(name));
+            }
+            long copied = 0;
+            int read;
+            while ((read = content.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, read);
+                copied += read;
+            }
+            written += copied;
+            if (copied > MAX_SIZE) {
+                throw new IOException(String.format("%s is too large for a tar entry", name));
+            }
+            pad();
+            if (copied != size) {
+                if (zstdStream != null) {
+                    throw new IOException(String.format("%s is not of the announced size", name));
+                }
+                outputStream.flush();
+                channel.write(ByteBuffer.wrap(header(name, TYPE_FILE, 0644, copied, lastModified)), headerOffset);
+            }
+            if (zstdStream != null) {
+                zstdStream.setCompressing(true);
+                index.add(name, dataPosition, boundary() - dataPosition, copied, EntryIndex.ZSTD);
+            } else {
+                index.add(name, dataPosition, copied, copied, EntryIndex.STORED);
+            }
+            return copied;
+        } catch (IOException | RuntimeException e) {
+            // the entry is dropped
+            if (zstdStream != null) {
+                zstdStream.discardFrame();
+                zstdStream.setCompressing(true);
+            }
+            fileStream.flush();
+            channel.truncate(startPosition);
+            channel.position(startPosition);
+            written = start;
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the two empty blocks ending the archive, pads it to a full record and writes the index.
+     */
+    @Override
+    public void finish() throws IOException {
+        long length = written + 2 * BLOCK;
+        length += (RECORD - length % RECORD) % RECORD;
+        byte[] empty = new byte[BLOCK];
+        while (written < length) {
+            outputStream.write(empty);
+            written += BLOCK;
+        }
+        boundary();
+        outputStream.flush();
+        index.write(tarFile);
+    }
+
+    @Override
+    public void close() throws IOException {
+        outputStream.close();
+        channel.close();
+    }
+
+    /**
+     * Copies an entry of unknown size to a temporary file, to be able to write its header first.
+     */
+    private long addSpooledEntry(String name, long lastModified, InputStream content) throws IOException {
+        Path spoolFile = Files.createTempFile(tarFile.toAbsolutePath().getParent(), tarFile.getFileName().toString(), ".part");
+        try {
+            Files.copy(content, spoolFile, StandardCopyOption.REPLACE_EXISTING);
+            try (InputStream inputStream = Files.newInputStream(spoolFile)) {
+                return addEntry(name, lastModified, Files.size(spoolFile), inputStream);
+            }
+        } finally {
+            Files.deleteIfExists(spoolFile);
+        }
+    }
+
+    /**
+     * Returns the current position in the archive file. In compressed archives, the current frame is ended first,
+     * so that the position is the one of the next frame.
+     */
+    private long boundary() throws IOException {
+        if (zstdStream == null) {
+            return written;
+        }
+        zstdStream.endFrame();
+        fileStream.flush();
+        return channel.position();
+    }
+
+    /**
+     * Writes the header(s) of an entry.
+     *
+     * @return  The offset of the ustar header
+     */
+    private long writeHeader(String name, byte type, int mode, long size, long lastModified) throws IOException {
+        if (ustarName(name) == null) {
+            byte[] record = paxRecord("path", name);
+            outputStream.write(header("PaxHeaders/" + Math.abs(name.hashCode()), TYPE_PAX, 0644, record.length, lastModified));
+            written += BLOCK;
+            outputStream.write(record);
+            written += record.length;
+            pad();
+        }
+        long offset = written;
+        outputStream.write(header(name, type, mode, size, lastModified));
+        written += BLOCK;
+        return offset;
+    }
+
+    private void pad() throws IOException {
+        int padding = (int) ((BLOCK - written % BLOCK) % BLOCK);
+        if (padding > 0) {
+            outputStream.write(new byte[padding]);
+            written += padding;
+        }
+    }
+
+    private static byte[] header(String name, byte type, int mode, long size, long lastModified) {
+        byte[] header = new byte[BLOCK];
+        String[] parts = ustarName(name);
+        if (parts == null) {
+            // the full name is in the pax header
+            byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+            parts = new String[] { "", new String(Arrays.copyOfRange(bytes, Math.max(0, bytes.length - 100), bytes.length),
+                                                  StandardCharsets.ISO_8859_1) };
+            put(header, 0, parts[1].getBytes(StandardCharsets.ISO_8859_1), 100);
+        } else {
+            put(header, 0, parts[1].getBytes(StandardCharsets.UTF_8), 100);
+            put(header, 345, parts[0].getBytes(StandardCharsets.UTF_8), 155);
+        }
+        octal(header, 100, 8, mode);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, lastModified / 1000);
+        Arrays.fill(header, 148, 156, (byte) ' ');
+        header[156] = type;
+        put(header, 257, "ustar\0".getBytes(StandardCharsets.US_ASCII), 6);
+        put(header, 263, "00".getBytes(StandardCharsets.US_ASCII), 2);
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xFF;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * Splits the name into the ustar prefix and name fields.
+     *
+     * @return  The prefix and the name, or <code>null</code> if the name doesn't fit
+     */
+    private static String[] ustarName(String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length != name.length()) {
+            return null;
+        }
+        if (bytes.length <= 100) {
+            return new String[] { "", name };
+        }
+        int idx = name.indexOf('/', name.length() - 101);
+        while (idx > 0 && idx <= 155) {
+            if (name.length() - idx - 1 <= 100 && name.length() - idx - 1 > 0) {
+                return new String[] { name.substring(0, idx), name.substring(idx + 1) };
+            }
+            idx = name.indexOf('/', idx + 1);
+        }
+        return null;
+    }
+
+    private static byte[] paxRecord(String key, String value) {
+        byte[] content = (" " + key + "=" + value + "\n").getBytes(StandardCharsets.UTF_8);
+        int length = content.length;
+        int total = length + String.valueOf(length).length();
+        if (String.valueOf(total).length() != String.valueOf(length).length()) {
+            total++;
+        }
+        byte[] prefix = String.valueOf(total).getBytes(StandardCharsets.US_ASCII);
+        byte[] record = new byte[prefix.length + length];
+        System.arraycopy(prefix, 0, record, 0, prefix.length);
+        System.arraycopy(content, 0, record, prefix.length, length);
+        return record;
+    }
+
+    private static void put(byte[] header, int offset, byte[] value, int length) {
+        System.arraycopy(value, 0, header, offset, Math.min(value.length, length));
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        String text = Long.toOctalString(value);
+        int digits = length - 1;
+        for (int i = 0; i < digits; i++) {
+            int idx = text.length() - digits + i;
+            header[offset + i] = (byte) (idx >= 0 ? text.charAt(idx) : '0');
+        }
+        header[offset + digits] = 0;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import javax.json.Json;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Summary of request traces (written with --trace): percentiles of the request phases, per host and per file type.
+ *
+ * Run it with: <code>java -cp ProductDownload.jar ro.cs.products.util.TraceSummary &lt;trace file&gt;...</code>
+ *
+ * @author Cosmin Cara
+ */
+public class TraceSummary {
+    private static final String[] PHASES = { "dns", "connect", "tls", "wait", "transfer" };
+
+    private final Map<String, Group> hosts = new TreeMap<>();
+    private final Map<String, Group> types = new TreeMap<>();
+    private int invalid;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: TraceSummary <trace file>...");
+            System.exit(1);
+        }
+        TraceSummary summary = new TraceSummary();
+        for (String file : args) {
+            summary.read(Paths.get(file));
+        }
+        System.out.print(summary.format());
+    }
+
+    /**
+     * Adds the traces of the given file to the summary
+     */
+    public void read(Path file) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try (JsonReader jsonReader = Json.createReader(new StringReader(line))) {
+                    add(jsonReader.readObject());
+                } catch (JsonException | ClassCastException e) {
+                    invalid++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds a trace to the summary
+     */
+    public void add(JsonObject trace) {
+        hosts.computeIfAbsent(trace.getString("host", "unknown"), k -> new Group()).add(trace);
+        types.computeIfAbsent(trace.getString("type", "none"), k -> new Group()).add(trace);
+    }
+
+    /**
+     * Returns the tables of the summary: the number of requests, failed requests, transferred megabytes
+     * and reused connections, and the percentiles (in milliseconds) of the total time and the median of each phase.
+     */
+    public String format() {
+        StringBuilder builder = new StringBuilder();
+        formatTable(builder, "host", hosts);
+        builder.append('\n');
+        formatTable(builder, "type", types);
+        if (invalid > 0) {
+            builder.append(String.format("\n%d invalid lines skipped\n", invalid));
+        }
+        return builder.toString();
+    }
+
+    private static void formatTable(StringBuilder builder, String title, Map<String, Group> groups) {
+        int width = title.length();
+        for (String name : groups.keySet()) {
+            width = Math.max(width, name.length());
+        }
+        builder.append(String.format(Locale.ROOT, "%-" + width + "s %8s %6s %10s %6s %9s %9s %9s %9s", title,
+                                     "requests", "errors", "MB", "reused", "p50 ms", "p90 ms", "p99 ms", "max ms"));
+        for (String phase : PHASES) {
+            builder.append(String.format(Locale.ROOT, " %12s", phase + " p50"));
+        }
+        builder.append('\n');
+        for (Map.Entry<String, Group> entry : groups.entrySet()) {
+            Group group = entry.getValue();
+            builder.append(String.format(Locale.ROOT, "%-" + width + "s %8d %6d %10.1f %5.0f%% %9.1f %9.1f %9.1f %9.1f",
+                                         entry.getKey(), group.count, group.errors, group.bytes / 1048576.0,
+                                         group.secure > 0 ? 100.0 * group.reused / group.secure : 0.0,
+                                         millis(group.total.getPercentile(0.5)), millis(group.total.getPercentile(0.9)),
+                                         millis(group.total.getPercentile(0.99)), millis(group.total.getMax())));
+            for (Metrics.Histogram phase : group.phases) {
+                builder.append(String.format(Locale.ROOT, " %12.1f", millis(phase.getPercentile(0.5))));
+            }
+            builder.append('\n');
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /**
+     * Statistics of the requests of a host or of a file type
+     */
+    private static class Group {
+        private final Metrics.Histogram total = new Metrics.Histogram("total", new String[0]);
+        private final Metrics.Histogram[] phases = new Metrics.Histogram[PHASES.length];
+        private int count;
+        private int errors;
+        private long bytes;
+        private int secure;
+        private int reused;
+
+        Group() {
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new Metrics.Histogram(PHASES[i], new String[0]);
+            }
+        }
+
+        void add(JsonObject trace) {
+            count++;
+            if (trace.containsKey("error") || trace.getInt("status", 200) >= 400) {
+                errors++;
+            }
+            bytes += Math.max(longValue(trace, "bytes", 0), 0);
+            if (trace.containsKey("reused")) {
+                secure++;
+                if (trace.getBoolean("reused")) {
+                    reused++;
+                }
+            }
+            total.record(longValue(trace, "total", 0));
+            for (int i = 0; i < PHASES.length; i++) {
+                // phases that did not happen (a failed connection, a body read by the caller) are not counted
+                if (trace.containsKey(PHASES[i])) {
+                    phases[i].record(longValue(trace, PHASES[i], 0));
+                }
+            }
+        }
+
+        private static long longValue(JsonObject trace, String key, long defaultValue) {
+            JsonNumber value = trace.getJsonNumber(key);
+            return value != null ? value.longValue() : defaultValue;
+        }
+    }
+}
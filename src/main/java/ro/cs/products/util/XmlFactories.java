@@ -0,0 +1,44 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+
+/**
+ * The StAX factories shared by the metadata readers and writers.
+ * The factories look up their implementation when created, so they are created only once.
+ * The input factory does not resolve DTDs or external entities.
+ *
+ * @author Cosmin Cara
+ */
+public final class XmlFactories {
+    public static final XMLInputFactory INPUT;
+    public static final XMLOutputFactory OUTPUT = XMLOutputFactory.newInstance();
+    public static final XMLEventFactory EVENT = XMLEventFactory.newInstance();
+
+    static {
+        INPUT = XMLInputFactory.newInstance();
+        INPUT.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        INPUT.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+    }
+
+    private XmlFactories() { }
+}
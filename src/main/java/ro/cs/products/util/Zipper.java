@@ -24,47 +24,121 @@ import java.nio.file.FileVisitor;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Locale;
+import java.util.Set;
 import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
 
 /**
- * Simple utility class for zipping downloaded products
+ * Simple utility class for archiving downloaded products.
+ * Files are read through fixed buffers, so the memory used doesn't depend on their size.
+ * In zip archives, only text files (metadata, schemas, reports) are deflated, on several threads
+ * (see {@link ParallelZipWriter}): rasters are already compressed (JPEG2000, LZW, PNG) and are stored as they are.
+ * The same goes for tar archives compressed with Zstandard (see {@link ZstdOutputStream}).
  *
  * @author Cosmin Cara
  */
 public class Zipper {
+    private static final Set<String> compressibleExtensions = new HashSet<>(
+            Arrays.asList("xml", "gml", "txt", "safe", "xsd", "xsl", "html", "htm", "json", "log", "csv"));
 
-    public static void compress(Path sourceFolder, String archiveName, boolean deleteFolder) throws IOException {
-        Path zipFile = sourceFolder.getParent().resolve(archiveName + ".zip");
-        Files.deleteIfExists(zipFile);
-        zipFile = Files.createFile(zipFile);
-        try (ZipOutputStream outputStream = new ZipOutputStream(Files.newOutputStream(zipFile))) {
-            try (Stream<Path> files = Files.walk(sourceFolder)) {
-                Iterator<Path> pathIterator = files.iterator();
-                while (pathIterator.hasNext()) {
-                    Path path = pathIterator.next();
-                    String sp = sourceFolder.relativize(path).toString();
-                    try {
-                        ZipEntry entry = new ZipEntry(sp);
-                        outputStream.putNextEntry(entry);
-                        if (!Files.isDirectory(path)) {
-                            outputStream.write(Files.readAllBytes(path));
-                        }
-                        outputStream.closeEntry();
-                    } catch (Exception e) {
-                        System.out.println(e.getMessage());
-                    }
-                }
-            }
+    public static Path compress(Path sourceFolder, String archiveName, boolean deleteFolder) throws IOException {
+        return compress(sourceFolder, archiveName, deleteFolder, Runtime.getRuntime().availableProcessors());
+    }
+
+    public static Path compress(Path sourceFolder, String archiveName, boolean deleteFolder, int threads) throws IOException {
+        return compress(sourceFolder, archiveName, deleteFolder, threads, OutputFormat.ZIP);
+    }
+
+    /**
+     * Compresses the given folder into an archive next to it.
+     *
+     * @param sourceFolder  The folder to compress
+     * @param archiveName   The name of the archive (without extension)
+     * @param deleteFolder  If <code>true</code>, the folder is deleted after the archive has been written
+     * @param threads       The number of threads deflating the entries (for zip archives)
+     * @param format        The format of the archive
+     * @return  The archive file
+     */
+    public static Path compress(Path sourceFolder, String archiveName, boolean deleteFolder, int threads,
+                                OutputFormat format) throws IOException {
+        Path archiveFile = sourceFolder.getParent().resolve(archiveName + "." + format.getExtension());
+        Files.deleteIfExists(archiveFile);
+        try (OutputSink writer = createSink(archiveFile, format, threads)) {
+            addFolder(writer, sourceFolder);
+            writer.finish();
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archiveFile);
+            throw e;
         }
         if (deleteFolder) {
             delete(sourceFolder);
         }
+        return archiveFile;
+    }
+
+    /**
+     * Creates the sink writing a new archive.
+     *
+     * @param archiveFile   The archive file (overwritten if it exists)
+     * @param format        The format of the archive (not {@link OutputFormat#DIRECTORY})
+     * @param threads       The number of threads deflating the entries (for zip archives)
+     */
+    public static OutputSink createSink(Path archiveFile, OutputFormat format, int threads) throws IOException {
+        switch (format) {
+            case ZIP:
+                return new ParallelZipWriter(archiveFile, threads);
+            case TAR:
+                return new TarWriter(archiveFile, false);
+            case TAR_ZST:
+                return new TarWriter(archiveFile, true);
+            default:
+                throw new IllegalArgumentException(String.format("%s is not an archive format", format));
+        }
+    }
+
+    /**
+     * Adds the contents of the given folder (but not the folder itself) to an archive.
+     */
+    public static void addFolder(OutputSink writer, Path sourceFolder) throws IOException {
+        try (Stream<Path> files = Files.walk(sourceFolder)) {
+            Iterator<Path> pathIterator = files.iterator();
+            while (pathIterator.hasNext()) {
+                Path path = pathIterator.next();
+                if (path.equals(sourceFolder)) {
+                    continue;
+                }
+                String sp = sourceFolder.relativize(path).toString().replace('\\', '/');
+                if (Files.isDirectory(path)) {
+                    writer.addDirectory(sp + "/", Files.getLastModifiedTime(path).toMillis());
+                } else {
+                    writer.addFile(path, sp);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks if the given file is worth deflating, judging by its extension.
+     */
+    public static boolean isCompressible(Path file) {
+        return isCompressible(file.getFileName().toString());
+    }
+
+    /**
+     * Checks if the file (or archive entry) with the given name is worth deflating, judging by its extension.
+     */
+    public static boolean isCompressible(String name) {
+        int idx = name.lastIndexOf('.');
+        return idx > 0 && compressibleExtensions.contains(name.substring(idx + 1).toLowerCase(Locale.ROOT));
     }
 
-    private static boolean delete(Path path) {
+    /**
+     * Deletes the given file or folder (with all its contents).
+     */
+    public static boolean delete(Path path) {
         if (!Files.exists(path)) {
             return false;
         }
@@ -0,0 +1,555 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package ro.cs.products.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream writing Zstandard (RFC 8878) frames, in pure Java.
+ * Data is cut in blocks of 128KB. When compressing, the matches found within a block (greedy search on a hash of
+ * 4 bytes) are encoded as sequences with the predefined FSE tables and the literals are stored raw; a block which
+ * doesn't get smaller this way, or written while not compressing, is stored raw. The ratio is lower than the one of
+ * the reference implementation (no entropy coding of literals), but the frames can be read by any decoder.
+ *
+ * The stream is a sequence of independent frames: {@link #endFrame()} ends the current frame, so that the next
+ * byte starts a new frame that can be decompressed on its own.
+ *
+ * @author Cosmin Cara
+ */
+class ZstdOutputStream extends FilterOutputStream {
+    static final int BLOCK_SIZE = 1 << 17;
+    private static final int MAGIC = 0xFD2FB528;
+    /* no content size, no dictionary, content checksum */
+    private static final int FRAME_HEADER_DESCRIPTOR = 0x04;
+    /* window of 2^17 bytes: matches never cross blocks */
+    private static final int WINDOW_DESCRIPTOR = (17 - 10) << 3;
+    private static final int BLOCK_RAW = 0;
+    private static final int BLOCK_COMPRESSED = 2;
+    private static final int MIN_MATCH = 4;
+    private static final int HASH_LOG = 15;
+
+    private static final int[] LL_BASE = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 18, 20, 22, 24, 28, 32,
+            40, 48, 64, 128, 256, 512, 1024, 2048, 4096, 8192, 16384, 32768, 65536 };
+    private static final int[] LL_BITS = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3, 4, 6, 7, 8,
+            9, 10, 11, 12, 13, 14, 15, 16 };
+    private static final int[] ML_BASE = { 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25,
+            26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 37, 39, 41, 43, 47, 51, 59, 67, 83, 99, 131, 259, 515, 1027, 2051,
+            4099, 8195, 16387, 32771, 65539 };
+    private static final int[] ML_BITS = { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
+            0, 0, 0, 1, 1, 1, 1, 2, 2, 3, 3, 4, 4, 5, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16 };
+    private static final FseTable LL_TABLE = new FseTable(new short[] { 4, 3, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 2, 1, 1, 1, 2, 2,
+            2, 2, 2, 2, 2, 2, 2, 3, 2, 1, 1, 1, 1, 1, -1, -1, -1, -1 }, 6);
+    private static final FseTable ML_TABLE = new FseTable(new short[] { 1, 4, 3, 2, 2, 2, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1, -1, -1 }, 6);
+    private static final FseTable OF_TABLE = new FseTable(new short[] { 1, 1, 1, 1, 1, 1, 2, 2, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, -1, -1, -1, -1, -1 }, 5);
+    private static final byte[] LL_CODES = codes(LL_BASE, 64);
+    private static final byte[] ML_CODES = codes(ML_BASE, 128 + 3);
+
+    private final byte[] block;
+    private final byte[] compressed;
+    private final int[] hashTable;
+    private final byte[] literals;
+    private final int[] literalLengths;
+    private final int[] matchLengths;
+    private final int[] offsets;
+    private final Xxh64 checksum;
+    private int length;
+    private boolean headerWritten;
+    private boolean frameStarted;
+    private boolean compressing;
+
+    ZstdOutputStream(OutputStream out) {
+        super(out);
+        this.block = new byte[BLOCK_SIZE];
+        this.compressed = new byte[BLOCK_SIZE + 64];
+        this.hashTable = new int[1 << HASH_LOG];
+        this.literals = new byte[BLOCK_SIZE];
+        this.literalLengths = new int[BLOCK_SIZE / MIN_MATCH + 1];
+        this.matchLengths = new int[BLOCK_SIZE / MIN_MATCH + 1];
+        this.offsets = new int[BLOCK_SIZE / MIN_MATCH + 1];
+        this.checksum = new Xxh64();
+        this.compressing = true;
+    }
+
+    /**
+     * Sets whether the following blocks are compressed or stored.
+     * Data known to be incompressible (such as JPEG2000 rasters) is better stored, without searching it for matches.
+     */
+    void setCompressing(boolean compressing) {
+        this.compressing = compressing;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (length == BLOCK_SIZE) {
+                // a full block is written only when more data follows, the last block of a frame being flagged
+                writeBlock(false);
+            }
+            int count = Math.min(len, BLOCK_SIZE - length);
+            System.arraycopy(b, off, block, length, count);
+            length += count;
+            off += count;
+            len -= count;
+            frameStarted = true;
+        }
+    }
+
+    /**
+     * Ends the current frame, if any data was written since the previous one.
+     */
+    void endFrame() throws IOException {
+        if (frameStarted) {
+            writeBlock(true);
+            long hash = checksum.digest();
+            writeLE((int) hash, 4);
+            checksum.reset();
+            frameStarted = false;
+        }
+    }
+
+    /**
+     * Discards the data of the current frame not yet written (at most a block); the data written next starts a new frame.
+     * The header and the earlier blocks of the current frame may already be in the underlying stream: the caller
+     * must truncate the output to the position where the frame started (the end of the previous frame),
+     * otherwise the output is left with an unterminated frame.
+     */
+    void discardFrame() {
+        length = 0;
+        frameStarted = false;
+        headerWritten = false;
+        checksum.reset();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            endFrame();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeBlock(boolean last) throws IOException {
+        if (!headerWritten) {
+            writeLE(MAGIC, 4);
+            out.write(FRAME_HEADER_DESCRIPTOR);
+            out.write(WINDOW_DESCRIPTOR);
+            headerWritten = true;
+        }
+        checksum.update(block, 0, length);
+        int size = compressing && length > 0 ? compressBlock() : -1;
+        if (size > 0 && size < length) {
+            writeLE((size << 3) | (BLOCK_COMPRESSED << 1) | (last ? 1 : 0), 3);
+            out.write(compressed, 0, size);
+        } else {
+            writeLE((length << 3) | (BLOCK_RAW << 1) | (last ? 1 : 0), 3);
+            out.write(block, 0, length);
+        }
+        length = 0;
+        if (last) {
+            headerWritten = false;
+        }
+    }
+
+    /**
+     * Compresses the current block into {@link #compressed}.
+     *
+     * @return  The size of the compressed block, or -1 if it wouldn't be smaller than the block
+     */
+    private int compressBlock() {
+        int sequences = 0;
+        int literalCount = 0;
+        int anchor = 0;
+        int position = 0;
+        Arrays.fill(hashTable, -1);
+        int limit = length - MIN_MATCH;
+        while (position <= limit) {
+            int value = readInt(block, position);
+            int hash = (value * 0x9E3779B1) >>> (32 - HASH_LOG);
+            int reference = hashTable[hash];
+            hashTable[hash] = position;
+            if (reference < 0 || readInt(block, reference) != value) {
+                // skip faster through data without matches
+                position += 1 + ((position - anchor) >> 7);
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < length && block[reference + matchLength] == block[position + matchLength]) {
+                matchLength++;
+            }
+            while (position > anchor && reference > 0 && block[position - 1] == block[reference - 1]) {
+                position--;
+                reference--;
+                matchLength++;
+            }
+            int literalLength = position - anchor;
+            System.arraycopy(block, anchor, literals, literalCount, literalLength);
+            literalCount += literalLength;
+            literalLengths[sequences] = literalLength;
+            matchLengths[sequences] = matchLength;
+            offsets[sequences] = position - reference;
+            sequences++;
+            position += matchLength;
+            anchor = position;
+            if (position - 2 <= limit) {
+                hashTable[(readInt(block, position - 2) * 0x9E3779B1) >>> (32 - HASH_LOG)] = position - 2;
+            }
+        }
+        int lastLiterals = length - anchor;
+        System.arraycopy(block, anchor, literals, literalCount, lastLiterals);
+        literalCount += lastLiterals;
+        // the literals alone would make the block larger
+        if (sequences == 0 || literalCount + 8 >= length) {
+            return -1;
+        }
+        int size = 0;
+        if (literalCount < 32) {
+            compressed[size++] = (byte) (literalCount << 3);
+        } else if (literalCount < 4096) {
+            compressed[size++] = (byte) ((1 << 2) | ((literalCount & 0xF) << 4));
+            compressed[size++] = (byte) (literalCount >>> 4);
+        } else {
+            compressed[size++] = (byte) ((3 << 2) | ((literalCount & 0xF) << 4));
+            compressed[size++] = (byte) (literalCount >>> 4);
+            compressed[size++] = (byte) (literalCount >>> 12);
+        }
+        System.arraycopy(literals, 0, compressed, size, literalCount);
+        size += literalCount;
+        if (sequences < 128) {
+            compressed[size++] = (byte) sequences;
+        } else if (sequences < 0x7F00) {
+            compressed[size++] = (byte) ((sequences >>> 8) + 128);
+            compressed[size++] = (byte) sequences;
+        } else {
+            compressed[size++] = (byte) 255;
+            compressed[size++] = (byte) (sequences - 0x7F00);
+            compressed[size++] = (byte) ((sequences - 0x7F00) >>> 8);
+        }
+        // predefined tables for the three symbol types
+        compressed[size++] = 0;
+        BitWriter bits = new BitWriter(compressed, size);
+        int last = sequences - 1;
+        int llCode = literalLengthCode(literalLengths[last]);
+        int mlCode = matchLengthCode(matchLengths[last]);
+        int ofCode = offsetCode(offsets[last]);
+        int mlState = ML_TABLE.initialState(mlCode);
+        int ofState = OF_TABLE.initialState(ofCode);
+        int llState = LL_TABLE.initialState(llCode);
+        addExtraBits(bits, last, llCode, mlCode, ofCode);
+        for (int n = sequences - 2; n >= 0; n--) {
+            llCode = literalLengthCode(literalLengths[n]);
+            mlCode = matchLengthCode(matchLengths[n]);
+            ofCode = offsetCode(offsets[n]);
+            ofState = OF_TABLE.encode(bits, ofState, ofCode);
+            mlState = ML_TABLE.encode(bits, mlState, mlCode);
+            llState = LL_TABLE.encode(bits, llState, llCode);
+            addExtraBits(bits, n, llCode, mlCode, ofCode);
+            if (bits.position > compressed.length - 16) {
+                return -1;
+            }
+        }
+        bits.add(mlState, ML_TABLE.tableLog);
+        bits.add(ofState, OF_TABLE.tableLog);
+        bits.add(llState, LL_TABLE.tableLog);
+        bits.add(1, 1);
+        size = bits.close();
+        return size < length ? size : -1;
+    }
+
+    private void addExtraBits(BitWriter bits, int n, int llCode, int mlCode, int ofCode) {
+        bits.add(literalLengths[n] - LL_BASE[llCode], LL_BITS[llCode]);
+        bits.add(matchLengths[n] - ML_BASE[mlCode], ML_BITS[mlCode]);
+        // offsets are always written as actual offsets (value + 3), never as repeated ones
+        bits.add(offsets[n] + 3 - (1 << ofCode), ofCode);
+    }
+
+    private static int literalLengthCode(int literalLength) {
+        return literalLength < 64 ? LL_CODES[literalLength] : highBit(literalLength) + 19;
+    }
+
+    private static int matchLengthCode(int matchLength) {
+        return matchLength < 128 + 3 ? ML_CODES[matchLength] : highBit(matchLength - 3) + 36;
+    }
+
+    private static int offsetCode(int offset) {
+        return highBit(offset + 3);
+    }
+
+    private static int highBit(int value) {
+        return 31 - Integer.numberOfLeadingZeros(value);
+    }
+
+    /**
+     * Tabulates the code of the small values, from the base values of the codes.
+     */
+    private static byte[] codes(int[] bases, int count) {
+        byte[] codes = new byte[count];
+        int code = 0;
+        for (int value = bases[0]; value < count; value++) {
+            while (code + 1 < bases.length && bases[code + 1] <= value) {
+                code++;
+            }
+            codes[value] = (byte) code;
+        }
+        return codes;
+    }
+
+    private static int readInt(byte[] data, int offset) {
+        return (data[offset] & 0xFF) | (data[offset + 1] & 0xFF) << 8 | (data[offset + 2] & 0xFF) << 16 |
+                (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private void writeLE(int value, int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            out.write(value >>> (8 * i));
+        }
+    }
+
+    /**
+     * Forward bit stream (read backwards by decoders), bits being added from the least significant.
+     */
+    private static class BitWriter {
+        private final byte[] buffer;
+        private int position;
+        private long container;
+        private int count;
+
+        BitWriter(byte[] buffer, int position) {
+            this.buffer = buffer;
+            this.position = position;
+        }
+
+        void add(long value, int bits) {
+            container |= (value & ((1L << bits) - 1)) << count;
+            count += bits;
+            while (count >= 8) {
+                buffer[position++] = (byte) container;
+                container >>>= 8;
+                count -= 8;
+            }
+        }
+
+        /**
+         * Writes the bits left and returns the position after the stream.
+         */
+        int close() {
+            if (count > 0) {
+                buffer[position++] = (byte) container;
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Finite State Entropy encoding table built from a normalized distribution, as the reference implementation does.
+     */
+    private static class FseTable {
+        private final int tableLog;
+        private final int[] states;
+        private final int[] deltaNbBits;
+        private final int[] deltaFindState;
+
+        FseTable(short[] distribution, int tableLog) {
+            this.tableLog = tableLog;
+            int tableSize = 1 << tableLog;
+            int mask = tableSize - 1;
+            int step = (tableSize >>> 1) + (tableSize >>> 3) + 3;
+            int symbols = distribution.length;
+            int[] cumulated = new int[symbols + 1];
+            int[] tableSymbols = new int[tableSize];
+            int highThreshold = tableSize - 1;
+            for (int s = 0; s < symbols; s++) {
+                if (distribution[s] == -1) {
+                    cumulated[s + 1] = cumulated[s] + 1;
+                    tableSymbols[highThreshold--] = s;
+                } else {
+                    cumulated[s + 1] = cumulated[s] + distribution[s];
+                }
+            }
+            int position = 0;
+            for (int s = 0; s < symbols; s++) {
+                for (int i = 0; i < distribution[s]; i++) {
+                    tableSymbols[position] = s;
+                    do {
+                        position = (position + step) & mask;
+                    } while (position > highThreshold);
+                }
+            }
+            this.states = new int[tableSize];
+            for (int u = 0; u < tableSize; u++) {
+                states[cumulated[tableSymbols[u]]++] = tableSize + u;
+            }
+            this.deltaNbBits = new int[symbols];
+            this.deltaFindState = new int[symbols];
+            int total = 0;
+            for (int s = 0; s < symbols; s++) {
+                int count = distribution[s];
+                if (count == 0) {
+                    deltaNbBits[s] = ((tableLog + 1) << 16) - tableSize;
+                } else if (count == -1 || count == 1) {
+                    deltaNbBits[s] = (tableLog << 16) - tableSize;
+                    deltaFindState[s] = total - 1;
+                    total++;
+                } else {
+                    int maxBitsOut = tableLog - highBit(count - 1);
+                    deltaNbBits[s] = (maxBitsOut << 16) - (count << maxBitsOut);
+                    deltaFindState[s] = total - count;
+                    total += count;
+                }
+            }
+        }
+
+        /**
+         * Returns the state after encoding the first symbol (the last one to be decoded), which outputs no bits.
+         */
+        int initialState(int symbol) {
+            int bits = (deltaNbBits[symbol] + (1 << 15)) >>> 16;
+            int value = (bits << 16) - deltaNbBits[symbol];
+            return states[(value >>> bits) + deltaFindState[symbol]];
+        }
+
+        int encode(BitWriter writer, int state, int symbol) {
+            int bits = (state + deltaNbBits[symbol]) >>> 16;
+            writer.add(state, bits);
+            return states[(state >>> bits) + deltaFindState[symbol]];
+        }
+    }
+
+    /**
+     * XXH64 hash (seed 0), used for the content checksum of frames.
+     */
+    private static class Xxh64 {
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        private final byte[] pending = new byte[32];
+        private int pendingLength;
+        private long v1, v2, v3, v4;
+        private long total;
+
+        Xxh64() {
+            reset();
+        }
+
+        void reset() {
+            v1 = P1 + P2;
+            v2 = P2;
+            v3 = 0;
+            v4 = -P1;
+            total = 0;
+            pendingLength = 0;
+        }
+
+        void update(byte[] data, int offset, int length) {
+            total += length;
+            if (pendingLength > 0) {
+                int count = Math.min(length, 32 - pendingLength);
+                System.arraycopy(data, offset, pending, pendingLength, count);
+                pendingLength += count;
+                offset += count;
+                length -= count;
+                if (pendingLength < 32) {
+                    return;
+                }
+                stripe(pending, 0);
+                pendingLength = 0;
+            }
+            while (length >= 32) {
+                stripe(data, offset);
+                offset += 32;
+                length -= 32;
+            }
+            System.arraycopy(data, offset, pending, 0, length);
+            pendingLength = length;
+        }
+
+        long digest() {
+            long hash;
+            if (total >= 32) {
+                hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                hash = merge(hash, v1);
+                hash = merge(hash, v2);
+                hash = merge(hash, v3);
+                hash = merge(hash, v4);
+            } else {
+                hash = P5;
+            }
+            hash += total;
+            int offset = 0;
+            while (offset + 8 <= pendingLength) {
+                hash ^= round(0, readLong(pending, offset));
+                hash = Long.rotateLeft(hash, 27) * P1 + P4;
+                offset += 8;
+            }
+            if (offset + 4 <= pendingLength) {
+                hash ^= (readInt(pending, offset) & 0xFFFFFFFFL) * P1;
+                hash = Long.rotateLeft(hash, 23) * P2 + P3;
+                offset += 4;
+            }
+            while (offset < pendingLength) {
+                hash ^= (pending[offset] & 0xFF) * P5;
+                hash = Long.rotateLeft(hash, 11) * P1;
+                offset++;
+            }
+            hash ^= hash >>> 33;
+            hash *= P2;
+            hash ^= hash >>> 29;
+            hash *= P3;
+            hash ^= hash >>> 32;
+            return hash;
+        }
+
+        private void stripe(byte[] data, int offset) {
+            v1 = round(v1, readLong(data, offset));
+            v2 = round(v2, readLong(data, offset + 8));
+            v3 = round(v3, readLong(data, offset + 16));
+            v4 = round(v4, readLong(data, offset + 24));
+        }
+
+        private static long round(long accumulator, long input) {
+            return Long.rotateLeft(accumulator + input * P2, 31) * P1;
+        }
+
+        private static long merge(long hash, long value) {
+            return (hash ^ round(0, value)) * P1 + P4;
+        }
+
+        private static long readLong(byte[] data, int offset) {
+            return (readInt(data, offset) & 0xFFFFFFFFL) | ((long) readInt(data, offset + 4) << 32);
+        }
+    }
+}
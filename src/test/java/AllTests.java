@@ -6,7 +6,7 @@ import org.junit.runners.Suite.SuiteClasses;
  * @author Cosmin Cara
  */
 @RunWith(Suite.class)
-@SuiteClasses({SearchTests.class, DownloadTests.class})
+@SuiteClasses({GeometryTests.class, DescriptorTests.class, CatalogTests.class, AnglesTests.class, ArchiveTests.class, TiffTests.class, CopyTests.class, LoggerTests.class, MetricsTests.class, SearchTests.class, DownloadTests.class, EndToEndTests.class, DaemonTests.class})
 public class AllTests {
 
 }
@@ -0,0 +1,281 @@
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import ro.cs.products.sentinel2.angles.FillAnglesMethod;
+import ro.cs.products.sentinel2.angles.MetadataRepairer;
+import ro.cs.products.sentinel2.angles.ProductInspector;
+import ro.cs.products.sentinel2.angles.RepairManifest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * @author Cosmin Cara
+ */
+public class AnglesTests {
+    private static final int BANDS = 13;
+    private static final int DETECTORS = 3;
+
+    private Path folder;
+
+    @Before
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("angles");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Builds a minimal tile metadata document, having the grids for DETECTORS detectors of each band,
+     * except for the given band and detector.
+     */
+    private static List<String> tileMetadata(int missingBand, int missingDetector) {
+        List<String> lines = new ArrayList<>();
+        lines.add("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        lines.add("<n1:Level-1C_Tile_ID xmlns:n1=\"https://psd-12.sentinel2.eo.esa.int/PSD/S2_PDI_Level-1C_Tile_Metadata.xsd\">");
+        lines.add("  <n1:Geometric_Info>");
+        lines.add("    <Tile_Angles>");
+        lines.add("      <Sun_Angles_Grid>");
+        lines.add("        <Zenith><COL_STEP unit=\"m\">5000</COL_STEP></Zenith>");
+        lines.add("      </Sun_Angles_Grid>");
+        for (int band = 0; band < BANDS; band++) {
+            for (int detector = 1; detector <= DETECTORS; detector++) {
+                if (band == missingBand && detector == missingDetector) {
+                    continue;
+                }
+                lines.add("      <Viewing_Incidence_Angles_Grids bandId=\"" + band + "\" detectorId=\"" + detector + "\">");
+                for (String angle : new String[] { "Zenith", "Azimuth" }) {
+                    lines.add("        <" + angle + ">");
+                    lines.add("          <COL_STEP unit=\"m\">5000</COL_STEP>");
+                    lines.add("          <ROW_STEP unit=\"m\">5000</ROW_STEP>");
+                    lines.add("          <Values_List>");
+                    for (int row = 0; row < 23; row++) {
+                        StringBuilder values = new StringBuilder("            <VALUES>");
+                        for (int col = 0; col < 23; col++) {
+                            if (col > 0) {
+                                values.append(" ");
+                            }
+                            boolean covered = col >= (detector - 1) * 7 && col < detector * 7 + 2;
+                            values.append(covered ? String.valueOf(("Zenith".equals(angle) ? 5 : 100) + detector + row * 0.01) : "NaN");
+                        }
+                        lines.add(values.append("</VALUES>").toString());
+                    }
+                    lines.add("          </Values_List>");
+                    lines.add("        </" + angle + ">");
+                }
+                lines.add("      </Viewing_Incidence_Angles_Grids>");
+            }
+        }
+        lines.add("      <Mean_Sun_Angle>");
+        lines.add("        <ZENITH_ANGLE unit=\"deg\">30.5</ZENITH_ANGLE>");
+        lines.add("      </Mean_Sun_Angle>");
+        lines.add("      <Mean_Viewing_Incidence_Angle_List>");
+        for (int band = 0; band < BANDS; band++) {
+            lines.add("        <Mean_Viewing_Incidence_Angle bandId=\"" + band + "\">");
+            lines.add("          <ZENITH_ANGLE unit=\"deg\">6.5</ZENITH_ANGLE>");
+            lines.add("          <AZIMUTH_ANGLE unit=\"deg\">101.5</AZIMUTH_ANGLE>");
+            lines.add("        </Mean_Viewing_Incidence_Angle>");
+        }
+        lines.add("      </Mean_Viewing_Incidence_Angle_List>");
+        lines.add("    </Tile_Angles>");
+        lines.add("  </n1:Geometric_Info>");
+        lines.add("  <n1:Quality_Indicators_Info>");
+        lines.add("    <Pixel_Level_QI>");
+        lines.add("      <MASK_FILENAME type=\"MSK_CLOUDS\">GRANULE/QI_DATA/MSK_CLOUDS_B00.gml</MASK_FILENAME>");
+        lines.add("    </Pixel_Level_QI>");
+        lines.add("  </n1:Quality_Indicators_Info>");
+        lines.add("</n1:Level-1C_Tile_ID>");
+        return lines;
+    }
+
+    private static int count(List<String> lines, String text) {
+        int count = 0;
+        for (String line : lines) {
+            if (line.contains(text)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void noRepairTest() throws IOException {
+        Path file = folder.resolve("MTD_TL.xml");
+        List<String> lines = tileMetadata(4, 2);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        long modified = Files.getLastModifiedTime(file).toMillis();
+        List<String> result = MetadataRepairer.parse(file, FillAnglesMethod.NONE);
+        Assert.assertEquals(lines, result);
+        Assert.assertEquals(modified, Files.getLastModifiedTime(file).toMillis());
+        Assert.assertFalse(Files.exists(folder.resolve("MTD_TL.xml.bkp")));
+        try (Stream<Path> files = Files.list(folder)) {
+            Assert.assertEquals(1, files.count());
+        }
+    }
+
+    @Test
+    public void repairInPlaceTest() throws IOException {
+        Path file = folder.resolve("MTD_TL.xml");
+        List<String> lines = tileMetadata(4, 2);
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        List<String> result = MetadataRepairer.parse(file, FillAnglesMethod.INTERPOLATE);
+        List<String> written = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Assert.assertEquals(written, result);
+        Assert.assertEquals(lines, Files.readAllLines(folder.resolve("MTD_TL.xml.bkp"), StandardCharsets.UTF_8));
+        int grids = count(written, "<Viewing_Incidence_Angles_Grids");
+        Assert.assertTrue(grids > count(lines, "<Viewing_Incidence_Angles_Grids"));
+        Assert.assertEquals(1, count(written, "<Viewing_Incidence_Angles_Grids bandId=\"4\" detectorId=\"2\""));
+        Assert.assertTrue(count(written, "<Mean_Viewing_Incidence_Angle ") >= BANDS);
+        // the rest of the document is preserved
+        Assert.assertEquals(1, count(written, "MSK_CLOUDS_B00.gml"));
+        Assert.assertEquals(1, count(written, "<Mean_Sun_Angle>"));
+        try (Stream<Path> files = Files.list(folder)) {
+            Assert.assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void repairToOtherFileTest() throws IOException {
+        Path source = folder.resolve("MTD_TL.orig");
+        Path target = folder.resolve("MTD_TL.xml");
+        List<String> lines = tileMetadata(7, 3);
+        Files.write(source, lines, StandardCharsets.UTF_8);
+        MetadataRepairer.parse(source, target, FillAnglesMethod.NAN);
+        Assert.assertEquals(lines, Files.readAllLines(source, StandardCharsets.UTF_8));
+        List<String> written = Files.readAllLines(target, StandardCharsets.UTF_8);
+        Assert.assertTrue(written.get(0).startsWith("<?xml") && written.get(0).endsWith("?>"));
+        Assert.assertEquals(1, count(written, "<Viewing_Incidence_Angles_Grids bandId=\"7\" detectorId=\"3\""));
+        Assert.assertFalse(Files.exists(folder.resolve("MTD_TL.orig.bkp")));
+    }
+
+    @Test
+    public void repairStreamTest() throws IOException {
+        List<String> lines = tileMetadata(2, 3);
+        byte[] content = (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+        Path file = folder.resolve("MTD_TL.xml");
+        // without a fill method, the metadata is written as it is
+        List<String> result = MetadataRepairer.repair(new ByteArrayInputStream(content), file, FillAnglesMethod.NONE, false);
+        Assert.assertEquals(lines, result);
+        Assert.assertArrayEquals(content, Files.readAllBytes(file));
+        Files.delete(file);
+
+        result = MetadataRepairer.repair(new ByteArrayInputStream(content), file, FillAnglesMethod.INTERPOLATE, false);
+        Assert.assertEquals(Files.readAllLines(file, StandardCharsets.UTF_8), result);
+        Assert.assertEquals(1, count(result, "<Viewing_Incidence_Angles_Grids bandId=\"2\" detectorId=\"3\""));
+        Assert.assertFalse(Files.exists(folder.resolve("MTD_TL.xml.bkp")));
+
+        MetadataRepairer.repair(new ByteArrayInputStream(content), file, FillAnglesMethod.INTERPOLATE, true);
+        Assert.assertArrayEquals(content, Files.readAllBytes(folder.resolve("MTD_TL.xml.bkp")));
+        try (Stream<Path> files = Files.list(folder)) {
+            Assert.assertEquals(2, files.count());
+        }
+    }
+
+    @Test
+    public void inspectorTest() throws IOException {
+        String[] products = { "S2A_OPER_PRD_MSIL1C_PDMC_20160101T000000_R001_V20160101T000000_20160101T000000.SAFE",
+                              "S2A_OPER_PRD_MSIL1C_PDMC_20160102T000000_R002_V20160102T000000_20160102T000000.SAFE" };
+        List<String> lines = tileMetadata(4, 2);
+        for (String product : products) {
+            for (int tile = 0; tile < 3; tile++) {
+                String granule = "S2A_OPER_MSI_L1C_TL_SGS__20160101T000000_A000001_T35TN" + tile + "_N02.01";
+                Path folder = Files.createDirectories(this.folder.resolve(product).resolve("GRANULE").resolve(granule));
+                Files.write(folder.resolve(granule.replace("MSI_L1C", "MTD_L1C") + ".xml"), lines, StandardCharsets.UTF_8);
+            }
+        }
+        // a broken tile
+        Path broken = this.folder.resolve(products[1]).resolve("GRANULE").resolve("S2A_OPER_MSI_L1C_TL_SGS__20160101T000000_A000001_T35TNX_N02.01");
+        Files.createDirectories(broken);
+        Files.write(broken.resolve("S2A_OPER_MTD_L1C_TL_SGS__20160101T000000_A000001_T35TNX.xml"),
+                    Collections.singletonList("<Level-1C_Tile_ID><Tile_Angles>"), StandardCharsets.UTF_8);
+        // not part of the selected products
+        Path other = this.folder.resolve("S2A_OTHER.SAFE").resolve("GRANULE").resolve("G");
+        Files.createDirectories(other);
+        Files.write(other.resolve("S2A_OPER_MTD_L1C_TL_OTHER.xml"), lines, StandardCharsets.UTF_8);
+
+        ProductInspector inspector = new ProductInspector(folder.toString(), FillAnglesMethod.INTERPOLATE,
+                                                          new HashSet<>(Arrays.asList(products)));
+        inspector.setParallelism(2);
+        List<Double> progress = Collections.synchronizedList(new ArrayList<>());
+        inspector.setProgressListener(progress::add);
+        ProductInspector.Summary summary = inspector.traverse();
+        Assert.assertEquals(6, summary.getRepaired());
+        Assert.assertEquals(0, summary.getSkipped());
+        Assert.assertEquals(1, summary.getFailed());
+        Assert.assertEquals(1, summary.getFailedTiles().size());
+        Assert.assertEquals(2, progress.size());
+        Assert.assertTrue(progress.contains(1.0));
+        Assert.assertFalse(Files.exists(other.resolve("S2A_OPER_MTD_L1C_TL_OTHER.xml.bkp")));
+
+        // the second pass skips the tiles recorded in the manifest
+        summary = inspector.traverse();
+        Assert.assertEquals(0, summary.getRepaired());
+        Assert.assertEquals(6, summary.getSkipped());
+        Assert.assertEquals(1, summary.getFailed());
+    }
+
+    @Test
+    public void manifestTest() throws IOException {
+        String product = "S2A_MSIL1C_20170105T093402_N0204_R136_T34TFQ_20170105T093406.SAFE";
+        List<Path> files = new ArrayList<>();
+        for (int tile = 0; tile < 3; tile++) {
+            Path granule = Files.createDirectories(folder.resolve(product).resolve("GRANULE").resolve("L1C_T34TF" + tile + "_A008069_20170105T093406"));
+            Path file = granule.resolve("MTD_TL.xml");
+            Files.write(file, tileMetadata(tile, 1), StandardCharsets.UTF_8);
+            files.add(file);
+        }
+        ProductInspector inspector = new ProductInspector(folder.toString(), FillAnglesMethod.NAN, null);
+        ProductInspector.Summary summary = inspector.traverse();
+        Assert.assertEquals(3, summary.getRepaired());
+        RepairManifest manifest = new RepairManifest(folder);
+        Assert.assertEquals(3, manifest.size());
+        RepairManifest.Entry entry = manifest.get(files.get(0));
+        Assert.assertEquals(product + "/GRANULE/L1C_T34TF0_A008069_20170105T093406/MTD_TL.xml", entry.getPath());
+        Assert.assertEquals(Files.size(files.get(0)), entry.getSize());
+        Assert.assertEquals(64, entry.getHash().length());
+        Assert.assertEquals(FillAnglesMethod.NAN, entry.getMethod());
+
+        // a changed file is processed again
+        Files.write(files.get(1), tileMetadata(5, 2), StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(files.get(1), FileTime.fromMillis(entry.getLastModified() + 5000));
+        summary = inspector.traverse();
+        Assert.assertEquals(1, summary.getRepaired());
+        Assert.assertEquals(2, summary.getSkipped());
+
+        // a touched but unchanged file is recognized by its hash
+        long touched = Files.getLastModifiedTime(files.get(0)).toMillis() + 10000;
+        Files.setLastModifiedTime(files.get(0), FileTime.fromMillis(touched));
+        summary = inspector.traverse();
+        Assert.assertEquals(0, summary.getRepaired());
+        Assert.assertEquals(3, summary.getSkipped());
+        Assert.assertEquals(touched, new RepairManifest(folder).get(files.get(0)).getLastModified());
+
+        // another method repairs all the files from their originals
+        inspector = new ProductInspector(folder.toString(), FillAnglesMethod.INTERPOLATE, null);
+        summary = inspector.traverse();
+        Assert.assertEquals(3, summary.getRepaired());
+        Assert.assertEquals(tileMetadata(0, 1), Files.readAllLines(files.get(0).resolveSibling("MTD_TL.xml.bkp"), StandardCharsets.UTF_8));
+        manifest = new RepairManifest(folder);
+        Assert.assertEquals(3, manifest.size());
+        Assert.assertEquals(FillAnglesMethod.INTERPOLATE, manifest.get(files.get(2)).getMethod());
+        // the manifest is compacted
+        Assert.assertEquals(4, Files.readAllLines(folder.resolve(RepairManifest.FILE_NAME), StandardCharsets.UTF_8).size());
+    }
+}
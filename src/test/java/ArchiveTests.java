@@ -0,0 +1,404 @@
+import com.github.luben.zstd.ZstdInputStream;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.util.EntryIndex;
+import ro.cs.products.util.OutputFormat;
+import ro.cs.products.util.OutputSink;
+import ro.cs.products.util.RemoteZip;
+import ro.cs.products.util.Zipper;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+/**
+ * @author Cosmin Cara
+ */
+public class ArchiveTests {
+    private static final String LONG_NAME = "GRANULE/S2A_OPER_MSI_L1C_TL_SGS__20160101T000000_A000001_T35TNX_N02.01/IMG_DATA/" +
+                                            "S2A_OPER_MSI_L1C_TL_SGS__20160101T000000_A000001_T35TNX_B01.jp2";
+
+    @Test
+    public void zipStreamTest() throws IOException {
+        Path folder = Files.createTempDirectory("archive");
+        try {
+            Path zipFile = folder.resolve("product.SAFE.zip");
+            Map<String, byte[]> expected = writeEntries(zipFile, OutputFormat.ZIP);
+            Map<String, byte[]> actual = new LinkedHashMap<>();
+            try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (!entry.isDirectory()) {
+                        Assert.assertEquals(entry.getName(), entry.getName().endsWith(".xml") ? ZipEntry.DEFLATED : ZipEntry.STORED,
+                                            entry.getMethod());
+                        actual.put(entry.getName(), readAll(zip.getInputStream(entry)));
+                    }
+                }
+            }
+            assertEntries(expected, actual);
+            actual.clear();
+            try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(zipFile))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) {
+                        actual.put(entry.getName(), readAll(zip));
+                    }
+                }
+            }
+            assertEntries(expected, actual);
+            assertEntries(expected, readIndexed(zipFile));
+        } finally {
+            delete(folder);
+        }
+    }
+
+    @Test
+    public void tarStreamTest() throws IOException {
+        Path folder = Files.createTempDirectory("archive");
+        try {
+            Path tarFile = folder.resolve("product.SAFE.tar");
+            Map<String, byte[]> expected = writeEntries(tarFile, OutputFormat.TAR);
+            Assert.assertEquals(0, Files.size(tarFile) % 10240);
+            assertEntries(expected, readTar(Files.readAllBytes(tarFile)));
+            assertEntries(expected, readIndexed(tarFile));
+        } finally {
+            delete(folder);
+        }
+    }
+
+    @Test
+    public void tarZstStreamTest() throws IOException {
+        Path folder = Files.createTempDirectory("archive");
+        try {
+            Path archiveFile = folder.resolve("product.SAFE.tar.zst");
+            Map<String, byte[]> expected = writeEntries(archiveFile, OutputFormat.TAR_ZST);
+            byte[] tar;
+            try (InputStream inputStream = new ZstdInputStream(Files.newInputStream(archiveFile))) {
+                tar = readAll(inputStream);
+            }
+            Assert.assertEquals(0, tar.length % 10240);
+            assertEntries(expected, readTar(tar));
+            assertEntries(expected, readIndexed(archiveFile));
+            // the metadata is compressed, the raster stored
+            long total = 0;
+            for (byte[] value : expected.values()) {
+                total += value.length;
+            }
+            Assert.assertTrue(Files.size(archiveFile) < total);
+            Assert.assertTrue(Files.size(archiveFile) > expected.get("GRANULE/B01.jp2").length);
+        } finally {
+            delete(folder);
+        }
+    }
+
+    @Test
+    public void compressFolderTest() throws IOException {
+        Path folder = Files.createTempDirectory("archive");
+        try {
+            Path product = folder.resolve("product.SAFE");
+            Map<String, byte[]> expected = new LinkedHashMap<>();
+            Random random = new Random(7);
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 400000) {
+                text.append("<VALUES>").append(random.nextDouble()).append("</VALUES>\n");
+            }
+            expected.put("MTD_MSIL1C.xml", text.toString().getBytes(StandardCharsets.UTF_8));
+            expected.put(LONG_NAME, randomBytes(random, 100000));
+            expected.put("empty.txt", new byte[0]);
+            // exactly one deflate block
+            byte[] block = new byte[1 << 17];
+            for (int i = 0; i < block.length; i++) {
+                block[i] = (byte) ('a' + random.nextInt(4));
+            }
+            expected.put("GRANULE/MTD_TL.xml", block);
+            for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+                Path file = product.resolve(entry.getKey());
+                Files.createDirectories(file.getParent());
+                Files.write(file, entry.getValue());
+            }
+            Path zipFile = Zipper.compress(product, "product", false, 3);
+            Map<String, byte[]> actual = new LinkedHashMap<>();
+            try (ZipFile zip = new ZipFile(zipFile.toFile())) {
+                Assert.assertTrue(zip.getEntry("GRANULE/").isDirectory());
+                for (ZipEntry entry : Collections.list(zip.entries())) {
+                    if (!entry.isDirectory()) {
+                        // only the text files are deflated, the rasters are stored
+                        Assert.assertEquals(entry.getName(), entry.getName().endsWith(".jp2") ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                                            entry.getMethod());
+                        actual.put(entry.getName(), readAll(zip.getInputStream(entry)));
+                    }
+                }
+            }
+            assertEntries(expected, actual);
+            actual.clear();
+            try (ZipInputStream zip = new ZipInputStream(Files.newInputStream(zipFile))) {
+                ZipEntry entry;
+                while ((entry = zip.getNextEntry()) != null) {
+                    if (!entry.isDirectory()) {
+                        actual.put(entry.getName(), readAll(zip));
+                    }
+                }
+            }
+            assertEntries(expected, actual);
+            Path tarFile = Zipper.compress(product, "product", true, 1, OutputFormat.TAR);
+            Assert.assertFalse(Files.exists(product));
+            assertEntries(expected, readTar(Files.readAllBytes(tarFile)));
+        } finally {
+            delete(folder);
+        }
+    }
+
+    @Test
+    public void remoteZipTest() throws IOException {
+        Path folder = Files.createTempDirectory("archive");
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        try {
+            Path product = folder.resolve("product.SAFE");
+            Map<String, byte[]> files = new LinkedHashMap<>();
+            Random random = new Random(3);
+            StringBuilder text = new StringBuilder();
+            while (text.length() < 100000) {
+                text.append("<Granule granuleIdentifier=\"").append(random.nextInt()).append("\"/>\n");
+            }
+            files.put("MTD_MSIL1C.xml", text.toString().getBytes(StandardCharsets.UTF_8));
+            files.put("GRANULE/L1C_T34TFQ_A001/IMG_DATA/T34TFQ_B01.jp2", randomBytes(random, 1 << 20));
+            files.put("GRANULE/L1C_T34TFQ_A001/IMG_DATA/T34TFQ_B02.jp2", randomBytes(random, 1 << 20));
+            files.put("GRANULE/L1C_T34TFQ_A001/IMG_DATA/T34TFQ_B03.jp2", new byte[0]);
+            for (Map.Entry<String, byte[]> entry : files.entrySet()) {
+                Path file = product.resolve(entry.getKey());
+                Files.createDirectories(file.getParent());
+                Files.write(file, entry.getValue());
+            }
+            byte[] zip = Files.readAllBytes(Zipper.compress(product, "product.SAFE", false, 2));
+            AtomicLong served = new AtomicLong();
+            server.createContext("/ranges", exchange -> serve(exchange.getRequestHeaders().getFirst("Range"), zip,
+                                                                exchange, served));
+            server.createContext("/whole", exchange -> serve(null, zip, exchange, served));
+            server.start();
+            String url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+            Assert.assertNull(RemoteZip.open(url + "/whole", null));
+            served.set(0);
+            RemoteZip remoteZip = RemoteZip.open(url + "/ranges", null);
+            Assert.assertNotNull(remoteZip);
+            Map<String, RemoteZip.Entry> entries = new LinkedHashMap<>();
+            for (RemoteZip.Entry entry : remoteZip.getEntries()) {
+                if (!entry.isDirectory()) {
+                    entries.put(entry.getName(), entry);
+                }
+            }
+            Assert.assertEquals(files.keySet(), entries.keySet());
+            for (String name : new String[] { "MTD_MSIL1C.xml", "GRANULE/L1C_T34TFQ_A001/IMG_DATA/T34TFQ_B02.jp2",
+                                              "GRANULE/L1C_T34TFQ_A001/IMG_DATA/T34TFQ_B03.jp2" }) {
+                try (InputStream inputStream = remoteZip.openEntry(entries.get(name))) {
+                    Assert.assertArrayEquals(name, files.get(name), readAll(inputStream));
+                }
+            }
+            // only the end of the archive (64KB) and the entries read were downloaded
+            long skipped = entries.get("GRANULE/L1C_T34TFQ_A001/IMG_DATA/T34TFQ_B01.jp2").getCompressedSize();
+            Assert.assertTrue(served.get() <= zip.length - skipped + (1 << 16));
+        } finally {
+            server.stop(0);
+            delete(folder);
+        }
+    }
+
+    /**
+     * Answers with the requested range of the data or, if no range is requested, with all of it.
+     */
+    private static void serve(String range, byte[] data, com.sun.net.httpserver.HttpExchange exchange,
+                              AtomicLong served) throws IOException {
+        int start = 0, end = data.length - 1;
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            if (bounds[0].isEmpty()) {
+                start = Math.max(0, data.length - Integer.parseInt(bounds[1]));
+            } else {
+                start = Integer.parseInt(bounds[0]);
+                end = bounds[1].isEmpty() ? end : Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+        }
+        // counted before the client can see the response (which it may not read to the end)
+        served.addAndGet(end - start + 1);
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(data, start, end - start + 1);
+        }
+    }
+
+    /**
+     * Writes a directory, a stored entry, a deflated entry of unknown size, an entry whose stream fails
+     * (and should be dropped) and an entry with a long name.
+     */
+    private Map<String, byte[]> writeEntries(Path archiveFile, OutputFormat format) throws IOException {
+        Map<String, byte[]> expected = new LinkedHashMap<>();
+        Random random = new Random(42);
+        try (OutputSink writer = Zipper.createSink(archiveFile, format, 2)) {
+            writer.addDirectory("GRANULE/", System.currentTimeMillis());
+            byte[] raster = randomBytes(random, 300001);
+            Assert.assertEquals(raster.length, writer.addEntry("GRANULE/B01.jp2", System.currentTimeMillis(), raster.length,
+                                                               new ByteArrayInputStream(raster)));
+            expected.put("GRANULE/B01.jp2", raster);
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 5000; i++) {
+                text.append("<Granule granuleIdentifier=\"").append(i).append("\"/>\n");
+            }
+            byte[] metadata = text.toString().getBytes(StandardCharsets.UTF_8);
+            writer.addEntry("MTD_MSIL1C.xml", System.currentTimeMillis(), -1, new ByteArrayInputStream(metadata));
+            expected.put("MTD_MSIL1C.xml", metadata);
+            try {
+                writer.addEntry("GRANULE/B02.jp2", System.currentTimeMillis(), 300000, new FailingInputStream(randomBytes(random, 100000)));
+                Assert.fail("The failure of the stream should be reported");
+            } catch (IOException expectedFailure) {
+                // the entry is dropped
+            }
+            byte[] band = randomBytes(random, 1000);
+            writer.addEntry(LONG_NAME, System.currentTimeMillis(), band.length, new ByteArrayInputStream(band));
+            expected.put(LONG_NAME, band);
+            writer.finish();
+        }
+        return expected;
+    }
+
+    /**
+     * Reads the entries of an archive from the locations given by its index.
+     */
+    private static Map<String, byte[]> readIndexed(Path archiveFile) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(archiveFile)) {
+            for (EntryIndex.Entry entry : EntryIndex.read(archiveFile)) {
+                ByteBuffer buffer = ByteBuffer.allocate((int) entry.getLength());
+                while (buffer.hasRemaining()) {
+                    Assert.assertTrue(channel.read(buffer, entry.getOffset() + buffer.position()) > 0);
+                }
+                InputStream data = new ByteArrayInputStream(buffer.array());
+                switch (entry.getEncoding()) {
+                    case EntryIndex.DEFLATED:
+                        data = new InflaterInputStream(data, new Inflater(true));
+                        break;
+                    case EntryIndex.ZSTD:
+                        data = new ZstdInputStream(data);
+                        break;
+                }
+                byte[] content = readAll(data);
+                Assert.assertTrue(entry.getName(), content.length >= entry.getSize());
+                entries.put(entry.getName(), Arrays.copyOf(content, (int) entry.getSize()));
+            }
+        }
+        return entries;
+    }
+
+    private static Map<String, byte[]> readTar(byte[] data) throws IOException {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        int offset = 0;
+        String paxName = null;
+        while (offset + 512 <= data.length && data[offset] != 0) {
+            String name = text(data, offset, 100);
+            String prefix = text(data, offset + 345, 155);
+            long size = Long.parseLong(text(data, offset + 124, 12).trim(), 8);
+            long checksum = 0;
+            for (int i = 0; i < 512; i++) {
+                checksum += i >= 148 && i < 156 ? ' ' : data[offset + i] & 0xFF;
+            }
+            Assert.assertEquals(checksum, Long.parseLong(text(data, offset + 148, 8).trim(), 8));
+            byte type = data[offset + 156];
+            byte[] content = new byte[(int) size];
+            System.arraycopy(data, offset + 512, content, 0, (int) size);
+            offset += 512 + (int) ((size + 511) / 512 * 512);
+            if (type == 'x') {
+                String record = new String(content, StandardCharsets.UTF_8);
+                paxName = record.substring(record.indexOf("path=") + 5, record.length() - 1);
+                Assert.assertEquals(content.length, Integer.parseInt(record.substring(0, record.indexOf(' '))));
+                continue;
+            }
+            String fullName = paxName != null ? paxName : prefix.isEmpty() ? name : prefix + "/" + name;
+            paxName = null;
+            if (type == '0') {
+                entries.put(fullName, content);
+            }
+        }
+        return entries;
+    }
+
+    private static String text(byte[] data, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && data[end] != 0) {
+            end++;
+        }
+        return new String(data, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static void assertEntries(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+        Assert.assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            Assert.assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = inputStream.read(buffer)) > 0) {
+            output.write(buffer, 0, read);
+        }
+        return output.toByteArray();
+    }
+
+    private static void delete(Path folder) throws IOException {
+        try (Stream<Path> files = Files.walk(folder)) {
+            Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+            while (iterator.hasNext()) {
+                Files.delete(iterator.next());
+            }
+        }
+    }
+
+    /**
+     * Stream that fails once its data has been read, as a dropped connection would.
+     */
+    private static class FailingInputStream extends FilterInputStream {
+        FailingInputStream(byte[] data) {
+            super(new ByteArrayInputStream(data));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read < 0) {
+                throw new IOException("Connection reset");
+            }
+            return read;
+        }
+    }
+}
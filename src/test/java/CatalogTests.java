@@ -0,0 +1,92 @@
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.base.ProductCatalog;
+import ro.cs.products.base.ProductDescriptor;
+import ro.cs.products.landsat.LandsatProductDescriptor;
+import ro.cs.products.sentinel2.S2L1CProductDescriptor;
+
+import java.io.StringWriter;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * @author Cosmin Cara
+ */
+public class CatalogTests {
+
+    private static ProductCatalog createCatalog() {
+        ProductCatalog catalog = new ProductCatalog();
+        catalog.add(sentinel2("S2A_MSIL1C_20170305T093402_N0204_R136_T34TFQ_20170305T093406", "uuid-1", 45.5));
+        catalog.add(sentinel2("S2B_MSIL1C_20170110T093402_N0204_R036_T35TNL_20170110T093406", "uuid-2", 10.25));
+        catalog.add(sentinel2("S2A_MSIL1C_20170302T093402_N0204_R036_T34TFQ_20170302T093406", "uuid-3", 0));
+        // anonymous subclasses, as created by some searches, are rebuilt as their parent class
+        catalog.add(new S2L1CProductDescriptor() {{
+            setName("S2A_MSIL1C_20170120T093402_N0204_R136_T35TNL_20170120T093406");
+        }});
+        catalog.add(new LandsatProductDescriptor("LC08_L1TP_182029_20170101_20170115_01_T1"));
+        return catalog;
+    }
+
+    private static ProductDescriptor sentinel2(String name, String id, double clouds) {
+        S2L1CProductDescriptor descriptor = new S2L1CProductDescriptor(name);
+        descriptor.setId(id);
+        descriptor.setCloudsPercentage(clouds);
+        return descriptor;
+    }
+
+    @Test
+    public void columnsTest() {
+        ProductCatalog catalog = createCatalog();
+        Assert.assertEquals(5, catalog.size());
+        Assert.assertEquals("S2B_MSIL1C_20170110T093402_N0204_R036_T35TNL_20170110T093406", catalog.getName(1));
+        Assert.assertEquals("uuid-2", catalog.getId(1));
+        Assert.assertNull(catalog.getId(3));
+        Assert.assertEquals(LocalDate.of(2017, 1, 10).toEpochDay(), catalog.getSensingDay(1));
+        Assert.assertEquals(10.25f, catalog.getCloudsPercentage(1), 0);
+        Assert.assertEquals(36, catalog.getOrbit(1));
+        Assert.assertEquals("T35TNL", catalog.getTile(1));
+        Assert.assertEquals(Arrays.asList("T34TFQ", "T35TNL", "182029"), catalog.getTiles());
+    }
+
+    @Test
+    public void sortTest() {
+        ProductCatalog catalog = createCatalog();
+        Assert.assertArrayEquals(new int[] { 4, 1, 3, 2, 0 }, catalog.sort(catalog.rows(), ProductCatalog.SortBy.SENSING_DATE, true));
+        Assert.assertArrayEquals(new int[] { 0, 1, 2, 3, 4 }, catalog.sort(catalog.rows(), ProductCatalog.SortBy.CLOUDS, false));
+        Assert.assertArrayEquals(new int[] { 4, 0, 2, 1, 3 }, catalog.sort(catalog.rows(), ProductCatalog.SortBy.TILE, true));
+    }
+
+    @Test
+    public void groupByTest() {
+        ProductCatalog catalog = createCatalog();
+        Map<String, int[]> groups = catalog.groupBy(catalog.rows(), ProductCatalog.GroupBy.MONTH);
+        Assert.assertEquals(Arrays.asList("2017-01", "2017-03"), Arrays.asList(groups.keySet().toArray()));
+        Assert.assertArrayEquals(new int[] { 1, 3, 4 }, groups.get("2017-01"));
+        groups = catalog.groupBy(catalog.rows(), ProductCatalog.GroupBy.TILE);
+        Assert.assertArrayEquals(new int[] { 1, 3 }, groups.get("T35TNL"));
+        groups = catalog.groupBy(catalog.rows(), ProductCatalog.GroupBy.ORBIT);
+        Assert.assertArrayEquals(new int[] { 1, 2 }, groups.get("036"));
+    }
+
+    @Test
+    public void materializeTest() throws Exception {
+        ProductCatalog catalog = createCatalog();
+        ProductDescriptor descriptor = catalog.get(0);
+        Assert.assertEquals(S2L1CProductDescriptor.class, descriptor.getClass());
+        Assert.assertEquals("uuid-1", descriptor.getId());
+        Assert.assertEquals(45.5, descriptor.getCloudsPercentage(), 0);
+        Assert.assertEquals("20170305", descriptor.getSensingDate());
+        Assert.assertEquals(S2L1CProductDescriptor.class, catalog.get(3).getClass());
+        Assert.assertEquals(LandsatProductDescriptor.class, catalog.get(4).getClass());
+        ProductCatalog copy = new ProductCatalog();
+        copy.addAll(catalog);
+        copy.addAll(catalog);
+        Assert.assertEquals(10, copy.size());
+        Assert.assertEquals(catalog.getName(4), copy.getName(9));
+        Assert.assertEquals("uuid-3", copy.get(7).getId());
+        StringWriter writer = new StringWriter();
+        catalog.writeNames(new int[] { 4 }, writer);
+        Assert.assertEquals("LC08_L1TP_182029_20170101_20170115_01_T1" + System.lineSeparator(), writer.toString());
+    }
+}
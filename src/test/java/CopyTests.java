@@ -0,0 +1,217 @@
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.base.LocalArchiveCatalog;
+import ro.cs.products.util.FileLinks;
+import ro.cs.products.util.ParallelCopy;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+/**
+ * Tests the copy and the linking of products from a local archive.
+ */
+public class CopyTests {
+
+    @Test
+    public void parallelCopyTest() throws IOException {
+        Path folder = Files.createTempDirectory("copy");
+        try {
+            Random random = new Random(7);
+            Path source = Files.createDirectories(folder.resolve("source").resolve("product.SAFE"));
+            Path imgData = Files.createDirectories(source.resolve("GRANULE").resolve("L1C_T34TFQ").resolve("IMG_DATA"));
+            Files.createDirectories(source.resolve("AUX_DATA"));
+            for (int band = 1; band <= 3; band++) {
+                // large enough to be transferred by the kernel
+                Files.write(imgData.resolve(String.format("T34TFQ_B%02d.jp2", band)), randomBytes(random, (3 << 20) + band));
+            }
+            Files.write(source.resolve("MTD_MSIL1C.xml"), randomBytes(random, 5000));
+            Files.write(imgData.resolveSibling("MTD_TL.xml"), randomBytes(random, 0));
+            Path target = folder.resolve("target").resolve("product.SAFE");
+
+            ParallelCopy copier = new ParallelCopy(2);
+            ParallelCopy.Result result = copier.copy(source, target);
+            Assert.assertEquals(5, result.getCopied());
+            Assert.assertEquals(0, result.getSkipped());
+            Assert.assertTrue(Files.isDirectory(target.resolve("AUX_DATA")));
+            assertSameFiles(source, target);
+
+            // only the changed files are copied again
+            Path changed = imgData.resolve("T34TFQ_B02.jp2");
+            Files.write(changed, randomBytes(random, (int) Files.size(changed)));
+            Files.setLastModifiedTime(changed, FileTime.fromMillis(Files.getLastModifiedTime(changed).toMillis() + 2000));
+            Files.write(source.resolve("MTD_MSIL1C.xml"), randomBytes(random, 6000));
+            result = copier.copy(source, target);
+            Assert.assertEquals(2, result.getCopied());
+            Assert.assertEquals(3, result.getSkipped());
+            Assert.assertEquals(Files.size(changed) + 6000, result.getBytes());
+            assertSameFiles(source, target);
+
+            // a single file
+            Path file = folder.resolve("MTD_MSIL1C.xml");
+            result = copier.copy(source.resolve("MTD_MSIL1C.xml"), file);
+            Assert.assertEquals(1, result.getCopied());
+            Assert.assertArrayEquals(Files.readAllBytes(source.resolve("MTD_MSIL1C.xml")), Files.readAllBytes(file));
+            copier.close();
+
+            // another copier, with its own bound, reading from the same device
+            try (ParallelCopy other = new ParallelCopy(4)) {
+                result = other.copy(source, folder.resolve("other"));
+                Assert.assertEquals(5, result.getCopied());
+                assertSameFiles(source, folder.resolve("other"));
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(folder)) {
+                Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+                while (iterator.hasNext()) {
+                    Files.delete(iterator.next());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void linkTest() throws IOException {
+        Path folder = Files.createTempDirectory("copy");
+        try {
+            Random random = new Random(11);
+            Path source = Files.createDirectories(folder.resolve("source").resolve("product.SAFE"));
+            Path imgData = Files.createDirectories(source.resolve("GRANULE").resolve("L1C_T34TFQ").resolve("IMG_DATA"));
+            Path raster = imgData.resolve("T34TFQ_B01.jp2");
+            Files.write(raster, randomBytes(random, 100000));
+            Files.write(source.resolve("MTD_MSIL1C.xml"), randomBytes(random, 5000));
+            Path target = Files.createDirectories(folder.resolve("target"));
+
+            Path link = target.resolve("T34TFQ_B01.jp2");
+            Assert.assertTrue(FileLinks.hardLink(raster, link));
+            Assert.assertTrue(Files.isSameFile(raster, link));
+            Assert.assertFalse(Files.isSymbolicLink(link));
+
+            // a clone has copy semantics: changing it leaves the source untouched
+            Path clone = target.resolve("product.SAFE");
+            if (FileLinks.reflink(source, clone)) {
+                assertSameFiles(source, clone);
+                Path clonedRaster = clone.resolve(source.relativize(raster).toString());
+                Assert.assertFalse(Files.isSameFile(raster, clonedRaster));
+                Files.write(clonedRaster, new byte[10]);
+                Assert.assertEquals(100000, Files.size(raster));
+            }
+
+            // several files are cloned into a folder by a single command
+            Path batch = Files.createDirectories(target.resolve("batch"));
+            if (FileLinks.reflink(Arrays.asList(raster, source.resolve("MTD_MSIL1C.xml")), batch)) {
+                for (Path file : Arrays.asList(raster, source.resolve("MTD_MSIL1C.xml"))) {
+                    Path copy = batch.resolve(file.getFileName().toString());
+                    Assert.assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(copy));
+                    Assert.assertEquals(Files.getLastModifiedTime(file), Files.getLastModifiedTime(copy));
+                }
+            }
+        } finally {
+            try (Stream<Path> files = Files.walk(folder)) {
+                Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+                while (iterator.hasNext()) {
+                    Files.delete(iterator.next());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void catalogTest() throws IOException {
+        Path folder = Files.createTempDirectory("copy");
+        try {
+            Random random = new Random(13);
+            // products organized by date, and one at the root of the archive
+            Path day = Files.createDirectories(folder.resolve("2017").resolve("05").resolve("12"));
+            createProduct(day.resolve("S2A_MSIL1C_20170512T092031_N0205_R093_T34TFQ_20170512T092026.SAFE"), random);
+            createProduct(day.resolve("S2B_MSIL1C_20170512T090559_N0205_R050_T35TLK_20170512T090557.SAFE"), random);
+            createProduct(folder.resolve("S2A_MSIL1C_20170101T092402_N0204_R093_T34TFQ_20170101T092355.SAFE"), random);
+            Files.write(folder.resolve("readme.txt"), randomBytes(random, 10));
+
+            LocalArchiveCatalog catalog = LocalArchiveCatalog.open(folder, name -> name.endsWith(".SAFE"), 4);
+            Assert.assertEquals(3, catalog.size());
+            Assert.assertNull(catalog.find("readme.txt"));
+            LocalArchiveCatalog.Product product = catalog.find("S2A_MSIL1C_20170512T092031_N0205_R093_T34TFQ_20170512T092026.SAFE");
+            Path productPath = day.resolve("S2A_MSIL1C_20170512T092031_N0205_R093_T34TFQ_20170512T092026.SAFE");
+            Assert.assertEquals(productPath, product.getPath());
+            List<Path> folders = product.getFolders();
+            Assert.assertEquals(productPath, folders.get(0));
+            Assert.assertEquals(5, folders.size());
+            Path imgData = productPath.resolve("GRANULE").resolve("L1C_T34TFQ").resolve("IMG_DATA");
+            Assert.assertTrue(folders.contains(imgData));
+            Assert.assertEquals(3, product.getFiles(imgData).size());
+            Assert.assertTrue(product.getFiles(productPath).contains(productPath.resolve("MTD_MSIL1C.xml")));
+            Assert.assertTrue(product.getFiles(productPath.resolve("AUX_DATA")).isEmpty());
+
+            // reopened, nothing is scanned again
+            catalog = LocalArchiveCatalog.open(folder, name -> name.endsWith(".SAFE"), 4);
+            Assert.assertEquals(3, catalog.size());
+            Assert.assertEquals(0, catalog.refresh(4));
+            Assert.assertEquals(3, catalog.find(product.getName()).getFiles(imgData).size());
+
+            // only the added product is scanned, and the removed one is forgotten
+            Path added = createProduct(day.resolve("S2A_MSIL1C_20170512T092031_N0205_R093_T34TFR_20170512T092026.SAFE"), random);
+            touch(day);
+            Path removed = folder.resolve("S2A_MSIL1C_20170101T092402_N0204_R093_T34TFQ_20170101T092355.SAFE");
+            try (Stream<Path> files = Files.walk(removed)) {
+                Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+                while (iterator.hasNext()) {
+                    Files.delete(iterator.next());
+                }
+            }
+            touch(folder);
+            catalog = LocalArchiveCatalog.open(folder, name -> name.endsWith(".SAFE"), 4);
+            Assert.assertEquals(3, catalog.size());
+            Assert.assertEquals(added, catalog.find(added.getFileName().toString()).getPath());
+            Assert.assertNull(catalog.find(removed.getFileName().toString()));
+            Assert.assertEquals(0, catalog.refresh(4));
+        } finally {
+            try (Stream<Path> files = Files.walk(folder)) {
+                Iterator<Path> iterator = files.sorted(Comparator.reverseOrder()).iterator();
+                while (iterator.hasNext()) {
+                    Files.delete(iterator.next());
+                }
+            }
+        }
+    }
+
+    private static Path createProduct(Path productPath, Random random) throws IOException {
+        Path imgData = Files.createDirectories(productPath.resolve("GRANULE").resolve("L1C_T34TFQ").resolve("IMG_DATA"));
+        Files.createDirectories(productPath.resolve("AUX_DATA"));
+        for (int band = 1; band <= 3; band++) {
+            Files.write(imgData.resolve(String.format("T34TFQ_B%02d.jp2", band)), randomBytes(random, 100));
+        }
+        Files.write(productPath.resolve("MTD_MSIL1C.xml"), randomBytes(random, 100));
+        return productPath;
+    }
+
+    private static void touch(Path folder) throws IOException {
+        // folders modified within the same millisecond would look unchanged
+        Files.setLastModifiedTime(folder, FileTime.fromMillis(Files.getLastModifiedTime(folder).toMillis() + 2000));
+    }
+
+    private static void assertSameFiles(Path source, Path target) throws IOException {
+        try (Stream<Path> files = Files.walk(source)) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                Path copy = target.resolve(source.relativize(file).toString());
+                Assert.assertArrayEquals(file.toString(), Files.readAllBytes(file), Files.readAllBytes(copy));
+                Assert.assertEquals(Files.getLastModifiedTime(file).toMillis(), Files.getLastModifiedTime(copy).toMillis());
+            }
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        byte[] data = new byte[length];
+        random.nextBytes(data);
+        return data;
+    }
+}
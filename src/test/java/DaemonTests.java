@@ -0,0 +1,136 @@
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.daemon.DownloadDaemon;
+import ro.cs.products.sentinel2.SentinelTilesMap;
+import ro.cs.products.util.ReturnCode;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Submits jobs to a {@link DownloadDaemon} through its HTTP API, the products being served by a {@link FakeServer}.
+ *
+ * @author Cosmin Cara
+ */
+public class DaemonTests extends TestBase {
+
+    @Test
+    public void jobTest() throws Exception {
+        Path fixtures = Files.createDirectories(getOutputFolder().resolve("fixtures"));
+        List<String> names = FakeProducts.create(fixtures, 2, 10 * 1024);
+        Path tileShapes = FakeProducts.tileShapes(getOutputFolder());
+        Path output = getOutputFolder().resolve("out");
+        try (FakeServer server = new FakeServer(fixtures);
+             DownloadDaemon daemon = new DownloadDaemon(0, 2)) {
+            daemon.start();
+            // slow enough for the progress to be seen between the products
+            server.setBandwidth(100 * 1024);
+            String jobsUrl = "http://127.0.0.1:" + daemon.getPort() + "/jobs";
+            Properties previous = ThroughputHarness.setSystemProperties(server.getStoreProperties());
+            try {
+                String body = String.format("{\"args\": [\"--out\", \"%s\", \"--shapetiles\", \"%s\", \"--tiles\", \"%s\", " +
+                                                    "\"--user\", \"user\", \"--password\", \"password\", \"--store\", \"SCIHUB\"]}",
+                                            output, tileShapes, FakeProducts.TILE);
+                int sharedTiles = SentinelTilesMap.getInstance().getCount();
+                Response response = request("POST", jobsUrl, body);
+                Assert.assertEquals(201, response.status);
+                String id = response.json().getString("id");
+                JsonObject job = response.json();
+                TreeSet<Double> progressValues = new TreeSet<>();
+                long deadline = System.currentTimeMillis() + 60000;
+                while (("QUEUED".equals(job.getString("status")) || "RUNNING".equals(job.getString("status")))
+                        && System.currentTimeMillis() < deadline) {
+                    Thread.sleep(50);
+                    job = request("GET", jobsUrl + "/" + id, null).json();
+                    progressValues.add(job.getJsonObject("progress").getJsonNumber("products").doubleValue());
+                }
+                Assert.assertEquals("SUCCEEDED", job.getString("status"));
+                Assert.assertEquals(ReturnCode.OK, job.getInt("returnCode"));
+                // the tiles of --shapetiles are seen only by the job
+                Assert.assertEquals(sharedTiles, SentinelTilesMap.getInstance().getCount());
+                JsonObject progress = request("GET", jobsUrl + "/" + id + "/progress", null).json();
+                Assert.assertEquals(1.0, progress.getJsonNumber("products").doubleValue(), 1e-9);
+                // one product of two done
+                Assert.assertTrue(progressValues.toString(), progressValues.contains(0.5));
+                Assert.assertEquals(1.0, progressValues.last(), 1e-9);
+                for (String name : names) {
+                    Assert.assertTrue(Files.isDirectory(output.resolve(name + ".SAFE")));
+                }
+                JsonObject list = request("GET", jobsUrl, null).json();
+                Assert.assertEquals(1, list.getJsonArray("jobs").size());
+                Assert.assertEquals(409, request("DELETE", jobsUrl + "/" + id, null).status);
+                Assert.assertEquals(404, request("GET", jobsUrl + "/42", null).status);
+                // the arguments are validated when the job is submitted
+                Response invalid = request("POST", jobsUrl, "{\"args\": [\"--tiles\", \"34TFQ\"]}");
+                Assert.assertEquals(400, invalid.status);
+                Assert.assertTrue(invalid.json().containsKey("error"));
+                Assert.assertEquals(400, request("POST", jobsUrl, "{\"arguments\": []}").status);
+                // so are the options changing the whole process
+                Response proxy = request("POST", jobsUrl, body.replace("[", "[\"--proxy.host\", \"localhost\", "));
+                Assert.assertEquals(400, proxy.status);
+                Assert.assertTrue(proxy.json().getString("error").contains("proxy"));
+                Response metrics = request("GET", "http://127.0.0.1:" + daemon.getPort() + "/metrics", null);
+                Assert.assertEquals(200, metrics.status);
+                Assert.assertTrue(metrics.body.contains("download_first_byte_seconds"));
+            } finally {
+                ThroughputHarness.setSystemProperties(previous);
+            }
+        }
+    }
+
+    private static Response request(String method, String url, String body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        if (body != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json");
+            try (OutputStream outputStream = connection.getOutputStream()) {
+                outputStream.write(body.getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        try {
+            int status = connection.getResponseCode();
+            try (InputStream inputStream = status < 400 ? connection.getInputStream() : connection.getErrorStream()) {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int read;
+                while (inputStream != null && (read = inputStream.read(chunk)) != -1) {
+                    buffer.write(chunk, 0, read);
+                }
+                return new Response(status, new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        JsonObject json() {
+            try (JsonReader reader = Json.createReader(new StringReader(body))) {
+                return reader.readObject();
+            }
+        }
+    }
+}
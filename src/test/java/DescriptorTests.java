@@ -0,0 +1,165 @@
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.base.ProductNameTokens;
+import ro.cs.products.landsat.CollectionCategory;
+import ro.cs.products.landsat.LandsatProductDescriptor;
+import ro.cs.products.sentinel2.GranuleListFilter;
+import ro.cs.products.sentinel2.PlatformType;
+import ro.cs.products.sentinel2.S2L1CProductDescriptor;
+import ro.cs.products.sentinel2.S2L2AProductDescriptor;
+import ro.cs.products.util.Utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * @author Cosmin Cara
+ */
+public class DescriptorTests {
+
+    @Test
+    public void sentinel2CompactNameTest() {
+        S2L1CProductDescriptor descriptor = new S2L1CProductDescriptor("S2A_MSIL1C_20170105T093402_N0204_R136_T34TFQ_20170105T093406.SAFE");
+        Assert.assertEquals(PlatformType.S2A, descriptor.getPlatform());
+        Assert.assertEquals("20170105", descriptor.getSensingDate());
+        Assert.assertEquals("2017/1/5/S2A_MSIL1C_20170105T093402_N0204_R136_T34TFQ_20170105T093406.SAFE/", descriptor.getProductRelativePath());
+        ProductNameTokens tokens = descriptor.getNameTokens();
+        Assert.assertEquals(LocalDate.of(2017, 1, 5).toEpochDay(), tokens.getSensingDay());
+        Assert.assertEquals(9 * 3600 + 34 * 60 + 2, tokens.getSensingTime());
+        Assert.assertEquals(136, tokens.getRelativeOrbit());
+        Assert.assertEquals("T34TFQ", tokens.getTile());
+        Assert.assertEquals(204, tokens.getBaseline());
+        Assert.assertEquals("20170105T093402", tokens.formatSensingDateTime());
+    }
+
+    @Test
+    public void sentinel2OldNameTest() {
+        S2L1CProductDescriptor descriptor = new S2L1CProductDescriptor("S2A_OPER_PRD_MSIL1C_PDMC_20160809T181515_R036_V20160809T095032_20160809T095032");
+        Assert.assertEquals("20160809", descriptor.getSensingDate());
+        Assert.assertEquals("2016/8/9/S2A_OPER_PRD_MSIL1C_PDMC_20160809T181515_R036_V20160809T095032_20160809T095032/", descriptor.getProductRelativePath());
+        Assert.assertEquals(36, descriptor.getNameTokens().getRelativeOrbit());
+        Assert.assertNull(descriptor.getNameTokens().getTile());
+        Assert.assertEquals(ProductNameTokens.UNKNOWN, descriptor.getNameTokens().getBaseline());
+    }
+
+    @Test
+    public void sentinel2L2ANameTest() {
+        S2L2AProductDescriptor descriptor = new S2L2AProductDescriptor("S2B_MSIL2A_20171231T235959_N0206_R001_T01ABC_20180101T000000");
+        Assert.assertEquals(PlatformType.S2B, descriptor.getPlatform());
+        Assert.assertEquals("20171231", descriptor.getSensingDate());
+        Assert.assertEquals("2017/12/31/S2B_MSIL2A_20171231T235959_N0206_R001_T01ABC_20180101T000000/", descriptor.getProductRelativePath());
+        Assert.assertEquals(86399, descriptor.getNameTokens().getSensingTime());
+    }
+
+    @Test
+    public void landsatNameTest() {
+        LandsatProductDescriptor descriptor = new LandsatProductDescriptor("LC08_L1TP_182029_20170101_20170115_01_T1");
+        Assert.assertEquals("20170101", descriptor.getSensingDate());
+        Assert.assertEquals("182", descriptor.getPath());
+        Assert.assertEquals(CollectionCategory.T1, descriptor.getProductType());
+        Assert.assertEquals("c1/L8/182/029/LC08_L1TP_182029_20170101_20170115_01_T1/", descriptor.getProductRelativePath());
+        descriptor = new LandsatProductDescriptor("LC81820292016123LGN00");
+        Assert.assertEquals("20160502", descriptor.getSensingDate());
+        Assert.assertEquals("L8/182/029/LC81820292016123LGN00/", descriptor.getProductRelativePath());
+        Assert.assertEquals("182029", descriptor.getNameTokens().getTile());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidNameTest() {
+        new S2L1CProductDescriptor("S2A_MSIL1C_20170105T093402_N0204_R136_T34TFQ");
+    }
+
+    @Test
+    public void granuleListFilterTest() throws IOException {
+        Path folder = Files.createTempDirectory("granules");
+        Path metadataFile = folder.resolve("MTD_MSIL1C.xml");
+        try {
+            // one granule per list, the granule list of 34TFQ spread over a different number of lines
+            Files.write(metadataFile, productMetadata("Granule", true), StandardCharsets.UTF_8);
+            GranuleListFilter.Result result = GranuleListFilter.filter(metadataFile, metadataFile, new HashSet<>(Arrays.asList("34TFQ", "34TGQ")));
+            Assert.assertEquals(3, result.getGranules().size());
+            Assert.assertEquals("34TFQ", Utilities.getAttributeValue(result.getGranules().get(1), "granuleIdentifier").substring(50, 55));
+            Assert.assertEquals(new HashSet<>(Arrays.asList("34TFQ", "34TGQ")), result.getTileIds());
+            List<String> lines = Files.readAllLines(metadataFile, StandardCharsets.UTF_8);
+            String text = String.join("\n", lines);
+            Assert.assertFalse(text.contains("T34TEQ"));
+            Assert.assertTrue(text.contains("T34TFQ_B02") && text.contains("T34TGQ_B02"));
+            Assert.assertEquals(2, Utilities.filter(lines, "<Granule_List>").size());
+            Assert.assertEquals(0, Utilities.filter(lines, "").stream().filter(line -> line.trim().isEmpty()).count());
+            Assert.assertTrue(lines.get(lines.size() - 1).contains("</n1:Level-1C_User_Product>"));
+
+            // PSD 13: all the granules in a single list
+            byte[] metadata = String.join("\n", productMetadata("Granules", false)).getBytes(StandardCharsets.UTF_8);
+            result = GranuleListFilter.filter(new ByteArrayInputStream(metadata), metadataFile, new HashSet<>(Arrays.asList("34TXX")));
+            Assert.assertFalse(result.hasTiles());
+            Assert.assertEquals(3, result.getGranules().size());
+            Assert.assertTrue(Utilities.filter(Files.readAllLines(metadataFile, StandardCharsets.UTF_8), "Granule").isEmpty());
+            result = GranuleListFilter.filter(new ByteArrayInputStream(metadata), metadataFile, null);
+            Assert.assertEquals(3, result.getTileIds().size());
+            Assert.assertEquals(3, Utilities.filter(Files.readAllLines(metadataFile, StandardCharsets.UTF_8), "<Granules ").size());
+        } finally {
+            Files.deleteIfExists(metadataFile);
+            Files.deleteIfExists(folder);
+        }
+    }
+
+    @Test
+    public void granuleTagTest() throws IOException {
+        Path metadataFile = Files.createTempFile("granules", ".xml");
+        try {
+            String metadata = "<Level-1C_User_Product><Granule_List>" +
+                    "<Granule granuleIdentifier=\"S2A_OPER_MSI_L1C_TL_SGS__20170105T112345_A008058_T34TFQ_N02.04\" " +
+                    "imageFormat=\"JPEG&amp;2000 &lt;&quot;lossless&quot;>\"/></Granule_List></Level-1C_User_Product>";
+            GranuleListFilter.Result result = GranuleListFilter.filter(new ByteArrayInputStream(metadata.getBytes(StandardCharsets.UTF_8)),
+                                                                       metadataFile, null);
+            Assert.assertEquals(1, result.getGranules().size());
+            // the attribute values are escaped again in the start tag
+            Assert.assertTrue(result.getGranules().get(0).contains(" imageFormat=\"JPEG&amp;2000 &lt;&quot;lossless&quot;>\""));
+        } finally {
+            Files.deleteIfExists(metadataFile);
+        }
+    }
+
+    private List<String> productMetadata(String granuleElement, boolean listPerGranule) {
+        List<String> lines = new ArrayList<>();
+        lines.add("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        lines.add("<n1:Level-1C_User_Product xmlns:n1=\"https://psd-14.sentinel2.eo.esa.int/PSD/User_Product_Level-1C.xsd\">");
+        lines.add("  <n1:General_Info>");
+        lines.add("    <Product_Info>");
+        lines.add("      <Product_Organisation>");
+        if (!listPerGranule) {
+            lines.add("        <Granule_List>");
+        }
+        for (String tile : new String[] { "34TEQ", "34TFQ", "34TGQ" }) {
+            if (listPerGranule) {
+                lines.add("        <Granule_List>");
+            }
+            lines.add("          <" + granuleElement + " datastripIdentifier=\"S2A_OPER_MSI_L1C_DS_SGS__20170105T112345_S20170105T093406_N02.04\" " +
+                              "granuleIdentifier=\"S2A_OPER_MSI_L1C_TL_SGS__20170105T112345_A008058_T" + tile + "_N02.04\" imageFormat=\"JPEG2000\">");
+            int bands = "34TFQ".equals(tile) ? 2 : 13;
+            for (int band = 1; band <= bands; band++) {
+                lines.add(String.format("            <IMAGE_FILE>GRANULE/L1C_T%s/IMG_DATA/T%s_B%02d</IMAGE_FILE>", tile, tile, band));
+            }
+            lines.add("          </" + granuleElement + ">");
+            if (listPerGranule) {
+                lines.add("        </Granule_List>");
+            }
+        }
+        if (!listPerGranule) {
+            lines.add("        </Granule_List>");
+        }
+        lines.add("      </Product_Organisation>");
+        lines.add("    </Product_Info>");
+        lines.add("  </n1:General_Info>");
+        lines.add("</n1:Level-1C_User_Product>");
+        return lines;
+    }
+}
@@ -0,0 +1,192 @@
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.util.ReturnCode;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Searches and downloads synthetic products from a {@link FakeServer}, through the command line entry point.
+ *
+ * @author Cosmin Cara
+ */
+public class EndToEndTests extends TestBase {
+
+    @Test
+    public void sciHubDownloadTest() throws Exception {
+        Path fixtures = Files.createDirectories(getOutputFolder().resolve("fixtures"));
+        List<String> names = FakeProducts.create(fixtures, 3, 100 * 1024);
+        Path output = getOutputFolder().resolve("out");
+        try (FakeServer server = new FakeServer(fixtures)) {
+            ThroughputHarness.Result result = ThroughputHarness.run(server, FakeProducts.tileShapes(getOutputFolder()), output, 3);
+            Assert.assertEquals(ReturnCode.OK, result.retCode);
+            Assert.assertEquals(0, result.errors);
+            Assert.assertTrue(result.firstByteNanos > 0);
+        }
+        for (String name : names) {
+            Path source = fixtures.resolve("odata").resolve(uuid(name)).resolve(name + ".SAFE");
+            Path target = output.resolve(name + ".SAFE");
+            Assert.assertTrue(Files.isDirectory(target));
+            try (Stream<Path> files = Files.walk(source)) {
+                Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+                while (iterator.hasNext()) {
+                    Path file = iterator.next();
+                    Path copy = target.resolve(source.relativize(file).toString());
+                    Assert.assertTrue(copy + " is missing", Files.exists(copy));
+                    // the product metadata is rewritten by the granule filter
+                    if (!"MTD_MSIL1C.xml".equals(file.getFileName().toString())) {
+                        Assert.assertArrayEquals(copy.toString(), Files.readAllBytes(file), Files.readAllBytes(copy));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void injectedErrorsTest() throws Exception {
+        Path fixtures = Files.createDirectories(getOutputFolder().resolve("fixtures"));
+        List<String> names = FakeProducts.create(fixtures, 2, 10 * 1024);
+        Path output = getOutputFolder().resolve("out");
+        try (FakeServer server = new FakeServer(fixtures)) {
+            server.setErrorRate(0.1);
+            server.setTruncation(0.2, 4096);
+            ThroughputHarness.Result result = ThroughputHarness.run(server, FakeProducts.tileShapes(getOutputFolder()), output, 2);
+            Assert.assertTrue(result.errors > 0);
+            Assert.assertTrue(server.getTruncations() > 0);
+        }
+        // a failed transfer leaves no partial file behind
+        for (String name : names) {
+            Path source = fixtures.resolve("odata").resolve(uuid(name)).resolve(name + ".SAFE");
+            Path target = output.resolve(name + ".SAFE");
+            if (!Files.isDirectory(target)) {
+                continue;
+            }
+            try (Stream<Path> files = Files.walk(target)) {
+                Iterator<Path> iterator = files.filter(f -> f.toString().endsWith(".jp2")).iterator();
+                while (iterator.hasNext()) {
+                    Path file = iterator.next();
+                    Assert.assertEquals(file.toString(), Files.size(source.resolve(target.relativize(file).toString())), Files.size(file));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void truncatedMetadataTest() throws Exception {
+        Path fixtures = Files.createDirectories(getOutputFolder().resolve("fixtures"));
+        FakeProducts.create(fixtures, 2, 10 * 1024);
+        long tileMetadataSize = Long.MAX_VALUE;
+        try (Stream<Path> files = Files.walk(fixtures)) {
+            Iterator<Path> iterator = files.filter(f -> "MTD_TL.xml".equals(f.getFileName().toString())).iterator();
+            while (iterator.hasNext()) {
+                tileMetadataSize = Math.min(tileMetadataSize, Files.size(iterator.next()));
+            }
+        }
+        Path output = getOutputFolder().resolve("out");
+        try (FakeServer server = new FakeServer(fixtures)) {
+            // only the final line separator of the tile metadata is lost, the truncated text is still a valid document
+            server.setTruncation(1.0, tileMetadataSize - 1);
+            ThroughputHarness.run(server, FakeProducts.tileShapes(getOutputFolder()), output, 2);
+            Assert.assertTrue(server.getTruncations() > 0);
+        }
+        // the tile metadata is written by a handler while downloaded: a short transfer leaves no file behind
+        try (Stream<Path> files = Files.walk(output)) {
+            Assert.assertFalse(files.anyMatch(f -> "MTD_TL.xml".equals(f.getFileName().toString())));
+        }
+    }
+
+    @Test
+    public void archiveErrorsTest() throws Exception {
+        Path fixtures = Files.createDirectories(getOutputFolder().resolve("fixtures"));
+        List<String> names = FakeProducts.create(fixtures, 2, 10 * 1024);
+        Path output = getOutputFolder().resolve("out");
+        try (FakeServer server = new FakeServer(fixtures)) {
+            server.setErrorRate(0.1);
+            server.setTruncation(0.2, 4096);
+            ThroughputHarness.Result result = ThroughputHarness.run(server, FakeProducts.tileShapes(getOutputFolder()), output, 2,
+                                                                    "--zip", "--delete");
+            Assert.assertTrue(result.errors > 0);
+        }
+        // the files are written directly into the archive: a failed transfer discards it
+        for (String name : names) {
+            Path source = fixtures.resolve("odata").resolve(uuid(name)).resolve(name + ".SAFE");
+            Path archive = output.resolve(name + ".SAFE.zip");
+            if (!Files.exists(archive)) {
+                continue;
+            }
+            try (ZipFile zipFile = new ZipFile(archive.toFile()); Stream<Path> files = Files.walk(source)) {
+                Iterator<Path> iterator = files.filter(f -> f.toString().endsWith(".jp2")).iterator();
+                while (iterator.hasNext()) {
+                    Path file = iterator.next();
+                    // the bands of a tile are downloaded after its metadata
+                    Path tileMetadata = file.getParent().getParent().resolve("MTD_TL.xml");
+                    if (zipFile.getEntry(entryName(source, tileMetadata)) != null) {
+                        ZipEntry entry = zipFile.getEntry(entryName(source, file));
+                        Assert.assertNotNull(file + " is missing", entry);
+                        Assert.assertEquals(file.toString(), Files.size(file), entry.getSize());
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void rangeAndListingTest() throws Exception {
+        Path fixtures = getOutputFolder().resolve("fixtures");
+        Path bucket = Files.createDirectories(fixtures.resolve("s3").resolve(FakeServer.SENTINEL2_BUCKET).resolve("tiles/34/T/FQ/2017/5"));
+        Files.createDirectories(bucket.resolve("12/0"));
+        Files.createDirectories(bucket.resolve("22/0"));
+        Files.write(bucket.resolve("12/0/B01.jp2"), "0123456789".getBytes(StandardCharsets.UTF_8));
+        Files.write(bucket.resolve("22/0/B01.jp2"), "0123456789".getBytes(StandardCharsets.UTF_8));
+        try (FakeServer server = new FakeServer(fixtures)) {
+            String bucketUrl = server.getUrl() + "/s3/" + FakeServer.SENTINEL2_BUCKET;
+            String listing = read(bucketUrl + "/?delimiter=/&prefix=tiles/34/T/FQ/2017/5/", null);
+            Assert.assertTrue(listing.contains("<Prefix>tiles/34/T/FQ/2017/5/12/</Prefix>"));
+            Assert.assertTrue(listing.contains("<Prefix>tiles/34/T/FQ/2017/5/22/</Prefix>"));
+            Assert.assertTrue(listing.contains("<IsTruncated>false</IsTruncated>"));
+            String page = read(bucketUrl + "/?delimiter=/&max-keys=1&prefix=tiles/34/T/FQ/2017/5/", null);
+            Assert.assertTrue(page.contains("<IsTruncated>true</IsTruncated>"));
+            Assert.assertFalse(page.contains("5/22/"));
+            Assert.assertEquals("2345", read(bucketUrl + "/tiles/34/T/FQ/2017/5/12/0/B01.jp2", "bytes=2-5"));
+            Assert.assertEquals("789", read(bucketUrl + "/tiles/34/T/FQ/2017/5/12/0/B01.jp2", "bytes=-3"));
+        }
+    }
+
+    private static String entryName(Path folder, Path file) {
+        return folder.relativize(file).toString().replace('\\', '/');
+    }
+
+    private static String uuid(String name) {
+        return UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+    }
+
+    private static String read(String url, String range) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (range != null) {
+            connection.setRequestProperty("Range", range);
+        }
+        try (InputStream inputStream = connection.getInputStream()) {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = inputStream.read(chunk)) != -1) {
+                buffer.write(chunk, 0, read);
+            }
+            return new String(buffer.toByteArray(), StandardCharsets.UTF_8);
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
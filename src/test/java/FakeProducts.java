@@ -0,0 +1,154 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Writes synthetic Sentinel-2 L1C products (PSD 14, tile 34TFQ) in the OData layout served by {@link FakeServer}:
+ * the product metadata with its granule list, the tile metadata with its masks, the 13 bands (random bytes),
+ * the quality masks and the datastrip metadata. The products are numbered, the sensing dates and the contents
+ * depending only on the number, so that a fixture can be rebuilt identically.
+ *
+ * @author Cosmin Cara
+ */
+public class FakeProducts {
+    static final String TILE = "34TFQ";
+    private static final List<String> BANDS = Arrays.asList("B01", "B02", "B03", "B04", "B05", "B06", "B07",
+                                                    "B08", "B8A", "B09", "B10", "B11", "B12");
+    private static final List<String> MASKS = Arrays.asList("MSK_CLOUDS_B00.gml", "MSK_DEFECT_B01.gml", "MSK_NODATA_B01.gml",
+                                                    "MSK_TECQUA_B01.gml");
+    /* The corners of the tile, as in the tile shapes of ESA */
+    private static final String TILE_COORDINATES = "23.3781,45.1231 24.7900,45.1107 24.8071,46.1008 23.3595,46.1135 23.3781,45.1231";
+
+    private FakeProducts() { }
+
+    /**
+     * Writes the given number of products, each band having the given size.
+     *
+     * @return  The names of the products
+     */
+    static List<String> create(Path root, int count, int bandSize) throws IOException {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            names.add(createProduct(root, i, bandSize));
+        }
+        return names;
+    }
+
+    /**
+     * Writes a KML file with the shape of the tile of the products, for the <code>--shapetiles</code> argument.
+     */
+    static Path tileShapes(Path folder) throws IOException {
+        Path file = folder.resolve("tiles.kml");
+        List<String> lines = Arrays.asList("<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                                           "<kml xmlns=\"http://www.opengis.net/kml/2.2\">",
+                                           "<Document>",
+                                           "<Placemark>",
+                                           "<name>" + TILE + "</name>",
+                                           "<Polygon><outerBoundaryIs><LinearRing><coordinates>",
+                                           TILE_COORDINATES,
+                                           "</coordinates></LinearRing></outerBoundaryIs></Polygon>",
+                                           "</Placemark>",
+                                           "</Document>",
+                                           "</kml>");
+        Files.write(file, lines, StandardCharsets.UTF_8);
+        return file;
+    }
+
+    private static String createProduct(Path root, int number, int bandSize) throws IOException {
+        // up to 28 products a day, one second apart
+        String date = String.format("201705%02d", 1 + number % 28);
+        int second = number / 28;
+        String sensing = date + String.format("T0920%02d", 31 + second);
+        String generation = date + String.format("T0920%02d", 26 + second);
+        String name = "S2A_MSIL1C_" + sensing + "_N0205_R093_T" + TILE + "_" + generation;
+        String dataStripId = "S2A_OPER_MSI_L1C_DS_SGS__" + generation + "_S" + generation + "_N02.05";
+        String granuleId = "S2A_OPER_MSI_L1C_TL_SGS__" + generation + "_A" + String.format("%06d", 9843 + number) + "_T" + TILE + "_N02.05";
+        String uuid = UUID.nameUUIDFromBytes(name.getBytes(StandardCharsets.UTF_8)).toString();
+        Path product = Files.createDirectories(root.resolve("odata").resolve(uuid).resolve(name + ".SAFE"));
+        // the folder of a granule is L1C_T<tile>_A<absolute orbit>_<generation time>
+        Path tile = Files.createDirectories(product.resolve("GRANULE").resolve("L1C_T" + TILE + "_" + granuleId.substring(41, 48) + "_" + generation));
+        Files.write(product.resolve("MTD_MSIL1C.xml"), productMetadata(name, dataStripId, granuleId, tile), StandardCharsets.UTF_8);
+        Files.write(tile.resolve("MTD_TL.xml"), tileMetadata(dataStripId, granuleId, tile), StandardCharsets.UTF_8);
+        Random random = new Random(number);
+        byte[] buffer = new byte[Math.min(bandSize, 1 << 20)];
+        for (String band : BANDS) {
+            Path file = Files.createDirectories(tile.resolve("IMG_DATA")).resolve("T" + TILE + "_" + sensing + "_" + band + ".jp2");
+            try (OutputStream outputStream = Files.newOutputStream(file)) {
+                for (int written = 0; written < bandSize; written += buffer.length) {
+                    random.nextBytes(buffer);
+                    outputStream.write(buffer, 0, Math.min(buffer.length, bandSize - written));
+                }
+            }
+        }
+        for (String mask : MASKS) {
+            Path file = Files.createDirectories(tile.resolve("QI_DATA")).resolve(mask);
+            Files.write(file, Arrays.asList("<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                                            "<eop:Mask xmlns:eop=\"http://www.opengis.net/eop/2.0\" gml:id=\"" + mask + "\" " +
+                                                    "xmlns:gml=\"http://www.opengis.net/gml/3.2\"/>"),
+                        StandardCharsets.UTF_8);
+        }
+        Path dataStrip = Files.createDirectories(product.resolve("DATASTRIP").resolve(dataStripId.substring(17, 57)));
+        Files.write(dataStrip.resolve("MTD_DS.xml"),
+                    Arrays.asList("<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                                  "<n1:Level-1C_DataStrip_ID xmlns:n1=\"https://psd-14.sentinel2.eo.esa.int/PSD/S2_PDI_Level-1C_Datastrip_Metadata.xsd\">",
+                                  "  <n1:General_Info>",
+                                  "    <DATASTRIP_ID>" + dataStripId + "</DATASTRIP_ID>",
+                                  "  </n1:General_Info>",
+                                  "</n1:Level-1C_DataStrip_ID>"),
+                    StandardCharsets.UTF_8);
+        return name;
+    }
+
+    private static List<String> productMetadata(String name, String dataStripId, String granuleId, Path tile) {
+        return Arrays.asList("<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                             "<n1:Level-1C_User_Product xmlns:n1=\"https://psd-14.sentinel2.eo.esa.int/PSD/User_Product_Level-1C.xsd\">",
+                             "  <n1:General_Info>",
+                             "    <Product_Info>",
+                             "      <PRODUCT_URI>" + name + ".SAFE</PRODUCT_URI>",
+                             "      <PROCESSING_LEVEL>Level-1C</PROCESSING_LEVEL>",
+                             "      <PRODUCT_TYPE>S2MSI1C</PRODUCT_TYPE>",
+                             "      <Product_Organisation>",
+                             "        <Granule_List>",
+                             "          <Granule datastripIdentifier=\"" + dataStripId + "\" granuleIdentifier=\"" + granuleId + "\" imageFormat=\"JPEG2000\">",
+                             "            <IMAGE_FILE>" + relativePath(tile) + "/IMG_DATA/T" + TILE + "_" + name.substring(11, 26) + "_B01</IMAGE_FILE>",
+                             "          </Granule>",
+                             "        </Granule_List>",
+                             "      </Product_Organisation>",
+                             "    </Product_Info>",
+                             "  </n1:General_Info>",
+                             "</n1:Level-1C_User_Product>");
+    }
+
+    private static List<String> tileMetadata(String dataStripId, String granuleId, Path tile) {
+        List<String> lines = new ArrayList<>(Arrays.asList(
+                "<?xml version=\"1.0\" encoding=\"UTF-8\"?>",
+                "<n1:Level-1C_Tile_ID xmlns:n1=\"https://psd-14.sentinel2.eo.esa.int/PSD/S2_PDI_Level-1C_Tile_Metadata.xsd\">",
+                "  <n1:General_Info>",
+                "    <TILE_ID metadataLevel=\"Brief\">" + granuleId + "</TILE_ID>",
+                "    <DATASTRIP_ID metadataLevel=\"Standard\">" + dataStripId + "</DATASTRIP_ID>",
+                "  </n1:General_Info>",
+                "  <n1:Quality_Indicators_Info metadataLevel=\"Standard\">",
+                "    <Pixel_Level_QI geometry=\"FULL_RESOLUTION\">"));
+        for (String mask : MASKS) {
+            lines.add("      <MASK_FILENAME type=\"" + mask.substring(0, mask.lastIndexOf('_')) + "\">" + relativePath(tile) + "/QI_DATA/" + mask + "</MASK_FILENAME>");
+        }
+        lines.addAll(Arrays.asList("    </Pixel_Level_QI>",
+                                   "  </n1:Quality_Indicators_Info>",
+                                   "</n1:Level-1C_Tile_ID>"));
+        return lines;
+    }
+
+    /**
+     * Returns the path of a granule folder relative to its product folder (GRANULE/...).
+     */
+    private static String relativePath(Path tile) {
+        return "GRANULE/" + tile.getFileName();
+    }
+}
@@ -0,0 +1,511 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Local stand-in for SciHub and the S3 buckets, serving the products of a fixture folder:
+ * <ul>
+ *     <li><code>odata/&lt;uuid&gt;/&lt;product&gt;.SAFE/...</code>: the products of the OData service, also listed by
+ *     the search feed, and <code>odata/&lt;uuid&gt;.zip</code>: their archives (if any)</li>
+ *     <li><code>s3/&lt;bucket&gt;/&lt;key&gt;</code>: the objects of the buckets</li>
+ * </ul>
+ * It answers to:
+ * <ul>
+ *     <li><code>/search?start=&amp;rows=</code>: an OpenSearch (Atom) feed of the OData products. The query is not
+ *     evaluated, all the products match.</li>
+ *     <li><code>/odata/v1/Products('uuid')/Nodes('name')/.../$value</code> and <code>/odata/v1/Products('uuid')/$value</code></li>
+ *     <li><code>/s3/&lt;bucket&gt;/?prefix=&amp;delimiter=&amp;marker=&amp;max-keys=</code>: a listing of the bucket</li>
+ *     <li><code>/s3/&lt;bucket&gt;/&lt;key&gt;</code>: an object</li>
+ * </ul>
+ * Files are served with <code>Range</code> support. Each response can be delayed (latency), throttled (bandwidth)
+ * or replaced by a 503 error (error rate), and the transfer of a file can be cut after a number of bytes
+ * (truncation rate). Errors are drawn from a seeded generator, so a run can be repeated.
+ *
+ * @author Cosmin Cara
+ */
+public class FakeServer implements AutoCloseable {
+    static final String SENTINEL2_BUCKET = "sentinel-s2-l1c";
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final Pattern ODATA_PATH = Pattern.compile("/Products\\('([^']+)'\\)((?:/Nodes\\('[^']+'\\))*)(/\\$value)?/?");
+    private static final Pattern ODATA_NODE = Pattern.compile("/Nodes\\('([^']+)'\\)");
+    private static final Pattern RANGE = Pattern.compile("bytes=(\\d*)-(\\d*)");
+
+    private final Path root;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Random random;
+    private volatile long latency;
+    private volatile long bandwidth;
+    private volatile double errorRate;
+    private volatile double truncationRate;
+    private volatile long truncationOffset;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong truncations = new AtomicLong();
+
+    /**
+     * Starts serving the given fixture folder on a free local port.
+     */
+    public FakeServer(Path root) throws IOException {
+        this.root = root.toAbsolutePath();
+        this.random = new Random(42);
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "fake-server-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server.setExecutor(this.executor);
+        this.server.createContext("/", this::handle);
+        this.server.start();
+    }
+
+    /**
+     * Sets the delay of each response, before its headers are sent.
+     */
+    public void setLatency(long millis) { this.latency = millis; }
+
+    /**
+     * Sets the transfer rate of each response, in bytes per second (0 for no limit).
+     */
+    public void setBandwidth(long bytesPerSecond) { this.bandwidth = bytesPerSecond; }
+
+    /**
+     * Sets the fraction (between 0 and 1) of the requests answered with a 503 error.
+     */
+    public void setErrorRate(double rate) { this.errorRate = rate; }
+
+    /**
+     * Sets the fraction (between 0 and 1) of the file transfers cut after the given number of bytes:
+     * the headers announce the whole file, but the connection is closed once these bytes are sent.
+     */
+    public void setTruncation(double rate, long afterBytes) {
+        this.truncationOffset = afterBytes;
+        this.truncationRate = rate;
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort();
+    }
+
+    /**
+     * Returns the settings (as in download.properties) pointing the downloader to this server.
+     */
+    public Properties getStoreProperties() {
+        Properties properties = new Properties();
+        String url = getUrl();
+        properties.setProperty("scihub.search.url", url + "/search");
+        properties.setProperty("scihub.search.backup.url", url + "/search");
+        properties.setProperty("scihub.product.url", url + "/odata/v1");
+        properties.setProperty("scihub.product.backup.url", url + "/odata/v1");
+        properties.setProperty("s2.aws.search.url", url + "/s3/" + SENTINEL2_BUCKET + "/?delimiter=/&prefix=tiles/");
+        properties.setProperty("s2.aws.products.url", url + "/s3/" + SENTINEL2_BUCKET);
+        properties.setProperty("s2.aws.tiles.url", url + "/s3/" + SENTINEL2_BUCKET);
+        return properties;
+    }
+
+    /**
+     * Returns the number of requests received.
+     */
+    public long getRequests() { return requests.get(); }
+
+    /**
+     * Returns the number of bytes sent in the bodies of the responses.
+     */
+    public long getBytes() { return bytes.get(); }
+
+    /**
+     * Returns the number of injected errors, truncated transfers included.
+     */
+    public long getErrors() { return errors.get(); }
+
+    /**
+     * Returns the number of truncated transfers.
+     */
+    public long getTruncations() { return truncations.get(); }
+
+    @Override
+    public void close() {
+        this.server.stop(0);
+        this.executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latency > 0) {
+                TimeUnit.MILLISECONDS.sleep(latency);
+            }
+            String path = exchange.getRequestURI().getPath();
+            Map<String, String> query = parseQuery(exchange.getRequestURI().getRawQuery());
+            if (isError()) {
+                errors.incrementAndGet();
+                send(exchange, 503, "text/plain", "Service Unavailable".getBytes(StandardCharsets.UTF_8));
+            } else if ("/search".equals(path)) {
+                send(exchange, 200, "application/atom+xml", feed(query).getBytes(StandardCharsets.UTF_8));
+            } else if (path.startsWith("/odata/v1")) {
+                handleOData(exchange, path.substring("/odata/v1".length()));
+            } else if (path.startsWith("/s3/")) {
+                handleS3(exchange, path.substring("/s3/".length()), query);
+            } else {
+                sendNotFound(exchange);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (TruncatedTransfer e) {
+            // the server closes the connection of a failed exchange
+            throw e;
+        } catch (IOException ignored) {
+            // the client went away
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private boolean isError() {
+        return draw(errorRate);
+    }
+
+    private boolean draw(double rate) {
+        if (rate <= 0) {
+            return false;
+        }
+        synchronized (random) {
+            return random.nextDouble() < rate;
+        }
+    }
+
+    private void handleOData(HttpExchange exchange, String path) throws IOException, InterruptedException {
+        if (path.isEmpty() || "/".equals(path)) {
+            send(exchange, 200, "application/xml", "<service/>".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        Matcher matcher = ODATA_PATH.matcher(path);
+        if (!matcher.matches()) {
+            sendNotFound(exchange);
+            return;
+        }
+        Path file = resolve(root.resolve("odata"), matcher.group(1));
+        Matcher nodes = ODATA_NODE.matcher(matcher.group(2));
+        boolean hasNodes = false;
+        while (file != null && nodes.find()) {
+            file = resolve(file, nodes.group(1));
+            hasNodes = true;
+        }
+        if (file != null && !hasNodes) {
+            file = file.resolveSibling(file.getFileName() + ".zip");
+        }
+        if (file == null || !Files.exists(file)) {
+            sendNotFound(exchange);
+        } else if (matcher.group(3) == null) {
+            String entry = "<entry><title>" + file.getFileName() + "</title></entry>";
+            send(exchange, 200, "application/atom+xml", entry.getBytes(StandardCharsets.UTF_8));
+        } else if (Files.isRegularFile(file)) {
+            sendFile(exchange, file);
+        } else {
+            sendNotFound(exchange);
+        }
+    }
+
+    private void handleS3(HttpExchange exchange, String path, Map<String, String> query) throws IOException, InterruptedException {
+        int separator = path.indexOf('/');
+        String bucket = separator < 0 ? path : path.substring(0, separator);
+        String key = separator < 0 ? "" : path.substring(separator + 1);
+        Path bucketFolder = resolve(root.resolve("s3"), bucket);
+        if (bucketFolder == null || !Files.isDirectory(bucketFolder)) {
+            sendNotFound(exchange);
+        } else if (key.isEmpty()) {
+            send(exchange, 200, "application/xml", listing(bucket, bucketFolder, query).getBytes(StandardCharsets.UTF_8));
+        } else {
+            Path file = resolve(bucketFolder, key);
+            if (file != null && Files.isRegularFile(file)) {
+                sendFile(exchange, file);
+            } else {
+                sendNotFound(exchange);
+            }
+        }
+    }
+
+    /**
+     * Builds the search feed of the products found in the OData folder, one page at a time.
+     */
+    private String feed(Map<String, String> query) throws IOException {
+        List<String[]> products = new ArrayList<>();
+        Path folder = root.resolve("odata");
+        if (Files.isDirectory(folder)) {
+            try (Stream<Path> uuids = Files.list(folder)) {
+                Iterator<Path> iterator = uuids.filter(Files::isDirectory).sorted().iterator();
+                while (iterator.hasNext()) {
+                    Path uuidFolder = iterator.next();
+                    try (Stream<Path> children = Files.list(uuidFolder)) {
+                        children.map(p -> p.getFileName().toString())
+                                .filter(n -> n.endsWith(".SAFE"))
+                                .findFirst()
+                                .ifPresent(n -> products.add(new String[] {
+                                        uuidFolder.getFileName().toString(), n.substring(0, n.length() - 5) }));
+                    }
+                }
+            }
+        }
+        int start = Integer.parseInt(query.getOrDefault("start", "0"));
+        int rows = Integer.parseInt(query.getOrDefault("rows", "10"));
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"utf-8\"?>")
+               .append("<feed xmlns:opensearch=\"http://a9.com/-/spec/opensearch/1.1/\" xmlns=\"http://www.w3.org/2005/Atom\">\n");
+        builder.append("<opensearch:totalResults>").append(products.size()).append("</opensearch:totalResults>\n");
+        builder.append("<opensearch:startIndex>").append(start).append("</opensearch:startIndex>\n");
+        builder.append("<opensearch:itemsPerPage>").append(rows).append("</opensearch:itemsPerPage>\n");
+        for (int i = start; i < Math.min(products.size(), start + rows); i++) {
+            String uuid = products.get(i)[0];
+            String name = products.get(i)[1];
+            builder.append("<entry>\n")
+                   .append("<title>").append(name).append("</title>\n")
+                   .append("<link href=\"").append(getUrl()).append("/odata/v1/Products('").append(uuid).append("')/$value\"/>\n")
+                   .append("<id>").append(uuid).append("</id>\n")
+                   .append("<double name=\"cloudcoverpercentage\">0.0</double>\n")
+                   .append("<str name=\"filename\">").append(name).append(".SAFE</str>\n")
+                   .append("<str name=\"identifier\">").append(name).append("</str>\n")
+                   .append("<str name=\"uuid\">").append(uuid).append("</str>\n")
+                   .append("</entry>\n");
+        }
+        return builder.append("</feed>\n").toString();
+    }
+
+    /**
+     * Builds the listing of the keys of a bucket starting with the given prefix, the keys having the delimiter after
+     * the prefix being rolled up into common prefixes.
+     */
+    private String listing(String bucket, Path bucketFolder, Map<String, String> query) throws IOException {
+        String prefix = query.getOrDefault("prefix", "");
+        String delimiter = query.get("delimiter");
+        String marker = query.getOrDefault("marker", "");
+        int maxKeys = Integer.parseInt(query.getOrDefault("max-keys", "1000"));
+        // the values are the files of the objects, or null for the common prefixes
+        TreeMap<String, Path> entries = new TreeMap<>();
+        Path folder = resolve(bucketFolder, prefix.substring(0, prefix.lastIndexOf('/') + 1));
+        if (folder != null && Files.isDirectory(folder)) {
+            try (Stream<Path> files = Files.walk(folder)) {
+                Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+                while (iterator.hasNext()) {
+                    Path file = iterator.next();
+                    String key = bucketFolder.relativize(file).toString().replace('\\', '/');
+                    if (!key.startsWith(prefix)) {
+                        continue;
+                    }
+                    int index = delimiter == null || delimiter.isEmpty() ? -1 : key.indexOf(delimiter, prefix.length());
+                    if (index >= 0) {
+                        entries.put(key.substring(0, index + delimiter.length()), null);
+                    } else {
+                        entries.put(key, file);
+                    }
+                }
+            }
+        }
+        Map<String, Path> page = entries.tailMap(marker, false);
+        boolean truncated = page.size() > maxKeys;
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        StringBuilder contents = new StringBuilder();
+        StringBuilder prefixes = new StringBuilder();
+        String last = null;
+        int count = 0;
+        for (Map.Entry<String, Path> entry : page.entrySet()) {
+            if (count++ == maxKeys) {
+                break;
+            }
+            last = entry.getKey();
+            if (entry.getValue() == null) {
+                prefixes.append("<CommonPrefixes><Prefix>").append(entry.getKey()).append("</Prefix></CommonPrefixes>");
+            } else {
+                contents.append("<Contents><Key>").append(entry.getKey()).append("</Key>")
+                        .append("<LastModified>").append(dateFormat.format(new Date(Files.getLastModifiedTime(entry.getValue()).toMillis())))
+                        .append("</LastModified><Size>").append(Files.size(entry.getValue())).append("</Size>")
+                        .append("<StorageClass>STANDARD</StorageClass></Contents>");
+            }
+        }
+        StringBuilder builder = new StringBuilder();
+        builder.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n")
+               .append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">")
+               .append("<Name>").append(bucket).append("</Name>")
+               .append("<Prefix>").append(prefix).append("</Prefix>")
+               .append("<Marker>").append(marker).append("</Marker>");
+        if (truncated) {
+            builder.append("<NextMarker>").append(last).append("</NextMarker>");
+        }
+        builder.append("<MaxKeys>").append(maxKeys).append("</MaxKeys>");
+        if (delimiter != null) {
+            builder.append("<Delimiter>").append(delimiter).append("</Delimiter>");
+        }
+        builder.append("<IsTruncated>").append(truncated).append("</IsTruncated>")
+               .append(contents).append(prefixes)
+               .append("</ListBucketResult>\n");
+        return builder.toString();
+    }
+
+    /**
+     * Sends the file, or the requested range of it.
+     */
+    private void sendFile(HttpExchange exchange, Path file) throws IOException, InterruptedException {
+        long size = Files.size(file);
+        long start = 0;
+        long end = size - 1;
+        int status = 200;
+        String range = exchange.getRequestHeaders().getFirst("Range");
+        if (range != null) {
+            Matcher matcher = RANGE.matcher(range.trim());
+            if (!matcher.matches() || (matcher.group(1).isEmpty() && matcher.group(2).isEmpty())) {
+                send(exchange, 400, "text/plain", "Bad Range".getBytes(StandardCharsets.UTF_8));
+                return;
+            }
+            if (matcher.group(1).isEmpty()) {
+                start = Math.max(0, size - Long.parseLong(matcher.group(2)));
+            } else {
+                start = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(end, Long.parseLong(matcher.group(2)));
+                }
+            }
+            if (start >= size || start > end) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+            status = 206;
+            exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+        }
+        SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("GMT"));
+        exchange.getResponseHeaders().set("Last-Modified", dateFormat.format(new Date(Files.getLastModifiedTime(file).toMillis())));
+        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+        long length = end - start + 1;
+        if ("HEAD".equals(exchange.getRequestMethod())) {
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        boolean truncated = length > truncationOffset && draw(truncationRate);
+        exchange.sendResponseHeaders(status, length);
+        OutputStream outputStream = exchange.getResponseBody();
+        try (SeekableByteChannel channel = Files.newByteChannel(file)) {
+            channel.position(start);
+            transfer(Channels.newInputStream(channel), truncated ? truncationOffset : length, outputStream);
+        }
+        if (truncated) {
+            errors.incrementAndGet();
+            truncations.incrementAndGet();
+            outputStream.flush();
+            throw new TruncatedTransfer();
+        }
+        outputStream.close();
+    }
+
+    private void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody();
+             InputStream inputStream = new java.io.ByteArrayInputStream(body)) {
+            transfer(inputStream, body.length, outputStream);
+        }
+    }
+
+    private void sendNotFound(HttpExchange exchange) throws IOException, InterruptedException {
+        send(exchange, 404, "text/plain", "Not Found".getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Copies the given number of bytes, no faster than the bandwidth allows.
+     */
+    private void transfer(InputStream inputStream, long length, OutputStream outputStream) throws IOException, InterruptedException {
+        byte[] buffer = new byte[CHUNK_SIZE];
+        long startNanos = System.nanoTime();
+        long sent = 0;
+        while (sent < length) {
+            int read = inputStream.read(buffer, 0, (int) Math.min(buffer.length, length - sent));
+            if (read < 0) {
+                break;
+            }
+            outputStream.write(buffer, 0, read);
+            sent += read;
+            bytes.addAndGet(read);
+            long rate = this.bandwidth;
+            if (rate > 0) {
+                long wait = startNanos + (long) (sent * 1e9 / rate) - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+            }
+        }
+    }
+
+    /**
+     * Thrown to drop the connection of a response whose body is shorter than announced.
+     */
+    private static class TruncatedTransfer extends IOException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Resolves a relative path (with '/' separators) inside the given folder, or returns null if it points outside.
+     */
+    private static Path resolve(Path folder, String relativePath) {
+        Path path = folder;
+        for (String segment : relativePath.split("/")) {
+            if (segment.isEmpty() || ".".equals(segment)) {
+                continue;
+            }
+            if ("..".equals(segment)) {
+                return null;
+            }
+            path = path.resolve(segment);
+        }
+        return path;
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+        Map<String, String> values = new HashMap<>();
+        if (rawQuery != null) {
+            for (String pair : rawQuery.split("&")) {
+                int index = pair.indexOf('=');
+                if (index > 0) {
+                    values.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+                               URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,192 @@
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.util.Polygon2D;
+import ro.cs.products.util.SimplificationMethod;
+
+import java.awt.geom.Line2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Cosmin Cara
+ */
+public class GeometryTests {
+
+    @Test
+    public void simplePolygonTest() {
+        String wkt = "POLYGON((21.5 45.25,22.75 45.25,22.75 46.0,21.5 46.0,21.5 45.25))";
+        Polygon2D polygon = Polygon2D.fromWKT(wkt);
+        Assert.assertEquals(5, polygon.getNumPoints());
+        Assert.assertEquals(1, polygon.getNumRings());
+        Assert.assertEquals(1, polygon.getNumPolygons());
+        Assert.assertEquals(wkt, polygon.toWKT());
+        Rectangle2D bounds = polygon.getBounds2D();
+        Assert.assertEquals(21.5, bounds.getMinX(), 0);
+        Assert.assertEquals(46.0, bounds.getMaxY(), 0);
+    }
+
+    @Test
+    public void polygonWithHolesTest() {
+        Polygon2D polygon = Polygon2D.fromWKT("POLYGON ((0 0, 10 0, 10 10, 0 10, 0 0), (2 2, 4 2, 4 4, 2 4, 2 2))");
+        Assert.assertEquals(10, polygon.getNumPoints());
+        Assert.assertEquals(2, polygon.getNumRings());
+        Assert.assertTrue(polygon.getPath().contains(1, 1));
+        Assert.assertFalse(polygon.getPath().contains(3, 3));
+        Assert.assertEquals("POLYGON((0.0 0.0,10.0 0.0,10.0 10.0,0.0 10.0,0.0 0.0),(2.0 2.0,4.0 2.0,4.0 4.0,2.0 4.0,2.0 2.0))",
+                            polygon.toWKT());
+    }
+
+    @Test
+    public void multiPolygonTest() {
+        Polygon2D polygon = Polygon2D.fromWKT("MULTIPOLYGON (((30 20, 45 40, 10 40, 30 20)),\n" +
+                                                      "((15 5, 40 10, 10 20, 5 10, 15 5), (20 10, 25 10, 20 12, 20 10)))");
+        Assert.assertEquals(2, polygon.getNumPolygons());
+        Assert.assertEquals(3, polygon.getNumRings());
+        Assert.assertEquals(13, polygon.getNumPoints());
+        Assert.assertTrue(polygon.toWKT().startsWith("MULTIPOLYGON(((30.0 20.0,"));
+        Assert.assertEquals(polygon.toWKT(), Polygon2D.fromWKT(polygon.toWKT()).toWKT());
+    }
+
+    @Test
+    public void coordinatesParsingTest() {
+        Polygon2D polygon = Polygon2D.fromWKT("POLYGON Z((-0.000123 1e-3 5, 123456789.123456789 -2.5E2 5, 0.1 0.2 5))");
+        Assert.assertEquals(3, polygon.getNumPoints());
+        Assert.assertEquals("POLYGON((-1.23E-4 0.001,1.2345678912345679E8 -250.0,0.1 0.2))", polygon.toWKT());
+    }
+
+    @Test
+    public void coordinateListTest() {
+        Polygon2D polygon = Polygon2D.fromWKT("21.5 45.25, 22.75 45.25, 22.75 46.0, 21.5 45.25\n");
+        Assert.assertEquals(4, polygon.getNumPoints());
+        Assert.assertEquals("POLYGON((21.5 45.25,22.75 45.25,22.75 46.0,21.5 45.25))", polygon.toWKT());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void malformedPolygonTest() {
+        Polygon2D.fromWKT("POLYGON((0 0, 1 1, 0 1, 0 0)");
+    }
+
+    @Test
+    public void douglasPeuckerTest() {
+        Polygon2D polygon = noisyRing(2000);
+        Polygon2D simplified = polygon.simplify(200, SimplificationMethod.DOUGLAS_PEUCKER);
+        Assert.assertNotNull(simplified);
+        Assert.assertTrue(simplified.getNumPoints() <= 200);
+        Assert.assertEquals(2, simplified.getNumRings());
+        Assert.assertTrue(simplified.getPath().contains(25, 25));
+        Assert.assertFalse(simplified.getPath().contains(0, 0));
+        Assert.assertSame(polygon, polygon.simplify(polygon.getNumPoints(), SimplificationMethod.DOUGLAS_PEUCKER));
+        // a smooth circle fits the budget with the first tolerance tried, a smaller one is still searched for
+        StringBuilder wkt = new StringBuilder("POLYGON((");
+        for (int i = 0; i < 20000; i++) {
+            double angle = 2 * Math.PI * i / 20000;
+            wkt.append(40 * Math.cos(angle)).append(" ").append(40 * Math.sin(angle)).append(",");
+        }
+        wkt.append("40.0 0.0))");
+        simplified = Polygon2D.fromWKT(wkt.toString()).simplify(1000, SimplificationMethod.DOUGLAS_PEUCKER);
+        // (Douglas-Peucker halves the arcs of a circle: the next smaller tolerance gives more than 1000 points)
+        Assert.assertTrue(simplified.getNumPoints() > 500 && simplified.getNumPoints() <= 1000);
+    }
+
+    @Test
+    public void visvalingamTest() {
+        Polygon2D simplified = noisyRing(2000).simplify(100, SimplificationMethod.VISVALINGAM);
+        Assert.assertNotNull(simplified);
+        Assert.assertTrue(simplified.getNumPoints() <= 100);
+        Assert.assertTrue(simplified.getPath().contains(25, 25));
+        Assert.assertNull(noisyRing(2000).simplify(3, SimplificationMethod.VISVALINGAM));
+    }
+
+    @Test
+    public void convexHullTest() {
+        Polygon2D polygon = Polygon2D.fromWKT("POLYGON((0 0, 5 1, 10 0, 9 5, 10 10, 5 9, 0 10, 1 5, 0 0))");
+        Polygon2D hull = polygon.convexHull();
+        Assert.assertEquals(5, hull.getNumPoints());
+        Assert.assertEquals(polygon.getBounds2D(), hull.getBounds2D());
+        Assert.assertTrue(hull.getPath().contains(0.5, 5));
+        Polygon2D simplified = noisyRing(2000).simplify(50, SimplificationMethod.CONVEX_HULL);
+        Assert.assertNotNull(simplified);
+        Assert.assertTrue(simplified.getNumPoints() <= 50);
+        Assert.assertEquals(1, simplified.getNumRings());
+    }
+
+    @Test
+    public void crossingRingsTest() {
+        // the hole reaches into a bump of the top border, lower than the tolerance
+        StringBuilder wkt = new StringBuilder("POLYGON((0 0,");
+        for (int i = 1; i < 500; i++) {
+            wkt.append(i * 0.2).append(i % 2 == 0 ? " 0.01," : " -0.01,");
+        }
+        wkt.append("100 0,100 50,60 50,55 52,45 52,40 50,0 50,0 0),(45 49,55 49,55 51.5,45 51.5,45 49))");
+        Polygon2D polygon = Polygon2D.fromWKT(wkt.toString());
+        Polygon2D simplified = polygon.simplify(5);
+        Assert.assertNotNull(simplified);
+        Assert.assertTrue(simplified.getNumPoints() < 20);
+        Assert.assertEquals(2, simplified.getNumRings());
+        assertValid(simplified);
+        simplified = polygon.simplify(20, SimplificationMethod.VISVALINGAM);
+        Assert.assertNotNull(simplified);
+        Assert.assertEquals(2, simplified.getNumRings());
+        assertValid(simplified);
+    }
+
+    @Test
+    public void largeRingTest() {
+        // rings above 5000 vertices are checked as well
+        Polygon2D simplified = noisyRing(20000).simplify(6000, SimplificationMethod.VISVALINGAM);
+        Assert.assertNotNull(simplified);
+        Assert.assertTrue(simplified.getNumPoints() > 5000);
+        assertValid(simplified);
+    }
+
+    /**
+     * Checks that no two edges of the polygon intersect, except consecutive edges of a ring at their common vertex.
+     */
+    private static void assertValid(Polygon2D polygon) {
+        List<double[]> rings = new ArrayList<>();
+        Matcher matcher = Pattern.compile("\\(([^()]+)\\)").matcher(polygon.toWKT());
+        while (matcher.find()) {
+            String[] points = matcher.group(1).split(",");
+            double[] ring = new double[points.length << 1];
+            for (int i = 0; i < points.length; i++) {
+                String[] xy = points[i].trim().split(" ");
+                ring[i << 1] = Double.parseDouble(xy[0]);
+                ring[(i << 1) + 1] = Double.parseDouble(xy[1]);
+            }
+            rings.add(ring);
+        }
+        for (int r1 = 0; r1 < rings.size(); r1++) {
+            double[] first = rings.get(r1);
+            int edges1 = (first.length >> 1) - 1;
+            for (int r2 = r1; r2 < rings.size(); r2++) {
+                double[] second = rings.get(r2);
+                int edges2 = (second.length >> 1) - 1;
+                for (int i = 0; i < edges1; i++) {
+                    for (int j = r1 == r2 ? i + 1 : 0; j < edges2; j++) {
+                        if (r1 == r2 && (j == i + 1 || (i == 0 && j == edges1 - 1))) {
+                            continue;
+                        }
+                        Assert.assertFalse("Edges " + i + " of ring " + r1 + " and " + j + " of ring " + r2 + " intersect",
+                                           Line2D.linesIntersect(first[i << 1], first[(i << 1) + 1], first[(i + 1) << 1], first[((i + 1) << 1) + 1],
+                                                                 second[j << 1], second[(j << 1) + 1], second[(j + 1) << 1], second[((j + 1) << 1) + 1]));
+                    }
+                }
+            }
+        }
+    }
+
+    private static Polygon2D noisyRing(int points) {
+        // a circle of radius 40 with a jagged border and a square hole around the origin
+        StringBuilder wkt = new StringBuilder("POLYGON((");
+        for (int i = 0; i < points; i++) {
+            double angle = 2 * Math.PI * i / points;
+            double radius = 40 + (i % 2 == 0 ? 0.01 : -0.01) + Math.sin(angle * 7);
+            wkt.append(radius * Math.cos(angle)).append(" ").append(radius * Math.sin(angle)).append(",");
+        }
+        wkt.append("40.01 0.0),(-2 -2,2 -2,2 2,-2 2,-2 -2))");
+        return Polygon2D.fromWKT(wkt.toString());
+    }
+}
@@ -0,0 +1,78 @@
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.util.AsyncHandler;
+import ro.cs.products.util.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Tests the asynchronous writing and the level checks of the logger.
+ */
+public class LoggerTests {
+
+    @Test
+    public void asyncHandlerTest() throws IOException {
+        Path file = Files.createTempFile("logger", ".log");
+        try {
+            Files.write(file, "previous run\n".getBytes(StandardCharsets.UTF_8));
+            AsyncHandler handler = AsyncHandler.toFile(file.toString(), false);
+            for (int i = 0; i < 20000; i++) {
+                handler.publish(new LogRecord(i % 2 == 0 ? Level.INFO : Level.WARNING, "message " + i));
+            }
+            // all the records published so far are written
+            handler.flush();
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            Assert.assertEquals(20000, lines.size() + handler.getDropped());
+            Assert.assertEquals(0, handler.getDropped());
+            for (int i = 0; i < lines.size(); i++) {
+                Assert.assertTrue(lines.get(i), lines.get(i).endsWith("message " + i));
+            }
+            handler.setLevel(Level.WARNING);
+            handler.publish(new LogRecord(Level.INFO, "discarded"));
+            handler.publish(new LogRecord(Level.SEVERE, "last"));
+            handler.close();
+            handler.publish(new LogRecord(Level.SEVERE, "after close"));
+            lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            Assert.assertEquals(20001, lines.size());
+            Assert.assertTrue(lines.get(20000).endsWith("last"));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    @Test
+    public void levelTest() throws IOException {
+        // debug messages are not written by default, so they are not even built
+        AtomicInteger built = new AtomicInteger();
+        Logger.CustomLogger logger = Logger.getRootLogger();
+        Assert.assertFalse(logger.isDebugEnabled());
+        Assert.assertTrue(Logger.isLoggable(Level.INFO));
+        logger.debug(() -> "built " + built.incrementAndGet());
+        Assert.assertEquals(0, built.get());
+
+        // a product logger writes the levels of the root logger when it is created
+        java.util.logging.Logger root = java.util.logging.Logger.getLogger(java.util.logging.Logger.GLOBAL_LOGGER_NAME);
+        Level rootLevel = root.getLevel();
+        Path file = Files.createTempFile("logger", ".log");
+        try {
+            root.setLevel(Level.INFO);
+            try (Logger.ScopeLogger scopeLogger = new Logger.ScopeLogger(file.toString())) {
+                scopeLogger.debug(() -> "built " + built.incrementAndGet());
+                scopeLogger.info("%s of %s", 1, 2);
+            }
+            Assert.assertEquals(0, built.get());
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            Assert.assertTrue(lines.get(lines.size() - 1).endsWith("1 of 2"));
+        } finally {
+            root.setLevel(rootLevel);
+            Files.delete(file);
+        }
+    }
+}
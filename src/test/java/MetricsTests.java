@@ -0,0 +1,181 @@
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.util.Metrics;
+import ro.cs.products.util.RequestTrace;
+import ro.cs.products.util.TraceSummary;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Tests the metrics registry, the request traces and their exports.
+ */
+public class MetricsTests {
+
+    @Test
+    public void histogramTest() {
+        Metrics.Histogram histogram = Metrics.histogram("test_histogram_seconds", "host", "histogram.test");
+        Random random = new Random(5);
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; i++) {
+            // from microseconds to seconds
+            values[i] = (long) Math.pow(10, 3 + 6 * random.nextDouble());
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+        Assert.assertEquals(values.length, histogram.getCount());
+        Assert.assertEquals(values[0], histogram.getMin());
+        Assert.assertEquals(values[values.length - 1], histogram.getMax());
+        for (double quantile : new double[] { 0.01, 0.5, 0.9, 0.99, 0.999 }) {
+            long expected = values[(int) Math.ceil(quantile * values.length) - 1];
+            Assert.assertEquals(expected, histogram.getPercentile(quantile), expected / 16.0);
+        }
+        Assert.assertEquals(values[values.length - 1], histogram.getPercentile(1.0));
+        // small values are exact
+        Metrics.Histogram small = Metrics.histogram("test_small_seconds");
+        for (int i = 0; i < 40; i++) {
+            small.record(i);
+        }
+        Assert.assertEquals(19, small.getPercentile(0.5));
+        Assert.assertSame(histogram, Metrics.histogram("test_histogram_seconds", "host", "histogram.test"));
+    }
+
+    @Test
+    public void exportTest() throws IOException {
+        Metrics.counter("test_bytes_total", "store", "AWS").add(1024);
+        Metrics.counter("test_bytes_total", "store", "SCIHUB").add(10);
+        Metrics.counter("test_bytes_total", "store", "AWS").increment();
+        Metrics.gauge("test_in_flight").set(3);
+        Metrics.histogram("test_transfer_seconds", "host", "export \"test\"").record(2_000_000_000L);
+        Path folder = Files.createTempDirectory("metrics");
+        try {
+            Path text = folder.resolve("metrics.prom");
+            Metrics.export(text);
+            List<String> lines = Files.readAllLines(text, StandardCharsets.UTF_8);
+            Assert.assertTrue(lines.contains("# TYPE test_bytes_total counter"));
+            Assert.assertTrue(lines.contains("test_bytes_total{store=\"AWS\"} 1025"));
+            Assert.assertTrue(lines.contains("test_bytes_total{store=\"SCIHUB\"} 10"));
+            Assert.assertTrue(lines.contains("test_in_flight 3"));
+            Assert.assertTrue(lines.contains("# TYPE test_transfer_seconds summary"));
+            Assert.assertTrue(lines.contains("test_transfer_seconds_count{host=\"export \\\"test\\\"\"} 1"));
+            Assert.assertTrue(lines.stream().anyMatch(l -> l.startsWith("test_transfer_seconds{host=\"export \\\"test\\\"\",quantile=\"0.99\"} 2.0")));
+            // a single type line per metric name
+            Assert.assertEquals(1, lines.stream().filter(l -> l.equals("# TYPE test_bytes_total counter")).count());
+
+            Path json = folder.resolve("metrics.json");
+            Metrics.export(json);
+            try (JsonReader reader = Json.createReader(Files.newBufferedReader(json, StandardCharsets.UTF_8))) {
+                JsonArray metrics = reader.readObject().getJsonArray("metrics");
+                JsonObject transfer = metrics.getValuesAs(JsonObject.class).stream()
+                        .filter(m -> m.getString("name").equals("test_transfer_seconds"))
+                        .findFirst().get();
+                Assert.assertEquals("summary", transfer.getString("type"));
+                Assert.assertEquals("export \"test\"", transfer.getJsonObject("labels").getString("host"));
+                Assert.assertEquals(1, transfer.getInt("count"));
+                Assert.assertEquals(2.0, transfer.getJsonNumber("p50").doubleValue(), 2.0 / 16);
+                Assert.assertEquals(2.0, transfer.getJsonNumber("p999").doubleValue(), 2.0 / 16);
+                Assert.assertEquals(2.0, transfer.getJsonNumber("max").doubleValue(), 1e-9);
+            }
+        } finally {
+            try (java.util.stream.Stream<Path> files = Files.list(folder)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.delete(folder);
+        }
+        Assert.assertEquals("scihub.copernicus.eu", Metrics.host("https://user@scihub.copernicus.eu/dhus/odata/v1?x=1"));
+    }
+
+    @Test
+    public void traceTest() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        Path folder = Files.createTempDirectory("metrics");
+        try {
+            byte[] data = new byte[100000];
+            server.createContext("/", exchange -> {
+                boolean found = exchange.getRequestURI().getPath().endsWith(".jp2");
+                exchange.sendResponseHeaders(found ? 200 : 404, found ? data.length : -1);
+                try (OutputStream outputStream = exchange.getResponseBody()) {
+                    if (found) {
+                        outputStream.write(data);
+                    }
+                }
+            });
+            server.start();
+            String url = "http://127.0.0.1:" + server.getAddress().getPort();
+            Path file = folder.resolve("trace.jsonl");
+            Assert.assertFalse(RequestTrace.isEnabled());
+            RequestTrace.enable(file);
+            try {
+                for (String path : new String[] { "/tiles/B01.jp2", "/tiles/B02.jp2?x=1", "/tiles/MTD_TL.xml" }) {
+                    RequestTrace trace = RequestTrace.start(url + path);
+                    HttpURLConnection connection = (HttpURLConnection) new URL(url + path).openConnection();
+                    trace.prepare(connection);
+                    connection.connect();
+                    trace.connected();
+                    trace.responded(connection.getResponseCode());
+                    if (connection.getResponseCode() == 200) {
+                        try (InputStream inputStream = connection.getInputStream()) {
+                            long total = 0;
+                            while (inputStream.read() >= 0) {
+                                total++;
+                            }
+                            trace.transferred(total);
+                        }
+                    }
+                    trace.close();
+                    // written once
+                    trace.close();
+                }
+            } finally {
+                RequestTrace.disable();
+            }
+            // disabled traces do nothing
+            RequestTrace.start(url).close();
+
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            Assert.assertEquals(3, lines.size());
+            try (JsonReader reader = Json.createReader(new java.io.StringReader(lines.get(1)))) {
+                JsonObject trace = reader.readObject();
+                Assert.assertEquals("127.0.0.1:" + server.getAddress().getPort(), trace.getString("host"));
+                Assert.assertEquals("jp2", trace.getString("type"));
+                Assert.assertEquals(200, trace.getInt("status"));
+                Assert.assertEquals(data.length, trace.getInt("bytes"));
+                Assert.assertFalse(trace.containsKey("reused"));
+                long phases = 0;
+                for (String phase : new String[] { "dns", "connect", "tls", "wait", "transfer" }) {
+                    Assert.assertTrue(phase, trace.getJsonNumber(phase).longValue() >= 0);
+                    phases += trace.getJsonNumber(phase).longValue();
+                }
+                Assert.assertEquals(trace.getJsonNumber("total").longValue(), phases);
+            }
+
+            TraceSummary summary = new TraceSummary();
+            summary.read(file);
+            String text = summary.format();
+            Assert.assertTrue(text, text.matches("(?s).*\\n127\\.0\\.0\\.1:\\d+ +3 +1 +0\\.2 .*"));
+            Assert.assertTrue(text, text.matches("(?s).*\\njp2 +2 +0 +0\\.2 .*"));
+            Assert.assertTrue(text, text.matches("(?s).*\\nxml +1 +1 +0\\.0 .*"));
+        } finally {
+            server.stop(0);
+            try (java.util.stream.Stream<Path> files = Files.list(folder)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.delete(folder);
+        }
+    }
+}
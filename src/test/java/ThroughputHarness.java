@@ -0,0 +1,161 @@
+import ro.cs.products.Executor;
+import ro.cs.products.util.Metrics;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end measure of the downloader: synthetic products are served by a {@link FakeServer} and searched and
+ * downloaded from SciHub by {@link Executor#execute(String[])}, as from the command line. Each round reports
+ * the transfer rate (MB/s), the request rate and the 99th percentile of the time to the first byte of a file.
+ * The first round includes the warm-up of the JVM.
+ *
+ * Run it with (see README.md for the classpath): <code>java -cp target/test-classes:target/classes:&lt;test classpath&gt; ThroughputHarness
+ * [products] [band size KB] [latency ms] [bandwidth KB/s] [error rate] [rounds]</code>
+ *
+ * @author Cosmin Cara
+ */
+public class ThroughputHarness {
+
+    public static void main(String[] args) throws Exception {
+        int products = Integer.parseInt(argument(args, 0, "4"));
+        int bandSize = Integer.parseInt(argument(args, 1, "1024")) * 1024;
+        long latency = Long.parseLong(argument(args, 2, "0"));
+        long bandwidth = Long.parseLong(argument(args, 3, "0")) * 1024;
+        double errorRate = Double.parseDouble(argument(args, 4, "0"));
+        int rounds = Integer.parseInt(argument(args, 5, "3"));
+        Path folder = Files.createTempDirectory("harness");
+        try {
+            Path fixtures = Files.createDirectories(folder.resolve("fixtures"));
+            FakeProducts.create(fixtures, products, bandSize);
+            Path tileShapes = FakeProducts.tileShapes(folder);
+            try (FakeServer server = new FakeServer(fixtures)) {
+                server.setLatency(latency);
+                server.setBandwidth(bandwidth);
+                server.setErrorRate(errorRate);
+                for (int round = 1; round <= rounds; round++) {
+                    Path output = folder.resolve("out" + round);
+                    Result result = run(server, tileShapes, output, products);
+                    System.out.println(String.format("Round %d: %s", round, result));
+                    delete(output);
+                }
+            }
+        } finally {
+            delete(folder);
+        }
+        System.exit(0);
+    }
+
+    /**
+     * Downloads (at most) the given number of products from the server, into the given folder.
+     *
+     * @param options   Additional command line options
+     */
+    static Result run(FakeServer server, Path tileShapes, Path output, int products, String... options) throws Exception {
+        Files.createDirectories(output);
+        String[] args = String.format("--out %s --shapetiles %s --tiles %s --user user --password password --store SCIHUB --limit %d",
+                                      output, tileShapes, FakeProducts.TILE, products).split(" ");
+        if (options.length > 0) {
+            args = Arrays.copyOf(args, args.length + options.length);
+            System.arraycopy(options, 0, args, args.length - options.length, options.length);
+        }
+        Properties previous = setSystemProperties(server.getStoreProperties());
+        try {
+            Metrics.clear();
+            long requests = server.getRequests();
+            long bytes = server.getBytes();
+            long errors = server.getErrors();
+            long start = System.nanoTime();
+            int retCode = Executor.execute(args);
+            long elapsed = System.nanoTime() - start;
+            long firstByte = Metrics.histogram("download_first_byte_seconds", "host", Metrics.host(server.getUrl())).getPercentile(0.99);
+            return new Result(retCode, elapsed, server.getRequests() - requests, server.getBytes() - bytes,
+                              server.getErrors() - errors, firstByte);
+        } finally {
+            setSystemProperties(previous);
+        }
+    }
+
+    /**
+     * Sets the given system properties (a null value clearing the property).
+     *
+     * @return  The previous values
+     */
+    static Properties setSystemProperties(Properties properties) {
+        Properties previous = new Properties();
+        for (String name : properties.stringPropertyNames()) {
+            String value = properties.getProperty(name);
+            String old = value != null && !value.isEmpty() ? System.setProperty(name, value) : System.clearProperty(name);
+            previous.setProperty(name, old != null ? old : "");
+        }
+        return previous;
+    }
+
+    private static String argument(String[] args, int index, String defaultValue) {
+        return args.length > index ? args[index] : defaultValue;
+    }
+
+    private static void delete(Path folder) throws IOException {
+        if (!Files.exists(folder)) {
+            return;
+        }
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * The outcome of a run.
+     */
+    static class Result {
+        final int retCode;
+        final long elapsedNanos;
+        final long requests;
+        final long bytes;
+        final long errors;
+        final long firstByteNanos;
+
+        Result(int retCode, long elapsedNanos, long requests, long bytes, long errors, long firstByteNanos) {
+            this.retCode = retCode;
+            this.elapsedNanos = elapsedNanos;
+            this.requests = requests;
+            this.bytes = bytes;
+            this.errors = errors;
+            this.firstByteNanos = firstByteNanos;
+        }
+
+        double megabytesPerSecond() {
+            return (double) bytes / (1 << 20) / (elapsedNanos / 1e9);
+        }
+
+        double requestsPerSecond() {
+            return requests / (elapsedNanos / 1e9);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%.2f MB/s, %.1f requests/s, p99 first byte %d ms " +
+                                         "(%d requests, %d bytes, %d errors in %d ms, return code %d)",
+                                 megabytesPerSecond(), requestsPerSecond(), TimeUnit.NANOSECONDS.toMillis(firstByteNanos),
+                                 requests, bytes, errors, TimeUnit.NANOSECONDS.toMillis(elapsedNanos), retCode);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.Assert;
+import org.junit.Test;
+import ro.cs.products.landsat.SceneCorners;
+import ro.cs.products.util.Polygon2D;
+import ro.cs.products.util.RemoteTiff;
+
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Tests the cropping of remote tiled GeoTIFFs and the location of areas in Landsat scenes.
+ */
+public class TiffTests {
+    private static final int WIDTH = 1000;
+    private static final int HEIGHT = 700;
+    private static final int TILE_SIZE = 256;
+    private static final double[] TIE_POINT = { 0, 0, 0, 500000, 5000000, 0 };
+    private static final double[] PIXEL_SCALE = { 30, 30, 0 };
+    private static final short[] GEO_KEYS = { 1, 1, 0, 3, 1024, 0, 1, 1, 1025, 0, 1, 1, 3072, 0, 1, 32635 };
+
+    @Test
+    public void cropTest() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        Path folder = Files.createTempDirectory("tiff");
+        try {
+            byte[] little = cog(ByteOrder.LITTLE_ENDIAN);
+            byte[] big = cog(ByteOrder.BIG_ENDIAN);
+            AtomicLong served = new AtomicLong();
+            server.createContext("/little", exchange -> serve(exchange.getRequestHeaders().getFirst("Range"), little,
+                                                                exchange, served));
+            server.createContext("/big", exchange -> serve(exchange.getRequestHeaders().getFirst("Range"), big,
+                                                             exchange, served));
+            server.createContext("/whole", exchange -> serve(null, little, exchange, served));
+            server.start();
+            String url = "http://127.0.0.1:" + server.getAddress().getPort();
+
+            Assert.assertNull(RemoteTiff.open(url + "/whole", null));
+
+            RemoteTiff tiff = RemoteTiff.open(url + "/little", null);
+            Assert.assertNotNull(tiff);
+            Assert.assertEquals(WIDTH, tiff.getWidth());
+            Assert.assertEquals(HEIGHT, tiff.getHeight());
+            Assert.assertEquals(TILE_SIZE, tiff.getTileWidth());
+            served.set(0);
+            Path file = folder.resolve("window.tif");
+            Rectangle bounds = tiff.crop(new Rectangle(300, 300, 300, 100), file);
+            Assert.assertEquals(new Rectangle(256, 256, 512, 256), bounds);
+            assertCrop(file, bounds);
+            // two tiles out of twelve, in a single request
+            Assert.assertTrue(served.get() <= 2 * TILE_SIZE * TILE_SIZE * 2);
+
+            // a window across the edges of the image, from a big endian file
+            tiff = RemoteTiff.open(url + "/big", null);
+            bounds = tiff.crop(new Rectangle(900, 600, 200, 200), file);
+            Assert.assertEquals(new Rectangle(768, 512, 232, 188), bounds);
+            assertCrop(file, bounds);
+
+            Assert.assertNull(tiff.crop(new Rectangle(WIDTH, 0, 10, 10), folder.resolve("outside.tif")));
+            Assert.assertFalse(Files.exists(folder.resolve("outside.tif")));
+        } finally {
+            server.stop(0);
+            try (Stream<Path> files = Files.list(folder)) {
+                files.forEach(f -> f.toFile().delete());
+            }
+            Files.delete(folder);
+        }
+    }
+
+    @Test
+    public void windowTest() throws IOException {
+        // a scene tilted as the Landsat-8 ones
+        double[] ul = { 24.0, 46.0 }, ur = { 26.4, 45.6 }, ll = { 23.5, 44.3 }, lr = { 25.9, 43.9 };
+        Path metadata = Files.createTempFile("scene", "_MTL.txt");
+        try {
+            Files.write(metadata, ("GROUP = PRODUCT_METADATA\n" +
+                    "    CORNER_UL_LAT_PRODUCT = " + ul[1] + "\n    CORNER_UL_LON_PRODUCT = " + ul[0] + "\n" +
+                    "    CORNER_UR_LAT_PRODUCT = " + ur[1] + "\n    CORNER_UR_LON_PRODUCT = " + ur[0] + "\n" +
+                    "    CORNER_LL_LAT_PRODUCT = " + ll[1] + "\n    CORNER_LL_LON_PRODUCT = " + ll[0] + "\n" +
+                    "    CORNER_LR_LAT_PRODUCT = " + lr[1] + "\n    CORNER_LR_LON_PRODUCT = " + lr[0] + "\n" +
+                    "END_GROUP = PRODUCT_METADATA\n").getBytes());
+            SceneCorners corners = SceneCorners.read(metadata);
+            double[] position = corners.toImage(ur[0], ur[1]);
+            Assert.assertEquals(1.0, position[0], 1e-9);
+            Assert.assertEquals(0.0, position[1], 1e-9);
+            // the point at 25% of the width and 75% of the height
+            double lon = 0.1875 * ul[0] + 0.0625 * ur[0] + 0.5625 * ll[0] + 0.1875 * lr[0];
+            double lat = 0.1875 * ul[1] + 0.0625 * ur[1] + 0.5625 * ll[1] + 0.1875 * lr[1];
+            position = corners.toImage(lon, lat);
+            Assert.assertEquals(0.25, position[0], 1e-9);
+            Assert.assertEquals(0.75, position[1], 1e-9);
+
+            Polygon2D area = new Polygon2D();
+            area.append(lon - 0.01, lat - 0.01);
+            area.append(lon + 0.01, lat - 0.01);
+            area.append(lon + 0.01, lat + 0.01);
+            area.append(lon - 0.01, lat + 0.01);
+            area.append(lon - 0.01, lat - 0.01);
+            Assert.assertTrue(corners.intersects(area));
+            Rectangle window = corners.window(area, 8000, 8000);
+            Assert.assertTrue(window.contains(2000, 6000));
+            Assert.assertTrue(window.width < 250 && window.height < 250);
+
+            Polygon2D outside = new Polygon2D();
+            outside.append(30, 46);
+            outside.append(31, 46);
+            outside.append(31, 47);
+            outside.append(30, 46);
+            Assert.assertFalse(corners.intersects(outside));
+            Assert.assertNull(corners.window(outside, 8000, 8000));
+        } finally {
+            Files.delete(metadata);
+        }
+    }
+
+    /**
+     * Checks the size, the georeferencing and the pixels of a cropped image.
+     */
+    private static void assertCrop(Path file, Rectangle bounds) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        buffer.order(buffer.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        Assert.assertEquals(42, buffer.getShort(2));
+        Map<Integer, long[]> fields = new HashMap<>();
+        Map<Integer, double[]> doubles = new HashMap<>();
+        int directory = buffer.getInt(4);
+        int count = buffer.getShort(directory);
+        for (int i = 0; i < count; i++) {
+            int entry = directory + 2 + i * 12;
+            int tag = buffer.getShort(entry) & 0xFFFF;
+            int type = buffer.getShort(entry + 2);
+            int length = buffer.getInt(entry + 4);
+            int size = type == 3 ? 2 : type == 4 ? 4 : 8;
+            int offset = length * size <= 4 ? entry + 8 : buffer.getInt(entry + 8);
+            long[] values = new long[length];
+            double[] doubleValues = new double[length];
+            for (int j = 0; j < length; j++) {
+                if (type == 3) {
+                    values[j] = buffer.getShort(offset + j * 2) & 0xFFFF;
+                } else if (type == 4) {
+                    values[j] = buffer.getInt(offset + j * 4) & 0xFFFFFFFFL;
+                } else {
+                    doubleValues[j] = buffer.getDouble(offset + j * 8);
+                }
+            }
+            fields.put(tag, values);
+            doubles.put(tag, doubleValues);
+        }
+        Assert.assertEquals(bounds.width, fields.get(256)[0]);
+        Assert.assertEquals(bounds.height, fields.get(257)[0]);
+        Assert.assertEquals(GEO_KEYS.length, fields.get(34735).length);
+        Assert.assertEquals(32635, fields.get(34735)[GEO_KEYS.length - 1]);
+        Assert.assertArrayEquals(PIXEL_SCALE, doubles.get(33550), 0);
+        Assert.assertArrayEquals(new double[] { 0, 0, 0, TIE_POINT[3] + bounds.x * PIXEL_SCALE[0],
+                                                TIE_POINT[4] - bounds.y * PIXEL_SCALE[1], 0 }, doubles.get(33922), 0);
+        long[] offsets = fields.get(324);
+        int across = (bounds.width + TILE_SIZE - 1) / TILE_SIZE;
+        Assert.assertEquals(across * ((bounds.height + TILE_SIZE - 1) / TILE_SIZE), offsets.length);
+        for (int y = 0; y < bounds.height; y += 7) {
+            for (int x = 0; x < bounds.width; x += 5) {
+                int tile = (y / TILE_SIZE) * across + x / TILE_SIZE;
+                int position = (int) offsets[tile] + ((y % TILE_SIZE) * TILE_SIZE + x % TILE_SIZE) * 2;
+                Assert.assertEquals(pixel(bounds.x + x, bounds.y + y), buffer.getShort(position) & 0xFFFF);
+            }
+        }
+    }
+
+    private static int pixel(int x, int y) {
+        return (x * 3 + y * 7) & 0xFFFF;
+    }
+
+    /**
+     * Builds a cloud optimized GeoTIFF (directory first, then the tiles) of 16-bit, uncompressed pixels.
+     */
+    private static byte[] cog(ByteOrder order) {
+        int across = (WIDTH + TILE_SIZE - 1) / TILE_SIZE;
+        int down = (HEIGHT + TILE_SIZE - 1) / TILE_SIZE;
+        int tileLength = TILE_SIZE * TILE_SIZE * 2;
+        int fieldCount = 13;
+        int valuesOffset = 8 + 2 + fieldCount * 12 + 4;
+        int tileOffsetsOffset = valuesOffset;
+        int byteCountsOffset = tileOffsetsOffset + across * down * 4;
+        int geoKeysOffset = byteCountsOffset + across * down * 4;
+        int scaleOffset = geoKeysOffset + GEO_KEYS.length * 2;
+        int tiePointOffset = scaleOffset + PIXEL_SCALE.length * 8;
+        int dataOffset = tiePointOffset + TIE_POINT.length * 8;
+        ByteBuffer buffer = ByteBuffer.allocate(dataOffset + across * down * tileLength).order(order);
+        buffer.put(order == ByteOrder.LITTLE_ENDIAN ? (byte) 'I' : (byte) 'M');
+        buffer.put(buffer.get(0));
+        buffer.putShort((short) 42).putInt(8).putShort((short) fieldCount);
+        field(buffer, 256, 4, 1, WIDTH);
+        field(buffer, 257, 4, 1, HEIGHT);
+        field(buffer, 258, 3, 1, 16);
+        field(buffer, 259, 3, 1, 1);
+        field(buffer, 262, 3, 1, 1);
+        field(buffer, 277, 3, 1, 1);
+        field(buffer, 322, 3, 1, TILE_SIZE);
+        field(buffer, 323, 3, 1, TILE_SIZE);
+        field(buffer, 324, 4, across * down, tileOffsetsOffset);
+        field(buffer, 325, 4, across * down, byteCountsOffset);
+        field(buffer, 33550, 12, PIXEL_SCALE.length, scaleOffset);
+        field(buffer, 33922, 12, TIE_POINT.length, tiePointOffset);
+        field(buffer, 34735, 3, GEO_KEYS.length, geoKeysOffset);
+        buffer.putInt(0);
+        for (int i = 0; i < across * down; i++) {
+            buffer.putInt(dataOffset + i * tileLength);
+        }
+        for (int i = 0; i < across * down; i++) {
+            buffer.putInt(tileLength);
+        }
+        for (short key : GEO_KEYS) {
+            buffer.putShort(key);
+        }
+        for (double value : PIXEL_SCALE) {
+            buffer.putDouble(value);
+        }
+        for (double value : TIE_POINT) {
+            buffer.putDouble(value);
+        }
+        for (int row = 0; row < down; row++) {
+            for (int column = 0; column < across; column++) {
+                for (int y = 0; y < TILE_SIZE; y++) {
+                    for (int x = 0; x < TILE_SIZE; x++) {
+                        buffer.putShort((short) pixel(column * TILE_SIZE + x, row * TILE_SIZE + y));
+                    }
+                }
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void field(ByteBuffer buffer, int tag, int type, int count, int value) {
+        buffer.putShort((short) tag).putShort((short) type).putInt(count);
+        if (type == 3 && count == 1) {
+            buffer.putShort((short) value).putShort((short) 0);
+        } else {
+            buffer.putInt(value);
+        }
+    }
+
+    /**
+     * Answers with the requested range of the data or, if no range is requested, with all of it.
+     */
+    private static void serve(String range, byte[] data, HttpExchange exchange, AtomicLong served) throws IOException {
+        int start = 0, end = data.length - 1;
+        if (range != null) {
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            start = Integer.parseInt(bounds[0]);
+            end = bounds[1].isEmpty() ? end : Math.min(end, Integer.parseInt(bounds[1]));
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+        }
+        // counted before the response is sent, otherwise the client could read the count before it is updated
+        served.addAndGet(end - start + 1);
+        exchange.sendResponseHeaders(range != null ? 206 : 200, end - start + 1);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(data, start, end - start + 1);
+        }
+    }
+}